@@ -0,0 +1,549 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+/**
+ * A table-based asymmetric numeral system (tANS) coder, the entropy coder
+ * of FSE and zstd, as a backend to use in place of the Huffman codes.
+ * A Huffman code spends a whole number of bits on every value, so a value
+ * that is almost always there still costs a bit. A tANS coder keeps a
+ * state from one value to the next and spends fractions of a bit.
+ * Decoding a value is one table lookup, a read of the bits it names, and
+ * an add, with no tree to walk and no branch on the value.
+ * <P>
+ * The histogram the processor counts is normalized so the counts add up
+ * to the table size, 2 to the table log, with every value that occurs
+ * getting at least 1. The values are spread over the table, and the
+ * encoding and decoding tables are built from the spread.
+ * <P>
+ * The output is a STORE_ANS file. After the magic number and the format
+ * constant come the table log and the normalized counts in the format of
+ * STORE_COMPACT_COUNTS. Then come blocks of up to BLOCK_SIZE values. Each
+ * block has its number of values, its number of coded bytes, and the
+ * coded bytes. A block is coded from the last value to the first, so it
+ * starts with the final state and the decoder reads it forward. A block
+ * of 0 values ends the file.
+ * <P>
+ * To compare the coder with Huffman coding on a file:
+ * <pre>java AnsCoder file [tableLog]</pre>
+ */
+public class AnsCoder implements CompressionStage, IHuffConstants {
+
+    /**
+     * The smallest table log, a table with room for every value.
+     */
+    public static final int MIN_TABLE_LOG = BITS_PER_WORD;
+
+    /**
+     * The largest table log.
+     */
+    public static final int MAX_TABLE_LOG = 15;
+
+    /**
+     * The table log used when none is given.
+     */
+    public static final int DEFAULT_TABLE_LOG = 11;
+
+    /**
+     * The most values in a block.
+     */
+    public static final int BLOCK_SIZE = 1 << 17;
+
+    // the number of bits needed is kept in the bits above this in deltaNbBits
+    private static final int NB_SHIFT = 16;
+    // table logs compared by main when none is given
+    private static final int[] SAMPLE_TABLE_LOGS = {9, DEFAULT_TABLE_LOG, 13};
+
+    private final int tableLog;
+    // the count of each value in the table, long for CompactCounts
+    private final long[] normalized;
+    // the state after coding each value from each range of states
+    private final int[] stateTable;
+    // per value, to find the bits a state gives up and the next state
+    private final int[] deltaNbBits;
+    private final int[] deltaFindState;
+    // the bits and number of bits of every value of a block, and its coded bytes
+    private final int[] codes;
+    private final byte[] lengths;
+    private final byte[] block;
+    private final byte[] coded;
+
+    /**
+     * Create a coder for a histogram with the default table log.
+     * pre: counts != null, counts.length >= ALPH_SIZE, all counts >= 0
+     * @param counts the count of each value, such as the frequencies counted
+     * by preprocessCompress. Any PSEUDO_EOF entry is ignored.
+     */
+    public AnsCoder(long[] counts) {
+        this(counts, DEFAULT_TABLE_LOG);
+    }
+
+    /**
+     * Create a coder for a histogram.
+     * pre: counts != null, counts.length >= ALPH_SIZE, all counts >= 0,
+     * MIN_TABLE_LOG <= tableLog <= MAX_TABLE_LOG
+     * @param counts the count of each value. Any PSEUDO_EOF entry is ignored.
+     * @param tableLog the log of the table size. Larger tables come closer
+     * to the entropy but take longer to build and fit the caches less well.
+     */
+    public AnsCoder(long[] counts, int tableLog) {
+        // check preconditions
+        if (counts == null || counts.length < ALPH_SIZE) {
+            throw new IllegalArgumentException("counts must have at least ALPH_SIZE values.");
+        }
+        if (tableLog < MIN_TABLE_LOG || tableLog > MAX_TABLE_LOG) {
+            throw new IllegalArgumentException("tableLog must be from " + MIN_TABLE_LOG
+                    + " to " + MAX_TABLE_LOG + ".");
+        }
+        this.tableLog = tableLog;
+        normalized = normalize(counts, tableLog);
+        int size = 1 << tableLog;
+        stateTable = new int[size];
+        deltaNbBits = new int[ALPH_SIZE];
+        deltaFindState = new int[ALPH_SIZE];
+        if (total(normalized) > 0) {
+            buildEncodingTable(spread(normalized, tableLog));
+        }
+        codes = new int[BLOCK_SIZE];
+        lengths = new byte[BLOCK_SIZE];
+        block = new byte[BLOCK_SIZE];
+        coded = new byte[maxCodedBytes(tableLog)];
+    }
+
+    /**
+     * Scale a histogram so the counts add up to the table size, giving every
+     * value that occurs a count of at least 1. Rounding is corrected a count
+     * at a time on the value where it costs the fewest bits.
+     * @param counts the count of each value
+     * @param tableLog the log of the table size
+     * @return the normalized count of each value, ALPH_SIZE long, all 0 if
+     * no value occurs
+     */
+    private static long[] normalize(long[] counts, int tableLog) {
+        long[] result = new long[ALPH_SIZE];
+        long size = 1 << tableLog;
+        double total = 0;
+        for (int i = 0; i < ALPH_SIZE; i++) {
+            if (counts[i] < 0) {
+                throw new IllegalArgumentException("counts cannot be negative.");
+            }
+            total += counts[i];
+        }
+        if (total == 0) {
+            return result;
+        }
+        long sum = 0;
+        for (int i = 0; i < ALPH_SIZE; i++) {
+            if (counts[i] > 0) {
+                result[i] = Math.max(1, Math.round(counts[i] * (double) size / total));
+                sum += result[i];
+            }
+        }
+        while (sum > size) {
+            // take a count from the value that loses the fewest bits by it
+            int best = -1;
+            double bestCost = Double.MAX_VALUE;
+            for (int i = 0; i < ALPH_SIZE; i++) {
+                if (result[i] > 1) {
+                    double cost = counts[i] * Math.log((double) result[i] / (result[i] - 1));
+                    if (cost < bestCost) {
+                        best = i;
+                        bestCost = cost;
+                    }
+                }
+            }
+            result[best]--;
+            sum--;
+        }
+        while (sum < size) {
+            // give a count to the value that saves the most bits by it
+            int best = -1;
+            double bestGain = -1;
+            for (int i = 0; i < ALPH_SIZE; i++) {
+                if (result[i] > 0) {
+                    double gain = counts[i] * Math.log((double) (result[i] + 1) / result[i]);
+                    if (gain > bestGain) {
+                        best = i;
+                        bestGain = gain;
+                    }
+                }
+            }
+            result[best]++;
+            sum++;
+        }
+        return result;
+    }
+
+    // the sum of the normalized counts
+    private static long total(long[] normalized) {
+        long sum = 0;
+        for (int i = 0; i < ALPH_SIZE; i++) {
+            sum += normalized[i];
+        }
+        return sum;
+    }
+
+    /**
+     * Spread the values over the table, each as many times as its count, with
+     * a step that is odd and so visits every slot once.
+     * @param normalized the count of each value, adding up to the table size
+     * @param tableLog the log of the table size
+     * @return the value in each slot
+     */
+    private static int[] spread(long[] normalized, int tableLog) {
+        int size = 1 << tableLog;
+        int mask = size - 1;
+        int step = (size >>> 1) + (size >>> 3) + 3;
+        int[] values = new int[size];
+        int pos = 0;
+        for (int value = 0; value < ALPH_SIZE; value++) {
+            for (int i = 0; i < normalized[value]; i++) {
+                values[pos] = value;
+                pos = (pos + step) & mask;
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Build the tables that give the bits a state gives up and the next state.
+     * @param values the value in each slot of the table
+     */
+    private void buildEncodingTable(int[] values) {
+        int size = 1 << tableLog;
+        int[] next = new int[ALPH_SIZE];
+        int start = 0;
+        for (int value = 0; value < ALPH_SIZE; value++) {
+            int count = (int) normalized[value];
+            next[value] = start;
+            if (count > 0) {
+                // states below count << maxBits give up one bit less
+                int maxBits = tableLog - log2(count);
+                deltaNbBits[value] = (maxBits << NB_SHIFT) - (count << maxBits);
+                deltaFindState[value] = start - count;
+            }
+            start += count;
+        }
+        for (int slot = 0; slot < size; slot++) {
+            stateTable[next[values[slot]]++] = size + slot;
+        }
+    }
+
+    /**
+     * Build the table a decoder looks a state up in.
+     * @param normalized the count of each value, adding up to the table size
+     * @param tableLog the log of the table size
+     * @return for each state, the value in its top 8 bits, the number of bits
+     * to read in the next 8, and the state the bits are added to in the low 16
+     */
+    private static int[] buildDecodingTable(long[] normalized, int tableLog) {
+        int size = 1 << tableLog;
+        int[] values = spread(normalized, tableLog);
+        int[] next = new int[ALPH_SIZE];
+        for (int value = 0; value < ALPH_SIZE; value++) {
+            next[value] = (int) normalized[value];
+        }
+        int[] table = new int[size];
+        for (int slot = 0; slot < size; slot++) {
+            int value = values[slot];
+            int state = next[value]++;
+            int bits = tableLog - log2(state);
+            table[slot] = value << 24 | bits << NB_SHIFT | ((state << bits) - size);
+        }
+        return table;
+    }
+
+    // the floor of the log base 2 of a positive value
+    private static int log2(int value) {
+        return Integer.SIZE - 1 - Integer.numberOfLeadingZeros(value);
+    }
+
+    // the most bytes a block codes to: the state and up to tableLog bits a value
+    private static int maxCodedBytes(int tableLog) {
+        return (int) (((long) BLOCK_SIZE + 1) * tableLog / BITS_PER_WORD) + 1;
+    }
+
+    public int getHeaderFormat() {
+        return STORE_ANS;
+    }
+
+    /**
+     * Get the log of the table size of this coder.
+     * @return the table log
+     */
+    public int getTableLog() {
+        return tableLog;
+    }
+
+    /**
+     * Estimate the bits compress writes for data with a histogram. The
+     * header and block lengths are exact, and the data is what the
+     * normalized counts would cost an ideal coder, which tANS comes
+     * within a fraction of a percent of.
+     * pre: counts != null, counts.length >= ALPH_SIZE
+     * @param counts the count of each value of the data
+     * @return the estimated number of bits written, a whole number of bytes
+     */
+    public long estimateBits(long[] counts) {
+        long numValues = 0;
+        double dataBits = 0;
+        for (int i = 0; i < ALPH_SIZE; i++) {
+            numValues += counts[i];
+            if (counts[i] > 0) {
+                dataBits += counts[i] * (tableLog - Math.log(normalized[i]) / Math.log(2));
+            }
+        }
+        long blocks = (numValues + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        // magic number, format constant, table log, and the 0 that ends the blocks
+        long bits = BITS_PER_INT * 4 + CompactCounts.bits(normalized);
+        // each block has two lengths and its final state, and ends on a byte
+        bits += blocks * (BITS_PER_INT * 2 + tableLog + BITS_PER_WORD / 2);
+        bits += (long) Math.ceil(dataBits);
+        return (bits + BITS_PER_WORD - 1) / BITS_PER_WORD * BITS_PER_WORD;
+    }
+
+    /**
+     * Compress a stream into a STORE_ANS file. Neither stream is closed.
+     * pre: in != null, out != null
+     * @param in the data to compress, with no value whose count was 0
+     * @param out the stream the compressed file is written to
+     * @return the number of bits written, a whole number of bytes
+     * @throws IOException if an error occurs while reading or writing, or
+     * the data has a value the histogram did not
+     */
+    public long compress(InputStream in, OutputStream out) throws IOException {
+        // check preconditions
+        if (in == null || out == null) {
+            throw new IllegalArgumentException("streams cannot be null.");
+        }
+        BitOutputStream bitsOut = new BitOutputStream(out);
+        bitsOut.writeBits(BITS_PER_INT, MAGIC_NUMBER);
+        bitsOut.writeBits(BITS_PER_INT, STORE_ANS);
+        bitsOut.writeBits(BITS_PER_INT, tableLog);
+        bitsOut.write(CompactCounts.toBytes(normalized));
+        long blocks = 0;
+        int numRead = in.readNBytes(block, 0, BLOCK_SIZE);
+        while (numRead > 0) {
+            HuffPhaseEvent event = HuffPhaseEvent.beginBlock();
+            int codedLength = encodeBlock(numRead);
+            bitsOut.writeBits(BITS_PER_INT, numRead);
+            bitsOut.writeBits(BITS_PER_INT, codedLength);
+            bitsOut.write(coded, 0, codedLength);
+            HuffPhaseEvent.commitBlock(event, STORE_ANS, blocks++, numRead,
+                    BITS_PER_INT * 2 / BITS_PER_WORD + codedLength, 0);
+            numRead = in.readNBytes(block, 0, BLOCK_SIZE);
+        }
+        bitsOut.writeBits(BITS_PER_INT, 0);
+        bitsOut.flush();
+        return bitsOut.getBytesWritten() * BITS_PER_WORD;
+    }
+
+    /**
+     * Code the values of block into coded.
+     * @param length the number of values in block
+     * @return the number of coded bytes
+     * @throws IOException if a value has a normalized count of 0
+     */
+    private int encodeBlock(int length) throws IOException {
+        int size = 1 << tableLog;
+        int state = size;
+        // code from the last value back, so the decoder reads forward
+        for (int i = length - 1; i >= 0; i--) {
+            int value = block[i] & 0xff;
+            if (normalized[value] == 0) {
+                throw new IOException("value " + value + " is not in the histogram.");
+            }
+            int bits = (state + deltaNbBits[value]) >>> NB_SHIFT;
+            codes[i] = state & ((1 << bits) - 1);
+            lengths[i] = (byte) bits;
+            state = stateTable[(state >>> bits) + deltaFindState[value]];
+        }
+        long buffer = state - size;
+        int count = tableLog;
+        int pos = 0;
+        for (int i = 0; i < length; i++) {
+            buffer = buffer << lengths[i] | codes[i];
+            count += lengths[i];
+            while (count >= BITS_PER_WORD) {
+                count -= BITS_PER_WORD;
+                coded[pos++] = (byte) (buffer >>> count);
+            }
+        }
+        if (count > 0) {
+            coded[pos++] = (byte) (buffer << (BITS_PER_WORD - count));
+        }
+        return pos;
+    }
+
+    /**
+     * Uncompress the data of a STORE_ANS file.
+     * @param bitsIn the compressed file, after the magic number and format constant
+     * @param out the stream the uncompressed data is written to, not closed
+     * @return the number of bytes written
+     * @throws IOException if the data is not valid or an error occurs while
+     * reading or writing
+     */
+    static long uncompress(BitInputStream bitsIn, OutputStream out) throws IOException {
+        int tableLog = bitsIn.readBits(BITS_PER_INT);
+        if (tableLog < MIN_TABLE_LOG || tableLog > MAX_TABLE_LOG) {
+            throw new IOException("Error reading compressed file. \n" +
+                    "bad table log " + tableLog);
+        }
+        long[] normalized = CompactCounts.read(bitsIn);
+        long sum = 0;
+        for (int i = 0; i < ALPH_SIZE; i++) {
+            if (normalized[i] > 1 << tableLog) {
+                sum = -1;
+                break;
+            }
+            sum += normalized[i];
+        }
+        if (sum != 1 << tableLog && sum != 0) {
+            throw new IOException("Error reading compressed file. \n" +
+                    "normalized counts do not add up to the table size.");
+        }
+        int[] table = sum == 0 ? null : buildDecodingTable(normalized, tableLog);
+        byte[] coded = new byte[maxCodedBytes(tableLog)];
+        byte[] block = new byte[BLOCK_SIZE];
+        long written = 0;
+        int length = bitsIn.readBits(BITS_PER_INT);
+        while (length != 0) {
+            int codedLength = bitsIn.readBits(BITS_PER_INT);
+            if (length < 0 || length > BLOCK_SIZE || codedLength < 0
+                    || codedLength > coded.length || table == null) {
+                throw new IOException("Error reading compressed file. \n" +
+                        "bad block lengths " + length + " " + codedLength);
+            }
+            readFully(bitsIn, coded, codedLength);
+            decodeBlock(table, tableLog, coded, codedLength, block, length);
+            out.write(block, 0, length);
+            written += length;
+            length = bitsIn.readBits(BITS_PER_INT);
+        }
+        return written;
+    }
+
+    /**
+     * Decode a block.
+     * @param table the decoding table
+     * @param tableLog the log of the table size
+     * @param coded the coded bytes of the block
+     * @param codedLength the number of coded bytes
+     * @param block the array the values are put in
+     * @param length the number of values in the block
+     * @throws IOException if the coded bytes do not decode to the block
+     */
+    private static void decodeBlock(int[] table, int tableLog, byte[] coded, int codedLength,
+            byte[] block, int length) throws IOException {
+        long buffer = 0;
+        int count = 0;
+        int pos = 0;
+        // bytes past the end of the coded bytes read as zeros
+        int padding = 0;
+        while (count < tableLog) {
+            buffer = buffer << BITS_PER_WORD | (coded[pos++] & 0xff);
+            count += BITS_PER_WORD;
+        }
+        count -= tableLog;
+        int state = (int) (buffer >>> count) & ((1 << tableLog) - 1);
+        for (int i = 0; i < length; i++) {
+            int entry = table[state];
+            int bits = (entry >>> NB_SHIFT) & 0xff;
+            if (count < bits) {
+                // top the buffer up to at least 56 bits
+                while (count <= Long.SIZE - BITS_PER_WORD) {
+                    if (pos < codedLength) {
+                        buffer = buffer << BITS_PER_WORD | (coded[pos++] & 0xff);
+                    } else {
+                        buffer <<= BITS_PER_WORD;
+                        padding++;
+                    }
+                    count += BITS_PER_WORD;
+                }
+            }
+            count -= bits;
+            block[i] = (byte) (entry >>> 24);
+            state = (entry & 0xffff) + ((int) (buffer >>> count) & ((1 << bits) - 1));
+        }
+        // a block ends back at the state it was coded from, with only the
+        // bits that fill out its last byte left
+        int left = count - padding * BITS_PER_WORD;
+        if (state != 0 || pos != codedLength || left < 0 || left >= BITS_PER_WORD) {
+            throw new IOException("Error reading compressed file. \n" +
+                    "block did not decode to its values.");
+        }
+    }
+
+    private static void readFully(InputStream in, byte[] b, int len) throws IOException {
+        int off = 0;
+        while (off < len) {
+            int numRead = in.read(b, off, len - off);
+            if (numRead == -1) {
+                throw new EOFException("Error reading compressed file. \n" +
+                        "coded block ended too soon.");
+            }
+            off += numRead;
+        }
+    }
+
+    /**
+     * Compress and uncompress a file with Huffman coding and with tANS
+     * coding at each table log, and print the sizes and speeds.
+     * @param args the file, then optionally the table log
+     * @throws IOException if an error occurs while reading the file
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.out.println("usage: java AnsCoder file [tableLog]");
+            return;
+        }
+        byte[] data = Files.readAllBytes(new File(args[0]).toPath());
+        int[] tableLogs = args.length > 1 ? new int[] {Integer.parseInt(args[1])}
+                : SAMPLE_TABLE_LOGS;
+        int[] freqs = new int[ALPH_SIZE];
+        HuffKernels.histogram(data, 0, data.length, freqs);
+        System.out.printf("entropy: %.4f of the input%n",
+                HuffAnalysis.analyze(freqs).getEntropy() / BITS_PER_WORD);
+        compare(data, "huffman", STORE_COUNTS, 0);
+        for (int tableLog : tableLogs) {
+            compare(data, "tans " + tableLog, STORE_ANS, tableLog);
+        }
+    }
+
+    /**
+     * Compress and uncompress data with a processor and print the size and speeds.
+     * @param data the data to compress
+     * @param name the name printed for the run
+     * @param headerFormat the header format to compress with
+     * @param tableLog the table log of a STORE_ANS run
+     * @throws IOException if an error occurs while compressing
+     */
+    private static void compare(byte[] data, String name, int headerFormat, int tableLog)
+            throws IOException {
+        SimpleHuffProcessor processor = new SimpleHuffProcessor();
+        processor.setViewer(new ErrorViewer());
+        if (tableLog > 0) {
+            processor.setAnsTableLog(tableLog);
+        }
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        long start = System.nanoTime();
+        processor.preprocessCompress(new ByteArrayInputStream(data), headerFormat);
+        long bits = processor.compress(new ByteArrayInputStream(data), compressed, true);
+        long compressNanos = System.nanoTime() - start;
+        ByteArrayOutputStream restored = new ByteArrayOutputStream(data.length);
+        start = System.nanoTime();
+        processor.uncompress(new ByteArrayInputStream(compressed.toByteArray()), restored);
+        long uncompressNanos = System.nanoTime() - start;
+        System.out.printf("%s: %d bytes, %.4f of the input, compress %.1f MB/s, "
+                + "uncompress %.1f MB/s%s%n", name, bits / BITS_PER_WORD,
+                bits / (data.length * 8.0), data.length / (compressNanos / 1e3),
+                data.length / (uncompressNanos / 1e3),
+                Arrays.equals(data, restored.toByteArray()) ? "" : ", ROUND TRIP FAILED");
+    }
+}
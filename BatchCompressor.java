@@ -0,0 +1,674 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * A headless service that compresses or uncompresses many files at once.
+ * Reading and writing files is done on a fixed size pool of I/O threads,
+ * while the coding itself runs on a fixed size pool so the number of files
+ * being coded at once never exceeds the number of coding threads. Jobs
+ * submitted while every I/O thread is busy wait in a queue, so submitting
+ * tens of thousands of files creates no more threads.
+ * <P>
+ * A job that reads its input into memory first reserves twice the size of
+ * the input, for the input and the output, from a fixed memory budget, and
+ * waits on its I/O thread until enough of the budget is free. A job larger
+ * than the whole budget waits until it can have all of it. Every job
+ * uses its own processor from the supplied factory, since a processor keeps
+ * state between preprocessCompress and compress.
+ * <P>
+ * Results are queued as jobs complete and can be taken with <code>take</code>
+ * or <code>poll</code> in completion order, or waited for one at a time with
+ * the futures returned by <code>submit</code>.
+ * <P>
+ * Every job publishes its progress to a <code>HuffProgress</code>, passed to
+ * <code>submit</code> or created for it, which any thread can poll or
+ * cancel. A compress reads its input twice, once to count it and once to
+ * code it, so its progress counts both passes and its total is twice the
+ * size of the input.
+ * <P>
+ * Files larger than IN_MEMORY_LIMIT are not read into memory first. They
+ * are coded straight from a memory-mapped input file to the output file,
+ * so inputs of any size, including over 2 GB, can be coded.
+ */
+public class BatchCompressor implements IHuffConstants, Closeable {
+
+    /**
+     * What a job does with its input file.
+     */
+    public static enum Mode {
+        COMPRESS, UNCOMPRESS
+    }
+
+    /**
+     * The largest input file read into memory before it is coded.
+     */
+    public static final int IN_MEMORY_LIMIT = 1 << 28;
+
+    /**
+     * The number of I/O threads for each coding thread by default.
+     */
+    public static final int IO_THREADS_PER_CODING_THREAD = 2;
+
+    // how often the command line prints progress
+    private static final long PROGRESS_POLL_MILLIS = 1000;
+
+    private final ExecutorService ioPool;
+    private final ExecutorService codingPool;
+    private final Supplier<IHuffProcessor> processors;
+    private final BlockingQueue<Result> completed;
+    // bytes of the memory budget, one permit each
+    private final Semaphore memory;
+    private final int memoryLimit;
+
+    // jobs waiting for a coding thread
+    private final AtomicInteger queued;
+    // jobs submitted that have not completed
+    private final AtomicInteger inFlight;
+
+    private volatile int headerFormat;
+    private volatile boolean force;
+
+    /**
+     * Create a batch service with one coding thread per processor that uses
+     * a SimpleHuffProcessor for each job.
+     */
+    public BatchCompressor() {
+        this(Runtime.getRuntime().availableProcessors(), SimpleHuffProcessor::new);
+    }
+
+    /**
+     * Create a batch service with IO_THREADS_PER_CODING_THREAD I/O threads
+     * for each coding thread, and a memory budget of half the maximum heap,
+     * but no less than twice IN_MEMORY_LIMIT.
+     * pre: codingThreads > 0, processors != null
+     * @param codingThreads the maximum number of files coded at the same time
+     * @param processors creates a new processor for each job
+     */
+    public BatchCompressor(int codingThreads, Supplier<IHuffProcessor> processors) {
+        this(codingThreads, codingThreads * IO_THREADS_PER_CODING_THREAD,
+                (int) Math.min(Integer.MAX_VALUE, Math.max(2L * IN_MEMORY_LIMIT,
+                Runtime.getRuntime().maxMemory() / 2)), processors);
+    }
+
+    /**
+     * Create a batch service.
+     * pre: codingThreads > 0, ioThreads > 0, memoryLimit > 0, processors != null
+     * @param codingThreads the maximum number of files coded at the same time
+     * @param ioThreads the maximum number of files read or written at the same time
+     * @param memoryLimit the most bytes jobs reserve for their inputs and outputs
+     * @param processors creates a new processor for each job
+     */
+    public BatchCompressor(int codingThreads, int ioThreads, int memoryLimit,
+            Supplier<IHuffProcessor> processors) {
+        // check preconditions
+        if (codingThreads <= 0 || ioThreads <= 0 || memoryLimit <= 0 || processors == null) {
+            throw new IllegalArgumentException("codingThreads, ioThreads, and memoryLimit "
+                    + "must be positive and processors cannot be null.");
+        }
+        this.processors = processors;
+        this.memoryLimit = memoryLimit;
+        memory = new Semaphore(memoryLimit);
+        ioPool = Executors.newFixedThreadPool(ioThreads, daemonThreads("huff-io-"));
+        codingPool = Executors.newFixedThreadPool(codingThreads, daemonThreads("huff-coding-"));
+        completed = new LinkedBlockingQueue<>();
+        queued = new AtomicInteger();
+        inFlight = new AtomicInteger();
+        headerFormat = STORE_COUNTS;
+    }
+
+    /**
+     * Set the header format used by jobs submitted after this call.
+     * @param headerFormat the header format passed to preprocessCompress
+     */
+    public void setHeaderFormat(int headerFormat) {
+        this.headerFormat = headerFormat;
+    }
+
+    /**
+     * Set whether jobs submitted after this call force compression.
+     * @param force the force flag passed to compress
+     */
+    public void setForce(boolean force) {
+        this.force = force;
+    }
+
+    /**
+     * Submit one job with progress of its own.
+     * pre: input != null, output != null, mode != null
+     * @param input the file to read
+     * @param output the file to write
+     * @param mode whether to compress or uncompress the input
+     * @return a future holding the result of the job. The same result is
+     * also queued for <code>take</code> and <code>poll</code> when the job completes.
+     */
+    public Future<Result> submit(File input, File output, Mode mode) {
+        return submit(input, output, mode, new HuffProgress());
+    }
+
+    /**
+     * Submit one job that publishes its progress to <code>progress</code>.
+     * Cancelling the progress makes the job fail, at its next update if it
+     * has started.
+     * pre: input != null, output != null, mode != null, progress != null
+     * @param input the file to read
+     * @param output the file to write
+     * @param mode whether to compress or uncompress the input
+     * @param progress the progress of the job, with its total set when the job starts
+     * @return a future holding the result of the job. The same result is
+     * also queued for <code>take</code> and <code>poll</code> when the job completes.
+     */
+    public Future<Result> submit(File input, File output, Mode mode, HuffProgress progress) {
+        // check preconditions
+        if (input == null || output == null || mode == null || progress == null) {
+            throw new IllegalArgumentException("input, output, mode, and progress "
+                    + "cannot be null.");
+        }
+        final Job job = new Job(input, output, mode, headerFormat, force, progress);
+        inFlight.incrementAndGet();
+        return ioPool.submit(new Callable<Result>() {
+            public Result call() {
+                Result result = null;
+                try {
+                    result = run(job);
+                } catch (RuntimeException | Error e) {
+                    // such as a bad path or running out of memory, the job still completes
+                    result = new Result(job);
+                    result.error = e.toString();
+                    job.progress.finish();
+                } finally {
+                    inFlight.decrementAndGet();
+                    completed.add(result);
+                }
+                return result;
+            }
+        });
+    }
+
+    /**
+     * Submit a job for every pair of paths.
+     * pre: paths != null, mode != null
+     * @param paths maps each input file to its output file, submitted in
+     * the iteration order of the map
+     * @param mode whether to compress or uncompress the inputs
+     * @return the futures of the jobs, in submission order
+     */
+    public List<Future<Result>> submitAll(Map<File, File> paths, Mode mode) {
+        // check preconditions
+        if (paths == null) {
+            throw new IllegalArgumentException("paths cannot be null.");
+        }
+        List<Future<Result>> result = new ArrayList<>();
+        for (Map.Entry<File, File> entry : paths.entrySet()) {
+            result.add(submit(entry.getKey(), entry.getValue(), mode));
+        }
+        return result;
+    }
+
+    /**
+     * Wait for the next job to complete.
+     * @return the result of the job, in completion order
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public Result take() throws InterruptedException {
+        return completed.take();
+    }
+
+    /**
+     * Wait a limited time for the next job to complete.
+     * @param timeout how long to wait
+     * @param unit the unit of the timeout
+     * @return the result of the job, or null if none completed in time
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public Result poll(long timeout, TimeUnit unit) throws InterruptedException {
+        return completed.poll(timeout, unit);
+    }
+
+    /**
+     * Get the number of jobs that have read their input and are waiting for
+     * a coding thread.
+     * @return the depth of the coding queue
+     */
+    public int getQueueDepth() {
+        return queued.get();
+    }
+
+    /**
+     * Get the number of bytes of the memory budget reserved by running jobs.
+     * @return the bytes reserved
+     */
+    public int getMemoryInUse() {
+        return memoryLimit - memory.availablePermits();
+    }
+
+    /**
+     * Get the number of jobs submitted that have not completed.
+     * @return the number of jobs in flight
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * Stop accepting jobs, wait for the jobs already submitted to complete,
+     * and stop the threads.
+     * @throws IOException if interrupted while waiting
+     */
+    public void close() throws IOException {
+        ioPool.shutdown();
+        try {
+            ioPool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while waiting for jobs " + e);
+        } finally {
+            ioPool.shutdownNow();
+            codingPool.shutdownNow();
+        }
+    }
+
+    /**
+     * Run a job on the calling I/O thread, handing the coding to the coding pool.
+     * @param job the job to run
+     * @return the result of the job
+     */
+    private Result run(final Job job) {
+        long start = System.nanoTime();
+        Result result = new Result(job);
+        long length = job.input.length();
+        job.progress.setTotalBytes(job.mode == Mode.COMPRESS ? 2 * length : length);
+        try {
+            if (job.progress.isCancelled()) {
+                throw new InterruptedIOException("operation cancelled before it started");
+            }
+            if (length > IN_MEMORY_LIMIT) {
+                result.bytesIn = job.input.length();
+                queued.incrementAndGet();
+                codingPool.submit(new Callable<Void>() {
+                    public Void call() throws IOException {
+                        queued.decrementAndGet();
+                        codeFile(job);
+                        return null;
+                    }
+                }).get();
+                result.bytesOut = job.output.length();
+                result.success = true;
+                result.elapsedNanos = System.nanoTime() - start;
+                job.progress.finish(job.progress.getBytesConsumed(), result.bytesOut);
+                return result;
+            }
+            // the input and an output about as large are held at once
+            int reserved = (int) Math.min(2 * length, memoryLimit);
+            memory.acquire(reserved);
+            try {
+                final byte[] data = Files.readAllBytes(job.input.toPath());
+                result.bytesIn = data.length;
+                queued.incrementAndGet();
+                Future<byte[]> coded = codingPool.submit(new Callable<byte[]>() {
+                    public byte[] call() throws IOException {
+                        queued.decrementAndGet();
+                        return code(job, data);
+                    }
+                });
+                byte[] out = coded.get();
+                Files.write(job.output.toPath(), out);
+                result.bytesOut = out.length;
+                result.success = true;
+            } finally {
+                memory.release(reserved);
+            }
+        } catch (ExecutionException e) {
+            result.error = String.valueOf(e.getCause().getMessage());
+        } catch (IOException e) {
+            result.error = e.toString();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            result.error = "interrupted";
+        }
+        result.elapsedNanos = System.nanoTime() - start;
+        if (result.success) {
+            job.progress.finish(job.progress.getBytesConsumed(), result.bytesOut);
+        } else {
+            job.progress.finish();
+        }
+        return result;
+    }
+
+    /**
+     * Compress or uncompress the data of a job with a new processor.
+     * @param job the job being run
+     * @param data the contents of the input file
+     * @return the contents of the output file
+     * @throws IOException if the processor fails or reports an error
+     */
+    private byte[] code(Job job, final byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        code(job, new Source() {
+            public InputStream open() {
+                return new ByteArrayInputStream(data);
+            }
+        }, out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Compress or uncompress a job from its input file to its output file
+     * with a new processor, without holding either file in memory.
+     * @param job the job being run
+     * @throws IOException if the processor fails or reports an error
+     */
+    private void codeFile(final Job job) throws IOException {
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(job.output))) {
+            code(job, new Source() {
+                public InputStream open() throws IOException {
+                    return new MappedFileInputStream(job.input);
+                }
+            }, out);
+        }
+    }
+
+    // the input of a job, opened once for each pass over it
+    private static interface Source {
+        InputStream open() throws IOException;
+    }
+
+    /*
+     * The progress of one pass over the input of a job, added to the
+     * progress of the whole job. The end of a pass is not the end of the job.
+     */
+    private static class PassProgress extends HuffProgress {
+        private final HuffProgress job;
+        private final long offset;
+
+        private PassProgress(HuffProgress job, long offset) {
+            super(job.getSampleBytes());
+            this.job = job;
+            this.offset = offset;
+        }
+
+        public void update(long consumed, long produced) throws InterruptedIOException {
+            super.update(consumed, produced);
+            job.update(offset + consumed, produced);
+        }
+
+        public void finish(long consumed, long produced) {
+            super.finish(consumed, produced);
+            try {
+                job.update(offset + consumed, produced);
+            } catch (InterruptedIOException e) {
+                // the next pass, if any, stops at its first update
+            }
+        }
+    }
+
+    /**
+     * Compress or uncompress with a new processor.
+     * @param job the job being run
+     * @param in opens a new stream over the input for each pass
+     * @param out the stream the output is written to
+     * @throws IOException if the processor fails or reports an error
+     */
+    private void code(Job job, Source in, OutputStream out)
+            throws IOException {
+        IHuffProcessor processor = processors.get();
+        ErrorViewer viewer = new ErrorViewer();
+        viewer.setModel(processor);
+        long bits;
+        processor.setProgress(new PassProgress(job.progress, 0));
+        if (job.mode == Mode.COMPRESS) {
+            processor.preprocessCompress(in.open(), job.headerFormat);
+            // the second pass picks up where the first left off
+            processor.setProgress(new PassProgress(job.progress,
+                    job.progress.getBytesConsumed()));
+            bits = processor.compress(in.open(), out, job.force);
+        } else {
+            bits = processor.uncompress(in.open(), out);
+        }
+        if (bits < 0) {
+            throw new IOException(viewer.getError());
+        }
+    }
+
+    // create daemon threads so an unclosed service does not keep the VM alive
+    static ThreadFactory daemonThreads(final String prefix) {
+        final AtomicInteger count = new AtomicInteger();
+        return new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread result = new Thread(r, prefix + count.incrementAndGet());
+                result.setDaemon(true);
+                return result;
+            }
+        };
+    }
+
+    /**
+     * Compress, or with -u uncompress, files from the command line, without a GUI.
+     * Output files are named like the GUI names them.
+     * @param args an optional -u followed by the names of the files
+     * @throws Exception if interrupted or an error occurs while closing
+     */
+    public static void main(String[] args) throws Exception {
+        Mode mode = Mode.COMPRESS;
+        int first = 0;
+        if (args.length > 0 && args[0].equals("-u")) {
+            mode = Mode.UNCOMPRESS;
+            first = 1;
+        }
+        if (first == args.length) {
+            System.out.println("usage: java BatchCompressor [-u] file...");
+            return;
+        }
+        try (BatchCompressor batch = new BatchCompressor()) {
+            final List<HuffProgress> progress = new ArrayList<>();
+            final List<Long> sizes = new ArrayList<>();
+            for (int i = first; i < args.length; i++) {
+                String name = args[i];
+                String outName = mode == Mode.COMPRESS ? name + ".hf"
+                        : (name.endsWith(".hf") ? name.substring(0, name.length() - 3) : name)
+                        + ".unhf";
+                HuffProgress jobProgress = new HuffProgress();
+                progress.add(jobProgress);
+                sizes.add(new File(name).length());
+                batch.submit(new File(name), new File(outName), mode, jobProgress);
+            }
+            startProgressReporter(progress, sizes);
+            long totalIn = 0;
+            long totalOut = 0;
+            for (int i = first; i < args.length; i++) {
+                Result result = batch.take();
+                System.out.println(result);
+                totalIn += result.getBytesIn();
+                totalOut += result.getBytesOut();
+            }
+            System.out.printf("total bytes read: %d written: %d%n", totalIn, totalOut);
+        }
+    }
+
+    /*
+     * Start a daemon thread that prints the percent of the input bytes
+     * done about once a second, until every job is done.
+     */
+    private static void startProgressReporter(final List<HuffProgress> progress,
+            final List<Long> sizes) {
+        Thread reporter = new Thread() {
+            public void run() {
+                try {
+                    boolean done = false;
+                    while (!done) {
+                        Thread.sleep(PROGRESS_POLL_MILLIS);
+                        double bytesDone = 0;
+                        double totalBytes = 0;
+                        int jobsDone = 0;
+                        for (int i = 0; i < progress.size(); i++) {
+                            HuffProgress jobProgress = progress.get(i);
+                            bytesDone += Math.max(0, jobProgress.getFraction()) * sizes.get(i);
+                            totalBytes += sizes.get(i);
+                            jobsDone += jobProgress.isDone() ? 1 : 0;
+                        }
+                        done = jobsDone == progress.size();
+                        System.out.printf("progress: %.0f%%, %d of %d files%n",
+                                totalBytes == 0 ? 100 : bytesDone / totalBytes * 100,
+                                jobsDone, progress.size());
+                    }
+                } catch (InterruptedException e) {
+                    // stop reporting
+                }
+            }
+        };
+        reporter.setDaemon(true);
+        reporter.start();
+    }
+
+    /*
+     * The settings of a job, copied when it is submitted.
+     */
+    private static class Job {
+        private final File input;
+        private final File output;
+        private final Mode mode;
+        private final int headerFormat;
+        private final boolean force;
+        private final HuffProgress progress;
+
+        private Job(File input, File output, Mode mode, int headerFormat, boolean force,
+                HuffProgress progress) {
+            this.input = input;
+            this.output = output;
+            this.mode = mode;
+            this.headerFormat = headerFormat;
+            this.force = force;
+            this.progress = progress;
+        }
+    }
+
+    /**
+     * The result of one job.
+     */
+    public static class Result {
+        private final File input;
+        private final File output;
+        private final Mode mode;
+        private final HuffProgress progress;
+        private boolean success;
+        private String error;
+        private long bytesIn;
+        private long bytesOut;
+        private long elapsedNanos;
+
+        private Result(Job job) {
+            input = job.input;
+            output = job.output;
+            mode = job.mode;
+            progress = job.progress;
+        }
+
+        /**
+         * Get the file the job read.
+         * @return the input file
+         */
+        public File getInput() {
+            return input;
+        }
+
+        /**
+         * Get the file the job wrote.
+         * @return the output file
+         */
+        public File getOutput() {
+            return output;
+        }
+
+        /**
+         * Get what the job did.
+         * @return the mode of the job
+         */
+        public Mode getMode() {
+            return mode;
+        }
+
+        /**
+         * Get the progress the job published.
+         * @return the progress of the job, done once the result is queued
+         */
+        public HuffProgress getProgress() {
+            return progress;
+        }
+
+        /**
+         * Determine if the job wrote its output.
+         * @return true if the job succeeded
+         */
+        public boolean isSuccess() {
+            return success;
+        }
+
+        /**
+         * Get the reason the job failed.
+         * @return the error message, or null if the job succeeded
+         */
+        public String getError() {
+            return error;
+        }
+
+        /**
+         * Get the number of bytes read.
+         * @return the size of the input in bytes
+         */
+        public long getBytesIn() {
+            return bytesIn;
+        }
+
+        /**
+         * Get the number of bytes written.
+         * @return the size of the output in bytes, 0 if the job failed
+         */
+        public long getBytesOut() {
+            return bytesOut;
+        }
+
+        /**
+         * Get the time taken by the job, including waiting for a coding thread.
+         * @return the elapsed time in nanoseconds
+         */
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        /**
+         * Return a String version of this result.
+         * @return the files, the sizes, and the time, or the error
+         */
+        public String toString() {
+            String result = mode + " " + input + " -> " + output + ": ";
+            if (!success) {
+                return result + "failed, " + error;
+            }
+            return result + String.format("%d to %d bytes in %.3f ms",
+                    bytesIn, bytesOut, elapsedNanos / 1e6);
+        }
+    }
+}
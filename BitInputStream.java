@@ -29,6 +29,8 @@ public class BitInputStream extends InputStream {
     private int             myBitCount;
     private int             myBuffer;
     private File            myFile;
+    private long            myBytesRead;
+    private BitStreamEvent  myEvent;
     
     private static final int bmask[] = {
         0x00, 0x01, 0x03, 0x07, 0x0f, 0x1f, 0x3f, 0x7f, 0xff,
@@ -72,6 +74,7 @@ public class BitInputStream extends InputStream {
     public BitInputStream(InputStream in) {
         myInput = in;
         myFile = null;
+        beginEvent();
     }
     
     /**
@@ -94,6 +97,8 @@ public class BitInputStream extends InputStream {
         } try {
             close();
             myInput = new BufferedInputStream(new FileInputStream(myFile));
+            myBytesRead = 0;
+            beginEvent();
         } catch (FileNotFoundException fnf){
             System.err.println("error opening " + myFile.getName() + " " + fnf);
         }
@@ -105,6 +110,7 @@ public class BitInputStream extends InputStream {
      * @throws RuntimeException if the close fails
      */
     public void close() {
+        commitEvent();
         try {
             if (myInput != null) {
                 myInput.close();
@@ -114,6 +120,27 @@ public class BitInputStream extends InputStream {
         }
     }
 
+    // start timing a flight recorder event for this stream, if one is wanted
+    private void beginEvent() {
+        if (BitStreamEvent.isRecording()) {
+            myEvent = new BitStreamEvent();
+            myEvent.begin();
+        }
+    }
+
+    // record the bytes read since the event began, at most once per event
+    private void commitEvent() {
+        if (myEvent != null) {
+            myEvent.end();
+            if (myEvent.shouldCommit()) {
+                myEvent.direction = "read";
+                myEvent.bytes = myBytesRead;
+                myEvent.commit();
+            }
+            myEvent = null;
+        }
+    }
+
     /**
      * Returns the number of bits requested as rightmost bits in
      * returned value, returns -1 if not enough bits available to
@@ -137,6 +164,7 @@ public class BitInputStream extends InputStream {
                 if ( (myBuffer = myInput.read()) == -1) {
                     return -1;
                 }
+                myBytesRead++;
             } catch (IOException ioe) {
                 throw new IOException("bitreading trouble "+ioe);
             }
@@ -151,6 +179,14 @@ public class BitInputStream extends InputStream {
         return retval;
     }
 
+    /**
+     * Discard the bits left over from the last byte read so the next read
+     * starts on a byte boundary.
+     */
+    public void alignToByte() {
+        myBuffer = myBitCount = 0;
+    }
+
     /**
      * Required by classes extending InputStream, returns
      * the next byte from this stream as an int value.
@@ -159,6 +195,34 @@ public class BitInputStream extends InputStream {
     public int read() throws IOException {
         return readBits(BITS_PER_BYTE);
     }
+
+    /**
+     * Reads up to <code>len</code> bytes into <code>b</code>. When no bits are
+     * left over from a previous <code>readBits</code> call the bytes are read
+     * from the underlying stream in bulk, otherwise they are read 8 bits at a time.
+     * @param b the buffer into which the data is read
+     * @param off the start offset in <code>b</code>
+     * @param len the maximum number of bytes to read
+     * @return the number of bytes read, or -1 if the end of the stream was reached
+     */
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (myBitCount != 0 || myInput == null) {
+            return super.read(b, off, len);
+        }
+        int numRead = myInput.read(b, off, len);
+        if (numRead > 0) {
+            myBytesRead += numRead;
+        }
+        return numRead;
+    }
+
+    /**
+     * Get the number of whole bytes read from the underlying stream so far.
+     * @return the number of bytes read
+     */
+    public long getBytesRead() {
+        return myBytesRead;
+    }
 }
 
 
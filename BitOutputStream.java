@@ -26,6 +26,8 @@ public class BitOutputStream extends OutputStream {
     private OutputStream  myOutput;
     private int myBuffer;
     private int myBitsToGo;
+    private long myBytesWritten;
+    private BitStreamEvent myEvent;
     
     private static final int bmask[] = {
         0x00, 0x01, 0x03, 0x07, 0x0f, 0x1f, 0x3f, 0x7f, 0xff,
@@ -43,6 +45,26 @@ public class BitOutputStream extends OutputStream {
      */
     public void write(int b) throws IOException {
         myOutput.write(b);
+        myBytesWritten++;
+    }
+
+    /**
+     * Write <code>len</code> whole bytes from <code>b</code> after any bits
+     * already written. When the stream is on a byte boundary the bytes are
+     * written to the underlying stream in bulk.
+     * @param b the data to write
+     * @param off the start offset in <code>b</code>
+     * @param len the number of bytes to write
+     */
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (myBitsToGo == BITS_PER_BYTE) {
+            myOutput.write(b, off, len);
+            myBytesWritten += len;
+        } else {
+            for (int i = off; i < off + len; i++) {
+                writeBits(BITS_PER_BYTE, b[i]);
+            }
+        }
     }
     
     /**
@@ -58,6 +80,11 @@ public class BitOutputStream extends OutputStream {
     private void initialize() {
         myBuffer = 0;
         myBitsToGo = BITS_PER_BYTE;
+        // only allocate a flight recorder event if a recording wants it
+        if (BitStreamEvent.isRecording()) {
+            myEvent = new BitStreamEvent();
+            myEvent.begin();
+        }
     }
     
     /**
@@ -80,20 +107,45 @@ public class BitOutputStream extends OutputStream {
 
 
     /**
-     * Flushes bits not yet written, must be called by client
-     * programs if <code>close</code> isn't called.
+     * Pad the bits not yet written with zeros up to the next byte boundary
+     * and write them. Does not flush the underlying stream.
      * @throws RuntimeException if there's a problem writing bits
      */
-    public void flush() {
+    public void alignToByte() {
         if (myBitsToGo != BITS_PER_BYTE) {
             try {
                 write( (myBuffer << myBitsToGo) );
             } catch (java.io.IOException ioe){
-                throw new RuntimeException("error writing bits on flush " + ioe);
+                throw new RuntimeException("error writing bits on align " + ioe);
             }
             myBuffer = 0;
             myBitsToGo = BITS_PER_BYTE;
         }
+    }
+
+    /**
+     * Get the number of bits that must be written to reach a byte boundary.
+     * @return 0 on a byte boundary, otherwise 1 to 7
+     */
+    public int bitsToByteBoundary() {
+        return myBitsToGo == BITS_PER_BYTE ? 0 : myBitsToGo;
+    }
+
+    /**
+     * Get the number of whole bytes written to the underlying stream so far.
+     * @return the number of bytes written
+     */
+    public long getBytesWritten() {
+        return myBytesWritten;
+    }
+
+    /**
+     * Flushes bits not yet written, must be called by client
+     * programs if <code>close</code> isn't called.
+     * @throws RuntimeException if there's a problem writing bits
+     */
+    public void flush() {
+        alignToByte();
                 
         try {
             myOutput.flush();    
@@ -110,6 +162,16 @@ public class BitOutputStream extends OutputStream {
      */
     public void close() {
         flush();
+        if (myEvent != null) {
+            // record the bytes written by this stream, at most once
+            myEvent.end();
+            if (myEvent.shouldCommit()) {
+                myEvent.direction = "write";
+                myEvent.bytes = myBytesWritten;
+                myEvent.commit();
+            }
+            myEvent = null;
+        }
         try {
             myOutput.close();
         } catch (IOException ioe){
@@ -128,7 +190,7 @@ public class BitOutputStream extends OutputStream {
 
         while (howManyBits >= myBitsToGo) {
             myBuffer = (myBuffer << myBitsToGo) |
-                       (value >> (howManyBits - myBitsToGo));
+                       (value >>> (howManyBits - myBitsToGo));
             try {
                 write(myBuffer);    
             } catch (java.io.IOException ioe){
@@ -0,0 +1,37 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A JDK Flight Recorder event for the life of a bit stream, from when it is
+ * created until it is closed. Streams check <code>isRecording</code>
+ * first, so when no recording is running no event is even allocated.
+ */
+@Name("huff.BitStream")
+@Label("Bit Stream")
+@Category({"Huffman"})
+@Description("Bytes moved by a BitInputStream or BitOutputStream")
+public class BitStreamEvent extends Event {
+
+    // looked up once, so checking it allocates nothing
+    private static final EventType TYPE = EventType.getEventType(BitStreamEvent.class);
+
+    /**
+     * Determine if a running recording has this event enabled.
+     * @return false if an event would never be committed
+     */
+    static boolean isRecording() {
+        return TYPE.isEnabled();
+    }
+
+    @Label("Direction")
+    String direction;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+}
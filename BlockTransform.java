@@ -0,0 +1,52 @@
+import java.io.IOException;
+
+/**
+ * A reversible transform of a block of bytes, run by a TransformPipeline in
+ * front of the Huffman coder to turn the block into bytes that code better.
+ * Transforms keep their scratch arrays from one block to the next, so once
+ * the arrays are as large as a block no more are allocated. A transform is
+ * not thread safe; every thread uses its own.
+ */
+public interface BlockTransform {
+
+    /**
+     * Get the id of this transform, written in the header of a STORE_TRANSFORM file.
+     * @return the id, 1 to 255
+     */
+    public int getId();
+
+    /**
+     * Get the name of this transform, as it is given to TransformPipeline.parse.
+     * @return the name
+     */
+    public String getName();
+
+    /**
+     * Get the most bytes forward writes for a block.
+     * pre: length >= 0
+     * @param length the length of the block
+     * @return the largest output for any block of that length
+     */
+    public int maxOutput(int length);
+
+    /**
+     * Transform a block.
+     * pre: dst.length >= maxOutput(length)
+     * @param src the array holding the block, from index 0
+     * @param length the length of the block
+     * @param dst the array the transformed block is put in, from index 0
+     * @return the length of the transformed block
+     */
+    public int forward(byte[] src, int length, byte[] dst);
+
+    /**
+     * Undo the transform of a block.
+     * @param src the array holding the transformed block, from index 0
+     * @param length the length of the transformed block
+     * @param dst the array the block is put in, from index 0
+     * @return the length of the block
+     * @throws IOException if the transformed block is not valid or the block
+     * does not fit in dst
+     */
+    public int inverse(byte[] src, int length, byte[] dst) throws IOException;
+}
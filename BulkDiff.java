@@ -0,0 +1,264 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * A headless engine to compare two files byte for byte. Both files are memory
+ * mapped a window at a time and compared with <code>ByteBuffer.mismatch</code>,
+ * which the JVM compares several bytes at a time. Large files are split into
+ * chunks that are compared in parallel.
+ */
+public class BulkDiff {
+
+    // number of bytes mapped and compared by one task
+    private static final long CHUNK_SIZE = 1L << 26;
+    // equal bytes in a row after which a chunk goes back to bulk compares
+    private static final int EQUAL_RUN = 32;
+
+    // number of threads used to compare chunks
+    private final int numThreads;
+
+    /**
+     * Create a comparison engine that uses one thread per processor.
+     */
+    public BulkDiff() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Create a comparison engine.
+     * pre: numThreads > 0
+     * @param numThreads the number of threads used to compare large files
+     */
+    public BulkDiff(int numThreads) {
+        // check preconditions
+        if (numThreads <= 0) {
+            throw new IllegalArgumentException("numThreads must be positive.");
+        }
+        this.numThreads = numThreads;
+    }
+
+    /**
+     * Compare two files. Bytes are compared up to the length of the shorter file.
+     * @param file1 the first file
+     * @param file2 the second file
+     * @return the result of the comparison
+     * @throws IOException if an error occurs while reading either file
+     */
+    public Result compare(File file1, File file2) throws IOException {
+        long start = System.nanoTime();
+        try (FileChannel channel1 = FileChannel.open(file1.toPath(), StandardOpenOption.READ);
+                FileChannel channel2 = FileChannel.open(file2.toPath(), StandardOpenOption.READ)) {
+            Result result = new Result(channel1.size(), channel2.size());
+            long compared = Math.min(result.file1Size, result.file2Size);
+            int numChunks = (int) ((compared + CHUNK_SIZE - 1) / CHUNK_SIZE);
+            if (numChunks <= 1 || numThreads == 1) {
+                for (int i = 0; i < numChunks; i++) {
+                    result.add(compareChunk(channel1, channel2, i * CHUNK_SIZE, compared));
+                }
+            } else {
+                compareParallel(channel1, channel2, numChunks, compared, result);
+            }
+            result.elapsedNanos = System.nanoTime() - start;
+            return result;
+        }
+    }
+
+    /**
+     * Compare chunks of two channels on a pool of threads.
+     * @param channel1 the first file
+     * @param channel2 the second file
+     * @param numChunks the number of chunks to compare
+     * @param compared the number of bytes to compare
+     * @param result the result the chunk results are added to
+     * @throws IOException if an error occurs while reading either file
+     */
+    private void compareParallel(FileChannel channel1, FileChannel channel2, int numChunks,
+            long compared, Result result) throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(numThreads, numChunks));
+        try {
+            List<Future<long[]>> chunks = new ArrayList<>();
+            for (int i = 0; i < numChunks; i++) {
+                final long position = i * CHUNK_SIZE;
+                chunks.add(pool.submit(() -> compareChunk(channel1, channel2, position, compared)));
+            }
+            // chunks are added in order so the first difference is the earliest one
+            for (Future<long[]> chunk : chunks) {
+                result.add(chunk.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("comparison interrupted " + e);
+        } catch (ExecutionException e) {
+            throw new IOException("trouble comparing files " + e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Compare one chunk of two channels.
+     * @param channel1 the first file
+     * @param channel2 the second file
+     * @param position the offset of the chunk
+     * @param compared the number of bytes to compare in the whole files
+     * @return the offset of the first difference in the chunk (-1 if none)
+     * and the number of differing bytes in the chunk
+     * @throws IOException if an error occurs while mapping either file
+     */
+    private static long[] compareChunk(FileChannel channel1, FileChannel channel2,
+            long position, long compared) throws IOException {
+        long size = Math.min(CHUNK_SIZE, compared - position);
+        MappedByteBuffer buffer1 = channel1.map(FileChannel.MapMode.READ_ONLY, position, size);
+        MappedByteBuffer buffer2 = channel2.map(FileChannel.MapMode.READ_ONLY, position, size);
+        int limit = (int) size;
+        long firstDiff = -1;
+        long differences = 0;
+        int index = buffer1.mismatch(buffer2);
+        while (index != -1) {
+            int i = buffer1.position() + index;
+            if (firstDiff == -1) {
+                firstDiff = position + i;
+            }
+            // count byte by byte until the files agree for a while, since a
+            // mismatch call per differing byte is slower than this loop
+            int equalRun = 0;
+            while (i < limit && equalRun < EQUAL_RUN) {
+                if (buffer1.get(i) != buffer2.get(i)) {
+                    differences++;
+                    equalRun = 0;
+                } else {
+                    equalRun++;
+                }
+                i++;
+            }
+            // skip the equal stretch in bulk
+            buffer1.position(i);
+            buffer2.position(i);
+            index = i < limit ? buffer1.mismatch(buffer2) : -1;
+        }
+        return new long[] {firstDiff, differences};
+    }
+
+    /**
+     * Compare two files from the command line, without a GUI.
+     * @param args the names of the two files to compare
+     * @throws IOException if an error occurs while reading either file
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.out.println("usage: java BulkDiff file1 file2");
+            return;
+        }
+        Result result = new BulkDiff().compare(new File(args[0]), new File(args[1]));
+        System.out.println("Results of comparing files: ");
+        System.out.println(result);
+    }
+
+    /**
+     * The result of comparing two files.
+     */
+    public static class Result {
+        private final long file1Size;
+        private final long file2Size;
+        private long firstDiff;
+        private long totalDifferences;
+        private long elapsedNanos;
+
+        private Result(long file1Size, long file2Size) {
+            this.file1Size = file1Size;
+            this.file2Size = file2Size;
+            firstDiff = -1;
+        }
+
+        // add the result of comparing the next chunk
+        private void add(long[] chunk) {
+            if (firstDiff == -1) {
+                firstDiff = chunk[0];
+            }
+            totalDifferences += chunk[1];
+        }
+
+        /**
+         * Get the size of the first file.
+         * @return the size of the first file in bytes
+         */
+        public long getFile1Size() {
+            return file1Size;
+        }
+
+        /**
+         * Get the size of the second file.
+         * @return the size of the second file in bytes
+         */
+        public long getFile2Size() {
+            return file2Size;
+        }
+
+        /**
+         * Get the offset of the first byte that differs.
+         * @return the offset of the first difference, -1 if the bytes compared are the same
+         */
+        public long getFirstDiff() {
+            return firstDiff;
+        }
+
+        /**
+         * Get the number of bytes that differ, up to the length of the shorter file.
+         * @return the number of differing bytes
+         */
+        public long getTotalDifferences() {
+            return totalDifferences;
+        }
+
+        /**
+         * Determine if the files have the same length and the same bytes.
+         * @return true if the files are identical
+         */
+        public boolean isSame() {
+            return file1Size == file2Size && firstDiff == -1;
+        }
+
+        /**
+         * Get the time taken by the comparison.
+         * @return the elapsed time in nanoseconds
+         */
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        /**
+         * Get the comparison throughput.
+         * @return the number of bytes compared per second
+         */
+        public double getBytesPerSecond() {
+            long compared = Math.min(file1Size, file2Size);
+            return elapsedNanos == 0 ? 0 : compared * 1e9 / elapsedNanos;
+        }
+
+        /**
+         * Return a String version of this result.
+         * @return the sizes, the differences, and the throughput
+         */
+        public String toString() {
+            String result =  "file 1 size in bytes: " + file1Size + "\n"
+                   + "file 2 size in bytes: " + file2Size + "\n";
+            if (firstDiff == -1) {
+                result += "All bytes in files the same\n";
+            } else {
+                result += "number of bytes different: " + totalDifferences + "\n";
+                result += "first difference occured after " + (firstDiff + 1) + " bytes.\n";
+            }
+            result += String.format("compared at %.1f MB/s\n", getBytesPerSecond() / 1e6);
+            return result;
+        }
+    }
+}
@@ -0,0 +1,181 @@
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * The Burrows-Wheeler transform of a block. The rotations of the block are
+ * sorted, and the output is the byte before the start of each rotation, in
+ * sorted order, after the 4 byte index of the rotation that is the block
+ * itself. Bytes that come before the same context end up together, so text
+ * and other data with repeated contexts turns into long runs of a few
+ * values, which a move-to-front transform then turns into small numbers.
+ * <P>
+ * The rotations are sorted with a suffix array built by prefix doubling:
+ * rotations are ranked by their first byte, then each pass sorts them by
+ * the ranks of their first half and second half with a counting sort,
+ * doubling the length ranked, until every rank is different or the whole
+ * rotation has been compared. A block of n bytes takes at most log n
+ * passes of linear time, and blocks of one repeated byte are no worse than
+ * others.
+ */
+public class BwtTransform implements BlockTransform, IHuffConstants {
+
+    /**
+     * The id of this transform in STORE_TRANSFORM headers.
+     */
+    public static final int ID = 4;
+
+    // bytes of the index of the block's own rotation
+    private static final int INDEX_BYTES = BITS_PER_INT / BITS_PER_WORD;
+
+    // scratch space, grown to the largest block seen
+    private int[] suffixes = new int[0];
+    private int[] ranks = new int[0];
+    private int[] work = new int[0];
+    private int[] counts = new int[ALPH_SIZE];
+
+    public int getId() {
+        return ID;
+    }
+
+    public String getName() {
+        return "bwt";
+    }
+
+    public int maxOutput(int length) {
+        return length + INDEX_BYTES;
+    }
+
+    public int forward(byte[] src, int length, byte[] dst) {
+        int n = length;
+        int index = 0;
+        if (n > 0) {
+            sortRotations(src, n);
+            for (int i = 0; i < n; i++) {
+                int start = suffixes[i];
+                if (start == 0) {
+                    index = i;
+                    dst[INDEX_BYTES + i] = src[n - 1];
+                } else {
+                    dst[INDEX_BYTES + i] = src[start - 1];
+                }
+            }
+        }
+        for (int i = 0; i < INDEX_BYTES; i++) {
+            dst[i] = (byte) (index >>> (BITS_PER_INT - BITS_PER_WORD * (i + 1)));
+        }
+        return n + INDEX_BYTES;
+    }
+
+    /**
+     * Sort the rotations of a block, leaving their starts in suffixes.
+     * @param src the array holding the block
+     * @param n the length of the block, at least 1
+     */
+    private void sortRotations(byte[] src, int n) {
+        if (suffixes.length < n) {
+            suffixes = new int[n];
+            ranks = new int[n];
+            work = new int[n];
+            counts = new int[Math.max(ALPH_SIZE, n)];
+        }
+        // sort by the first byte
+        Arrays.fill(counts, 0, ALPH_SIZE, 0);
+        for (int i = 0; i < n; i++) {
+            counts[src[i] & 0xff]++;
+        }
+        prefixSums(ALPH_SIZE);
+        for (int i = 0; i < n; i++) {
+            suffixes[counts[src[i] & 0xff]++] = i;
+        }
+        int classes = 1;
+        ranks[suffixes[0]] = 0;
+        for (int i = 1; i < n; i++) {
+            if (src[suffixes[i]] != src[suffixes[i - 1]]) {
+                classes++;
+            }
+            ranks[suffixes[i]] = classes - 1;
+        }
+
+        for (int k = 1; classes < n && k < n; k <<= 1) {
+            // the rotations in order of their second half, from the last order
+            for (int i = 0; i < n; i++) {
+                int start = suffixes[i] - k;
+                work[i] = start < 0 ? start + n : start;
+            }
+            // a stable counting sort by the first half finishes the order
+            Arrays.fill(counts, 0, classes, 0);
+            for (int i = 0; i < n; i++) {
+                counts[ranks[work[i]]]++;
+            }
+            prefixSums(classes);
+            for (int i = 0; i < n; i++) {
+                int start = work[i];
+                suffixes[counts[ranks[start]]++] = start;
+            }
+            // rank again by both halves, into work
+            classes = 1;
+            work[suffixes[0]] = 0;
+            for (int i = 1; i < n; i++) {
+                int a = suffixes[i];
+                int b = suffixes[i - 1];
+                int aSecond = a + k < n ? a + k : a + k - n;
+                int bSecond = b + k < n ? b + k : b + k - n;
+                if (ranks[a] != ranks[b] || ranks[aSecond] != ranks[bSecond]) {
+                    classes++;
+                }
+                work[a] = classes - 1;
+            }
+            int[] temp = ranks;
+            ranks = work;
+            work = temp;
+        }
+    }
+
+    // turn the first size counts into the index where each class starts
+    private void prefixSums(int size) {
+        int sum = 0;
+        for (int i = 0; i < size; i++) {
+            int count = counts[i];
+            counts[i] = sum;
+            sum += count;
+        }
+    }
+
+    public int inverse(byte[] src, int length, byte[] dst) throws IOException {
+        int n = length - INDEX_BYTES;
+        if (n < 0 || n > dst.length) {
+            throw new IOException("Error reading compressed file. \n" +
+                    "bad Burrows-Wheeler block length " + length);
+        }
+        int index = 0;
+        for (int i = 0; i < INDEX_BYTES; i++) {
+            index = (index << BITS_PER_WORD) | (src[i] & 0xff);
+        }
+        if (n == 0) {
+            return 0;
+        }
+        if (index < 0 || index >= n) {
+            throw new IOException("Error reading compressed file. \n" +
+                    "bad Burrows-Wheeler index " + index);
+        }
+        if (work.length < n) {
+            work = new int[n];
+        }
+        // where each value starts in the sorted first column
+        Arrays.fill(counts, 0, ALPH_SIZE, 0);
+        for (int i = 0; i < n; i++) {
+            counts[src[INDEX_BYTES + i] & 0xff]++;
+        }
+        prefixSums(ALPH_SIZE);
+        // the row of the rotation that starts with the last byte of each row
+        for (int i = 0; i < n; i++) {
+            work[i] = counts[src[INDEX_BYTES + i] & 0xff]++;
+        }
+        int row = index;
+        for (int i = n - 1; i >= 0; i--) {
+            dst[i] = src[INDEX_BYTES + row];
+            row = work[row];
+        }
+        return n;
+    }
+}
@@ -0,0 +1,154 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * A pre-trained Huffman code table that can be shared between an encoder and
+ * a decoder. Files compressed against a shared table only store the table's id
+ * and checksum in the header (the <code>STORE_CUSTOM</code> format) instead of
+ * the counts or the tree, which makes compression worthwhile for small inputs.
+ * <P>
+ * A CodeTable is immutable once constructed, so a single instance can be used
+ * by many threads at the same time.
+ */
+public class CodeTable implements IHuffConstants {
+
+    // the id used to refer to this table in compressed headers
+    private final int id;
+    // frequencies used to build the table, including PSEUDO_EOF
+    private final int[] counts;
+    // checksum of the counts so decoders can detect a mismatched table
+    private final int checksum;
+    // Huffman code tree built from the counts
+    private final HuffmanCodeTree tree;
+    // Huffman codings of bit-sequences
+    private final Map<Integer, String> codes;
+
+    /**
+     * Create a code table from the given frequencies.
+     * pre: counts != null, counts.length == ALPH_SIZE + 1
+     * @param id the id used to refer to this table
+     * @param counts the frequency of every bit-sequence, including PSEUDO_EOF
+     */
+    public CodeTable(int id, int[] counts) {
+        // check preconditions
+        if (counts == null || counts.length != ALPH_SIZE + 1) {
+            throw new IllegalArgumentException("counts must have ALPH_SIZE + 1 values.");
+        }
+        this.id = id;
+        this.counts = counts.clone();
+        checksum = checksumOf(this.counts);
+        tree = new HuffmanCodeTree(this.counts);
+        codes = Collections.unmodifiableMap(tree.treeToCode());
+    }
+
+    /**
+     * Train a code table from a sample corpus. Every bit-sequence gets a count
+     * of at least one so that any message can be coded with the table, even
+     * if it contains values that never appear in the samples.
+     * @param id the id used to refer to the new table
+     * @param samples the streams holding the sample corpus (NOT BitInputStreams)
+     * @return the trained code table
+     * @throws IOException if an error occurs while reading the samples
+     */
+    public static CodeTable train(int id, InputStream... samples) throws IOException {
+        int[] trained = new int[ALPH_SIZE + 1];
+        // start every bit-sequence at one so it is always given a code
+        for (int i = 0; i < ALPH_SIZE; i++) {
+            trained[i] = 1;
+        }
+        for (InputStream sample : samples) {
+            BitInputStream bits = new BitInputStream(sample);
+            int nextBits = bits.readBits(BITS_PER_WORD);
+            while (nextBits != -1) {
+                // stop counting before the frequency overflows
+                if (trained[nextBits] < Integer.MAX_VALUE / (ALPH_SIZE + 1)) {
+                    trained[nextBits]++;
+                }
+                nextBits = bits.readBits(BITS_PER_WORD);
+            }
+            bits.close();
+        }
+        trained[PSEUDO_EOF] = 1;
+        return new CodeTable(id, trained);
+    }
+
+    /**
+     * Get the number of bits needed to code the given frequencies with this
+     * table, including the PSEUDO_EOF value but not the header.
+     * @param freqs the frequencies of the data to code, at least ALPH_SIZE long
+     * @return the number of coded bits, or -1 if a bit-sequence in freqs has no
+     * code in this table
+     */
+    public long codedBits(long[] freqs) {
+        long bits = codes.get(PSEUDO_EOF).length();
+        for (int i = 0; i < ALPH_SIZE; i++) {
+            if (freqs[i] > 0) {
+                String code = codes.get(i);
+                if (code == null) {
+                    return -1;
+                }
+                bits += freqs[i] * code.length();
+            }
+        }
+        return bits;
+    }
+
+    /**
+     * Get the id used to refer to this table.
+     * @return the id of this table
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Get the checksum of the counts this table was built from.
+     * @return the checksum of this table
+     */
+    public int getChecksum() {
+        return checksum;
+    }
+
+    /**
+     * Get a copy of the counts this table was built from.
+     * @return the frequency of every bit-sequence, including PSEUDO_EOF
+     */
+    public int[] getCounts() {
+        return counts.clone();
+    }
+
+    /**
+     * Get the Huffman code tree of this table. The tree must not be modified.
+     * @return the Huffman code tree of this table
+     */
+    public HuffmanCodeTree getTree() {
+        return tree;
+    }
+
+    /**
+     * Get the codings of this table.
+     * @return an unmodifiable mapping of the bit-sequences and their corresponding code
+     */
+    public Map<Integer, String> getCodes() {
+        return codes;
+    }
+
+    /**
+     * Compute the checksum of a set of counts.
+     * @param counts the counts to check
+     * @return the CRC-32 of the counts
+     */
+    private static int checksumOf(int[] counts) {
+        CRC32 crc = new CRC32();
+        for (int count : counts) {
+            crc.update(count >>> 24);
+            crc.update(count >>> 16);
+            crc.update(count >>> 8);
+            crc.update(count);
+        }
+        return (int) crc.getValue();
+    }
+}
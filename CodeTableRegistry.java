@@ -0,0 +1,202 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A collection of pre-trained code tables, indexed by id. A registry is
+ * normally trained offline, saved to a file, and loaded once at startup with
+ * <code>loadShared</code> so that every processor in the program uses the same
+ * tables. Registries are safe to use from multiple threads.
+ * <P>
+ * To train a table from the command line:
+ * <pre>java CodeTableRegistry registryFile tableId sampleFile...</pre>
+ * The new table is added to the registry file, which is created if needed.
+ */
+public class CodeTableRegistry implements IHuffConstants {
+
+    // the registry used by processors that are not given one explicitly
+    private static volatile CodeTableRegistry shared = new CodeTableRegistry();
+
+    // the tables in this registry, by id
+    private final Map<Integer, CodeTable> tables;
+
+    /**
+     * Create a new empty registry.
+     */
+    public CodeTableRegistry() {
+        tables = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Get the registry shared by the whole program.
+     * @return the shared registry, empty unless one has been loaded
+     */
+    public static CodeTableRegistry getShared() {
+        return shared;
+    }
+
+    /**
+     * Load a registry from a file and make it the shared registry.
+     * @param file the file the registry was saved to
+     * @return the newly shared registry
+     * @throws IOException if an error occurs while reading the file
+     */
+    public static CodeTableRegistry loadShared(File file) throws IOException {
+        CodeTableRegistry registry = load(file);
+        shared = registry;
+        return registry;
+    }
+
+    /**
+     * Add a table to this registry, replacing any table with the same id.
+     * pre: table != null
+     * @param table the table to add
+     */
+    public void add(CodeTable table) {
+        // check preconditions
+        if (table == null) {
+            throw new IllegalArgumentException("table cannot be null.");
+        }
+        tables.put(table.getId(), table);
+    }
+
+    /**
+     * Get the table with the given id.
+     * @param id the id of the table
+     * @return the table with the given id, or null if there is none
+     */
+    public CodeTable get(int id) {
+        return tables.get(id);
+    }
+
+    /**
+     * Get all the tables in this registry.
+     * @return an unmodifiable view of the tables in this registry
+     */
+    public Collection<CodeTable> getTables() {
+        return Collections.unmodifiableCollection(tables.values());
+    }
+
+    /**
+     * Find the table that codes the given frequencies in the fewest bits.
+     * @param freqs the frequencies of the data to code, at least ALPH_SIZE long
+     * @return the best table, or null if no table can code the frequencies
+     */
+    public CodeTable bestTable(long[] freqs) {
+        CodeTable best = null;
+        long bestBits = -1;
+        for (CodeTable table : tables.values()) {
+            long bits = table.codedBits(freqs);
+            if (bits != -1 && (best == null || bits < bestBits)) {
+                best = table;
+                bestBits = bits;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Read a registry that was previously saved to a file.
+     * @param file the file the registry was saved to
+     * @return the registry read from the file
+     * @throws IOException if an error occurs while reading the file
+     */
+    public static CodeTableRegistry load(File file) throws IOException {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+            return load(in);
+        }
+    }
+
+    /**
+     * Read a registry that was previously saved to a stream.
+     * @param in the stream the registry was saved to
+     * @return the registry read from the stream
+     * @throws IOException if an error occurs while reading or the stream
+     * does not hold a registry
+     */
+    public static CodeTableRegistry load(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        if (data.readInt() != MAGIC_NUMBER) {
+            throw new IOException("Error reading code table registry. \n" +
+                    "File did not start with the huff magic number.");
+        }
+        CodeTableRegistry registry = new CodeTableRegistry();
+        int numTables = data.readInt();
+        for (int t = 0; t < numTables; t++) {
+            int id = data.readInt();
+            int[] counts = new int[ALPH_SIZE + 1];
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = data.readInt();
+            }
+            registry.add(new CodeTable(id, counts));
+        }
+        return registry;
+    }
+
+    /**
+     * Save this registry to a file.
+     * @param file the file to save to
+     * @throws IOException if an error occurs while writing the file
+     */
+    public void save(File file) throws IOException {
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+            save(out);
+        }
+    }
+
+    /**
+     * Save this registry to a stream.
+     * @param out the stream to save to
+     * @throws IOException if an error occurs while writing
+     */
+    public void save(OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        List<CodeTable> toSave = new ArrayList<>(tables.values());
+        data.writeInt(MAGIC_NUMBER);
+        data.writeInt(toSave.size());
+        for (CodeTable table : toSave) {
+            data.writeInt(table.getId());
+            for (int count : table.getCounts()) {
+                data.writeInt(count);
+            }
+        }
+        data.flush();
+    }
+
+    /**
+     * Train a table from sample files and add it to a registry file.
+     * @param args the registry file, the id of the new table, and the sample files
+     * @throws IOException if an error occurs while reading or writing files
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3) {
+            System.out.println("usage: java CodeTableRegistry registryFile tableId sampleFile...");
+            return;
+        }
+        File registryFile = new File(args[0]);
+        CodeTableRegistry registry = registryFile.exists() ? load(registryFile)
+                : new CodeTableRegistry();
+        InputStream[] samples = new InputStream[args.length - 2];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = new BufferedInputStream(new FileInputStream(args[i + 2]));
+        }
+        CodeTable table = CodeTable.train(Integer.parseInt(args[1]), samples);
+        registry.add(table);
+        registry.save(registryFile);
+        System.out.printf("added table %d (checksum %08x) to %s\n", table.getId(),
+                table.getChecksum(), registryFile);
+    }
+}
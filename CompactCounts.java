@@ -0,0 +1,208 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The STORE_COMPACT_COUNTS header. Instead of ALPH_SIZE ints, the header is
+ * a bitmap with a bit for every value that has a count, most significant bit
+ * of the first byte for value 0, followed by the count less one of each
+ * of those values as a varint: seven bits per byte, least significant group
+ * first, with the high bit set on every byte but the last.
+ * <P>
+ * The counts are exact and can be as large as a long, so the decoder builds
+ * the same tree the encoder did for inputs of any size. The header is whole
+ * bytes and starts on a byte boundary, so it is read with bulk reads instead
+ * of bit at a time.
+ */
+class CompactCounts implements IHuffConstants {
+
+    // bytes of the bitmap of values that have a count
+    static final int BITMAP_BYTES = ALPH_SIZE / BITS_PER_WORD;
+    // the most bytes a varint of a non negative long takes
+    private static final int MAX_VARINT_BYTES = 9;
+    private static final int GROUP_BITS = 7;
+    private static final int MORE = 0x80;
+
+    private CompactCounts() {
+    }
+
+    /**
+     * Get the size of the header for some counts.
+     * @param counts the count of each value, at least ALPH_SIZE long
+     * @return the number of bits in the header
+     */
+    static int bits(long[] counts) {
+        int bytes = BITMAP_BYTES;
+        for (int i = 0; i < ALPH_SIZE; i++) {
+            if (counts[i] > 0) {
+                bytes += varintBytes(counts[i] - 1);
+            }
+        }
+        return bytes * BITS_PER_WORD;
+    }
+
+    // the number of bytes of the varint of a non negative value
+    private static int varintBytes(long value) {
+        int bytes = 1;
+        while ((value >>>= GROUP_BITS) != 0) {
+            bytes++;
+        }
+        return bytes;
+    }
+
+    /**
+     * Build the header for some counts.
+     * @param counts the count of each value, at least ALPH_SIZE long
+     * @return the bytes of the header
+     */
+    static byte[] toBytes(long[] counts) {
+        byte[] header = new byte[bits(counts) / BITS_PER_WORD];
+        put(counts, header, 0);
+        return header;
+    }
+
+    /**
+     * Put the header for some counts in an array.
+     * pre: dst has room for bits(counts) / BITS_PER_WORD bytes at pos
+     * @param counts the count of each value, at least ALPH_SIZE long
+     * @param dst the array the header is put in
+     * @param pos the index of the first byte of the header
+     * @return the index after the header
+     */
+    static int put(long[] counts, byte[] dst, int pos) {
+        for (int i = 0; i < BITMAP_BYTES; i++) {
+            int bitmap = 0;
+            for (int bit = 0; bit < BITS_PER_WORD; bit++) {
+                if (counts[i * BITS_PER_WORD + bit] > 0) {
+                    bitmap |= 0x80 >>> bit;
+                }
+            }
+            dst[pos++] = (byte) bitmap;
+        }
+        for (int i = 0; i < ALPH_SIZE; i++) {
+            if (counts[i] > 0) {
+                long value = counts[i] - 1;
+                while (value >= MORE) {
+                    dst[pos++] = (byte) (value | MORE);
+                    value >>>= GROUP_BITS;
+                }
+                dst[pos++] = (byte) value;
+            }
+        }
+        return pos;
+    }
+
+    /**
+     * Parse a header held in an array.
+     * @param src the array holding the header
+     * @param pos the index of the first byte of the header
+     * @param end the index after the last byte that may be read
+     * @param counts the count of each value, set, with PSEUDO_EOF set to 1
+     * @return the index after the header
+     * @throws IOException if the header is not valid or ends too soon
+     */
+    static int get(byte[] src, int pos, int end, long[] counts) throws IOException {
+        if (end - pos < BITMAP_BYTES) {
+            throw new EOFException("count header ended too soon.");
+        }
+        int bitmap = pos;
+        pos += BITMAP_BYTES;
+        for (int i = 0; i < ALPH_SIZE; i++) {
+            if ((src[bitmap + i / BITS_PER_WORD] & (0x80 >>> (i % BITS_PER_WORD))) == 0) {
+                counts[i] = 0;
+            } else {
+                long value = 0;
+                int shift = 0;
+                int b;
+                do {
+                    if (pos == end) {
+                        throw new EOFException("count header ended too soon.");
+                    }
+                    b = src[pos++] & 0xff;
+                    value = checkedAdd(value, b & ~MORE, shift);
+                    shift += GROUP_BITS;
+                } while ((b & MORE) != 0);
+                counts[i] = value + 1;
+            }
+        }
+        counts[PSEUDO_EOF] = 1;
+        return pos;
+    }
+
+    /**
+     * Read a header from a stream that is on a byte boundary.
+     * @param in the stream holding the header
+     * @return the count of each value, with PSEUDO_EOF set to 1
+     * @throws IOException if the header is not valid or an error occurs while reading
+     */
+    static long[] read(InputStream in) throws IOException {
+        byte[] header = new byte[BITMAP_BYTES + ALPH_SIZE * MAX_VARINT_BYTES];
+        readFully(in, header, 0, BITMAP_BYTES);
+        int length = BITMAP_BYTES;
+        for (int i = 0; i < ALPH_SIZE; i++) {
+            if ((header[i / BITS_PER_WORD] & (0x80 >>> (i % BITS_PER_WORD))) != 0) {
+                // read a varint one byte at a time, it ends at the byte without MORE
+                int bytes = 0;
+                int b;
+                do {
+                    if (++bytes > MAX_VARINT_BYTES || (b = in.read()) == -1) {
+                        throw new IOException("Error reading compressed file. \n" +
+                                "bad count header.");
+                    }
+                    header[length++] = (byte) b;
+                } while ((b & MORE) != 0);
+            }
+        }
+        long[] counts = new long[ALPH_SIZE + 1];
+        get(header, 0, length, counts);
+        return counts;
+    }
+
+    /**
+     * Find how much more of a partly read header there is at least.
+     * @param src the array holding the start of the header
+     * @param pos the index of the first byte of the header
+     * @param length the number of header bytes in src, at least BITMAP_BYTES
+     * @return the fewest bytes left in the header, 0 if it is complete
+     * @throws IOException if the header has a varint that is too long
+     */
+    static int bytesMissing(byte[] src, int pos, int length) throws IOException {
+        int values = 0;
+        for (int i = pos; i < pos + BITMAP_BYTES; i++) {
+            values += Integer.bitCount(src[i] & 0xff);
+        }
+        if (length > BITMAP_BYTES + values * MAX_VARINT_BYTES) {
+            throw new IOException("Error reading compressed file. \n" +
+                    "bad count header.");
+        }
+        // every varint not yet ended has at least one more byte
+        for (int i = pos + BITMAP_BYTES; i < pos + length; i++) {
+            if ((src[i] & MORE) == 0) {
+                values--;
+            }
+        }
+        return values;
+    }
+
+    // add a group of bits to a varint, making sure the count stays a long
+    private static long checkedAdd(long value, int group, int shift) throws IOException {
+        long result = value | (long) group << shift;
+        if (shift >= Long.SIZE - 1 || result == Long.MAX_VALUE) {
+            throw new IOException("Error reading compressed file. \n" +
+                    "bad count header.");
+        }
+        return result;
+    }
+
+    private static void readFully(InputStream in, byte[] b, int off, int len)
+            throws IOException {
+        while (len > 0) {
+            int numRead = in.read(b, off, len);
+            if (numRead == -1) {
+                throw new EOFException("count header ended too soon.");
+            }
+            off += numRead;
+            len -= numRead;
+        }
+    }
+}
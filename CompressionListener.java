@@ -0,0 +1,22 @@
+/**
+ * Receives progress from a processor as it compresses and uncompresses.
+ * Listeners are called on the thread doing the work, so they should return
+ * quickly.
+ */
+public interface CompressionListener {
+
+    /**
+     * Called when a phase of an operation completes.
+     * @param phase the phase that completed
+     * @param nanos the time spent in the phase in nanoseconds
+     */
+    public default void phaseCompleted(CompressionMetrics.Phase phase, long nanos) {
+    }
+
+    /**
+     * Called when a compress or uncompress operation completes.
+     * @param result the sizes and timings of the operation
+     */
+    public default void operationCompleted(CompressionResult result) {
+    }
+}
@@ -0,0 +1,184 @@
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counters and per-phase timings for compression and uncompression. Processors
+ * add to a metrics object as they work; dashboards can poll it directly or
+ * through JMX after <code>registerMBean</code> is called. Safe to update from
+ * many threads at once.
+ */
+public class CompressionMetrics implements CompressionMetricsMBean {
+
+    /**
+     * The phases of compressing or uncompressing that are timed.
+     */
+    public static enum Phase {
+        HISTOGRAM, TREE_BUILD, HEADER, PAYLOAD;
+    }
+
+    // the metrics used by processors that are not given their own
+    private static final CompressionMetrics SHARED = new CompressionMetrics();
+
+    private final LongAdder operations;
+    private final LongAdder bytesIn;
+    private final LongAdder bytesOut;
+    private final LongAdder symbolsCoded;
+    private final LongAdder tablesBuilt;
+    private final LongAdder cacheHits;
+    // total nanoseconds spent in each phase
+    private final LongAdder[] phaseNanos;
+
+    /**
+     * Create metrics with every count at zero.
+     */
+    public CompressionMetrics() {
+        operations = new LongAdder();
+        bytesIn = new LongAdder();
+        bytesOut = new LongAdder();
+        symbolsCoded = new LongAdder();
+        tablesBuilt = new LongAdder();
+        cacheHits = new LongAdder();
+        phaseNanos = new LongAdder[Phase.values().length];
+        for (int i = 0; i < phaseNanos.length; i++) {
+            phaseNanos[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Get the metrics shared by the whole program.
+     * @return the shared metrics
+     */
+    public static CompressionMetrics getShared() {
+        return SHARED;
+    }
+
+    /**
+     * Register these metrics with the platform MBean server.
+     * @param name the JMX object name, e.g. "huff:type=CompressionMetrics"
+     * @throws IllegalStateException if the name is invalid or already registered
+     */
+    public void registerMBean(String name) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            server.registerMBean(this, new ObjectName(name));
+        } catch (JMException e) {
+            throw new IllegalStateException("could not register metrics as " + name + " " + e);
+        }
+    }
+
+    /**
+     * Add the time spent in a phase.
+     * @param phase the phase
+     * @param nanos the time spent in nanoseconds
+     */
+    public void addPhase(Phase phase, long nanos) {
+        phaseNanos[phase.ordinal()].add(nanos);
+    }
+
+    /**
+     * Count a Huffman code tree being built.
+     */
+    public void tableBuilt() {
+        tablesBuilt.increment();
+    }
+
+    /**
+     * Count a shared code table being used instead of building a tree.
+     */
+    public void cacheHit() {
+        cacheHits.increment();
+    }
+
+    /**
+     * Add the counts of a completed operation. Phase times are added as the
+     * phases complete.
+     * @param result the result of the operation
+     */
+    public void addResult(CompressionResult result) {
+        operations.increment();
+        bytesIn.add(result.getBytesIn());
+        bytesOut.add(result.getBytesOut());
+        symbolsCoded.add(result.getSymbolsCoded());
+    }
+
+    public long getOperations() {
+        return operations.sum();
+    }
+
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    public long getSymbolsCoded() {
+        return symbolsCoded.sum();
+    }
+
+    public long getTablesBuilt() {
+        return tablesBuilt.sum();
+    }
+
+    public long getCacheHits() {
+        return cacheHits.sum();
+    }
+
+    public long getHistogramNanos() {
+        return getPhaseNanos(Phase.HISTOGRAM);
+    }
+
+    public long getTreeBuildNanos() {
+        return getPhaseNanos(Phase.TREE_BUILD);
+    }
+
+    public long getHeaderNanos() {
+        return getPhaseNanos(Phase.HEADER);
+    }
+
+    public long getPayloadNanos() {
+        return getPhaseNanos(Phase.PAYLOAD);
+    }
+
+    /**
+     * Get the total time spent in a phase.
+     * @param phase the phase
+     * @return the time spent in nanoseconds
+     */
+    public long getPhaseNanos(Phase phase) {
+        return phaseNanos[phase.ordinal()].sum();
+    }
+
+    public void reset() {
+        operations.reset();
+        bytesIn.reset();
+        bytesOut.reset();
+        symbolsCoded.reset();
+        tablesBuilt.reset();
+        cacheHits.reset();
+        for (LongAdder nanos : phaseNanos) {
+            nanos.reset();
+        }
+    }
+
+    /**
+     * Return a String version of these metrics.
+     * @return the counts and phase times
+     */
+    public String toString() {
+        StringBuilder result = new StringBuilder();
+        result.append(String.format("operations: %d, bytes in: %d, bytes out: %d%n",
+                getOperations(), getBytesIn(), getBytesOut()));
+        result.append(String.format("symbols coded: %d, tables built: %d, cache hits: %d%n",
+                getSymbolsCoded(), getTablesBuilt(), getCacheHits()));
+        for (Phase phase : Phase.values()) {
+            result.append(String.format("%s: %.3f ms%n", phase, getPhaseNanos(phase) / 1e6));
+        }
+        return result.toString();
+    }
+}
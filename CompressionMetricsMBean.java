@@ -0,0 +1,72 @@
+/**
+ * The JMX management interface of <code>CompressionMetrics</code>. All counts
+ * are totals since the metrics were created or last reset.
+ */
+public interface CompressionMetricsMBean {
+
+    /**
+     * Get the number of compress and uncompress operations completed.
+     * @return the number of operations
+     */
+    public long getOperations();
+
+    /**
+     * Get the number of bytes read by compress and uncompress.
+     * @return the number of bytes in
+     */
+    public long getBytesIn();
+
+    /**
+     * Get the number of bytes written by compress and uncompress.
+     * @return the number of bytes out
+     */
+    public long getBytesOut();
+
+    /**
+     * Get the number of values coded or decoded with a Huffman code.
+     * @return the number of symbols coded
+     */
+    public long getSymbolsCoded();
+
+    /**
+     * Get the number of Huffman code trees built.
+     * @return the number of tables built
+     */
+    public long getTablesBuilt();
+
+    /**
+     * Get the number of times a shared code table was used instead of
+     * building a tree.
+     * @return the number of cache hits
+     */
+    public long getCacheHits();
+
+    /**
+     * Get the time spent counting frequencies.
+     * @return the histogram time in nanoseconds
+     */
+    public long getHistogramNanos();
+
+    /**
+     * Get the time spent building Huffman code trees and codes.
+     * @return the tree build time in nanoseconds
+     */
+    public long getTreeBuildNanos();
+
+    /**
+     * Get the time spent writing and reading headers.
+     * @return the header time in nanoseconds
+     */
+    public long getHeaderNanos();
+
+    /**
+     * Get the time spent coding and decoding data.
+     * @return the payload time in nanoseconds
+     */
+    public long getPayloadNanos();
+
+    /**
+     * Set every count back to zero.
+     */
+    public void reset();
+}
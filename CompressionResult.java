@@ -0,0 +1,123 @@
+/**
+ * The sizes and timings of one compress or uncompress operation. Sizes are
+ * longs so they are correct for inputs of any size.
+ */
+public class CompressionResult {
+
+    /**
+     * The kinds of operations.
+     */
+    public static enum Operation {
+        COMPRESS, UNCOMPRESS;
+    }
+
+    private final Operation operation;
+    private final int headerFormat;
+    private final long bytesIn;
+    private final long bytesOut;
+    private final long symbolsCoded;
+    private final long[] phaseNanos;
+
+    /**
+     * Create the result of an operation.
+     * @param operation the kind of operation
+     * @param headerFormat the header format written or read
+     * @param bytesIn the number of bytes read
+     * @param bytesOut the number of bytes written
+     * @param symbolsCoded the number of values coded or decoded with a Huffman code
+     * @param phaseNanos the time spent in each phase, indexed by phase ordinal
+     */
+    public CompressionResult(Operation operation, int headerFormat, long bytesIn,
+            long bytesOut, long symbolsCoded, long[] phaseNanos) {
+        this.operation = operation;
+        this.headerFormat = headerFormat;
+        this.bytesIn = bytesIn;
+        this.bytesOut = bytesOut;
+        this.symbolsCoded = symbolsCoded;
+        this.phaseNanos = phaseNanos.clone();
+    }
+
+    /**
+     * Get the kind of operation.
+     * @return the operation
+     */
+    public Operation getOperation() {
+        return operation;
+    }
+
+    /**
+     * Get the header format written or read.
+     * @return the header format
+     */
+    public int getHeaderFormat() {
+        return headerFormat;
+    }
+
+    /**
+     * Get the number of bytes read.
+     * @return the bytes in
+     */
+    public long getBytesIn() {
+        return bytesIn;
+    }
+
+    /**
+     * Get the number of bytes written.
+     * @return the bytes out
+     */
+    public long getBytesOut() {
+        return bytesOut;
+    }
+
+    /**
+     * Get the number of values coded or decoded with a Huffman code.
+     * @return the symbols coded
+     */
+    public long getSymbolsCoded() {
+        return symbolsCoded;
+    }
+
+    /**
+     * Get the time spent in a phase.
+     * @param phase the phase
+     * @return the time in nanoseconds
+     */
+    public long getPhaseNanos(CompressionMetrics.Phase phase) {
+        return phaseNanos[phase.ordinal()];
+    }
+
+    /**
+     * Get the total time spent in all phases.
+     * @return the time in nanoseconds
+     */
+    public long getTotalNanos() {
+        long total = 0;
+        for (long nanos : phaseNanos) {
+            total += nanos;
+        }
+        return total;
+    }
+
+    /**
+     * Get the ratio of bytes written to bytes read.
+     * @return bytes out divided by bytes in, 0 if nothing was read
+     */
+    public double getRatio() {
+        return bytesIn == 0 ? 0 : (double) bytesOut / bytesIn;
+    }
+
+    /**
+     * Return a String version of this result.
+     * @return the operation, sizes, and phase times
+     */
+    public String toString() {
+        StringBuilder result = new StringBuilder();
+        result.append(String.format("%s %s: %d bytes in, %d bytes out, %d symbols",
+                operation, HuffAnalysis.formatName(headerFormat), bytesIn, bytesOut,
+                symbolsCoded));
+        for (CompressionMetrics.Phase phase : CompressionMetrics.Phase.values()) {
+            result.append(String.format(", %s %.3f ms", phase, getPhaseNanos(phase) / 1e6));
+        }
+        return result.toString();
+    }
+}
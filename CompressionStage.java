@@ -0,0 +1,29 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A stage a SimpleHuffProcessor can run the input through in place of its
+ * own single tree, such as an LZ77 stage or a chain of block transforms.
+ * A stage writes a whole file, or member, of its own header format, and
+ * the processor reads it back by that format.
+ */
+public interface CompressionStage {
+
+    /**
+     * Get the format constant of the files this stage writes.
+     * @return the header format written after the magic number
+     */
+    public int getHeaderFormat();
+
+    /**
+     * Compress a stream into a file of this stage's format. Neither stream
+     * is closed.
+     * pre: in != null, out != null
+     * @param in the data to compress
+     * @param out the stream the compressed file is written to
+     * @return the number of bits written, a whole number of bytes
+     * @throws IOException if an error occurs while reading or writing
+     */
+    public long compress(InputStream in, OutputStream out) throws IOException;
+}
@@ -0,0 +1,48 @@
+import java.io.IOException;
+
+/**
+ * Replaces every byte with its difference from the byte before it, modulo
+ * 256. Columns of numbers that change slowly, such as timestamps, counters,
+ * or samples, become mostly small differences that code in few bits.
+ */
+public class DeltaTransform implements BlockTransform {
+
+    /**
+     * The id of this transform in STORE_TRANSFORM headers.
+     */
+    public static final int ID = 3;
+
+    public int getId() {
+        return ID;
+    }
+
+    public String getName() {
+        return "delta";
+    }
+
+    public int maxOutput(int length) {
+        return length;
+    }
+
+    public int forward(byte[] src, int length, byte[] dst) {
+        byte last = 0;
+        for (int i = 0; i < length; i++) {
+            dst[i] = (byte) (src[i] - last);
+            last = src[i];
+        }
+        return length;
+    }
+
+    public int inverse(byte[] src, int length, byte[] dst) throws IOException {
+        if (length > dst.length) {
+            throw new IOException("Error reading compressed file. \n" +
+                    "delta block is too long.");
+        }
+        byte last = 0;
+        for (int i = 0; i < length; i++) {
+            last += src[i];
+            dst[i] = last;
+        }
+        return length;
+    }
+}
@@ -1,10 +1,8 @@
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 
 import javax.swing.JFileChooser;
 import javax.swing.JOptionPane;
-import javax.swing.ProgressMonitorInputStream;
 import javax.swing.UIManager;
 
 /**
@@ -31,34 +29,14 @@ public class Diff {
      * @param diffStats Stores the difference statistics.
      */
     public static void doDiffer(File[] files, DiffStats diffStats) {
-        final int BITS_PER_BYTE = 8;
         try {
-            ProgressMonitorInputStream stream1 = 
-                new ProgressMonitorInputStream(null, "reading " + files[0].getName(),
-                        new FileInputStream(files[0]));
-            ProgressMonitorInputStream stream2 = 
-                new ProgressMonitorInputStream(null, "reading " + files[1].getName(),
-                        new FileInputStream(files[1]));
-            BitInputStream b1 = new BitInputStream(stream1);
-            BitInputStream b2 = new BitInputStream(stream2);
-            diffStats.file1Size = files[0].length();
-            diffStats.file2Size = files[1].length();
-            int x = b1.readBits(BITS_PER_BYTE);
-            int y = b2.readBits(BITS_PER_BYTE);
-            int bytesRead = 1;
-            while (x != -1 && y != -1) {
-                if (x != y) {
-                    diffStats.totalDifferences++;
-                    if (diffStats.firstDiff == -1)
-                        diffStats.firstDiff = bytesRead;
-                }
-                x = b1.readBits(BITS_PER_BYTE);
-                y = b2.readBits(BITS_PER_BYTE);
-                bytesRead++;
+            BulkDiff.Result result = new BulkDiff().compare(files[0], files[1]);
+            diffStats.file1Size = result.getFile1Size();
+            diffStats.file2Size = result.getFile2Size();
+            diffStats.totalDifferences = result.getTotalDifferences();
+            if (result.getFirstDiff() != -1) {
+                diffStats.firstDiff = result.getFirstDiff() + 1;
             }
-            bytesRead--; // last read didn't work
-            b1.close();
-            b2.close();
         } catch (IOException e) {
             e.printStackTrace();
             JOptionPane.showMessageDialog(null,"trouble reading","Diff Error",
@@ -69,9 +47,15 @@ public class Diff {
     
     /**
      * Check two files for differences. 
-     * @param args None expected.
+     * @param args None expected. If two file names are given they are compared
+     * without a GUI.
+     * @throws IOException if an error occurs while reading either file
      */
-    public static void main(String[] args){
+    public static void main(String[] args) throws IOException {
+        if (args.length == 2) {
+            BulkDiff.main(args);
+            return;
+        }
         setLookAndFeel();
         ourChooser.setMultiSelectionEnabled(true);
         ourChooser.setDialogTitle("Diff: choose two files");
@@ -104,8 +88,8 @@ public class Diff {
     private static class DiffStats {
         private long file1Size;
         private long file2Size;
-        private int firstDiff;
-        private int totalDifferences;
+        private long firstDiff;
+        private long totalDifferences;
         
         private DiffStats() {
             firstDiff = -1;
@@ -0,0 +1,196 @@
+import java.nio.ByteBuffer;
+
+/**
+ * The encode and decode tables of a Huffman code, kept in direct memory from
+ * a TableArena instead of as a TreeNode graph and a map of Strings.
+ * <P>
+ * The encode table holds one long per bit-sequence: the code, right aligned,
+ * above six bits of code length, or -1 if the value has no code that fits.
+ * The decode table is the code tree flattened into pairs of ints, one pair
+ * per internal node with the root first. Each int is either the index of the
+ * next internal node, or the complement of a leaf's value.
+ * <P>
+ * A table made from a shared CodeTable is never changed and can be used by
+ * many threads. A staging table is refilled with <code>set</code> for each
+ * stream and belongs to one decoder.
+ */
+public class DirectCodeTable implements IHuffConstants {
+
+    // internal nodes of a tree with a leaf for every value and PSEUDO_EOF
+    private static final int MAX_NODES = ALPH_SIZE;
+    // bits of an encode entry that hold the code length
+    private static final int LENGTH_BITS = 6;
+    private static final long NO_CODE = -1;
+    private static final int DECODE_OFFSET = (ALPH_SIZE + 1) * Long.BYTES;
+
+    /**
+     * The number of bytes of arena memory a table uses.
+     */
+    public static final int BYTES = DECODE_OFFSET + MAX_NODES * 2 * Integer.BYTES;
+
+    private final TableArena arena;
+    private final ByteBuffer memory;
+    // the shared table this was made from, null for a staging table
+    private final CodeTable source;
+    private boolean rootIsLeaf;
+    private int nodes;
+
+    /**
+     * Create an empty staging table.
+     * pre: arena != null
+     * @param arena the arena the table's memory comes from
+     */
+    public DirectCodeTable(TableArena arena) {
+        // check preconditions
+        if (arena == null) {
+            throw new IllegalArgumentException("arena cannot be null.");
+        }
+        this.arena = arena;
+        memory = arena.allocate(BYTES);
+        source = null;
+    }
+
+    /**
+     * Create the direct copy of a shared code table. Use
+     * <code>TableArena.tableFor</code> so each table is copied once.
+     * @param table the shared code table
+     * @param arena the arena the table's memory comes from
+     */
+    DirectCodeTable(CodeTable table, TableArena arena) {
+        this.arena = arena;
+        memory = arena.allocate(BYTES);
+        source = table;
+        if (!fill(table.getTree().getRoot())) {
+            throw new IllegalArgumentException("table " + table.getId() + " has too many nodes.");
+        }
+    }
+
+    /**
+     * Replace the contents of this staging table with a code tree.
+     * pre: root != null, this is not the copy of a shared table
+     * @param root the root of the code tree
+     * @return false if the tree has more internal nodes than a table can
+     * hold, which only happens for trees that were not built from counts
+     */
+    public boolean set(TreeNode root) {
+        // check preconditions
+        if (root == null || source != null) {
+            throw new IllegalArgumentException("root cannot be null "
+                    + "and shared tables cannot be changed.");
+        }
+        return fill(root);
+    }
+
+    /**
+     * Get the shared code table this table was made from.
+     * @return the shared table, or null for a staging table
+     */
+    public CodeTable getCodeTable() {
+        return source;
+    }
+
+    /**
+     * Get the code of a bit-sequence.
+     * pre: 0 <= value <= PSEUDO_EOF
+     * @param value the bit-sequence
+     * @return the code, right aligned
+     */
+    public long getCode(int value) {
+        arena.checkAlive();
+        return memory.getLong(value * Long.BYTES) >> LENGTH_BITS;
+    }
+
+    /**
+     * Get the length of the code of a bit-sequence.
+     * pre: 0 <= value <= PSEUDO_EOF
+     * @param value the bit-sequence
+     * @return the number of bits in the code, or -1 if it has no code or
+     * the code is longer than HuffEncoder can write
+     */
+    public int getLength(int value) {
+        arena.checkAlive();
+        long entry = memory.getLong(value * Long.BYTES);
+        return entry == NO_CODE ? -1 : (int) (entry & ((1 << LENGTH_BITS) - 1));
+    }
+
+    /**
+     * Determine if the tree is a single leaf, whose code has no bits.
+     * @return true if the root is a leaf
+     */
+    boolean isRootLeaf() {
+        return rootIsLeaf;
+    }
+
+    /**
+     * Follow one bit down the decode table. The root is node 0.
+     * @param node the current internal node
+     * @param bit the next bit of the code
+     * @return the next internal node, or the complement of a leaf's value
+     */
+    int next(int node, int bit) {
+        return memory.getInt(DECODE_OFFSET + (node * 2 + bit) * Integer.BYTES);
+    }
+
+    /**
+     * Make sure the arena of this table is still open.
+     * @throws IllegalStateException if the arena is closed
+     */
+    void checkAlive() {
+        arena.checkAlive();
+    }
+
+    /**
+     * Fill both tables from a code tree.
+     * @param root the root of the code tree
+     * @return false if the tree has too many internal nodes
+     */
+    private boolean fill(TreeNode root) {
+        arena.checkAlive();
+        if (internalNodes(root) > MAX_NODES) {
+            return false;
+        }
+        for (int i = 0; i <= ALPH_SIZE; i++) {
+            memory.putLong(i * Long.BYTES, NO_CODE);
+        }
+        nodes = 0;
+        rootIsLeaf = root.isLeaf();
+        flatten(root, 0, 0);
+        return true;
+    }
+
+    /**
+     * Count the internal nodes of a tree, stopping once there are too many.
+     * @param node the root of the tree
+     * @return the number of internal nodes, or a number above MAX_NODES
+     */
+    private static int internalNodes(TreeNode node) {
+        if (node.isLeaf()) {
+            return 0;
+        }
+        int count = 1 + internalNodes(node.getLeft());
+        return count > MAX_NODES ? count : count + internalNodes(node.getRight());
+    }
+
+    /**
+     * Add a subtree to both tables.
+     * @param node the root of the subtree
+     * @param code the code of node, right aligned
+     * @param length the length of the code of node
+     * @return the decode table entry for node
+     */
+    private int flatten(TreeNode node, long code, int length) {
+        if (node.isLeaf()) {
+            int value = node.getValue();
+            if (value <= ALPH_SIZE && length <= HuffEncoder.MAX_CODE_LENGTH) {
+                memory.putLong(value * Long.BYTES, code << LENGTH_BITS | length);
+            }
+            return ~value;
+        }
+        int index = nodes++;
+        int left = flatten(node.getLeft(), code << 1, length + 1);
+        int right = flatten(node.getRight(), code << 1 | 1, length + 1);
+        memory.putInt(DECODE_OFFSET + index * 2 * Integer.BYTES, left);
+        memory.putInt(DECODE_OFFSET + (index * 2 + 1) * Integer.BYTES, right);
+        return index;
+    }
+}
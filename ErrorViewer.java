@@ -0,0 +1,30 @@
+/**
+ * A viewer for headless use that ignores messages and remembers the last
+ * error a processor shows, so it can be reported with an exception.
+ */
+class ErrorViewer implements IHuffViewer {
+
+    private String error;
+
+    public void setModel(IHuffProcessor model) {
+        model.setViewer(this);
+    }
+
+    public void update(String s) {
+    }
+
+    public void showMessage(String s) {
+    }
+
+    public void showError(String s) {
+        error = s;
+    }
+
+    /**
+     * Get the last error shown.
+     * @return the last error, or a generic message if none was shown
+     */
+    public String getError() {
+        return error == null ? "processor failed" : error;
+    }
+}
@@ -1,16 +1,13 @@
 import java.awt.BorderLayout;
 import java.awt.Font;
 import java.awt.event.ActionEvent;
-import java.io.ByteArrayInputStream;
+import java.awt.event.ActionListener;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.nio.ByteBuffer;
-import java.nio.channels.FileChannel;
 
 import javax.swing.AbstractAction;
 import javax.swing.BorderFactory;
@@ -27,7 +24,7 @@ import javax.swing.JScrollPane;
 import javax.swing.JTextArea;
 import javax.swing.JTextField;
 import javax.swing.ProgressMonitor;
-import javax.swing.ProgressMonitorInputStream;
+import javax.swing.Timer;
 
 /**
  * The GUI/View for Huffman coding assignment. Clients communicate
@@ -44,6 +41,8 @@ public class GUIHuffViewer extends JFrame implements IHuffViewer {
 
     private static String HUFF_SUFFIX = ".hf";
     private static String UNHUFF_SUFFIX = ".unhf";   
+    private static final int PROGRESS_POLL_MILLIS = 100;
+    private static final int PROGRESS_MAX = 1000;
 
     private JTextArea myOutput;
     private IHuffProcessor myModel;
@@ -134,22 +133,25 @@ public class GUIHuffViewer extends JFrame implements IHuffViewer {
         myFile = ourChooser.getSelectedFile();
         
         // Create an input stream for the file and a progress monitor.
-        final ProgressMonitorInputStream pmis 
-            = getMonitorableStream(getFastByteReader(myFile), "counting/reading bits ...");
-        final ProgressMonitor progress = pmis.getProgressMonitor();
+        final InputStream stream = getFastByteReader(myFile);
+        final HuffProgress progress = monitorProgress("counting/reading bits ...", myFile.length());
         try {
             myFirstFileThread = new Thread() {
                 public void run() {
                     try {
                         myFirstReadingDone = false;
-                        int saved = myModel.preprocessCompress(pmis, myHeaderFormat);
+                        myModel.setProgress(progress);
+                        long saved = myModel.preprocessCompress(stream, myHeaderFormat);
                         showMessage("saved: "+ saved +" bits");
                         myFirstReadingDone = true;
                     } catch (IOException e) {
-                        showError("reading exception\n " + e);
+                        if (!progress.isCancelled()) {
+                            showError("reading exception\n " + e);
+                        }
                         //e.printStackTrace();
                     }
-                    if (progress.isCanceled()) {
+                    progress.finish();
+                    if (progress.isCancelled()) {
                         showError("reading cancelled");
                     }
                 }
@@ -201,6 +203,19 @@ public class GUIHuffViewer extends JFrame implements IHuffViewer {
         group.add(countHeaderButton);
         headerMenu.add(countHeaderButton);
 
+        // create the radio button for compact count format
+        JRadioButtonMenuItem compactHeaderButton 
+        = new JRadioButtonMenuItem();
+        compactHeaderButton.setSelected(false);
+        compactHeaderButton.setAction(new AbstractAction("Use Compact Count Format Header(CCF)") {
+            public void actionPerformed(ActionEvent ev) {
+                myHeaderFormat = IHuffConstants.STORE_COMPACT_COUNTS;
+            }
+        });
+
+        group.add(compactHeaderButton);
+        headerMenu.add(compactHeaderButton);
+
         // create the radio button for standard tree format
         JRadioButtonMenuItem treeHeaderButton 
         = new JRadioButtonMenuItem();
@@ -213,6 +228,19 @@ public class GUIHuffViewer extends JFrame implements IHuffViewer {
 
         group.add(treeHeaderButton);
         headerMenu.add(treeHeaderButton);
+
+        // create the radio button for picking the smallest format
+        JRadioButtonMenuItem autoHeaderButton 
+        = new JRadioButtonMenuItem();
+        autoHeaderButton.setSelected(false);
+        autoHeaderButton.setAction(new AbstractAction("Use Smallest Format Header(auto)") {
+            public void actionPerformed(ActionEvent ev) {
+                myHeaderFormat = IHuffConstants.STORE_AUTO;
+            }
+        });
+
+        group.add(autoHeaderButton);
+        headerMenu.add(autoHeaderButton);
         return headerMenu;
     }
 
@@ -281,23 +309,23 @@ public class GUIHuffViewer extends JFrame implements IHuffViewer {
             int pos = path.lastIndexOf(name);
             newName = path.substring(0, pos) + newName;
             final File newFile = new File(newName);
-            ProgressMonitorInputStream temp = null;
-            temp = getMonitorableStream(getFastByteReader(file),"uncompressing bits ...");
-            final ProgressMonitorInputStream stream = temp;
-
-            final ProgressMonitor progress = stream.getProgressMonitor();
+            final InputStream stream = getFastByteReader(file);
+            final HuffProgress progress = monitorProgress("uncompressing bits ...", file.length());
             final OutputStream out = new FileOutputStream(newFile);
             Thread fileReaderThread = new Thread() {
                 public void run() {
                     try {
+                        myModel.setProgress(progress);
                         myModel.uncompress(stream, out);
                     } catch (IOException e) {
-
-                        cleanUp(newFile);
-                        showError("could not uncompress\n "+e);
+                        if (!progress.isCancelled()) {
+                            cleanUp(newFile);
+                            showError("could not uncompress\n "+e);
+                        }
                         //e.printStackTrace();
                     }
-                    if (progress.isCanceled()) {
+                    progress.finish();
+                    if (progress.isCancelled()) {
                         cleanUp(newFile);
                         showError("reading cancelled");
                     }
@@ -338,11 +366,8 @@ public class GUIHuffViewer extends JFrame implements IHuffViewer {
         final File outputFile = new File(newName);
         try {
             final FileOutputStream out = new FileOutputStream(outputFile);
-            ProgressMonitorInputStream  temp = null;
-            temp = getMonitorableStream(getFastByteReader(myFile), "compressing bits...");
-  
-            final ProgressMonitorInputStream pmis = temp; 
-            final ProgressMonitor progress = pmis.getProgressMonitor();
+            final InputStream stream = getFastByteReader(myFile);
+            final HuffProgress progress = monitorProgress("compressing bits...", myFile.length());
             Thread fileWriterThread = new Thread() {
                 public void run() {
                     try {
@@ -354,13 +379,17 @@ public class GUIHuffViewer extends JFrame implements IHuffViewer {
                                 showError("Trouble in Thread " + e);
                             }
                         }
-                        myModel.compress(pmis, out, myForce);
+                        myModel.setProgress(progress);
+                        myModel.compress(stream, out, myForce);
                     } catch (IOException e) {
-                        showError("compression exception\n " + e);
-                        cleanUp(outputFile);
+                        if (!progress.isCancelled()) {
+                            showError("compression exception\n " + e);
+                            cleanUp(outputFile);
+                        }
                         //e.printStackTrace();
                     }
-                    if (progress.isCanceled()) {
+                    progress.finish();
+                    if (progress.isCancelled()) {
                         showError("compression cancelled");
                         cleanUp(outputFile);
                     }
@@ -382,41 +411,37 @@ public class GUIHuffViewer extends JFrame implements IHuffViewer {
         }
     }
 
-    private ProgressMonitorInputStream getMonitorableStream(InputStream stream, String message) {
-
-
-        final ProgressMonitorInputStream pmis = new ProgressMonitorInputStream(
-                this, message, stream);
-
-        ProgressMonitor progress = pmis.getProgressMonitor();
-        progress.setMillisToDecideToPopup(1);
-        progress.setMillisToPopup(1);
-
-        return pmis;
-    }
-
-
-
-    private ProgressMonitorInputStream getMonitorableStream(File file,
-            String message) {
-        try {
-            FileInputStream stream = new FileInputStream(file);
-            if (stream == null){
-                System.out.println("null on "+file.getCanonicalPath());
+    /**
+     * Create progress for an operation and show it in a progress monitor. The
+     * monitor polls the progress on the event thread, and cancelling the
+     * monitor cancels the operation.
+     * @param message the message shown in the monitor
+     * @param totalBytes the number of bytes the operation will consume
+     * @return the progress the processor should publish to
+     */
+    private HuffProgress monitorProgress(String message, long totalBytes) {
+        final HuffProgress progress = new HuffProgress();
+        progress.setTotalBytes(totalBytes);
+        final ProgressMonitor monitor = new ProgressMonitor(this, message, null, 0, PROGRESS_MAX);
+        monitor.setMillisToDecideToPopup(1);
+        monitor.setMillisToPopup(1);
+
+        final Timer timer = new Timer(PROGRESS_POLL_MILLIS, null);
+        timer.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent ev) {
+                if (monitor.isCanceled()) {
+                    progress.cancel();
+                }
+                if (progress.isDone() || progress.isCancelled()) {
+                    monitor.close();
+                    timer.stop();
+                } else if (progress.getFraction() >= 0) {
+                    monitor.setProgress((int) (progress.getFraction() * PROGRESS_MAX));
+                }
             }
-            final ProgressMonitorInputStream pmis = new ProgressMonitorInputStream(
-                    this, message, stream);
-
-            ProgressMonitor progress = pmis.getProgressMonitor();
-            progress.setMillisToDecideToPopup(1);
-            progress.setMillisToPopup(1);
-
-            return pmis;
-        } catch (IOException e) {
-            showError("could not open " + file.getName());
-            e.printStackTrace();
-            return null;
-        }
+        });
+        timer.start();
+        return progress;
     }
 
     /**
@@ -455,18 +480,10 @@ public class GUIHuffViewer extends JFrame implements IHuffViewer {
                 JOptionPane.INFORMATION_MESSAGE);
     }
 
-    private ByteArrayInputStream getFastByteReader(File f){
-        ByteBuffer buffer = null;
+    // map the file a window at a time so files over 2 GB can be read
+    private InputStream getFastByteReader(File f){
         try {
-            FileChannel channel = new FileInputStream(f).getChannel();
-            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
-            byte[] barray = new byte[buffer.limit()];
-
-            if (barray.length != channel.size()){               
-                showError(String.format("Reading %s error: lengths differ %d %ld\n",f.getName(),barray.length,channel.size()));
-            }
-            buffer.get(barray);
-            return new ByteArrayInputStream(barray);
+            return new MappedFileInputStream(f);
         } catch (IOException e) {
             e.printStackTrace();
         }
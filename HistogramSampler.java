@@ -0,0 +1,198 @@
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Estimates the histogram of a large file from evenly spaced chunks of it
+ * instead of counting every byte, so preprocessing a file that is the same
+ * all the way through reads a few megabytes instead of all of it. The file
+ * is memory-mapped a window at a time and only the sampled chunks are
+ * touched.
+ * <P>
+ * Every value, sampled or not, is given at least a small count, so the tree
+ * built from an estimate has a code for every value that could be in the
+ * file. The floor is a fixed fraction of the total, which also keeps codes
+ * short enough for the batched kernels. Files no larger than the sample are
+ * counted exactly.
+ * <P>
+ * To compare a sampled compress with an exact one on a file:
+ * <pre>java HistogramSampler file [chunkSize] [chunks]</pre>
+ */
+public class HistogramSampler implements IHuffConstants {
+
+    /**
+     * The default number of bytes in a sampled chunk.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 1 << 16;
+
+    /**
+     * The default number of chunks sampled.
+     */
+    public static final int DEFAULT_CHUNKS = 64;
+
+    // most of a file mapped at once
+    private static final int MAP_WINDOW = 1 << 30;
+    // estimates are scaled to at most this many values so sums of counts fit an int
+    private static final int MAX_TOTAL = 1 << 30;
+    // every value gets at least the total shifted right this many bits
+    private static final int FLOOR_SHIFT = 16;
+
+    private final int chunkSize;
+    private final int chunks;
+    // bytes counted and size of the file in the last sample
+    private long sampledBytes;
+    private long fileBytes;
+
+    /**
+     * Create a sampler that reads DEFAULT_CHUNKS chunks of DEFAULT_CHUNK_SIZE bytes.
+     */
+    public HistogramSampler() {
+        this(DEFAULT_CHUNK_SIZE, DEFAULT_CHUNKS);
+    }
+
+    /**
+     * Create a sampler.
+     * pre: chunkSize > 0, chunks > 0
+     * @param chunkSize the number of bytes in each sampled chunk
+     * @param chunks the number of chunks sampled, spread evenly over the file
+     */
+    public HistogramSampler(int chunkSize, int chunks) {
+        // check preconditions
+        if (chunkSize <= 0 || chunks <= 0) {
+            throw new IllegalArgumentException("chunkSize and chunks must be positive.");
+        }
+        this.chunkSize = chunkSize;
+        this.chunks = chunks;
+    }
+
+    /**
+     * Estimate the histogram of a file. The estimate is scaled to the size
+     * of the file, or to MAX_TOTAL values for larger files, so the sizes
+     * HuffAnalysis reports for it are estimates of the real sizes.
+     * pre: file != null
+     * @param file the file to sample
+     * @return the estimated count of each value, ALPH_SIZE + 1 long with
+     * PSEUDO_EOF set to 1
+     * @throws IOException if an error occurs while reading the file
+     */
+    public int[] sample(FileChannel file) throws IOException {
+        // check preconditions
+        if (file == null) {
+            throw new IllegalArgumentException("file cannot be null.");
+        }
+        fileBytes = file.size();
+        sampledBytes = 0;
+        long[] sampled = new long[ALPH_SIZE];
+        int[] lanes = new int[HuffKernels.LANE_TABLE_SIZE];
+        int[] chunkCounts = new int[ALPH_SIZE];
+        byte[] chunk = new byte[chunkSize];
+        MappedByteBuffer window = null;
+        long windowStart = 0;
+        // count every chunk in turn when the file is no larger than the sample
+        int numChunks = isExact() ? (int) ((fileBytes + chunkSize - 1) / chunkSize) : chunks;
+        for (int i = 0; i < numChunks; i++) {
+            long start = isExact() ? (long) i * chunkSize
+                    : i * ((fileBytes - chunkSize) / Math.max(1, chunks - 1));
+            int len = (int) Math.min(chunkSize, fileBytes - start);
+            if (window == null || start + len > windowStart + window.capacity()) {
+                windowStart = start;
+                window = file.map(FileChannel.MapMode.READ_ONLY, windowStart,
+                        Math.min(MAP_WINDOW, fileBytes - windowStart));
+            }
+            window.get((int) (start - windowStart), chunk, 0, len);
+            Arrays.fill(chunkCounts, 0);
+            HuffKernels.histogram(chunk, 0, len, chunkCounts, lanes);
+            for (int j = 0; j < ALPH_SIZE; j++) {
+                sampled[j] += chunkCounts[j];
+            }
+            sampledBytes += len;
+        }
+
+        int[] result = new int[ALPH_SIZE + 1];
+        result[PSEUDO_EOF] = 1;
+        if (isExact()) {
+            for (int i = 0; i < ALPH_SIZE; i++) {
+                result[i] = (int) sampled[i];
+            }
+            return result;
+        }
+        long total = Math.min(fileBytes, MAX_TOTAL);
+        int floor = (int) Math.max(1, total >> FLOOR_SHIFT);
+        for (int i = 0; i < ALPH_SIZE; i++) {
+            long scaled = Math.round((double) sampled[i] * total / sampledBytes);
+            result[i] = (int) Math.max(floor, scaled);
+        }
+        return result;
+    }
+
+    /**
+     * Determine if the last sample counted the whole file.
+     * @return true if the last histogram is exact rather than an estimate
+     */
+    public boolean isExact() {
+        return fileBytes <= (long) chunkSize * chunks;
+    }
+
+    /**
+     * Get the number of bytes counted by the last sample.
+     * @return the bytes sampled
+     */
+    public long getSampledBytes() {
+        return sampledBytes;
+    }
+
+    /**
+     * Get the size of the file of the last sample.
+     * @return the bytes in the file
+     */
+    public long getFileBytes() {
+        return fileBytes;
+    }
+
+    /**
+     * Compress a file with an exact and a sampled histogram and print the
+     * time taken and sizes of each.
+     * @param args the file, then optionally the chunk size and number of chunks
+     * @throws IOException if an error occurs while reading the file
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.out.println("usage: java HistogramSampler file [chunkSize] [chunks]");
+            return;
+        }
+        File f = new File(args[0]);
+        HistogramSampler sampler = new HistogramSampler(
+                args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_CHUNK_SIZE,
+                args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_CHUNKS);
+        SimpleHuffProcessor exact = new SimpleHuffProcessor();
+        exact.setViewer(new ErrorViewer());
+        long start = System.nanoTime();
+        exact.preprocessCompress(new FileInputStream(f), STORE_COUNTS);
+        long exactPreprocess = System.nanoTime() - start;
+        long exactBits = exact.compress(new FileInputStream(f),
+                OutputStream.nullOutputStream(), true);
+
+        SimpleHuffProcessor estimate = new SimpleHuffProcessor();
+        estimate.setViewer(new ErrorViewer());
+        start = System.nanoTime();
+        try (FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+            estimate.preprocessSampled(channel, sampler, STORE_COUNTS);
+        }
+        long sampledPreprocess = System.nanoTime() - start;
+        long sampledBits = estimate.compress(new FileInputStream(f),
+                OutputStream.nullOutputStream(), true);
+
+        System.out.printf("exact:   preprocess %.1f ms, %d bits%n", exactPreprocess / 1e6,
+                exactBits);
+        System.out.printf("sampled: preprocess %.1f ms, %d bits, %d of %d bytes read%n",
+                sampledPreprocess / 1e6, sampledBits, sampler.getSampledBytes(),
+                sampler.getFileBytes());
+        SamplingReport report = estimate.getSamplingReport();
+        System.out.println(report == null ? "the whole file was sampled" : report);
+    }
+}
@@ -0,0 +1,287 @@
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A fast analysis of a histogram of bit-sequences. From a single histogram
+ * this computes the Shannon entropy and the exact number of bits that would be
+ * written under every supported header format, so callers can pick a format
+ * (or skip compression altogether) without running an encode pass.
+ * <P>
+ * The work done is proportional to the alphabet size, not the input size.
+ */
+public class HuffAnalysis implements IHuffConstants {
+
+    // number of bits in the input
+    private final long originalBits;
+    // Shannon entropy of the input in bits per value
+    private final double entropy;
+    // number of bits of coded data, including PSEUDO_EOF, with the input's own tree
+    private final long payloadBits;
+    // total bits written for each supported header format, in order of preference
+    private final Map<Integer, Long> formatBits;
+    // the shared code table used for STORE_CUSTOM, null if there is none
+    private final CodeTable customTable;
+    // the format that writes the fewest bits
+    private final int bestFormat;
+
+    /**
+     * Analyze a histogram.
+     * @param freqs the frequency of each bit-sequence, at least ALPH_SIZE long.
+     * Any PSEUDO_EOF entry is ignored.
+     * @param registry the shared code tables to consider for STORE_CUSTOM,
+     * may be null
+     */
+    private HuffAnalysis(long[] freqs, CodeTableRegistry registry) {
+        long[] counts = new long[ALPH_SIZE + 1];
+        long numValues = 0;
+        boolean intCounts = true;
+        int numLeaves = 1; // PSEUDO_EOF is always in the tree
+        for (int i = 0; i < ALPH_SIZE; i++) {
+            counts[i] = freqs[i];
+            numValues += freqs[i];
+            if (freqs[i] > 0) {
+                numLeaves++;
+            }
+            intCounts &= freqs[i] <= Integer.MAX_VALUE;
+        }
+        counts[PSEUDO_EOF] = 1;
+        originalBits = numValues * BITS_PER_WORD;
+        entropy = entropyOf(counts, numValues);
+
+        // code lengths of the tree the processor would build
+        int[] lengths = new HuffmanCodeTree(counts).codeLengths();
+        long bits = lengths[PSEUDO_EOF];
+        for (int i = 0; i < ALPH_SIZE; i++) {
+            bits += counts[i] * lengths[i];
+        }
+        payloadBits = bits;
+
+        // magic number and format constant are written for every format
+        long common = BITS_PER_INT * 2;
+        formatBits = new LinkedHashMap<>();
+        if (intCounts) {
+            // the counts are written as ints
+            formatBits.put(STORE_COUNTS, common + ALPH_SIZE * BITS_PER_INT + payloadBits);
+        }
+        // a leaf is a 1 bit and the value, every internal node is a 0 bit
+        long treeBits = numLeaves * (1 + (1 + BITS_PER_WORD)) + (numLeaves - 1);
+        formatBits.put(STORE_TREE, common + BITS_PER_INT + treeBits + payloadBits);
+        formatBits.put(STORE_COMPACT_COUNTS, common + CompactCounts.bits(counts) + payloadBits);
+        customTable = registry == null ? null : registry.bestTable(counts);
+        if (customTable != null) {
+            // table id and checksum
+            formatBits.put(STORE_CUSTOM, common + BITS_PER_INT * 2
+                    + customTable.codedBits(counts));
+        }
+        // stored data is copied through as is
+        formatBits.put(STORE_RAW, common + originalBits);
+
+        int best = formatBits.keySet().iterator().next();
+        for (int format : formatBits.keySet()) {
+            if (formatBits.get(format) < formatBits.get(best)) {
+                best = format;
+            }
+        }
+        bestFormat = best;
+    }
+
+    /**
+     * Analyze a histogram, considering only the formats that do not need
+     * shared code tables.
+     * pre: freqs != null, freqs.length >= ALPH_SIZE
+     * @param freqs the frequency of each bit-sequence
+     * @return the analysis of the histogram
+     */
+    public static HuffAnalysis analyze(int[] freqs) {
+        return analyze(freqs, null);
+    }
+
+    /**
+     * Analyze a histogram.
+     * pre: freqs != null, freqs.length >= ALPH_SIZE
+     * @param freqs the frequency of each bit-sequence
+     * @param registry the shared code tables to consider for STORE_CUSTOM,
+     * may be null
+     * @return the analysis of the histogram
+     */
+    public static HuffAnalysis analyze(int[] freqs, CodeTableRegistry registry) {
+        // check preconditions
+        if (freqs == null || freqs.length < ALPH_SIZE) {
+            throw new IllegalArgumentException("freqs must have at least ALPH_SIZE values.");
+        }
+        long[] counts = new long[ALPH_SIZE];
+        for (int i = 0; i < ALPH_SIZE; i++) {
+            counts[i] = freqs[i];
+        }
+        return new HuffAnalysis(counts, registry);
+    }
+
+    /**
+     * Analyze a histogram.
+     * pre: freqs != null, freqs.length >= ALPH_SIZE
+     * @param freqs the frequency of each bit-sequence
+     * @param registry the shared code tables to consider for STORE_CUSTOM,
+     * may be null
+     * @return the analysis of the histogram. STORE_COUNTS is only sized if
+     * every frequency fits an int.
+     */
+    public static HuffAnalysis analyze(long[] freqs, CodeTableRegistry registry) {
+        // check preconditions
+        if (freqs == null || freqs.length < ALPH_SIZE) {
+            throw new IllegalArgumentException("freqs must have at least ALPH_SIZE values.");
+        }
+        return new HuffAnalysis(freqs, registry);
+    }
+
+    /**
+     * Compute the Shannon entropy of the values in a histogram.
+     * @param counts the frequency of each bit-sequence
+     * @param numValues the total of the first ALPH_SIZE counts
+     * @return the entropy in bits per value, 0 if there are no values
+     */
+    private static double entropyOf(long[] counts, long numValues) {
+        double result = 0;
+        for (int i = 0; i < ALPH_SIZE; i++) {
+            if (counts[i] > 0) {
+                double p = (double) counts[i] / numValues;
+                result -= p * Math.log(p);
+            }
+        }
+        return result / Math.log(2);
+    }
+
+    /**
+     * Get the number of bits in the input.
+     * @return the number of original bits
+     */
+    public long getOriginalBits() {
+        return originalBits;
+    }
+
+    /**
+     * Get the Shannon entropy of the input.
+     * @return the entropy in bits per value
+     */
+    public double getEntropy() {
+        return entropy;
+    }
+
+    /**
+     * Get the smallest number of bits any order-0 coder could write for the
+     * data, not counting a header.
+     * @return the entropy of the input times the number of values
+     */
+    public double getEntropyBits() {
+        return entropy * (originalBits / BITS_PER_WORD);
+    }
+
+    /**
+     * Get the number of bits of coded data with the input's own Huffman tree,
+     * including PSEUDO_EOF but not the header.
+     * @return the number of coded bits
+     */
+    public long getPayloadBits() {
+        return payloadBits;
+    }
+
+    /**
+     * Get the exact number of bits written when compressing with a format,
+     * including the magic number, the header format, the header, and the data.
+     * @param headerFormat the header format
+     * @return the number of bits written, or -1 if the format is not supported
+     */
+    public long getCompressedBits(int headerFormat) {
+        Long bits = formatBits.get(headerFormat);
+        return bits == null ? -1 : bits;
+    }
+
+    /**
+     * Get the number of bits written for every supported format.
+     * @return an unmodifiable mapping of header formats to bits written
+     */
+    public Map<Integer, Long> getFormatBits() {
+        return Collections.unmodifiableMap(formatBits);
+    }
+
+    /**
+     * Get the header format that writes the fewest bits.
+     * @return the best header format
+     */
+    public int getBestFormat() {
+        return bestFormat;
+    }
+
+    /**
+     * Get the shared code table that codes the input best.
+     * @return the table STORE_CUSTOM would use, or null if there is none
+     */
+    public CodeTable getCustomTable() {
+        return customTable;
+    }
+
+    /**
+     * Determine if no coded format makes the input smaller.
+     * @return true if coding would not save any bits
+     */
+    public boolean isIncompressible() {
+        for (int format : formatBits.keySet()) {
+            if (format != STORE_RAW && formatBits.get(format) < originalBits) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Return a String version of this analysis.
+     * @return the entropy and the bits written for every supported format
+     */
+    public String toString() {
+        StringBuilder result = new StringBuilder();
+        result.append(String.format("original bits: %d%n", originalBits));
+        result.append(String.format("entropy: %.4f bits per value%n", entropy));
+        for (int format : formatBits.keySet()) {
+            result.append(String.format("%s: %d bits%n", formatName(format),
+                    formatBits.get(format)));
+        }
+        result.append("best format: " + formatName(bestFormat));
+        return result.toString();
+    }
+
+    /**
+     * Get a readable name for a header format.
+     * @param headerFormat the header format
+     * @return the name of the format
+     */
+    public static String formatName(int headerFormat) {
+        if (headerFormat == STORE_COUNTS) {
+            return "STORE_COUNTS";
+        } else if (headerFormat == STORE_TREE) {
+            return "STORE_TREE";
+        } else if (headerFormat == STORE_COMPACT_COUNTS) {
+            return "STORE_COMPACT_COUNTS";
+        } else if (headerFormat == STORE_CUSTOM) {
+            return "STORE_CUSTOM";
+        } else if (headerFormat == STORE_RAW) {
+            return "STORE_RAW";
+        } else if (headerFormat == STORE_INDEXED) {
+            return "STORE_INDEXED";
+        } else if (headerFormat == STORE_BLOCKS) {
+            return "STORE_BLOCKS";
+        } else if (headerFormat == STORE_LZ77) {
+            return "STORE_LZ77";
+        } else if (headerFormat == STORE_TRANSFORM) {
+            return "STORE_TRANSFORM";
+        } else if (headerFormat == STORE_ANS) {
+            return "STORE_ANS";
+        } else if (headerFormat == STORE_SEGMENT) {
+            return "STORE_SEGMENT";
+        } else if (headerFormat == STORE_TRAILER) {
+            return "STORE_TRAILER";
+        } else if (headerFormat == STORE_AUTO) {
+            return "STORE_AUTO";
+        }
+        return String.format("unknown (%08x)", headerFormat);
+    }
+}
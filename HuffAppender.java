@@ -0,0 +1,449 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Appends data to a compressed file without touching what is already in
+ * it, for files such as rolling logs that grow a piece at a time. Each
+ * append adds a segment, a member with the STORE_SEGMENT format, and then
+ * a small trailer member after it. An append reads the last trailer and at
+ * most the counts of one earlier segment, so it costs time in the size of
+ * the new data only. SimpleHuffProcessor.uncompress reads all the segments
+ * back as one output and skips the trailers.
+ * <P>
+ * A segment either has its own counts, as in STORE_COMPACT_COUNTS, or is
+ * coded with the tree of the last segment that had them. The tree is
+ * reused when coding the new data with it takes no more bits than coding
+ * it with its own tree and header, which is usually the case for small
+ * appends to a file whose data looks the same all the way through. Data
+ * that does not compress is appended as a STORE_BLOCKS member instead.
+ * <P>
+ * The trailer is the magic number, STORE_TRAILER, the offset of the last
+ * segment with its own counts (-1 if there is none), the number of
+ * uncompressed bytes in the file, and the number of appends. Earlier
+ * trailers stay where they were written, so the file only ever grows.
+ * <P>
+ * An append writes and forces its segment to disk before it writes and
+ * forces the new trailer, so the file is complete up to its last whole
+ * trailer whenever an append fails or the system crashes. Until the next
+ * append, uncompress reports an error at the partly written segment, after
+ * writing the data before it. The next append finds no trailer at the end
+ * of the file, walks the members from the start to the end of the last
+ * whole trailer, and cuts off what comes after it, so the data of the
+ * failed append is lost but nothing before it is. That walk decodes every
+ * segment, so that one append takes time in the size of the file.
+ * Appending empty data repairs a file without adding to it. A file with
+ * no trailer at all, other than an empty or new one, is not appendable and
+ * is left alone. An appender is not safe for concurrent appends to the
+ * same file.
+ * <P>
+ * To append files, or standard input, to a compressed file:
+ * <pre>java HuffAppender file.hf [input...]</pre>
+ */
+public class HuffAppender implements IHuffConstants {
+
+    /**
+     * The number of bytes in the trailer of an appendable file.
+     */
+    public static final int TRAILER_BYTES = BITS_PER_INT * 7 / BITS_PER_WORD;
+
+    // a segment header flag for its own counts, and for the last tree read
+    static final int OWN_TABLE = 1;
+    static final int REUSED_TABLE = 0;
+    private static final int NO_TABLE = -1;
+    private static final int COPY_BUFFER_SIZE = 1 << 16;
+
+    private final File file;
+    private int spoolLimit = Spool.DEFAULT_MEMORY_LIMIT;
+    // the result of the last append
+    private boolean reused;
+    private boolean stored;
+    private long segments;
+    private long uncompressedBytes;
+    // the offset of the last segment with counts, from the last trailer
+    private long tableOffset;
+
+    /**
+     * Create an appender for a file.
+     * pre: file != null
+     * @param file the compressed file, created by the first append if it does not exist
+     */
+    public HuffAppender(File file) {
+        // check preconditions
+        if (file == null) {
+            throw new IllegalArgumentException("file cannot be null.");
+        }
+        this.file = file;
+    }
+
+    /**
+     * Set how much of the data of an append is held in memory while it is
+     * counted. The rest goes to a temporary file.
+     * pre: memoryLimit >= 0
+     * @param memoryLimit the most bytes held in memory
+     */
+    public void setSpoolLimit(int memoryLimit) {
+        // check preconditions
+        if (memoryLimit < 0) {
+            throw new IllegalArgumentException("memoryLimit cannot be negative.");
+        }
+        spoolLimit = memoryLimit;
+    }
+
+    /**
+     * Compress data and append it to the file. The data is read twice,
+     * once to count it and once to code it, so it is copied as it is
+     * counted; see <code>Spool</code>. Empty data appends nothing, but
+     * still cuts off what a failed append left at the end of the file.
+     * pre: data != null
+     * @param data the data to append, read to its end but not closed
+     * @return the number of bytes the file grew by, less what was cut off
+     * @throws IOException if an error occurs while reading or writing, or the
+     * file has no trailer
+     */
+    public long append(InputStream data) throws IOException {
+        // check preconditions
+        if (data == null) {
+            throw new IllegalArgumentException("data cannot be null.");
+        }
+        try (Spool spool = new Spool(spoolLimit);
+                FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.CREATE)) {
+            long[] counts = count(spool.tee(data));
+            long oldSize = channel.size();
+            tableOffset = NO_TABLE;
+            segments = 0;
+            uncompressedBytes = 0;
+            long start = 0;
+            if (oldSize > 0 && !readTrailer(channel, oldSize)) {
+                // a failed append left part of a member after the last trailer
+                start = recover(channel);
+                channel.truncate(start);
+            } else {
+                start = oldSize;
+            }
+            reused = false;
+            stored = false;
+            long numValues = spool.size();
+            if (numValues == 0) {
+                return start - oldSize;
+            }
+
+            // pick between the last tree, a tree of its own, and no coding
+            HuffAnalysis analysis = HuffAnalysis.analyze(counts, null);
+            long ownBits = BITS_PER_INT + analysis.getCompressedBits(STORE_COMPACT_COUNTS);
+            long reuseBits = -1;
+            HuffmanCodeTree lastTree = null;
+            if (tableOffset != NO_TABLE) {
+                lastTree = new HuffmanCodeTree(readCounts(channel, tableOffset));
+                reuseBits = reusedBits(lastTree.codeLengths(), counts);
+            }
+            reused = reuseBits != -1 && reuseBits <= ownBits;
+            stored = !reused && ownBits > analysis.getCompressedBits(STORE_RAW);
+
+            // the segment goes after the last trailer, which stays valid until
+            // the new one is on disk
+            channel.position(start);
+            OutputStream fileOut = new BufferedOutputStream(Channels.newOutputStream(channel));
+            BitOutputStream bitsOut = new BitOutputStream(fileOut);
+            if (stored) {
+                // blocks with lengths, so the trailer can follow them
+                HuffOutputStream blocks = new HuffOutputStream(bitsOut);
+                copy(spool.openStream(), blocks);
+                blocks.finish();
+            } else {
+                HuffmanCodeTree tree = reused ? lastTree : new HuffmanCodeTree(counts);
+                bitsOut.writeBits(BITS_PER_INT, MAGIC_NUMBER);
+                bitsOut.writeBits(BITS_PER_INT, STORE_SEGMENT);
+                bitsOut.writeBits(BITS_PER_INT, reused ? REUSED_TABLE : OWN_TABLE);
+                if (!reused) {
+                    bitsOut.write(CompactCounts.toBytes(counts));
+                    tableOffset = start;
+                }
+                writeCodes(spool.openStream(), tree.treeToCode(), bitsOut);
+            }
+            bitsOut.flush();
+            channel.force(false);
+            segments++;
+            uncompressedBytes += numValues;
+            bitsOut.writeBits(BITS_PER_INT, MAGIC_NUMBER);
+            bitsOut.writeBits(BITS_PER_INT, STORE_TRAILER);
+            writeLong(bitsOut, tableOffset);
+            writeLong(bitsOut, uncompressedBytes);
+            bitsOut.writeBits(BITS_PER_INT, (int) segments);
+            bitsOut.flush();
+            channel.force(false);
+            return channel.size() - oldSize;
+        }
+    }
+
+    /**
+     * Read the trailer at the end of the file.
+     * @param channel the file
+     * @param size the size of the file
+     * @return false if the file does not end with a trailer
+     * @throws IOException if an error occurs while reading
+     */
+    private boolean readTrailer(FileChannel channel, long size) throws IOException {
+        ByteBuffer trailer = ByteBuffer.allocate(TRAILER_BYTES);
+        if (size < TRAILER_BYTES
+                || channel.read(trailer, size - TRAILER_BYTES) != TRAILER_BYTES
+                || trailer.getInt(0) != MAGIC_NUMBER
+                || trailer.getInt(BITS_PER_INT / BITS_PER_WORD) != STORE_TRAILER) {
+            return false;
+        }
+        trailer.position(BITS_PER_INT * 2 / BITS_PER_WORD);
+        tableOffset = trailer.getLong();
+        uncompressedBytes = trailer.getLong();
+        segments = trailer.getInt() & 0xffffffffL;
+        return true;
+    }
+
+    /**
+     * Find the end of the last whole trailer by walking the members of the
+     * file from the start, and read that trailer.
+     * @param channel the file
+     * @return the offset just past the last whole trailer
+     * @throws IOException if an error occurs while reading, or the file has
+     * no whole trailer
+     */
+    private long recover(FileChannel channel) throws IOException {
+        // not closed, that would close the channel
+        BitInputStream in = new BitInputStream(new BufferedInputStream(
+                Channels.newInputStream(channel.position(0))));
+        long end = -1;
+        long offset = 0;
+        long lastTable = NO_TABLE;
+        HuffmanCodeTree tree = null;
+        byte[] buffer = new byte[COPY_BUFFER_SIZE];
+        try {
+            while (in.readBits(BITS_PER_INT) == MAGIC_NUMBER) {
+                int format = in.readBits(BITS_PER_INT);
+                if (format == STORE_SEGMENT) {
+                    int flag = in.readBits(BITS_PER_INT);
+                    if (flag == OWN_TABLE) {
+                        tree = new HuffmanCodeTree(CompactCounts.read(in));
+                        lastTable = offset;
+                    } else if (flag != REUSED_TABLE || tree == null) {
+                        break;
+                    }
+                    while (tree.decodeValue(in) != PSEUDO_EOF) {
+                        // only the end of the segment is wanted
+                    }
+                } else if (format == STORE_BLOCKS) {
+                    InputStream blocks = new HuffInputStream(in, true);
+                    while (blocks.read(buffer, 0, buffer.length) != -1) {
+                        // only the end of the blocks is wanted
+                    }
+                } else if (format == STORE_TRAILER) {
+                    long trailerTable = readLong(in);
+                    long trailerBytes = readLong(in);
+                    int trailerSegments = in.readBits(BITS_PER_INT);
+                    if (trailerSegments == -1 || trailerTable != lastTable) {
+                        break;
+                    }
+                    tableOffset = trailerTable;
+                    uncompressedBytes = trailerBytes;
+                    segments = trailerSegments & 0xffffffffL;
+                    end = in.getBytesRead();
+                } else {
+                    break;
+                }
+                in.alignToByte();
+                offset = in.getBytesRead();
+            }
+        } catch (IOException e) {
+            // the member that was being appended ends too soon
+        }
+        if (end == -1) {
+            throw new IOException(file + " is not an appendable file.");
+        }
+        return end;
+    }
+
+    /**
+     * Count the values of the data.
+     * @param in the data, read to its end
+     * @return the count of each value, ALPH_SIZE + 1 long with PSEUDO_EOF set to 1
+     * @throws IOException if an error occurs while reading
+     */
+    private static long[] count(InputStream in) throws IOException {
+        long[] counts = new long[ALPH_SIZE + 1];
+        int[] bufferCounts = new int[ALPH_SIZE];
+        int[] lanes = new int[HuffKernels.LANE_TABLE_SIZE];
+        byte[] buffer = new byte[COPY_BUFFER_SIZE];
+        int numRead = in.read(buffer, 0, buffer.length);
+        while (numRead != -1) {
+            // a buffer is counted in ints, which it cannot overflow
+            Arrays.fill(bufferCounts, 0);
+            HuffKernels.histogram(buffer, 0, numRead, bufferCounts, lanes);
+            for (int i = 0; i < ALPH_SIZE; i++) {
+                counts[i] += bufferCounts[i];
+            }
+            numRead = in.read(buffer, 0, buffer.length);
+        }
+        counts[PSEUDO_EOF] = 1;
+        return counts;
+    }
+
+    /**
+     * Read the counts of a segment that has its own.
+     * @param channel the file
+     * @param offset the offset of the segment
+     * @return the counts, with PSEUDO_EOF set to 1
+     * @throws IOException if there is no segment with counts at the offset
+     */
+    private static long[] readCounts(FileChannel channel, long offset) throws IOException {
+        if (offset < 0 || offset >= channel.size()) {
+            throw new IOException("the trailer does not point at a segment with counts.");
+        }
+        // not closed, that would close the channel
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Channels.newInputStream(channel.position(offset))));
+        if (in.readInt() != MAGIC_NUMBER || in.readInt() != STORE_SEGMENT
+                || in.readInt() != OWN_TABLE) {
+            throw new IOException("the trailer does not point at a segment with counts.");
+        }
+        return CompactCounts.read(in);
+    }
+
+    /**
+     * Size a segment coded with the tree of an earlier segment.
+     * @param lengths the code length of each value in the earlier tree
+     * @param counts the count of each value of the new data
+     * @return the bits of the segment, or -1 if the tree has no code for a value
+     */
+    private static long reusedBits(int[] lengths, long[] counts) {
+        long bits = BITS_PER_INT * 3 + lengths[PSEUDO_EOF];
+        for (int i = 0; i < ALPH_SIZE; i++) {
+            if (counts[i] > 0) {
+                if (lengths[i] == 0) {
+                    return -1;
+                }
+                bits += counts[i] * lengths[i];
+            }
+        }
+        return bits;
+    }
+
+    /**
+     * Write the codes of the data and of PSEUDO_EOF.
+     * @param in the data, read to its end and closed
+     * @param huffCodings the code of every value of the data
+     * @param out the stream the codes are written to
+     * @throws IOException if an error occurs while reading or writing
+     */
+    private static void writeCodes(InputStream in, Map<Integer, String> huffCodings,
+            BitOutputStream out) throws IOException {
+        long[] codes = new long[ALPH_SIZE + 1];
+        int[] lengths = new int[ALPH_SIZE + 1];
+        try (in) {
+            byte[] buffer = new byte[COPY_BUFFER_SIZE];
+            boolean batched = HuffKernels.toBits(huffCodings, codes, lengths);
+            int numRead = in.read(buffer, 0, buffer.length);
+            while (numRead != -1) {
+                if (batched) {
+                    HuffKernels.writeCodes(buffer, 0, numRead, codes, lengths, out);
+                } else {
+                    for (int i = 0; i < numRead; i++) {
+                        writeCode(huffCodings.get(buffer[i] & 0xff), out);
+                    }
+                }
+                numRead = in.read(buffer, 0, buffer.length);
+            }
+        }
+        writeCode(huffCodings.get(PSEUDO_EOF), out);
+    }
+
+    // write a code a bit at a time
+    private static void writeCode(String code, BitOutputStream out) {
+        for (int i = 0; i < code.length(); i++) {
+            out.writeBits(1, code.charAt(i) == '1' ? 1 : 0);
+        }
+    }
+
+    private static void copy(InputStream in, OutputStream out) throws IOException {
+        try (in) {
+            in.transferTo(out);
+        }
+    }
+
+    private static void writeLong(BitOutputStream out, long value) {
+        out.writeBits(BITS_PER_INT, (int) (value >>> BITS_PER_INT));
+        out.writeBits(BITS_PER_INT, (int) value);
+    }
+
+    private static long readLong(BitInputStream in) throws IOException {
+        long high = in.readBits(BITS_PER_INT);
+        return high << BITS_PER_INT | (in.readBits(BITS_PER_INT) & 0xffffffffL);
+    }
+
+    /**
+     * Determine if the last append coded its data with the tree of an earlier segment.
+     * @return true if the last segment has no counts of its own
+     */
+    public boolean isReused() {
+        return reused;
+    }
+
+    /**
+     * Determine if the last append stored its data instead of coding it.
+     * @return true if the last append was a STORE_BLOCKS member
+     */
+    public boolean isStored() {
+        return stored;
+    }
+
+    /**
+     * Get the number of appends in the file after the last append.
+     * @return the number of appends
+     */
+    public long getSegments() {
+        return segments;
+    }
+
+    /**
+     * Get the number of uncompressed bytes in the file after the last append.
+     * @return the uncompressed bytes
+     */
+    public long getUncompressedBytes() {
+        return uncompressedBytes;
+    }
+
+    /**
+     * Append files, or standard input, to a compressed file and print how
+     * each append went.
+     * @param args the compressed file, then the files to append
+     * @throws IOException if an error occurs while appending
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.out.println("usage: java HuffAppender file.hf [input...]");
+            return;
+        }
+        HuffAppender appender = new HuffAppender(new File(args[0]));
+        for (int i = 1; i < Math.max(2, args.length); i++) {
+            long start = System.nanoTime();
+            long grown;
+            try (InputStream in = i < args.length ? new FileInputStream(args[i]) : System.in) {
+                grown = appender.append(in);
+            }
+            System.out.printf("%s: appended %d bytes, %s, %.1f ms, file has %d bytes "
+                    + "in %d appends%n", i < args.length ? args[i] : "stdin", grown,
+                    appender.isStored() ? "stored" : appender.isReused() ? "reused tree"
+                    : "own tree", (System.nanoTime() - start) / 1e6,
+                    appender.getUncompressedBytes(), appender.getSegments());
+        }
+    }
+}
@@ -0,0 +1,142 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.SocketAddress;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * A client for HuffServer. Request data is sent on a background thread
+ * while the reply is read, so neither side has to hold a whole payload.
+ * A client sends one request at a time and is not thread safe.
+ */
+public class HuffClient implements IHuffConstants, Closeable {
+
+    private final SocketChannel channel;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private final ExecutorService sender;
+
+    /**
+     * Connect to a server.
+     * @param address the address the server is listening on
+     * @throws IOException if the connection cannot be made
+     */
+    public HuffClient(SocketAddress address) throws IOException {
+        channel = SocketChannel.open(address);
+        in = new DataInputStream(new BufferedInputStream(HuffProtocol.inputStream(channel)));
+        out = new DataOutputStream(new BufferedOutputStream(HuffProtocol.outputStream(channel)));
+        sender = Executors.newSingleThreadExecutor(BatchCompressor.daemonThreads("huff-send-"));
+    }
+
+    /**
+     * Compress data on the server.
+     * @param data the data to compress, not closed
+     * @param result the stream the compressed data is written to, not closed
+     * @param headerFormat the header format
+     * @param force whether to force compression
+     * @return the number of bytes written to result
+     * @throws IOException if an error occurs while communicating or the
+     * server reports an error
+     */
+    public long compress(InputStream data, OutputStream result, int headerFormat, boolean force)
+            throws IOException {
+        return request(HuffProtocol.OP_COMPRESS, headerFormat, force, data, result);
+    }
+
+    /**
+     * Uncompress data on the server.
+     * @param data the data to uncompress, not closed
+     * @param result the stream the uncompressed data is written to, not closed
+     * @return the number of bytes written to result
+     * @throws IOException if an error occurs while communicating or the
+     * server reports an error
+     */
+    public long uncompress(InputStream data, OutputStream result) throws IOException {
+        return request(HuffProtocol.OP_UNCOMPRESS, 0, false, data, result);
+    }
+
+    /**
+     * Close the connection.
+     * @throws IOException if an error occurs while closing
+     */
+    public void close() throws IOException {
+        sender.shutdownNow();
+        channel.close();
+    }
+
+    /**
+     * Send a request and copy the reply.
+     * @param op the operation
+     * @param headerFormat the header format
+     * @param force the force flag
+     * @param data the request data
+     * @param result the stream the reply data is written to
+     * @return the number of bytes in the reply
+     * @throws IOException if an error occurs while communicating or the
+     * server reports an error
+     */
+    private long request(final int op, final int headerFormat, final boolean force,
+            final InputStream data, OutputStream result) throws IOException {
+        Future<Void> sent = sender.submit(new Callable<Void>() {
+            public Void call() throws IOException {
+                out.writeByte(op);
+                out.writeInt(headerFormat);
+                out.writeBoolean(force);
+                HuffProtocol.FrameOutputStream body = new HuffProtocol.FrameOutputStream(out);
+                data.transferTo(body);
+                body.finish();
+                return null;
+            }
+        });
+        HuffProtocol.FrameInputStream reply = new HuffProtocol.FrameInputStream(in);
+        try {
+            return reply.transferTo(result);
+        } finally {
+            // the server reads the whole request even when it fails, so the
+            // send always completes and the next request starts in step
+            try {
+                sent.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted while sending " + e);
+            } catch (ExecutionException e) {
+                throw new IOException("trouble sending request " + e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Compress or uncompress a file on a running server.
+     * @param args -c or -u, the server address as given to HuffServer, the
+     * input file, and the output file
+     * @throws IOException if an error occurs
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 4 || !(args[0].equals("-c") || args[0].equals("-u"))) {
+            System.out.println("usage: java HuffClient -c|-u port|unix:path input output");
+            return;
+        }
+        try (HuffClient client = new HuffClient(HuffServer.parseAddress(args[1]));
+                InputStream data = new BufferedInputStream(new FileInputStream(args[2]));
+                OutputStream result = new BufferedOutputStream(new FileOutputStream(args[3]))) {
+            long start = System.nanoTime();
+            long written = args[0].equals("-c")
+                    ? client.compress(data, result, STORE_COUNTS, false)
+                    : client.uncompress(data, result);
+            System.out.printf("wrote %d bytes in %.3f ms%n", written,
+                    (System.nanoTime() - start) / 1e6);
+        }
+    }
+}
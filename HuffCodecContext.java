@@ -0,0 +1,680 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+/**
+ * A reusable context for compressing and uncompressing whole messages with
+ * as little garbage as possible. It writes and reads the same files as
+ * SimpleHuffProcessor with STORE_COUNTS, STORE_COMPACT_COUNTS, STORE_TREE,
+ * STORE_CUSTOM, and STORE_RAW headers, but keeps everything it needs in arrays it owns: the
+ * counts, the code tree as parallel int arrays, the codes as longs, the
+ * decode table, and the input and output buffers. Buffers grow to the
+ * largest message seen and are then reused, so once a context has warmed up
+ * each call allocates close to nothing.
+ * <P>
+ * A context is not safe to use from more than one thread. Use
+ * <code>get</code> for the current thread's context. To measure the bytes
+ * allocated per call on a file:
+ * <pre>java HuffCodecContext file</pre>
+ */
+public class HuffCodecContext implements IHuffConstants {
+
+    private static final ThreadLocal<HuffCodecContext> CONTEXTS =
+            ThreadLocal.withInitial(HuffCodecContext::new);
+
+    // leaves are nodes 0 to PSEUDO_EOF, internal nodes come after them
+    private static final int LEAVES = ALPH_SIZE + 1;
+    private static final int MAX_NODES = 2 * LEAVES - 1;
+    // bits of the magic number and the header format
+    private static final int PREAMBLE_BITS = BITS_PER_INT * 2;
+    // bits written for a leaf of a STORE_TREE header
+    private static final int LEAF_BITS = 1 + 1 + BITS_PER_WORD;
+    // codes are added to a 64 bit buffer holding fewer than 8 bits
+    private static final int MAX_CODE_LENGTH = 56;
+    private static final int INITIAL_BUFFER_SIZE = 1 << 12;
+
+    private CodeTableRegistry registry;
+
+    private final int[] freqs;
+    // freqs as longs, for the compact count header
+    private final long[] wideFreqs;
+    // scratch space for the histogram kernel
+    private final int[] lanes;
+    // the code tree, with the weight and children of each node
+    private final int[] weights;
+    private final int[] left;
+    private final int[] right;
+    private int numNodes;
+    private int root;
+    // nodes waiting to be merged, sorted as FairPriorityQueue sorts them
+    private final int[] queue;
+    // code of each bit-sequence, right aligned, and its length, 0 if none
+    private final long[] codes;
+    private final int[] lengths;
+    // the tree flattened for decoding, a pair of entries per internal node.
+    // An entry is the index of an internal node or the complement of a value.
+    private final int[] children;
+    private int rootEntry;
+    // the shared table the tree was built from, null if it came from counts
+    private CodeTable loaded;
+
+    private byte[] inBuffer;
+    private byte[] outBuffer;
+    private int outPos;
+    // bits not yet put in outBuffer, the low bitCount bits of bitBuffer
+    private long bitBuffer;
+    private int bitCount;
+    // position of the next bit to read, in bits from the start of the input
+    private long readPos;
+    private long readEnd;
+    private byte[] readFrom;
+
+    /**
+     * Create a context that looks up STORE_CUSTOM tables in the shared registry.
+     */
+    public HuffCodecContext() {
+        registry = CodeTableRegistry.getShared();
+        freqs = new int[LEAVES];
+        wideFreqs = new long[LEAVES];
+        lanes = new int[HuffKernels.LANE_TABLE_SIZE];
+        weights = new int[MAX_NODES];
+        left = new int[MAX_NODES];
+        right = new int[MAX_NODES];
+        queue = new int[MAX_NODES];
+        codes = new long[LEAVES];
+        lengths = new int[LEAVES];
+        children = new int[2 * (MAX_NODES - LEAVES)];
+        inBuffer = new byte[INITIAL_BUFFER_SIZE];
+        outBuffer = new byte[INITIAL_BUFFER_SIZE];
+    }
+
+    /**
+     * Get the context of the current thread, creating it the first time.
+     * @return the current thread's context
+     */
+    public static HuffCodecContext get() {
+        return CONTEXTS.get();
+    }
+
+    /**
+     * Set the registry STORE_CUSTOM tables are looked up in when uncompressing.
+     * pre: registry != null
+     * @param registry the shared code tables
+     */
+    public void setRegistry(CodeTableRegistry registry) {
+        // check preconditions
+        if (registry == null) {
+            throw new IllegalArgumentException("registry cannot be null.");
+        }
+        this.registry = registry;
+    }
+
+    /**
+     * Compress a slice of an array. As with the processor, the data is
+     * stored as is if coding it would write more bits.
+     * pre: data != null, out != null, the slice is within data, headerFormat
+     * is STORE_COUNTS, STORE_COMPACT_COUNTS, STORE_TREE, STORE_RAW, or
+     * STORE_AUTO for whichever of those is smallest
+     * @param data the array holding the data
+     * @param off the offset of the first byte
+     * @param len the number of bytes
+     * @param out the stream the compressed data is written to
+     * @param headerFormat the header format to write
+     * @return the number of bytes written
+     * @throws IOException if an error occurs while writing
+     */
+    public int compress(byte[] data, int off, int len, OutputStream out, int headerFormat)
+            throws IOException {
+        // check preconditions
+        checkSlice(data, off, len, out);
+        if (headerFormat != STORE_COUNTS && headerFormat != STORE_COMPACT_COUNTS
+                && headerFormat != STORE_TREE && headerFormat != STORE_RAW
+                && headerFormat != STORE_AUTO) {
+            throw new IllegalArgumentException("headerFormat must be STORE_COUNTS, "
+                    + "STORE_COMPACT_COUNTS, STORE_TREE, STORE_RAW, or STORE_AUTO.");
+        }
+        Arrays.fill(freqs, 0);
+        HuffKernels.histogram(data, off, len, freqs, lanes);
+        freqs[PSEUDO_EOF] = 1;
+        load(freqs);
+        loaded = null;
+        long payload = payloadBits();
+        long countsBits = PREAMBLE_BITS + ALPH_SIZE * BITS_PER_INT + payload;
+        long treeBits = PREAMBLE_BITS + BITS_PER_INT + treeBits() + payload;
+        for (int i = 0; i < LEAVES; i++) {
+            wideFreqs[i] = freqs[i];
+        }
+        long compactBits = PREAMBLE_BITS + CompactCounts.bits(wideFreqs) + payload;
+        int format = headerFormat;
+        if (format == STORE_AUTO) {
+            // the first of the smallest, in the order HuffAnalysis uses
+            format = treeBits < countsBits ? STORE_TREE : STORE_COUNTS;
+            if (compactBits < Math.min(countsBits, treeBits)) {
+                format = STORE_COMPACT_COUNTS;
+            }
+        }
+        long bits = format == STORE_COUNTS ? countsBits
+                : format == STORE_TREE ? treeBits : compactBits;
+        if (format == STORE_RAW || bits > rawBits(len)) {
+            return writeRaw(data, off, len, out);
+        }
+        startOutput(bits);
+        putBits(MAGIC_NUMBER, BITS_PER_INT);
+        putBits(format, BITS_PER_INT);
+        if (format == STORE_COUNTS) {
+            for (int i = 0; i < ALPH_SIZE; i++) {
+                putBits(freqs[i], BITS_PER_INT);
+            }
+        } else if (format == STORE_COMPACT_COUNTS) {
+            // whole bytes right after the preamble
+            outPos = CompactCounts.put(wideFreqs, outBuffer, outPos);
+        } else {
+            putBits(treeBits(), BITS_PER_INT);
+            putTree(root);
+        }
+        return finishOutput(data, off, len, out);
+    }
+
+    /**
+     * Compress a slice of an array against a shared code table, with a
+     * STORE_CUSTOM header. The data is stored as is if coding it would write
+     * more bits. Switching to a different table rebuilds the codes.
+     * pre: data != null, out != null, table != null, the slice is within data
+     * @param data the array holding the data
+     * @param off the offset of the first byte
+     * @param len the number of bytes
+     * @param out the stream the compressed data is written to
+     * @param table the shared code table
+     * @return the number of bytes written
+     * @throws IOException if the table has no code for a value in the data,
+     * or an error occurs while writing
+     */
+    public int compress(byte[] data, int off, int len, OutputStream out, CodeTable table)
+            throws IOException {
+        // check preconditions
+        checkSlice(data, off, len, out);
+        if (table == null) {
+            throw new IllegalArgumentException("table cannot be null.");
+        }
+        Arrays.fill(freqs, 0);
+        HuffKernels.histogram(data, off, len, freqs, lanes);
+        loadTable(table);
+        for (int i = 0; i < ALPH_SIZE; i++) {
+            if (freqs[i] > 0 && lengths[i] == 0) {
+                throw new IOException("shared code table " + table.getId()
+                        + " has no code for " + i);
+            }
+        }
+        long bits = PREAMBLE_BITS + BITS_PER_INT * 2 + payloadBits();
+        if (bits > rawBits(len)) {
+            return writeRaw(data, off, len, out);
+        }
+        startOutput(bits);
+        putBits(MAGIC_NUMBER, BITS_PER_INT);
+        putBits(STORE_CUSTOM, BITS_PER_INT);
+        putBits(table.getId(), BITS_PER_INT);
+        putBits(table.getChecksum(), BITS_PER_INT);
+        return finishOutput(data, off, len, out);
+    }
+
+    /**
+     * Compress all of a stream.
+     * pre: in != null, out != null, headerFormat as for the array version
+     * @param in the stream holding the data, read to its end but not closed
+     * @param out the stream the compressed data is written to
+     * @param headerFormat the header format to write
+     * @return the number of bytes written
+     * @throws IOException if an error occurs while reading or writing
+     */
+    public int compress(InputStream in, OutputStream out, int headerFormat) throws IOException {
+        int len = readAll(in);
+        return compress(inBuffer, 0, len, out, headerFormat);
+    }
+
+    /**
+     * Uncompress a whole compressed message held in a slice of an array.
+     * pre: src != null, out != null, the slice is within src
+     * @param src the array holding the compressed data
+     * @param off the offset of the first byte
+     * @param len the number of bytes
+     * @param out the stream the data is written to
+     * @return the number of bytes written
+     * @throws IOException if the data is not valid or an error occurs while writing
+     */
+    public int uncompress(byte[] src, int off, int len, OutputStream out) throws IOException {
+        // check preconditions
+        checkSlice(src, off, len, out);
+        readFrom = src;
+        readPos = (long) off * BITS_PER_WORD;
+        readEnd = (long) (off + len) * BITS_PER_WORD;
+        if (getBits(BITS_PER_INT) != MAGIC_NUMBER) {
+            throw new IOException("Error reading compressed file. \n" +
+                    "File did not start with the huff magic number.");
+        }
+        int format = getBits(BITS_PER_INT);
+        if (format == STORE_RAW) {
+            int headerBytes = PREAMBLE_BITS / BITS_PER_WORD;
+            out.write(src, off + headerBytes, len - headerBytes);
+            return len - headerBytes;
+        } else if (format == STORE_COUNTS) {
+            for (int i = 0; i < ALPH_SIZE; i++) {
+                freqs[i] = getBits(BITS_PER_INT);
+            }
+            freqs[PSEUDO_EOF] = 1;
+            load(freqs);
+            loaded = null;
+        } else if (format == STORE_COMPACT_COUNTS) {
+            // the preamble is whole bytes, so the header is too
+            int end = CompactCounts.get(src, (int) (readPos >>> 3), off + len, wideFreqs);
+            readPos = (long) end * BITS_PER_WORD;
+            for (int i = 0; i < LEAVES; i++) {
+                // a message that fits an array has no count above an int
+                if (wideFreqs[i] > Integer.MAX_VALUE) {
+                    throw new IOException("Error reading compressed file. \n" +
+                            "count is too large for HuffCodecContext.");
+                }
+                freqs[i] = (int) wideFreqs[i];
+            }
+            load(freqs);
+            loaded = null;
+        } else if (format == STORE_TREE) {
+            int treeBits = getBits(BITS_PER_INT);
+            long treeStart = readPos;
+            numNodes = LEAVES;
+            rootEntry = readTree();
+            loaded = null;
+            if (readPos - treeStart != treeBits) {
+                throw new IOException("Error reading compressed file. \n" +
+                        "tree size does not match the tree.");
+            }
+        } else if (format == STORE_CUSTOM) {
+            int id = getBits(BITS_PER_INT);
+            int checksum = getBits(BITS_PER_INT);
+            CodeTable table = registry.get(id);
+            if (table == null || table.getChecksum() != checksum) {
+                throw new IOException("Error reading compressed file. \n" +
+                        "shared code table " + id + " is missing or does not match.");
+            }
+            loadTable(table);
+        } else {
+            throw new IOException("Error reading compressed file. \n" +
+                    "header format " + HuffAnalysis.formatName(format)
+                    + " is not supported by HuffCodecContext.");
+        }
+        int written = decode();
+        out.write(outBuffer, 0, written);
+        return written;
+    }
+
+    /**
+     * Uncompress all of a stream.
+     * pre: in != null, out != null
+     * @param in the stream holding the compressed data, read to its end but not closed
+     * @param out the stream the data is written to
+     * @return the number of bytes written
+     * @throws IOException if the data is not valid or an error occurs
+     */
+    public int uncompress(InputStream in, OutputStream out) throws IOException {
+        int len = readAll(in);
+        return uncompress(inBuffer, 0, len, out);
+    }
+
+    private static void checkSlice(byte[] b, int off, int len, OutputStream out) {
+        if (b == null || out == null || off < 0 || len < 0 || off > b.length - len) {
+            throw new IllegalArgumentException("bad slice or null stream.");
+        }
+    }
+
+    private static long rawBits(int len) {
+        return PREAMBLE_BITS + (long) len * BITS_PER_WORD;
+    }
+
+    /**
+     * Read a stream to its end into the input buffer.
+     * @param in the stream to read
+     * @return the number of bytes read
+     * @throws IOException if an error occurs while reading
+     */
+    private int readAll(InputStream in) throws IOException {
+        int len = 0;
+        int numRead = in.read(inBuffer, 0, inBuffer.length);
+        while (numRead != -1) {
+            len += numRead;
+            if (len == inBuffer.length) {
+                inBuffer = Arrays.copyOf(inBuffer, inBuffer.length * 2);
+            }
+            numRead = in.read(inBuffer, len, inBuffer.length - len);
+        }
+        return len;
+    }
+
+    /**
+     * Build the tree, codes, and decode table of a shared table, unless
+     * they were built from it last time.
+     * @param table the shared code table
+     */
+    private void loadTable(CodeTable table) {
+        if (loaded != table) {
+            load(table.getCounts());
+            loaded = table;
+        }
+    }
+
+    /**
+     * Build the code tree from counts exactly as HuffmanCodeTree does, then
+     * the codes and the decode table.
+     * @param counts the count of every bit-sequence, including PSEUDO_EOF
+     */
+    private void load(int[] counts) {
+        int head = 0;
+        int tail = 0;
+        for (int i = 0; i < LEAVES; i++) {
+            if (counts[i] > 0) {
+                weights[i] = counts[i];
+                tail = enqueue(i, head, tail);
+            }
+        }
+        numNodes = LEAVES;
+        while (tail - head > 1) {
+            int node = numNodes++;
+            left[node] = queue[head++];
+            right[node] = queue[head++];
+            weights[node] = weights[left[node]] + weights[right[node]];
+            tail = enqueue(node, head, tail);
+        }
+        root = queue[head];
+        Arrays.fill(lengths, 0);
+        assignCodes(root, 0, 0);
+        rootEntry = entry(root);
+        for (int node = LEAVES; node < numNodes; node++) {
+            children[2 * (node - LEAVES)] = entry(left[node]);
+            children[2 * (node - LEAVES) + 1] = entry(right[node]);
+        }
+    }
+
+    /**
+     * Insert a node behind every node that does not weigh more, as
+     * FairPriorityQueue does.
+     * @param node the node to insert
+     * @param head the index of the first queued node
+     * @param tail the index after the last queued node
+     * @return the new tail
+     */
+    private int enqueue(int node, int head, int tail) {
+        if (head == tail || weights[node] - weights[queue[tail - 1]] >= 0) {
+            queue[tail] = node;
+            return tail + 1;
+        }
+        for (int i = head; i < tail; i++) {
+            if (weights[node] - weights[queue[i]] < 0) {
+                System.arraycopy(queue, i, queue, i + 1, tail - i);
+                queue[i] = node;
+                return tail + 1;
+            }
+        }
+        return tail;
+    }
+
+    private void assignCodes(int node, long code, int length) {
+        if (node < LEAVES) {
+            codes[node] = code;
+            lengths[node] = length;
+        } else {
+            assignCodes(left[node], code << 1, length + 1);
+            assignCodes(right[node], code << 1 | 1, length + 1);
+        }
+    }
+
+    // the decode table entry of a node
+    private static int entry(int node) {
+        return node < LEAVES ? ~node : node - LEAVES;
+    }
+
+    /**
+     * Get the number of bits of the data and the PSEUDO_EOF code.
+     * @return the payload bits of the counted data
+     */
+    private long payloadBits() {
+        long bits = lengths[PSEUDO_EOF];
+        for (int i = 0; i < ALPH_SIZE; i++) {
+            bits += (long) freqs[i] * lengths[i];
+        }
+        return bits;
+    }
+
+    /**
+     * Get the number of bits the tree takes in a STORE_TREE header.
+     * @return the bits of the tree built by load
+     */
+    private int treeBits() {
+        int internal = numNodes - LEAVES;
+        return internal + (internal + 1) * LEAF_BITS;
+    }
+
+    // write the subtree at node in preorder, as HuffmanCodeTree.writeTree does
+    private void putTree(int node) {
+        if (node < LEAVES) {
+            putBits(1, 1);
+            putBits(node, 1 + BITS_PER_WORD);
+        } else {
+            putBits(0, 1);
+            putTree(left[node]);
+            putTree(right[node]);
+        }
+    }
+
+    /**
+     * Read a tree written in preorder into the decode table.
+     * @return the entry of the subtree read
+     * @throws IOException if the tree is too large, has a value above
+     * PSEUDO_EOF, or the input ends
+     */
+    private int readTree() throws IOException {
+        if (getBits(1) == 1) {
+            int value = getBits(1 + BITS_PER_WORD);
+            if (value > PSEUDO_EOF) {
+                throw new IOException("Error reading compressed file. \n" +
+                        "code tree has a value above PSEUDO_EOF.");
+            }
+            return ~value;
+        }
+        if (numNodes == MAX_NODES) {
+            throw new IOException("Error reading compressed file. \n" +
+                    "code tree has too many nodes.");
+        }
+        int index = numNodes++ - LEAVES;
+        int leftEntry = readTree();
+        int rightEntry = readTree();
+        children[2 * index] = leftEntry;
+        children[2 * index + 1] = rightEntry;
+        return index;
+    }
+
+    /**
+     * Make room for the output and reset the bit writer.
+     * @param bits the number of bits that will be written
+     */
+    private void startOutput(long bits) throws IOException {
+        long size = (bits + BITS_PER_WORD - 1) / BITS_PER_WORD;
+        if (size > Integer.MAX_VALUE - BITS_PER_WORD) {
+            throw new IOException("message is too large for HuffCodecContext.");
+        }
+        if (outBuffer.length < size) {
+            outBuffer = new byte[(int) Math.max(size, outBuffer.length * 2L)];
+        }
+        outPos = 0;
+        bitBuffer = 0;
+        bitCount = 0;
+    }
+
+    /**
+     * Code the data, add the PSEUDO_EOF code and padding, and write the output.
+     * @return the number of bytes written
+     */
+    private int finishOutput(byte[] data, int off, int len, OutputStream out)
+            throws IOException {
+        if (lengths[PSEUDO_EOF] > MAX_CODE_LENGTH) {
+            throw new IOException("codes are too long for HuffCodecContext.");
+        }
+        for (int i = off; i < off + len; i++) {
+            int value = data[i] & 0xff;
+            putBits(codes[value], lengths[value]);
+        }
+        putBits(codes[PSEUDO_EOF], lengths[PSEUDO_EOF]);
+        if (bitCount > 0) {
+            outBuffer[outPos++] = (byte) (bitBuffer << (BITS_PER_WORD - bitCount));
+        }
+        out.write(outBuffer, 0, outPos);
+        return outPos;
+    }
+
+    private int writeRaw(byte[] data, int off, int len, OutputStream out) throws IOException {
+        startOutput(PREAMBLE_BITS);
+        putBits(MAGIC_NUMBER, BITS_PER_INT);
+        putBits(STORE_RAW, BITS_PER_INT);
+        out.write(outBuffer, 0, outPos);
+        out.write(data, off, len);
+        return outPos + len;
+    }
+
+    // add the low n bits of value, at most MAX_CODE_LENGTH, to the output
+    private void putBits(long value, int n) {
+        bitBuffer = bitBuffer << n | (value & ((1L << n) - 1));
+        bitCount += n;
+        while (bitCount >= BITS_PER_WORD) {
+            bitCount -= BITS_PER_WORD;
+            outBuffer[outPos++] = (byte) (bitBuffer >>> bitCount);
+        }
+    }
+
+    /**
+     * Read bits, most significant first.
+     * @param n the number of bits, at most 32
+     * @return the bits
+     * @throws IOException if the input ends
+     */
+    private int getBits(int n) throws IOException {
+        if (readEnd - readPos < n) {
+            throw new IOException("Error reading compressed file. \n" +
+                    "unexpected end of input.");
+        }
+        int result = 0;
+        if (n == BITS_PER_INT && (readPos & 7) == 0) {
+            // a whole int on a byte boundary, as in STORE_COUNTS headers
+            int at = (int) (readPos >>> 3);
+            readPos += BITS_PER_INT;
+            return (readFrom[at] & 0xff) << 24 | (readFrom[at + 1] & 0xff) << 16
+                    | (readFrom[at + 2] & 0xff) << 8 | (readFrom[at + 3] & 0xff);
+        }
+        for (int i = 0; i < n; i++) {
+            int b = readFrom[(int) (readPos >>> 3)];
+            result = result << 1 | ((b >>> (7 - (int) (readPos & 7))) & 1);
+            readPos++;
+        }
+        return result;
+    }
+
+    /**
+     * Decode the data after the header into the output buffer.
+     * @return the number of bytes decoded
+     * @throws IOException if the data ends before the PSEUDO_EOF code
+     */
+    private int decode() throws IOException {
+        if (rootEntry < 0) {
+            // only PSEUDO_EOF is in the tree and its code has no bits
+            if (~rootEntry != PSEUDO_EOF) {
+                throw new IOException("Error reading compressed file. \n" +
+                        "code tree has no PSEUDO_EOF.");
+            }
+            return 0;
+        }
+        byte[] src = readFrom;
+        byte[] dst = outBuffer;
+        int written = 0;
+        int node = rootEntry;
+        int pos = (int) (readPos >>> 3);
+        int end = (int) (readEnd >>> 3);
+        int skip = (int) (readPos & 7);
+        for (; pos < end; pos++) {
+            int b = src[pos];
+            for (int bit = 7 - skip; bit >= 0; bit--) {
+                node = children[2 * node + ((b >>> bit) & 1)];
+                if (node < 0) {
+                    if (~node == PSEUDO_EOF) {
+                        outBuffer = dst;
+                        return written;
+                    }
+                    if (written == dst.length) {
+                        dst = Arrays.copyOf(dst, dst.length * 2);
+                    }
+                    dst[written++] = (byte) ~node;
+                    node = rootEntry;
+                }
+            }
+            skip = 0;
+        }
+        outBuffer = dst;
+        throw new IOException("Error reading compressed file. \n" +
+                "data ended before the PSEUDO_EOF code.");
+    }
+
+    /**
+     * Measure the bytes allocated per compress and uncompress of a file once
+     * the context has warmed up, and check the output against the processor.
+     * @param args the file to measure
+     * @throws IOException if the file cannot be read or a round trip fails
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("usage: java HuffCodecContext file");
+            System.exit(2);
+        }
+        byte[] data = Files.readAllBytes(new File(args[0]).toPath());
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        Sink compressed = new Sink();
+        Sink restored = new Sink();
+        // about 64 MB of data through each format, between 20 and 2000 calls
+        final int calls = (int) Math.max(20, Math.min(2000, (1 << 26) / (data.length + 1L)));
+        final int warmup = calls;
+        for (int format : new int[] {STORE_COUNTS, STORE_COMPACT_COUNTS, STORE_TREE, STORE_AUTO}) {
+            HuffCodecContext context = get();
+            long allocated = 0;
+            for (int i = 0; i < warmup + calls; i++) {
+                if (i == warmup) {
+                    allocated = threads.getThreadAllocatedBytes(thread);
+                }
+                compressed.reset();
+                restored.reset();
+                context.compress(data, 0, data.length, compressed, format);
+                context.uncompress(compressed.buffer(), 0, compressed.size(), restored);
+            }
+            allocated = threads.getThreadAllocatedBytes(thread) - allocated;
+            boolean same = Arrays.equals(restored.toByteArray(), data);
+            SimpleHuffProcessor processor = new SimpleHuffProcessor();
+            processor.setViewer(new ErrorViewer());
+            processor.preprocessCompress(new ByteArrayInputStream(data), format);
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            processor.compress(new ByteArrayInputStream(data), expected, true);
+            System.out.printf("%s: %d -> %d bytes, round trip %b, same as processor %b, "
+                    + "%d bytes allocated per call%n", HuffAnalysis.formatName(format),
+                    data.length, compressed.size(), same,
+                    Arrays.equals(expected.toByteArray(), compressed.toByteArray()),
+                    allocated / calls);
+        }
+    }
+
+    // a byte array stream whose array can be read without copying it
+    private static class Sink extends ByteArrayOutputStream {
+        byte[] buffer() {
+            return buf;
+        }
+    }
+}
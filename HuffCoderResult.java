@@ -0,0 +1,22 @@
+/**
+ * Why a ByteBuffer call to HuffEncoder or HuffDecoder returned, modeled on
+ * <code>java.nio.charset.CoderResult</code>. A call codes as much as it can
+ * and reports progress through the positions of the buffers.
+ */
+public enum HuffCoderResult {
+
+    /**
+     * All of the input was used. Call again with more input.
+     */
+    UNDERFLOW,
+
+    /**
+     * The output buffer is full. Drain it and call again.
+     */
+    OVERFLOW,
+
+    /**
+     * The end of the coded data has been reached.
+     */
+    END
+}
@@ -0,0 +1,499 @@
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * An incremental Huffman decoder modeled on <code>java.util.zip.Inflater</code>.
+ * Compressed input is given a slice at a time with <code>setInput</code> and
+ * output is drained into caller supplied arrays with <code>decode</code>.
+ * The position in the code tree is kept between calls, so input can end in
+ * the middle of a code, or of the header, and decoding resumes where it
+ * stopped when more input arrives. The same decoding is available on heap
+ * or direct ByteBuffers with <code>decode(ByteBuffer, ByteBuffer)</code>,
+ * which reports partial progress the way <code>CharsetDecoder</code> does.
+ * <P>
+ * Data written with STORE_COUNTS, STORE_COMPACT_COUNTS, STORE_TREE, or
+ * STORE_CUSTOM headers can be decoded. Stored and indexed files need the
+ * whole file and are not supported.
+ * <P>
+ * A decoder given a TableArena walks a DirectCodeTable in the arena instead
+ * of a TreeNode graph. Shared tables are copied into the arena once and
+ * then used by every decoder of that arena, and other trees are flattened
+ * into a staging table the decoder keeps between streams.
+ */
+public class HuffDecoder implements IHuffConstants {
+
+    // bits of the magic number and header format
+    private static final int PREAMBLE_BITS = BITS_PER_INT * 2;
+    // largest tree header accepted, far more than 257 leaves need
+    private static final int MAX_TREE_BITS = 1 << 16;
+    // most of a file mapped at once, well under the 2 GB a buffer can hold
+    private static final int MAP_WINDOW = 1 << 30;
+    // size of the buffer mapped files are decoded into
+    private static final int MAPPED_OUTPUT_SIZE = 1 << 16;
+
+    private final CodeTableRegistry registry;
+    // where direct tables come from, null to decode with TreeNodes
+    private final TableArena arena;
+
+    // header bits read so far, null once the header is parsed
+    private byte[] header;
+    private int headerBits;
+    // number of header bits needed before it can be parsed
+    private int headerNeeded;
+    private int format;
+
+    private TreeNode root;
+    // position in the tree, kept between calls
+    private TreeNode node;
+    // the table decoded with instead of the tree, and the position in it
+    private DirectCodeTable table;
+    private int tableNode;
+    // table trees from the header are flattened into, made when first needed
+    private DirectCodeTable staging;
+    // buffer mapped files are decoded into, made when first needed
+    private ByteBuffer mappedOutput;
+
+    // input set with setInput, empty if none
+    private ByteBuffer input;
+    // bits of the current input byte not yet used
+    private int bitBuffer;
+    private int bitCount;
+    private boolean finished;
+    private long bytesRead;
+    private long bytesWritten;
+
+    /**
+     * Create a decoder that looks up STORE_CUSTOM tables in the shared registry.
+     */
+    public HuffDecoder() {
+        this(CodeTableRegistry.getShared());
+    }
+
+    /**
+     * Create a decoder.
+     * pre: registry != null
+     * @param registry the shared code tables used for STORE_CUSTOM
+     */
+    public HuffDecoder(CodeTableRegistry registry) {
+        this(registry, null);
+    }
+
+    /**
+     * Create a decoder that keeps its code tables in an arena.
+     * pre: registry != null
+     * @param registry the shared code tables used for STORE_CUSTOM
+     * @param arena the arena tables and buffers are allocated from, or
+     * null to decode with the code tree on the heap
+     */
+    public HuffDecoder(CodeTableRegistry registry, TableArena arena) {
+        // check preconditions
+        if (registry == null) {
+            throw new IllegalArgumentException("registry cannot be null.");
+        }
+        this.registry = registry;
+        this.arena = arena;
+        reset();
+    }
+
+    /**
+     * Set the compressed input. The array is not copied, so it must not be
+     * changed until <code>needsInput</code> returns true.
+     * pre: input != null, the slice is within the array
+     * @param input the array holding the input
+     * @param off the offset of the first byte
+     * @param len the number of bytes
+     */
+    public void setInput(byte[] input, int off, int len) {
+        // check preconditions
+        if (input == null || off < 0 || len < 0 || off > input.length - len) {
+            throw new IllegalArgumentException("bad input slice.");
+        }
+        this.input = ByteBuffer.wrap(input, off, len);
+    }
+
+    /**
+     * Set the compressed input.
+     * pre: input != null
+     * @param input the input
+     */
+    public void setInput(byte[] input) {
+        setInput(input, 0, input.length);
+    }
+
+    /**
+     * Determine if all of the input has been used, including the bits of the
+     * last byte.
+     * @return true if more input should be set
+     */
+    public boolean needsInput() {
+        return !finished && !input.hasRemaining() && bitCount == 0;
+    }
+
+    /**
+     * Determine if the PSEUDO_EOF code has been decoded.
+     * @return true if the end of the compressed data was reached
+     */
+    public boolean finished() {
+        return finished;
+    }
+
+    /**
+     * Get the number of input bytes after the end of the compressed data.
+     * @return the number of unused bytes in the last input
+     */
+    public int getRemaining() {
+        return input.remaining();
+    }
+
+    /**
+     * Decode as much input as fits in a slice of an array.
+     * pre: dst != null, the slice is within the array
+     * @param dst the array the output is written to
+     * @param off the offset of the first byte to write
+     * @param len the maximum number of bytes to write
+     * @return the number of bytes written, 0 if more input is needed or
+     * the data is finished
+     * @throws IOException if the compressed data is not valid
+     */
+    public int decode(byte[] dst, int off, int len) throws IOException {
+        // check preconditions
+        if (dst == null || off < 0 || len < 0 || off > dst.length - len) {
+            throw new IllegalArgumentException("bad output slice.");
+        }
+        ByteBuffer out = ByteBuffer.wrap(dst, off, len);
+        code(input, out);
+        return out.position() - off;
+    }
+
+    /**
+     * Decode from one buffer into another, advancing the position of both.
+     * The input set with <code>setInput</code> is not used.
+     * pre: src != null, dst != null
+     * @param src the compressed bytes
+     * @param dst the buffer the output is written to
+     * @return END once the PSEUDO_EOF code has been decoded, OVERFLOW if dst
+     * is full, or UNDERFLOW if src is empty and more input is needed
+     * @throws IOException if the compressed data is not valid
+     */
+    public HuffCoderResult decode(ByteBuffer src, ByteBuffer dst) throws IOException {
+        // check preconditions
+        if (src == null || dst == null) {
+            throw new IllegalArgumentException("src and dst cannot be null.");
+        }
+        code(src, dst);
+        if (finished) {
+            return HuffCoderResult.END;
+        }
+        return dst.hasRemaining() ? HuffCoderResult.UNDERFLOW : HuffCoderResult.OVERFLOW;
+    }
+
+    /**
+     * Decode until the input runs out, the output is full, or the data ends.
+     * @param src the compressed bytes
+     * @param dst the buffer the output is written to
+     * @throws IOException if the compressed data is not valid
+     */
+    private void code(ByteBuffer src, ByteBuffer dst) throws IOException {
+        if (finished || (header != null && !readHeader(src))) {
+            return;
+        }
+        int start = dst.position();
+        if (table != null) {
+            walkTable(src, dst);
+        } else {
+            walkTree(src, dst);
+        }
+        bytesWritten += dst.position() - start;
+    }
+
+    /**
+     * Decode with the code tree.
+     * @param src the compressed bytes
+     * @param dst the buffer the output is written to
+     */
+    private void walkTree(ByteBuffer src, ByteBuffer dst) {
+        while (dst.hasRemaining() && !finished) {
+            if (bitCount == 0) {
+                if (!src.hasRemaining()) {
+                    break;
+                }
+                bitBuffer = src.get() & 0xff;
+                bitCount = BITS_PER_WORD;
+                bytesRead++;
+            }
+            bitCount--;
+            node = ((bitBuffer >>> bitCount) & 1) == 0 ? node.getLeft() : node.getRight();
+            if (node.isLeaf()) {
+                if (node.getValue() == PSEUDO_EOF) {
+                    finish();
+                } else {
+                    dst.put((byte) node.getValue());
+                    node = root;
+                }
+            }
+        }
+    }
+
+    /**
+     * Decode with the direct code table.
+     * @param src the compressed bytes
+     * @param dst the buffer the output is written to
+     */
+    private void walkTable(ByteBuffer src, ByteBuffer dst) {
+        table.checkAlive();
+        int current = tableNode;
+        while (dst.hasRemaining() && !finished) {
+            if (bitCount == 0) {
+                if (!src.hasRemaining()) {
+                    break;
+                }
+                bitBuffer = src.get() & 0xff;
+                bitCount = BITS_PER_WORD;
+                bytesRead++;
+            }
+            bitCount--;
+            int next = table.next(current, (bitBuffer >>> bitCount) & 1);
+            if (next >= 0) {
+                current = next;
+            } else if (~next == PSEUDO_EOF) {
+                finish();
+            } else {
+                dst.put((byte) ~next);
+                current = 0;
+            }
+        }
+        tableNode = current;
+    }
+
+    /**
+     * Decode compressed data from a file, mapping it into memory a window at
+     * a time so files larger than a buffer can hold are read without copies.
+     * Decoding stops at the PSEUDO_EOF code. The decoder should be new or
+     * reset, and the input set with <code>setInput</code> is not used.
+     * pre: src != null, dst != null, position >= 0, dst is blocking
+     * @param src the file holding the compressed data
+     * @param position the offset in the file where the compressed data starts
+     * @param dst the channel the output is written to
+     * @return the number of compressed bytes used
+     * @throws IOException if an error occurs, the data is not valid, or the
+     * file ends before the PSEUDO_EOF code
+     */
+    public long decode(FileChannel src, long position, WritableByteChannel dst)
+            throws IOException {
+        // check preconditions
+        if (src == null || dst == null || position < 0) {
+            throw new IllegalArgumentException("src and dst cannot be null "
+                    + "and position cannot be negative.");
+        }
+        if (mappedOutput == null) {
+            mappedOutput = arena == null ? ByteBuffer.allocateDirect(MAPPED_OUTPUT_SIZE)
+                    : arena.allocate(MAPPED_OUTPUT_SIZE);
+        }
+        long pos = position;
+        long size = src.size();
+        while (!finished) {
+            if (pos >= size) {
+                throw new EOFException("file ended before the PSEUDO_EOF code.");
+            }
+            MappedByteBuffer window = src.map(FileChannel.MapMode.READ_ONLY, pos,
+                    Math.min(MAP_WINDOW, size - pos));
+            HuffCoderResult result;
+            do {
+                mappedOutput.clear();
+                result = decode(window, mappedOutput);
+                mappedOutput.flip();
+                while (mappedOutput.hasRemaining()) {
+                    dst.write(mappedOutput);
+                }
+            } while (result == HuffCoderResult.OVERFLOW);
+            pos += window.position();
+        }
+        return pos - position;
+    }
+
+    /**
+     * Decode as much input as fits in an array.
+     * pre: dst != null
+     * @param dst the array the output is written to
+     * @return the number of bytes written
+     * @throws IOException if the compressed data is not valid
+     */
+    public int decode(byte[] dst) throws IOException {
+        return decode(dst, 0, dst.length);
+    }
+
+    // the rest of the last byte is padding
+    private void finish() {
+        finished = true;
+        bitCount = 0;
+    }
+
+    /**
+     * Collect header bits and parse the header once all of it has arrived.
+     * @param src the compressed bytes
+     * @return true if the header has been parsed
+     * @throws IOException if the header is not valid
+     */
+    private boolean readHeader(ByteBuffer src) throws IOException {
+        if (!collectHeader(src)) {
+            return false;
+        }
+        if (headerNeeded == PREAMBLE_BITS) {
+            BitInputStream bits = headerStream();
+            if (bits.readBits(BITS_PER_INT) != MAGIC_NUMBER) {
+                throw new IOException("Error reading compressed file. \n" +
+                        "File did not start with the huff magic number.");
+            }
+            format = bits.readBits(BITS_PER_INT);
+            if (format == STORE_COUNTS) {
+                headerNeeded += ALPH_SIZE * BITS_PER_INT;
+            } else if (format == STORE_COMPACT_COUNTS) {
+                headerNeeded += CompactCounts.BITMAP_BYTES * BITS_PER_WORD;
+            } else if (format == STORE_TREE || format == STORE_CUSTOM) {
+                // the tree size, or the table id and checksum
+                headerNeeded += format == STORE_TREE ? BITS_PER_INT : BITS_PER_INT * 2;
+            } else {
+                throw new IOException("Error reading compressed file. \n" +
+                        "header format " + HuffAnalysis.formatName(format)
+                        + " cannot be decoded incrementally.");
+            }
+            if (!collectHeader(src)) {
+                return false;
+            }
+        }
+        if (format == STORE_TREE && headerNeeded == PREAMBLE_BITS + BITS_PER_INT) {
+            BitInputStream bits = headerStream();
+            bits.readBits(BITS_PER_INT);
+            bits.readBits(BITS_PER_INT);
+            int treeBits = bits.readBits(BITS_PER_INT);
+            if (treeBits <= 0 || treeBits > MAX_TREE_BITS) {
+                throw new IOException("Error reading compressed file. \n" +
+                        "bad tree size " + treeBits);
+            }
+            headerNeeded += treeBits;
+            if (!collectHeader(src)) {
+                return false;
+            }
+        }
+        if (format == STORE_COMPACT_COUNTS) {
+            // the counts follow the bitmap, ask for a byte for each unfinished one
+            int missing;
+            while ((missing = CompactCounts.bytesMissing(header, PREAMBLE_BITS / BITS_PER_WORD,
+                    (headerNeeded - PREAMBLE_BITS) / BITS_PER_WORD)) > 0) {
+                headerNeeded += missing * BITS_PER_WORD;
+                if (!collectHeader(src)) {
+                    return false;
+                }
+            }
+        }
+        BitInputStream bits = headerStream();
+        bits.readBits(BITS_PER_INT);
+        bits.readBits(BITS_PER_INT);
+        TreeNode treeRoot = SimpleHuffProcessor.readTree(bits, format, registry).getRoot();
+        boolean rootIsLeaf = treeRoot.isLeaf();
+        if (rootIsLeaf && treeRoot.getValue() != PSEUDO_EOF) {
+            // a lone leaf has a code with no bits, so only PSEUDO_EOF can be it
+            throw new IOException("Error reading compressed file. \n" +
+                    "code tree has no PSEUDO_EOF.");
+        }
+        if (arena == null) {
+            root = treeRoot;
+            node = root;
+        } else if (format == STORE_CUSTOM) {
+            // readTree has checked the table id that follows the format
+            table = arena.tableFor(registry.get(ByteBuffer.wrap(header).getInt(PREAMBLE_BITS
+                    / BITS_PER_WORD)));
+        } else {
+            if (staging == null) {
+                staging = new DirectCodeTable(arena);
+            }
+            if (!staging.set(treeRoot)) {
+                throw new IOException("Error reading compressed file. \n" +
+                        "code tree has too many nodes.");
+            }
+            table = staging;
+        }
+        header = null;
+        if (rootIsLeaf) {
+            // only PSEUDO_EOF is in the tree and its code has no bits
+            finish();
+        }
+        return true;
+    }
+
+    /**
+     * Move input bits into the header until headerNeeded bits are there.
+     * @param src the compressed bytes
+     * @return true if the header has headerNeeded bits
+     */
+    private boolean collectHeader(ByteBuffer src) {
+        if (header.length * BITS_PER_WORD < headerNeeded) {
+            byte[] bigger = new byte[(headerNeeded + BITS_PER_WORD - 1) / BITS_PER_WORD];
+            System.arraycopy(header, 0, bigger, 0, header.length);
+            header = bigger;
+        }
+        while (headerBits < headerNeeded) {
+            if (bitCount == 0) {
+                if (!src.hasRemaining()) {
+                    return false;
+                }
+                bitBuffer = src.get() & 0xff;
+                bitCount = BITS_PER_WORD;
+                bytesRead++;
+            }
+            bitCount--;
+            if (((bitBuffer >>> bitCount) & 1) == 1) {
+                header[headerBits / BITS_PER_WORD] |= 0x80 >>> (headerBits % BITS_PER_WORD);
+            }
+            headerBits++;
+        }
+        return true;
+    }
+
+    // read the header bits collected so far from the start
+    private BitInputStream headerStream() {
+        return new BitInputStream(new ByteArrayInputStream(header));
+    }
+
+    /**
+     * Get the number of compressed bytes used.
+     * @return the total bytes read
+     */
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * Get the number of uncompressed bytes returned.
+     * @return the total bytes written
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * Reset the decoder to decode new compressed data. Any input not yet
+     * used is dropped.
+     */
+    public void reset() {
+        header = new byte[PREAMBLE_BITS / BITS_PER_WORD];
+        headerBits = 0;
+        headerNeeded = PREAMBLE_BITS;
+        format = 0;
+        root = null;
+        node = null;
+        table = null;
+        tableNode = 0;
+        input = ByteBuffer.allocate(0);
+        bitBuffer = 0;
+        bitCount = 0;
+        finished = false;
+        bytesRead = 0;
+        bytesWritten = 0;
+    }
+}
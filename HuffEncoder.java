@@ -0,0 +1,420 @@
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+/**
+ * An incremental Huffman encoder modeled on <code>java.util.zip.Deflater</code>.
+ * Input is given a slice at a time with <code>setInput</code> and output is
+ * drained into caller supplied arrays with <code>encode</code>, so neither
+ * side ever blocks. Bits that do not fill a byte are kept between calls.
+ * The same coding is available on heap or direct ByteBuffers with
+ * <code>encode(ByteBuffer, ByteBuffer, boolean)</code>, which reports
+ * partial progress the way <code>CharsetEncoder</code> does.
+ * <P>
+ * Since the code has to be known before the first byte is coded, it comes
+ * from frequencies given up front or from a shared code table. The output
+ * is in the same format as <code>SimpleHuffProcessor.compress</code> writes
+ * with STORE_COUNTS, STORE_COMPACT_COUNTS, STORE_TREE, or STORE_CUSTOM, so
+ * it can be read by HuffDecoder or by <code>uncompress</code>.
+ * <pre>
+ * HuffEncoder encoder = new HuffEncoder(freqs);
+ * encoder.setInput(data);
+ * encoder.finish();
+ * while (!encoder.finished()) {
+ *     int count = encoder.encode(buffer);
+ *     out.write(buffer, 0, count);
+ * }
+ * </pre>
+ */
+public class HuffEncoder implements IHuffConstants {
+
+    // codes are added to a 64 bit buffer holding fewer than 8 bits
+    static final int MAX_CODE_LENGTH = 56;
+
+    // code of each bit-sequence, right aligned
+    private final long[] codes;
+    // length of the code of each bit-sequence
+    private final int[] lengths;
+    // magic number, format, and the whole bytes of the header
+    private final byte[] header;
+    // header bits that do not fill a byte, the first bits of the data
+    private final long headerBitBuffer;
+    private final int headerBitCount;
+
+    private int headerPos;
+    // input set with setInput, empty if none
+    private ByteBuffer input;
+    // bits not yet written, the low bitCount bits of bitBuffer
+    private long bitBuffer;
+    private int bitCount;
+    private boolean finishCalled;
+    private boolean eofCoded;
+    private long bytesRead;
+    private long bytesWritten;
+
+    /**
+     * Get the length of the longest code of this encoder.
+     * @return the most bits a value is coded in
+     */
+    int maxCodeLength() {
+        int result = 0;
+        for (int length : lengths) {
+            result = Math.max(result, length);
+        }
+        return result;
+    }
+
+    /**
+     * Create an encoder whose code is built from frequencies. Every value is
+     * given a count of at least one so that any input can be coded, and the
+     * counts are written in a STORE_COUNTS header.
+     * pre: freqs != null, freqs.length >= ALPH_SIZE
+     * @param freqs the expected frequency of each bit-sequence
+     */
+    public HuffEncoder(int[] freqs) {
+        // check preconditions
+        if (freqs == null || freqs.length < ALPH_SIZE) {
+            throw new IllegalArgumentException("freqs must have at least ALPH_SIZE values.");
+        }
+        int[] counts = new int[ALPH_SIZE + 1];
+        ByteBuffer buffer = ByteBuffer.allocate((ALPH_SIZE + 2) * BITS_PER_INT / BITS_PER_WORD);
+        buffer.putInt(MAGIC_NUMBER);
+        buffer.putInt(STORE_COUNTS);
+        for (int i = 0; i < ALPH_SIZE; i++) {
+            counts[i] = Math.max(1, freqs[i]);
+            buffer.putInt(counts[i]);
+        }
+        counts[PSEUDO_EOF] = 1;
+        header = buffer.array();
+        headerBitBuffer = 0;
+        headerBitCount = 0;
+        codes = new long[ALPH_SIZE + 1];
+        lengths = new int[ALPH_SIZE + 1];
+        setCodes(new HuffmanCodeTree(counts).treeToCode(), false);
+        reset();
+    }
+
+    /**
+     * Create an encoder for data whose exact counts are known, e.g. a block
+     * that has already been counted. Only values with a count are given a
+     * code, so the encoder must only be given the data that was counted.
+     * The number of bits written is what <code>HuffAnalysis</code> reports
+     * for the same counts and format.
+     * pre: counts != null, counts.length >= ALPH_SIZE,
+     * headerFormat is STORE_COUNTS, STORE_COMPACT_COUNTS, or STORE_TREE
+     * @param counts the frequency of each bit-sequence in the data
+     * @param headerFormat the header format to write
+     */
+    public HuffEncoder(int[] counts, int headerFormat) {
+        // check preconditions
+        if (counts == null || counts.length < ALPH_SIZE
+                || (headerFormat != STORE_COUNTS && headerFormat != STORE_COMPACT_COUNTS
+                && headerFormat != STORE_TREE)) {
+            throw new IllegalArgumentException("counts must have at least ALPH_SIZE values "
+                    + "and headerFormat must be STORE_COUNTS, STORE_COMPACT_COUNTS, "
+                    + "or STORE_TREE.");
+        }
+        int[] freqs = new int[ALPH_SIZE + 1];
+        System.arraycopy(counts, 0, freqs, 0, ALPH_SIZE);
+        freqs[PSEUDO_EOF] = 1;
+        HuffmanCodeTree tree = new HuffmanCodeTree(freqs);
+
+        // write the header as the processor does, then split off the partial byte
+        ByteArrayOutputStream headerOut = new ByteArrayOutputStream();
+        BitOutputStream bitsOut = new BitOutputStream(headerOut);
+        bitsOut.writeBits(BITS_PER_INT, MAGIC_NUMBER);
+        bitsOut.writeBits(BITS_PER_INT, headerFormat);
+        int headerBits = BITS_PER_INT * 2;
+        if (headerFormat == STORE_COUNTS) {
+            for (int i = 0; i < ALPH_SIZE; i++) {
+                bitsOut.writeBits(BITS_PER_INT, counts[i]);
+            }
+            headerBits += ALPH_SIZE * BITS_PER_INT;
+        } else if (headerFormat == STORE_COMPACT_COUNTS) {
+            long[] wide = new long[ALPH_SIZE];
+            for (int i = 0; i < ALPH_SIZE; i++) {
+                wide[i] = counts[i];
+            }
+            for (byte b : CompactCounts.toBytes(wide)) {
+                bitsOut.writeBits(BITS_PER_WORD, b);
+            }
+            headerBits += CompactCounts.bits(wide);
+        } else {
+            bitsOut.writeBits(BITS_PER_INT, tree.treeBits());
+            tree.writeTree(bitsOut);
+            headerBits += BITS_PER_INT + tree.treeBits();
+        }
+        bitsOut.close();
+        byte[] padded = headerOut.toByteArray();
+        header = new byte[headerBits / BITS_PER_WORD];
+        System.arraycopy(padded, 0, header, 0, header.length);
+        headerBitCount = headerBits % BITS_PER_WORD;
+        headerBitBuffer = headerBitCount == 0 ? 0
+                : (padded[header.length] & 0xff) >>> (BITS_PER_WORD - headerBitCount);
+        codes = new long[ALPH_SIZE + 1];
+        lengths = new int[ALPH_SIZE + 1];
+        setCodes(tree.treeToCode(), true);
+        reset();
+    }
+
+    /**
+     * Create an encoder that uses a shared code table. Decoders must have
+     * the same table in their registry.
+     * pre: table != null, the table has a code for every value
+     * @param table the shared code table
+     */
+    public HuffEncoder(CodeTable table) {
+        // check preconditions
+        if (table == null) {
+            throw new IllegalArgumentException("table cannot be null.");
+        }
+        header = customHeader(table);
+        headerBitBuffer = 0;
+        headerBitCount = 0;
+        codes = new long[ALPH_SIZE + 1];
+        lengths = new int[ALPH_SIZE + 1];
+        setCodes(table.getCodes(), false);
+        reset();
+    }
+
+    /**
+     * Create an encoder that uses the direct copy of a shared code table.
+     * The codes are copied from the table's memory, which is cheaper than
+     * converting them from Strings for every encoder.
+     * pre: table != null, table was made from a shared CodeTable, the
+     * table has a code for every value
+     * @param table the direct copy of the shared code table
+     */
+    public HuffEncoder(DirectCodeTable table) {
+        // check preconditions
+        if (table == null || table.getCodeTable() == null) {
+            throw new IllegalArgumentException("table must be the copy of a shared table.");
+        }
+        header = customHeader(table.getCodeTable());
+        headerBitBuffer = 0;
+        headerBitCount = 0;
+        codes = new long[ALPH_SIZE + 1];
+        lengths = new int[ALPH_SIZE + 1];
+        for (int i = 0; i <= ALPH_SIZE; i++) {
+            lengths[i] = table.getLength(i);
+            if (lengths[i] < 0) {
+                throw new IllegalArgumentException("every value needs a code of at most "
+                        + MAX_CODE_LENGTH + " bits, " + i + " has none.");
+            }
+            codes[i] = table.getCode(i);
+        }
+        reset();
+    }
+
+    /**
+     * Build the STORE_CUSTOM header for a shared table.
+     * @param table the shared code table
+     * @return the magic number, format, table id, and checksum
+     */
+    private static byte[] customHeader(CodeTable table) {
+        ByteBuffer buffer = ByteBuffer.allocate(4 * BITS_PER_INT / BITS_PER_WORD);
+        buffer.putInt(MAGIC_NUMBER);
+        buffer.putInt(STORE_CUSTOM);
+        buffer.putInt(table.getId());
+        buffer.putInt(table.getChecksum());
+        return buffer.array();
+    }
+
+    /**
+     * Convert codes from Strings to bits.
+     * @param huffCodings the code of each bit-sequence
+     * @param partial true if values that are not in the data may have no code
+     */
+    private void setCodes(Map<Integer, String> huffCodings, boolean partial) {
+        for (int i = 0; i <= ALPH_SIZE; i++) {
+            String code = huffCodings.get(i);
+            if (code == null && partial) {
+                continue;
+            }
+            if (code == null || code.length() > MAX_CODE_LENGTH) {
+                throw new IllegalArgumentException("every value needs a code of at most "
+                        + MAX_CODE_LENGTH + " bits, " + i + " has " + code);
+            }
+            lengths[i] = code.length();
+            codes[i] = code.length() == 0 ? 0 : Long.parseLong(code, 2);
+        }
+    }
+
+    /**
+     * Set the input to encode. The array is not copied, so it must not be
+     * changed until <code>needsInput</code> returns true.
+     * pre: input != null, the slice is within the array
+     * @param input the array holding the input
+     * @param off the offset of the first byte
+     * @param len the number of bytes
+     */
+    public void setInput(byte[] input, int off, int len) {
+        // check preconditions
+        if (input == null || off < 0 || len < 0 || off > input.length - len) {
+            throw new IllegalArgumentException("bad input slice.");
+        }
+        this.input = ByteBuffer.wrap(input, off, len);
+    }
+
+    /**
+     * Set the input to encode.
+     * pre: input != null
+     * @param input the input
+     */
+    public void setInput(byte[] input) {
+        setInput(input, 0, input.length);
+    }
+
+    /**
+     * Determine if all of the input has been encoded.
+     * @return true if more input should be set
+     */
+    public boolean needsInput() {
+        return !input.hasRemaining();
+    }
+
+    /**
+     * Signal that the current input is the last. After it is encoded the
+     * PSEUDO_EOF code and padding are written.
+     */
+    public void finish() {
+        finishCalled = true;
+    }
+
+    /**
+     * Determine if the end of the output has been written.
+     * @return true if <code>finish</code> was called and all output has been returned
+     */
+    public boolean finished() {
+        return eofCoded && bitCount == 0 && headerPos == header.length;
+    }
+
+    /**
+     * Encode as much input as fits in a slice of an array.
+     * pre: dst != null, the slice is within the array
+     * @param dst the array the output is written to
+     * @param off the offset of the first byte to write
+     * @param len the maximum number of bytes to write
+     * @return the number of bytes written, 0 if more input is needed
+     */
+    public int encode(byte[] dst, int off, int len) {
+        // check preconditions
+        if (dst == null || off < 0 || len < 0 || off > dst.length - len) {
+            throw new IllegalArgumentException("bad output slice.");
+        }
+        ByteBuffer out = ByteBuffer.wrap(dst, off, len);
+        code(input, out);
+        return out.position() - off;
+    }
+
+    /**
+     * Encode from one buffer into another, advancing the position of both.
+     * The input set with <code>setInput</code> is not used.
+     * pre: src != null, dst != null
+     * @param src the bytes to encode
+     * @param dst the buffer the output is written to
+     * @param endOfInput true if src holds the last of the input, the same as
+     * calling <code>finish</code>
+     * @return END once all output including the padding has been written,
+     * OVERFLOW if dst is full, or UNDERFLOW if src is empty and more input is needed
+     */
+    public HuffCoderResult encode(ByteBuffer src, ByteBuffer dst, boolean endOfInput) {
+        // check preconditions
+        if (src == null || dst == null) {
+            throw new IllegalArgumentException("src and dst cannot be null.");
+        }
+        if (endOfInput) {
+            finishCalled = true;
+        }
+        code(src, dst);
+        if (finished()) {
+            return HuffCoderResult.END;
+        }
+        return dst.hasRemaining() ? HuffCoderResult.UNDERFLOW : HuffCoderResult.OVERFLOW;
+    }
+
+    /**
+     * Encode until the input runs out or the output is full.
+     * @param src the bytes to encode
+     * @param dst the buffer the output is written to
+     */
+    private void code(ByteBuffer src, ByteBuffer dst) {
+        int start = dst.position();
+        // the header goes out first
+        while (headerPos < header.length && dst.hasRemaining()) {
+            dst.put(header[headerPos++]);
+        }
+        while (dst.hasRemaining()) {
+            // write whole bytes
+            while (bitCount >= BITS_PER_WORD && dst.hasRemaining()) {
+                bitCount -= BITS_PER_WORD;
+                dst.put((byte) (bitBuffer >>> bitCount));
+            }
+            if (!dst.hasRemaining()) {
+                break;
+            }
+            // fewer than 8 bits are buffered, add the next code
+            if (src.hasRemaining()) {
+                addCode(src.get() & 0xff);
+                bytesRead++;
+            } else if (finishCalled && !eofCoded) {
+                addCode(PSEUDO_EOF);
+                eofCoded = true;
+            } else if (eofCoded && bitCount > 0) {
+                // pad the last byte with zeros
+                bitBuffer <<= BITS_PER_WORD - bitCount;
+                bitCount = BITS_PER_WORD;
+            } else {
+                break;
+            }
+        }
+        bytesWritten += dst.position() - start;
+    }
+
+    /**
+     * Encode as much input as fits in an array.
+     * pre: dst != null
+     * @param dst the array the output is written to
+     * @return the number of bytes written, 0 if more input is needed
+     */
+    public int encode(byte[] dst) {
+        return encode(dst, 0, dst.length);
+    }
+
+    // append the code of a value to the bit buffer
+    private void addCode(int value) {
+        bitBuffer = (bitBuffer << lengths[value]) | codes[value];
+        bitCount += lengths[value];
+    }
+
+    /**
+     * Get the number of input bytes encoded.
+     * @return the total bytes read
+     */
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * Get the number of output bytes returned.
+     * @return the total bytes written, including the header
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * Reset the encoder to encode new data with the same code. Any input
+     * not yet encoded is dropped.
+     */
+    public void reset() {
+        headerPos = 0;
+        input = ByteBuffer.allocate(0);
+        bitBuffer = headerBitBuffer;
+        bitCount = headerBitCount;
+        finishCalled = false;
+        eofCoded = false;
+        bytesRead = 0;
+        bytesWritten = 0;
+    }
+}
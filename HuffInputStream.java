@@ -0,0 +1,167 @@
+import java.io.DataInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An input stream filter that uncompresses data written by a
+ * HuffOutputStream as it is read, the way <code>GZIPInputStream</code> does.
+ * One block is decoded at a time and served from an internal buffer, so
+ * bulk reads are mostly array copies.
+ */
+public class HuffInputStream extends FilterInputStream implements IHuffConstants {
+
+    private final DataInputStream dataIn;
+    private final HuffDecoder decoder;
+    private boolean headerRead;
+    private boolean ended;
+    // the current decoded block
+    private byte[] block;
+    private int pos;
+    private int limit;
+    private byte[] coded;
+
+    /**
+     * Create an uncompressing stream.
+     * @param in the stream holding data written by a HuffOutputStream
+     */
+    public HuffInputStream(InputStream in) {
+        this(in, false);
+    }
+
+    /**
+     * Create an uncompressing stream.
+     * @param in the stream holding the compressed data
+     * @param headerRead true if the magic number and STORE_BLOCKS have
+     * already been read from in
+     */
+    HuffInputStream(InputStream in, boolean headerRead) {
+        super(in);
+        dataIn = new DataInputStream(in);
+        decoder = new HuffDecoder();
+        this.headerRead = headerRead;
+        block = new byte[0];
+        coded = new byte[0];
+    }
+
+    /**
+     * Read one byte.
+     * @return the byte, or -1 at the end of the data
+     * @throws IOException if an error occurs or the data is not valid
+     */
+    public int read() throws IOException {
+        if (pos == limit && !nextBlock()) {
+            return -1;
+        }
+        return block[pos++] & 0xff;
+    }
+
+    /**
+     * Read into a slice of an array.
+     * @param b the array to read into
+     * @param off the offset of the first byte
+     * @param len the maximum number of bytes to read
+     * @return the number of bytes read, or -1 at the end of the data
+     * @throws IOException if an error occurs or the data is not valid
+     */
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || off > b.length - len) {
+            throw new IndexOutOfBoundsException("bad slice.");
+        } else if (len == 0) {
+            return 0;
+        } else if (pos == limit && !nextBlock()) {
+            return -1;
+        }
+        int n = Math.min(len, limit - pos);
+        System.arraycopy(block, pos, b, off, n);
+        pos += n;
+        return n;
+    }
+
+    /**
+     * Skip uncompressed bytes.
+     * @param n the number of bytes to skip
+     * @return the number of bytes skipped
+     * @throws IOException if an error occurs or the data is not valid
+     */
+    public long skip(long n) throws IOException {
+        long skipped = 0;
+        while (skipped < n && (pos < limit || nextBlock())) {
+            int step = (int) Math.min(n - skipped, limit - pos);
+            pos += step;
+            skipped += step;
+        }
+        return skipped;
+    }
+
+    /**
+     * Get the number of bytes that can be read without decoding another block.
+     * @return the bytes left in the current block
+     */
+    public int available() {
+        return limit - pos;
+    }
+
+    public boolean markSupported() {
+        return false;
+    }
+
+    public void mark(int readlimit) {
+    }
+
+    public void reset() throws IOException {
+        throw new IOException("mark/reset not supported");
+    }
+
+    /**
+     * Read and decode the next block.
+     * @return false at the end of the data
+     * @throws IOException if an error occurs or the data is not valid
+     */
+    private boolean nextBlock() throws IOException {
+        if (ended) {
+            return false;
+        }
+        if (!headerRead) {
+            if (dataIn.readInt() != MAGIC_NUMBER || dataIn.readInt() != STORE_BLOCKS) {
+                throw new IOException("Error reading compressed stream. \n" +
+                        "Stream did not start with the huff block stream header.");
+            }
+            headerRead = true;
+        }
+        int blockLength = dataIn.readInt();
+        if (blockLength == 0) {
+            ended = true;
+            return false;
+        }
+        int codedLength = dataIn.readInt();
+        // a coded block is never chosen when it is larger than storing it
+        if (blockLength < 0 || codedLength < 0
+                || codedLength > blockLength + BITS_PER_INT * 2 / BITS_PER_WORD) {
+            throw new IOException("Error reading compressed stream. \n" +
+                    "bad block lengths " + blockLength + " " + codedLength);
+        }
+        // one extra byte so decoding can run on to the PSEUDO_EOF code
+        if (block.length < blockLength + 1) {
+            block = new byte[blockLength + 1];
+        }
+        if (codedLength == 0) {
+            dataIn.readFully(block, 0, blockLength);
+        } else {
+            if (coded.length < codedLength) {
+                coded = new byte[codedLength];
+            }
+            dataIn.readFully(coded, 0, codedLength);
+            decoder.reset();
+            decoder.setInput(coded, 0, codedLength);
+            int decoded = decoder.decode(block, 0, blockLength + 1);
+            if (decoded != blockLength || !decoder.finished()) {
+                throw new IOException("Error reading compressed stream. \n" +
+                        "block decoded to the wrong length.");
+            }
+        }
+        pos = 0;
+        limit = blockLength;
+        return true;
+    }
+}
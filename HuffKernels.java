@@ -0,0 +1,375 @@
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Batched kernels for the two loops that touch every input byte: counting
+ * the bytes, and writing their codes. Each has a plain one-byte-at-a-time
+ * version that the batched one must match exactly.
+ * <P>
+ * The lane histogram counts into four separate tables, one per lane of
+ * four bytes, and adds them at the end, so runs of the same byte do not
+ * wait on each other's increments. That is two to three times faster on
+ * long runs and skewed data, but more than a third slower on text and
+ * random data, so it is off unless the system property
+ * <code>huff.histogram</code> is <code>lanes</code> or it is turned on with
+ * <code>setLaneHistogram</code>. The code writer gathers the codes and
+ * lengths of four bytes, adds up their bit offsets, and packs them into a
+ * 64 bit buffer with one shift and or each. Whole bytes are collected in
+ * an array and written in bulk instead of through <code>writeBits</code>.
+ * <P>
+ * The batched kernels are used unless the system property
+ * <code>huff.kernels</code> is <code>scalar</code> or they are turned off
+ * with <code>setEnabled</code>. To compare the two on some files:
+ * <pre>java HuffKernels file...</pre>
+ */
+public class HuffKernels implements IHuffConstants {
+
+    // the most bits the code writer packs for one value
+    static final int MAX_BATCHED_CODE_LENGTH = 32;
+    // bits the code writer writes at once
+    private static final int FLUSH_BITS = 32;
+
+    private static final int LANES = 4;
+    // the size of the lane tables of the histogram
+    static final int LANE_TABLE_SIZE = LANES * ALPH_SIZE;
+    // whole bytes the code writer collects before writing them
+    private static final int STAGED_SIZE = 1 << 13;
+
+    private static volatile boolean enabled =
+            !"scalar".equals(System.getProperty("huff.kernels"));
+    private static volatile boolean laneHistogram =
+            "lanes".equals(System.getProperty("huff.histogram"));
+
+    private HuffKernels() {
+    }
+
+    /**
+     * Determine if the batched kernels are used.
+     * @return false if the plain loops are used
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Choose between the batched kernels and the plain loops.
+     * @param useKernels true to use the batched kernels
+     */
+    public static void setEnabled(boolean useKernels) {
+        enabled = useKernels;
+    }
+
+    /**
+     * Determine if the histogram counts in lanes.
+     * @return true if the lane histogram is used along with the other kernels
+     */
+    public static boolean isLaneHistogram() {
+        return laneHistogram;
+    }
+
+    /**
+     * Choose between the lane histogram and the plain loop. The lane
+     * histogram is only faster on data with long runs or a few very common
+     * values. It is not used when the kernels are turned off.
+     * @param useLanes true to count in lanes
+     */
+    public static void setLaneHistogram(boolean useLanes) {
+        laneHistogram = useLanes;
+    }
+
+    /**
+     * Add the bytes of a slice of an array to a histogram.
+     * pre: b != null, freqs.length >= ALPH_SIZE, the slice is within b
+     * @param b the array holding the data
+     * @param off the offset of the first byte
+     * @param len the number of bytes
+     * @param freqs the counts of each byte value, added to
+     */
+    public static void histogram(byte[] b, int off, int len, int[] freqs) {
+        if (!enabled || !laneHistogram || len < ALPH_SIZE) {
+            histogramScalar(b, off, len, freqs);
+            return;
+        }
+        histogram(b, off, len, freqs, new int[LANE_TABLE_SIZE]);
+    }
+
+    /**
+     * Add the bytes of a slice of an array to a histogram, with the lane
+     * tables in an array the caller keeps, so nothing is allocated.
+     * pre: b != null, freqs.length >= ALPH_SIZE, the slice is within b,
+     * lanes.length >= LANE_TABLE_SIZE
+     * @param b the array holding the data
+     * @param off the offset of the first byte
+     * @param len the number of bytes
+     * @param freqs the counts of each byte value, added to
+     * @param lanes scratch space for the lane tables
+     */
+    static void histogram(byte[] b, int off, int len, int[] freqs, int[] lanes) {
+        if (!enabled || !laneHistogram || len < ALPH_SIZE) {
+            histogramScalar(b, off, len, freqs);
+            return;
+        }
+        histogramLanes(b, off, len, freqs, lanes);
+    }
+
+    /**
+     * Add the bytes of a slice of an array to a histogram, four lanes at a time.
+     * @param b the array holding the data
+     * @param off the offset of the first byte
+     * @param len the number of bytes
+     * @param freqs the counts of each byte value, added to
+     * @param lanes scratch space for the lane tables
+     */
+    static void histogramLanes(byte[] b, int off, int len, int[] freqs, int[] lanes) {
+        Arrays.fill(lanes, 0, LANE_TABLE_SIZE, 0);
+        int end = off + len;
+        int i = off;
+        for (; i <= end - LANES; i += LANES) {
+            lanes[b[i] & 0xff]++;
+            lanes[ALPH_SIZE + (b[i + 1] & 0xff)]++;
+            lanes[2 * ALPH_SIZE + (b[i + 2] & 0xff)]++;
+            lanes[3 * ALPH_SIZE + (b[i + 3] & 0xff)]++;
+        }
+        for (; i < end; i++) {
+            lanes[b[i] & 0xff]++;
+        }
+        for (int v = 0; v < ALPH_SIZE; v++) {
+            freqs[v] += lanes[v] + lanes[ALPH_SIZE + v]
+                    + lanes[2 * ALPH_SIZE + v] + lanes[3 * ALPH_SIZE + v];
+        }
+    }
+
+    /**
+     * Add the bytes of a slice of an array to a histogram, one at a time.
+     * @param b the array holding the data
+     * @param off the offset of the first byte
+     * @param len the number of bytes
+     * @param freqs the counts of each byte value, added to
+     */
+    static void histogramScalar(byte[] b, int off, int len, int[] freqs) {
+        for (int i = off; i < off + len; i++) {
+            freqs[b[i] & 0xff]++;
+        }
+    }
+
+    /**
+     * Convert codes from Strings to bits for <code>writeCodes</code>.
+     * @param huffCodings the code of each bit-sequence
+     * @param codes the code of each bit-sequence, right aligned, set
+     * @param lengths the length of the code of each bit-sequence, set
+     * @return false if a code is too long for the batched writer, in which
+     * case the codes must be written some other way
+     */
+    static boolean toBits(Map<Integer, String> huffCodings, long[] codes, int[] lengths) {
+        for (int i = 0; i <= ALPH_SIZE; i++) {
+            String code = huffCodings.get(i);
+            if (code == null) {
+                // never written, since only counted values are in the data
+                lengths[i] = 0;
+            } else if (code.length() > MAX_BATCHED_CODE_LENGTH) {
+                return false;
+            } else {
+                lengths[i] = code.length();
+                codes[i] = code.length() == 0 ? 0 : Long.parseLong(code, 2);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Write the codes of the bytes of a slice of an array.
+     * pre: every code is at most MAX_BATCHED_CODE_LENGTH bits
+     * @param b the array holding the data
+     * @param off the offset of the first byte
+     * @param len the number of bytes
+     * @param codes the code of each byte value, right aligned
+     * @param lengths the length of the code of each byte value
+     * @param out the stream the codes are written to
+     * @throws IOException if an error occurs while writing
+     */
+    static void writeCodes(byte[] b, int off, int len, long[] codes, int[] lengths,
+            BitOutputStream out) throws IOException {
+        if (!enabled) {
+            writeCodesScalar(b, off, len, codes, lengths, out);
+            return;
+        }
+        // bits not yet written, the low count bits of buffer, fewer than FLUSH_BITS
+        long buffer = 0;
+        int count = 0;
+        int end = off + len;
+        int i = off;
+        // finish the byte the stream is in, so whole bytes can be written in bulk
+        int pad = out.bitsToByteBoundary();
+        while (pad > 0 && i < end) {
+            int v = b[i++] & 0xff;
+            buffer = buffer << lengths[v] | codes[v];
+            count += lengths[v];
+            if (count >= pad) {
+                count -= pad;
+                out.writeBits(pad, (int) (buffer >>> count));
+                pad = 0;
+            }
+        }
+        byte[] staged = new byte[STAGED_SIZE];
+        int numStaged = 0;
+        for (; i <= end - LANES; i += LANES) {
+            int v0 = b[i] & 0xff;
+            int v1 = b[i + 1] & 0xff;
+            int v2 = b[i + 2] & 0xff;
+            int v3 = b[i + 3] & 0xff;
+            int l1 = lengths[v1];
+            int l2 = lengths[v2];
+            int l3 = lengths[v3];
+            // offsets of each code from the end of the batch
+            int o2 = l3;
+            int o1 = o2 + l2;
+            int o0 = o1 + l1;
+            int total = o0 + lengths[v0];
+            if (total <= Long.SIZE - FLUSH_BITS) {
+                buffer = buffer << total | codes[v0] << o0 | codes[v1] << o1
+                        | codes[v2] << o2 | codes[v3];
+                count += total;
+            } else {
+                // long codes, add them one at a time
+                for (int j = i; j < i + LANES; j++) {
+                    int v = b[j] & 0xff;
+                    buffer = buffer << lengths[v] | codes[v];
+                    count += lengths[v];
+                    if (count >= FLUSH_BITS) {
+                        count -= FLUSH_BITS;
+                        numStaged = stage(staged, numStaged, (int) (buffer >>> count), out);
+                    }
+                }
+            }
+            if (count >= FLUSH_BITS) {
+                count -= FLUSH_BITS;
+                numStaged = stage(staged, numStaged, (int) (buffer >>> count), out);
+            }
+        }
+        for (; i < end; i++) {
+            int v = b[i] & 0xff;
+            buffer = buffer << lengths[v] | codes[v];
+            count += lengths[v];
+            if (count >= FLUSH_BITS) {
+                count -= FLUSH_BITS;
+                numStaged = stage(staged, numStaged, (int) (buffer >>> count), out);
+            }
+        }
+        out.write(staged, 0, numStaged);
+        if (count > 0) {
+            out.writeBits(count, (int) buffer);
+        }
+    }
+
+    /**
+     * Add 32 bits to the staged bytes, writing them when the array is full.
+     * @param staged the whole bytes not yet written
+     * @param numStaged the number of staged bytes
+     * @param bits the bits to add
+     * @param out the stream, on a byte boundary, the bytes are written to
+     * @return the new number of staged bytes
+     * @throws IOException if an error occurs while writing
+     */
+    private static int stage(byte[] staged, int numStaged, int bits, BitOutputStream out)
+            throws IOException {
+        if (numStaged == staged.length) {
+            out.write(staged, 0, numStaged);
+            numStaged = 0;
+        }
+        staged[numStaged] = (byte) (bits >>> 24);
+        staged[numStaged + 1] = (byte) (bits >>> 16);
+        staged[numStaged + 2] = (byte) (bits >>> 8);
+        staged[numStaged + 3] = (byte) bits;
+        return numStaged + 4;
+    }
+
+    /**
+     * Write the codes of the bytes of a slice of an array, one at a time.
+     * @param b the array holding the data
+     * @param off the offset of the first byte
+     * @param len the number of bytes
+     * @param codes the code of each byte value, right aligned
+     * @param lengths the length of the code of each byte value
+     * @param out the stream the codes are written to
+     */
+    static void writeCodesScalar(byte[] b, int off, int len, long[] codes, int[] lengths,
+            BitOutputStream out) {
+        for (int i = off; i < off + len; i++) {
+            int v = b[i] & 0xff;
+            if (lengths[v] > 0) {
+                out.writeBits(lengths[v], (int) codes[v]);
+            }
+        }
+    }
+
+    /**
+     * Time the batched kernels against the plain loops on some files, and
+     * check that they give the same counts and the same output.
+     * @param args the files to time
+     * @throws IOException if a file cannot be read
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("usage: java HuffKernels file...");
+            System.exit(2);
+        }
+        final int rounds = 10;
+        for (String name : args) {
+            byte[] data = Files.readAllBytes(new File(name).toPath());
+            int[] freqs = new int[ALPH_SIZE + 1];
+            freqs[PSEUDO_EOF] = 1;
+            histogramScalar(data, 0, data.length, freqs);
+            long[] codes = new long[ALPH_SIZE + 1];
+            int[] lengths = new int[ALPH_SIZE + 1];
+            if (!toBits(new HuffmanCodeTree(freqs).treeToCode(), codes, lengths)) {
+                System.out.println(name + ": codes are too long for the batched writer");
+                continue;
+            }
+            long[] nanos = new long[4];
+            int[][] counted = new int[2][];
+            int[] lanes = new int[LANE_TABLE_SIZE];
+            byte[][] written = new byte[2][];
+            boolean saved = enabled;
+            try {
+                // round 0 warms up, the rest are timed
+                for (int round = 0; round <= rounds; round++) {
+                    for (int k = 0; k < 2; k++) {
+                        enabled = k == 1;
+                        counted[k] = new int[ALPH_SIZE + 1];
+                        long start = System.nanoTime();
+                        if (k == 1) {
+                            histogramLanes(data, 0, data.length, counted[k], lanes);
+                        } else {
+                            histogramScalar(data, 0, data.length, counted[k]);
+                        }
+                        long middle = System.nanoTime();
+                        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                        BitOutputStream out = new BitOutputStream(bytes);
+                        writeCodes(data, 0, data.length, codes, lengths, out);
+                        out.flush();
+                        long end = System.nanoTime();
+                        written[k] = bytes.toByteArray();
+                        if (round > 0) {
+                            nanos[k] += middle - start;
+                            nanos[2 + k] += end - middle;
+                        }
+                    }
+                }
+            } finally {
+                enabled = saved;
+            }
+            double mb = data.length / 1e6 * rounds;
+            System.out.printf("%s, %d bytes%n", name, data.length);
+            System.out.printf("  histogram   scalar %8.1f MB/s  lanes   %8.1f MB/s  same %b%n",
+                    mb / (nanos[0] / 1e9), mb / (nanos[1] / 1e9),
+                    Arrays.equals(counted[0], counted[1]));
+            System.out.printf("  write codes scalar %8.1f MB/s  batched %8.1f MB/s  same %b%n",
+                    mb / (nanos[2] / 1e9), mb / (nanos[3] / 1e9),
+                    Arrays.equals(written[0], written[1]));
+        }
+    }
+}
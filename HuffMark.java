@@ -2,8 +2,6 @@ import javax.swing.JFileChooser;
 import javax.swing.JOptionPane;
 
 import java.io.*;
-import java.nio.ByteBuffer;
-import java.nio.channels.FileChannel;
 
 public class HuffMark {
     protected static JFileChooser ourOpenChooser = new JFileChooser(System
@@ -15,6 +13,10 @@ public class HuffMark {
     private double myTotalCompressTime;
     private long myTotalUncompressedBytes;
     private long myTotalCompressedBytes;
+    // with -ans every file is also coded with STORE_ANS to compare
+    private boolean myCompareAns;
+    private double myTotalAnsTime;
+    private long myTotalAnsBytes;
     
     private IHuffProcessor myHuffer;
     private static String SUFFIX = ".hf";
@@ -40,6 +42,16 @@ public class HuffMark {
         
         System.out.printf("%s from\t %d to\t %d in\t %.3f\n",f.getName(),f.length(),outFile.length(),time);
         
+        if (myCompareAns) {
+            // the same data through the tANS backend, sized without writing a file
+            start = System.currentTimeMillis();
+            myHuffer.preprocessCompress(getFastByteReader(f), IHuffProcessor.STORE_ANS);
+            long bits = myHuffer.compress(getFastByteReader(f), OutputStream.nullOutputStream(), true);
+            time = (System.currentTimeMillis() - start) / 1000.0;
+            myTotalAnsBytes += bits / IHuffConstants.BITS_PER_WORD;
+            myTotalAnsTime += time;
+            System.out.printf("%s tANS to\t %d in\t %.3f\n", f.getName(), bits / IHuffConstants.BITS_PER_WORD, time);
+        }
     }
     
     public void doMark() throws IOException{
@@ -58,11 +70,17 @@ public class HuffMark {
             System.out.printf("total compressed bytes %d\n", myTotalCompressedBytes);
             System.out.printf("total percent compression %.3f\n",100.0* (1.0 - 1.0*myTotalCompressedBytes/myTotalUncompressedBytes));
             System.out.printf("compression time: %.3f\n",myTotalCompressTime);
+            if (myCompareAns) {
+                System.out.printf("total tANS bytes %d\n", myTotalAnsBytes);
+                System.out.printf("total tANS percent compression %.3f\n",100.0* (1.0 - 1.0*myTotalAnsBytes/myTotalUncompressedBytes));
+                System.out.printf("tANS compression time: %.3f\n", myTotalAnsTime);
+            }
         }
     }
     
     public static void main(String[] args) throws IOException{
         HuffMark hf = new HuffMark();
+        hf.myCompareAns = args.length > 0 && args[0].equals("-ans");
         hf.doMark();
     }
     
@@ -88,17 +106,9 @@ public class HuffMark {
             return new FileInputStream(f);
         }
         
-        ByteBuffer buffer = null;
+         // map the file a window at a time so files over 2 GB can be read
          try {
-             FileChannel channel = new FileInputStream(f).getChannel();
-             buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
-             byte[] barray = new byte[buffer.limit()];
-           
-             if (barray.length != channel.size()){               
-                 System.err.println(String.format("Reading %s error: lengths differ %d %ld\n",f.getName(),barray.length,channel.size()));
-             }
-             buffer.get(barray);
-             return new ByteArrayInputStream(barray);
+             return new MappedFileInputStream(f);
          } catch (IOException e) {
              e.printStackTrace();
          }
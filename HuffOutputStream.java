@@ -0,0 +1,217 @@
+import java.io.DataOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * An output stream filter that compresses data as it is written, the way
+ * <code>GZIPOutputStream</code> does. Data is collected into blocks of a
+ * bounded size and each full block is counted, analyzed, and written with
+ * whichever of STORE_COUNTS, STORE_COMPACT_COUNTS, STORE_TREE, or no coding
+ * at all is smallest for that block. No viewer and no separate preprocessing pass is needed.
+ * <P>
+ * The stream starts with the magic number and STORE_BLOCKS. It can be read
+ * with HuffInputStream or <code>SimpleHuffProcessor.uncompress</code>.
+ */
+public class HuffOutputStream extends FilterOutputStream implements IHuffConstants {
+
+    /**
+     * The default number of uncompressed bytes in a block.
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 1 << 16;
+
+    // the two block lengths, plus the most a coded block is larger than the data
+    static final int MAX_BLOCK_OVERHEAD = BITS_PER_INT * 4 / BITS_PER_WORD;
+
+    private final DataOutputStream dataOut;
+    private final byte[] block;
+    // number of bytes in the current block
+    private int count;
+    // the current block with its lengths, ready to write
+    private final ByteBuffer framed;
+    private boolean headerWritten;
+    private boolean finished;
+    // blocks written, for flight recorder events
+    private long blocks;
+
+    /**
+     * Create a compressing stream with the default block size.
+     * @param out the stream the compressed data is written to
+     */
+    public HuffOutputStream(OutputStream out) {
+        this(out, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Create a compressing stream.
+     * pre: blockSize > 0
+     * @param out the stream the compressed data is written to
+     * @param blockSize the number of uncompressed bytes in a block. Larger
+     * blocks spend less on headers but use more memory.
+     */
+    public HuffOutputStream(OutputStream out, int blockSize) {
+        super(out);
+        // check preconditions
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("blockSize must be positive.");
+        }
+        dataOut = new DataOutputStream(out);
+        block = new byte[blockSize];
+        framed = ByteBuffer.allocate(blockSize + MAX_BLOCK_OVERHEAD);
+    }
+
+    /**
+     * Write one byte.
+     * @param b the byte to write
+     * @throws IOException if an error occurs while writing
+     */
+    public void write(int b) throws IOException {
+        ensureOpen();
+        block[count++] = (byte) b;
+        if (count == block.length) {
+            writeBlock(block, 0, count);
+            count = 0;
+        }
+    }
+
+    /**
+     * Write a slice of an array. Whole blocks are coded straight from the
+     * array without being copied.
+     * @param b the array holding the data
+     * @param off the offset of the first byte
+     * @param len the number of bytes to write
+     * @throws IOException if an error occurs while writing
+     */
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        if (off < 0 || len < 0 || off > b.length - len) {
+            throw new IndexOutOfBoundsException("bad slice.");
+        }
+        while (len > 0) {
+            if (count == 0 && len >= block.length) {
+                writeBlock(b, off, block.length);
+                off += block.length;
+                len -= block.length;
+            } else {
+                int n = Math.min(len, block.length - count);
+                System.arraycopy(b, off, block, count, n);
+                count += n;
+                off += n;
+                len -= n;
+                if (count == block.length) {
+                    writeBlock(block, 0, count);
+                    count = 0;
+                }
+            }
+        }
+    }
+
+    /**
+     * Write the data collected so far as a short block and flush the
+     * underlying stream. Flushing often makes compression worse.
+     * @throws IOException if an error occurs while writing
+     */
+    public void flush() throws IOException {
+        ensureOpen();
+        if (count > 0) {
+            writeBlock(block, 0, count);
+            count = 0;
+        }
+        dataOut.flush();
+    }
+
+    /**
+     * Write the remaining data and the end of the stream without closing
+     * the underlying stream.
+     * @throws IOException if an error occurs while writing
+     */
+    public void finish() throws IOException {
+        if (!finished) {
+            if (count > 0) {
+                writeBlock(block, 0, count);
+                count = 0;
+            }
+            writeHeader();
+            dataOut.writeInt(0);
+            dataOut.flush();
+            finished = true;
+        }
+    }
+
+    /**
+     * Finish the stream and close the underlying stream.
+     * @throws IOException if an error occurs while writing or closing
+     */
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            out.close();
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (finished) {
+            throw new IOException("stream is finished.");
+        }
+    }
+
+    private void writeHeader() throws IOException {
+        if (!headerWritten) {
+            dataOut.writeInt(MAGIC_NUMBER);
+            dataOut.writeInt(STORE_BLOCKS);
+            headerWritten = true;
+        }
+    }
+
+    /**
+     * Code one block and write it.
+     * @param b the array holding the block
+     * @param off the offset of the block
+     * @param len the length of the block
+     * @throws IOException if an error occurs while writing
+     */
+    private void writeBlock(byte[] b, int off, int len) throws IOException {
+        writeHeader();
+        HuffPhaseEvent event = HuffPhaseEvent.beginBlock();
+        framed.clear();
+        int depth = encodeBlock(b, off, len, framed);
+        out.write(framed.array(), 0, framed.position());
+        HuffPhaseEvent.commitBlock(event, STORE_BLOCKS, blocks++, len, framed.position(), depth);
+    }
+
+    /**
+     * Code one block with the format that is smallest for it and put it,
+     * with its lengths, in a buffer.
+     * pre: dst has at least len + MAX_BLOCK_OVERHEAD bytes remaining
+     * @param b the array holding the block
+     * @param off the offset of the block
+     * @param len the length of the block
+     * @param dst the buffer the framed block is put in
+     * @return the length of the longest code of the block, 0 if it is stored
+     */
+    static int encodeBlock(byte[] b, int off, int len, ByteBuffer dst) {
+        int[] freqs = new int[ALPH_SIZE];
+        HuffKernels.histogram(b, off, len, freqs);
+        HuffAnalysis analysis = HuffAnalysis.analyze(freqs);
+        int format = analysis.getBestFormat();
+        dst.putInt(len);
+        if (format == STORE_RAW) {
+            dst.putInt(0);
+            dst.put(b, off, len);
+            return 0;
+        }
+        // the analysis gives the exact size, so one call codes the whole block
+        int codedLength = (int) ((analysis.getCompressedBits(format) + BITS_PER_WORD - 1)
+                / BITS_PER_WORD);
+        dst.putInt(codedLength);
+        int start = dst.position();
+        HuffEncoder encoder = new HuffEncoder(freqs, format);
+        if (encoder.encode(ByteBuffer.wrap(b, off, len), dst, true) != HuffCoderResult.END
+                || dst.position() - start != codedLength) {
+            throw new IllegalStateException("block did not code to " + codedLength + " bytes");
+        }
+        return encoder.maxCodeLength();
+    }
+}
@@ -0,0 +1,98 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A JDK Flight Recorder event for one phase of compressing or uncompressing.
+ * Callers check <code>isRecording</code> first, so when no recording is
+ * running no event is even allocated.
+ */
+@Name("huff.Phase")
+@Label("Huffman Phase")
+@Category({"Huffman"})
+@Description("One phase of a compress or uncompress operation")
+public class HuffPhaseEvent extends Event {
+
+    // looked up once, so checking it allocates nothing
+    private static final EventType TYPE = EventType.getEventType(HuffPhaseEvent.class);
+
+    /**
+     * Determine if a running recording has this event enabled.
+     * @return false if an event would never be committed
+     */
+    static boolean isRecording() {
+        return TYPE.isEnabled();
+    }
+
+    @Label("Operation")
+    String operation;
+
+    @Label("Phase")
+    String phase;
+
+    @Label("Header Format")
+    String headerFormat;
+
+    @Label("Bytes In")
+    @DataAmount
+    long bytesIn;
+
+    @Label("Bytes Out")
+    @DataAmount
+    long bytesOut;
+
+    @Label("Tree Depth")
+    @Description("Length of the longest code, 0 if no tree is used or the codes "
+            + "of the block are in the event of an inner block")
+    int treeDepth;
+
+    @Label("Block")
+    @Description("Index of the block in block mode, -1 for a whole file")
+    long block = -1;
+
+    /**
+     * Start the event of one block of a block mode writer, if a recording
+     * wants it.
+     * @return the begun event, or null if no recording is running
+     */
+    static HuffPhaseEvent beginBlock() {
+        if (!isRecording()) {
+            return null;
+        }
+        HuffPhaseEvent result = new HuffPhaseEvent();
+        result.begin();
+        return result;
+    }
+
+    /**
+     * End the event of a block that has been written and commit it if a
+     * recording wants it.
+     * @param event the event from beginBlock, null if there is none
+     * @param format the header format of the file the block is in
+     * @param block the index of the block, from 0
+     * @param bytesIn the uncompressed bytes in the block
+     * @param bytesOut the bytes the block was written in
+     * @param treeDepth the length of the longest code of the block, 0 if none
+     */
+    static void commitBlock(HuffPhaseEvent event, int format, long block, long bytesIn,
+            long bytesOut, int treeDepth) {
+        if (event == null) {
+            return;
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.operation = "compress";
+            event.phase = CompressionMetrics.Phase.PAYLOAD.name();
+            event.headerFormat = HuffAnalysis.formatName(format);
+            event.block = block;
+            event.bytesIn = bytesIn;
+            event.bytesOut = bytesOut;
+            event.treeDepth = treeDepth;
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,152 @@
+import java.io.InterruptedIOException;
+
+/**
+ * Progress of a compress, uncompress, or preprocess operation, published by
+ * the processor doing the work and polled by any other thread, e.g. a GUI
+ * timer or a metrics thread. The processor only updates the counts every
+ * <code>getSampleBytes()</code> bytes, and all fields are volatile, so
+ * reporting costs almost nothing and never locks.
+ * <P>
+ * Cancellation is cooperative: <code>cancel</code> sets a flag that the
+ * processor checks at each sample and answers by throwing an
+ * <code>InterruptedIOException</code>.
+ */
+public class HuffProgress {
+
+    /**
+     * The default number of bytes between updates.
+     */
+    public static final int DEFAULT_SAMPLE_BYTES = 1 << 16;
+
+    private final int sampleBytes;
+    private volatile long totalBytes;
+    private volatile long bytesConsumed;
+    private volatile long bytesProduced;
+    private volatile boolean cancelled;
+    private volatile boolean done;
+
+    /**
+     * Create progress that is updated every DEFAULT_SAMPLE_BYTES bytes.
+     */
+    public HuffProgress() {
+        this(DEFAULT_SAMPLE_BYTES);
+    }
+
+    /**
+     * Create progress that is updated every <code>sampleBytes</code> bytes.
+     * pre: sampleBytes > 0
+     * @param sampleBytes the number of bytes consumed between updates
+     */
+    public HuffProgress(int sampleBytes) {
+        // check preconditions
+        if (sampleBytes <= 0) {
+            throw new IllegalArgumentException("sampleBytes must be positive.");
+        }
+        this.sampleBytes = sampleBytes;
+        totalBytes = -1;
+    }
+
+    /**
+     * Get the number of bytes consumed between updates.
+     * @return the sample size in bytes
+     */
+    public int getSampleBytes() {
+        return sampleBytes;
+    }
+
+    /**
+     * Set the number of bytes the operation is expected to consume, so
+     * <code>getFraction</code> can be computed.
+     * @param totalBytes the expected number of bytes, -1 if unknown
+     */
+    public void setTotalBytes(long totalBytes) {
+        this.totalBytes = totalBytes;
+    }
+
+    /**
+     * Called by the processor every <code>getSampleBytes()</code> bytes.
+     * @param consumed the number of bytes consumed so far
+     * @param produced the number of bytes produced so far
+     * @throws InterruptedIOException if the operation has been cancelled
+     */
+    public void update(long consumed, long produced) throws InterruptedIOException {
+        bytesConsumed = consumed;
+        bytesProduced = produced;
+        if (cancelled) {
+            throw new InterruptedIOException("operation cancelled after "
+                    + consumed + " bytes");
+        }
+    }
+
+    /**
+     * Called by the processor when the operation completes.
+     * @param consumed the number of bytes consumed
+     * @param produced the number of bytes produced
+     */
+    public void finish(long consumed, long produced) {
+        bytesConsumed = consumed;
+        bytesProduced = produced;
+        done = true;
+    }
+
+    /**
+     * Mark the operation as over without changing the counts, e.g. when it
+     * ended with an exception.
+     */
+    public void finish() {
+        done = true;
+    }
+
+    /**
+     * Ask the operation to stop at its next update.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Determine if <code>cancel</code> has been called.
+     * @return true if the operation has been cancelled
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Determine if the operation has completed.
+     * @return true if the operation has completed
+     */
+    public boolean isDone() {
+        return done;
+    }
+
+    /**
+     * Get the number of bytes consumed as of the last update.
+     * @return the bytes consumed
+     */
+    public long getBytesConsumed() {
+        return bytesConsumed;
+    }
+
+    /**
+     * Get the number of bytes produced as of the last update.
+     * @return the bytes produced
+     */
+    public long getBytesProduced() {
+        return bytesProduced;
+    }
+
+    /**
+     * Get the fraction of the expected bytes consumed as of the last update.
+     * @return a value between 0 and 1, or -1 if the total is unknown
+     */
+    public double getFraction() {
+        long total = totalBytes;
+        if (done) {
+            return 1;
+        } else if (total <= 0) {
+            return -1;
+        }
+        return Math.min(1.0, (double) bytesConsumed / total);
+    }
+}
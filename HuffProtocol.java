@@ -0,0 +1,220 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * The framed protocol spoken by HuffServer and HuffClient.
+ * <P>
+ * A request is an operation byte (<code>OP_COMPRESS</code> or
+ * <code>OP_UNCOMPRESS</code>), an int header format, a boolean force flag,
+ * and then the data as frames. A reply is the output data as frames. A frame
+ * is an int length followed by that many bytes. A length of
+ * <code>FRAME_END</code> ends the data and a length of
+ * <code>FRAME_ERROR</code>, followed by a UTF message, ends a reply that
+ * failed. Frames are never longer than <code>MAX_FRAME</code> bytes, so
+ * neither side ever holds more than one frame of a payload in memory.
+ * Several requests can be sent one after another on the same connection.
+ */
+class HuffProtocol {
+
+    static final int OP_COMPRESS = 0;
+    static final int OP_UNCOMPRESS = 1;
+
+    static final int FRAME_END = 0;
+    static final int FRAME_ERROR = -1;
+    static final int MAX_FRAME = 1 << 16;
+
+    private HuffProtocol() {
+    }
+
+    /**
+     * Get an input stream that reads a socket channel. Unlike
+     * <code>Channels.newInputStream</code> it does not lock the channel, so
+     * one thread can read while another writes.
+     * @param channel a connected channel in blocking mode
+     * @return a stream reading from the channel
+     */
+    static InputStream inputStream(final SocketChannel channel) {
+        return new InputStream() {
+            public int read() throws IOException {
+                byte[] b = new byte[1];
+                return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+            }
+
+            public int read(byte[] b, int off, int len) throws IOException {
+                return len == 0 ? 0 : channel.read(ByteBuffer.wrap(b, off, len));
+            }
+        };
+    }
+
+    /**
+     * Get an output stream that writes a socket channel without locking it.
+     * @param channel a connected channel in blocking mode
+     * @return a stream writing to the channel
+     */
+    static OutputStream outputStream(final SocketChannel channel) {
+        return new OutputStream() {
+            public void write(int b) throws IOException {
+                write(new byte[] {(byte) b}, 0, 1);
+            }
+
+            public void write(byte[] b, int off, int len) throws IOException {
+                ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+        };
+    }
+
+    /**
+     * Reads the frames of one payload as a stream. Closing the stream skips
+     * any frames not yet read but does not close the underlying stream.
+     */
+    static class FrameInputStream extends InputStream {
+        private final DataInputStream in;
+        // bytes left in the current frame
+        private int remaining;
+        private boolean ended;
+
+        FrameInputStream(DataInputStream in) {
+            this.in = in;
+        }
+
+        public int read() throws IOException {
+            if (!nextFrame()) {
+                return -1;
+            }
+            remaining--;
+            return in.readUnsignedByte();
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            } else if (!nextFrame()) {
+                return -1;
+            }
+            int numRead = in.read(b, off, Math.min(len, remaining));
+            if (numRead == -1) {
+                throw new IOException("connection closed in the middle of a frame");
+            }
+            remaining -= numRead;
+            return numRead;
+        }
+
+        /**
+         * Skip the rest of the payload.
+         * @throws IOException if an error occurs while reading
+         */
+        public void close() throws IOException {
+            while (nextFrame()) {
+                in.skipBytes(remaining);
+                remaining = 0;
+            }
+        }
+
+        // move to a frame with data, returns false at the end of the payload
+        private boolean nextFrame() throws IOException {
+            while (remaining == 0 && !ended) {
+                int length = in.readInt();
+                if (length == FRAME_END) {
+                    ended = true;
+                } else if (length == FRAME_ERROR) {
+                    ended = true;
+                    throw new IOException(in.readUTF());
+                } else if (length < 0 || length > MAX_FRAME) {
+                    throw new IOException("bad frame length " + length);
+                } else {
+                    remaining = length;
+                }
+            }
+            return remaining > 0;
+        }
+    }
+
+    /**
+     * Writes one payload as frames. Closing the stream writes any buffered
+     * bytes as a frame, but the payload only ends with <code>finish</code>
+     * or <code>fail</code>.
+     */
+    static class FrameOutputStream extends OutputStream {
+        private final DataOutputStream out;
+        private final byte[] buffer;
+        private int count;
+        private long total;
+
+        FrameOutputStream(DataOutputStream out) {
+            this.out = out;
+            buffer = new byte[MAX_FRAME];
+        }
+
+        public void write(int b) throws IOException {
+            if (count == buffer.length) {
+                writeFrame();
+            }
+            buffer[count++] = (byte) b;
+        }
+
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (count == buffer.length) {
+                    writeFrame();
+                }
+                int n = Math.min(len, buffer.length - count);
+                System.arraycopy(b, off, buffer, count, n);
+                count += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        public void close() throws IOException {
+            writeFrame();
+        }
+
+        /**
+         * Get the number of payload bytes written.
+         * @return the bytes written so far
+         */
+        public long getTotal() {
+            return total + count;
+        }
+
+        /**
+         * End the payload and flush it.
+         * @throws IOException if an error occurs while writing
+         */
+        public void finish() throws IOException {
+            writeFrame();
+            out.writeInt(FRAME_END);
+            out.flush();
+        }
+
+        /**
+         * End the payload with an error and flush it. Bytes not yet written
+         * as a frame are dropped.
+         * @param message the error sent to the other side
+         * @throws IOException if an error occurs while writing
+         */
+        public void fail(String message) throws IOException {
+            count = 0;
+            out.writeInt(FRAME_ERROR);
+            out.writeUTF(message);
+            out.flush();
+        }
+
+        private void writeFrame() throws IOException {
+            if (count > 0) {
+                out.writeInt(count);
+                out.write(buffer, 0, count);
+                total += count;
+                count = 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,250 @@
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Decompresses byte ranges of a compressed file without decoding it from the
+ * start. The file must have been compressed with sync points (see
+ * <code>SimpleHuffProcessor.setSyncInterval</code>) or be in the stored format.
+ * Decoding starts at the last sync point before the range, so the cost of a
+ * range read depends on the length of the range, not the size of the file.
+ * <P>
+ * All reads are positional reads on the file channel, so one reader can be
+ * used by several threads at the same time.
+ */
+public class HuffRangeReader implements IHuffConstants, Closeable {
+
+    // number of bytes in the trailer at the end of an indexed file
+    private static final int TRAILER_BYTES = 16;
+    // number of bytes read from the channel at a time
+    private static final int READ_BUFFER_SIZE = 1 << 13;
+
+    private final FileChannel channel;
+    // the header format of the data, STORE_RAW or a coded format
+    private final int format;
+    // number of uncompressed bytes between sync points
+    private final int interval;
+    // byte offsets of the sync points in the file
+    private final long[] syncOffsets;
+    // Huffman code tree used to compress the data, null for STORE_RAW
+    private final HuffmanCodeTree tree;
+    // number of uncompressed bytes
+    private final long length;
+    // byte offset of the data in a stored file
+    private final long dataOffset;
+
+    /**
+     * Open a compressed file for range reads.
+     * @param file the compressed file
+     * @throws IOException if an error occurs while reading or the file has
+     * neither sync points nor stored data
+     */
+    public HuffRangeReader(File file) throws IOException {
+        this(FileChannel.open(file.toPath(), StandardOpenOption.READ),
+                CodeTableRegistry.getShared());
+    }
+
+    /**
+     * Read the header and the sync point index of a compressed file.
+     * @param channel the channel to read the compressed file from, closed
+     * when this reader is closed
+     * @param registry the shared code tables used for STORE_CUSTOM
+     * @throws IOException if an error occurs while reading or the file has
+     * neither sync points nor stored data
+     */
+    public HuffRangeReader(FileChannel channel, CodeTableRegistry registry) throws IOException {
+        this.channel = channel;
+        BitInputStream header = new BitInputStream(new ChannelInputStream(channel, 0));
+        if (header.readBits(BITS_PER_INT) != MAGIC_NUMBER) {
+            throw new IOException("Error reading compressed file. \n" +
+                    "File did not start with the huff magic number.");
+        }
+        int headerFormat = header.readBits(BITS_PER_INT);
+        if (headerFormat == STORE_RAW) {
+            format = STORE_RAW;
+            interval = 0;
+            syncOffsets = null;
+            tree = null;
+            dataOffset = BITS_PER_INT * 2 / BITS_PER_WORD;
+            length = channel.size() - dataOffset;
+        } else if (headerFormat == STORE_INDEXED) {
+            interval = header.readBits(BITS_PER_INT);
+            format = header.readBits(BITS_PER_INT);
+            tree = SimpleHuffProcessor.readTree(header, format, registry);
+            dataOffset = -1;
+
+            // the trailer holds the uncompressed length and the offset of the index
+            ByteBuffer trailer = readFully(channel.size() - TRAILER_BYTES, TRAILER_BYTES);
+            length = trailer.getLong();
+            long indexOffset = trailer.getLong();
+            int numSyncs = (int) ((channel.size() - TRAILER_BYTES - indexOffset) / Long.BYTES);
+            ByteBuffer index = readFully(indexOffset, numSyncs * Long.BYTES);
+            syncOffsets = new long[numSyncs];
+            for (int i = 0; i < numSyncs; i++) {
+                syncOffsets[i] = index.getLong();
+            }
+        } else {
+            throw new IOException("Error reading compressed file. \n" +
+                    "File has no sync points and cannot be read by range.");
+        }
+    }
+
+    /**
+     * Get the number of bytes in the uncompressed data.
+     * @return the uncompressed length
+     */
+    public long length() {
+        return length;
+    }
+
+    /**
+     * Decompress a range of the original data.
+     * pre: offset >= 0, length >= 0
+     * @param offset the offset in the uncompressed data of the first byte to write
+     * @param length the maximum number of bytes to write
+     * @param out the stream the uncompressed bytes are written to, not closed
+     * @return the number of bytes written, less than length if the range
+     * extends past the end of the data
+     * @throws IOException if an error occurs while reading or writing
+     */
+    public long decompressRange(long offset, long length, OutputStream out) throws IOException {
+        // check preconditions
+        if (offset < 0 || length < 0) {
+            throw new IllegalArgumentException("offset and length cannot be negative.");
+        }
+        long end = Math.min(offset + length, this.length);
+        if (offset >= end) {
+            return 0;
+        }
+        if (format == STORE_RAW) {
+            // stored data is copied through from the same offset
+            return copyStored(dataOffset + offset, end - offset, out);
+        }
+
+        // start decoding at the last sync point at or before the range
+        int sync = (int) (offset / interval);
+        long position = (long) sync * interval;
+        BitInputStream bitsIn = new BitInputStream(
+                new ChannelInputStream(channel, syncOffsets[sync]));
+        BitOutputStream bitsOut = new BitOutputStream(out);
+        while (position < end) {
+            int value = tree.decodeValue(bitsIn);
+            if (value == PSEUDO_EOF) {
+                throw new IOException("Error reading compressed file. \n" +
+                        "unexpected PSEUDO_EOF value before the end of the data.");
+            }
+            if (position >= offset) {
+                bitsOut.writeBits(BITS_PER_WORD, value);
+            }
+            position++;
+            if (position % interval == 0) {
+                bitsIn.alignToByte();
+            }
+        }
+        // whole bytes were written so flushing adds no padding
+        bitsOut.flush();
+        return end - offset;
+    }
+
+    /**
+     * Decompress a range of the original data into a new array.
+     * pre: offset >= 0, 0 <= length
+     * @param offset the offset in the uncompressed data of the first byte
+     * @param length the maximum number of bytes to return
+     * @return the bytes in the range, shorter than length if the range
+     * extends past the end of the data
+     * @throws IOException if an error occurs while reading
+     */
+    public byte[] decompressRange(long offset, int length) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(length);
+        decompressRange(offset, length, out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Closes the underlying channel.
+     * @throws IOException if an error occurs while closing
+     */
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Copy stored bytes from the channel.
+     * @param position the position in the file of the first byte
+     * @param count the number of bytes to copy
+     * @param out the stream to copy to
+     * @return the number of bytes copied
+     * @throws IOException if an error occurs while reading or writing
+     */
+    private long copyStored(long position, long count, OutputStream out) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        long copied = 0;
+        while (copied < count) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), count - copied));
+            int numRead = channel.read(buffer, position + copied);
+            if (numRead == -1) {
+                break;
+            }
+            out.write(buffer.array(), 0, numRead);
+            copied += numRead;
+        }
+        return copied;
+    }
+
+    /**
+     * Read exactly <code>count</code> bytes from the channel.
+     * @param position the position in the file of the first byte
+     * @param count the number of bytes to read
+     * @return a buffer holding the bytes, ready to be read
+     * @throws IOException if an error occurs or the file ends too soon
+     */
+    private ByteBuffer readFully(long position, int count) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(count);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) == -1) {
+                throw new IOException("Error reading compressed file. \n" +
+                        "unexpected end of input while reading the sync point index.");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /*
+     * An input stream that reads a channel from a given position using
+     * positional reads, so it never changes the position of the channel.
+     */
+    private static class ChannelInputStream extends InputStream {
+        private final FileChannel channel;
+        private final ByteBuffer buffer;
+        private long position;
+
+        private ChannelInputStream(FileChannel channel, long position) {
+            this.channel = channel;
+            this.position = position;
+            buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+            buffer.limit(0);
+        }
+
+        public int read() throws IOException {
+            if (!buffer.hasRemaining()) {
+                buffer.clear();
+                int numRead = channel.read(buffer, position);
+                buffer.flip();
+                if (numRead <= 0) {
+                    return -1;
+                }
+                position += numRead;
+            }
+            return buffer.get() & 0xff;
+        }
+    }
+}
@@ -0,0 +1,211 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * A channel that reads compressed data from another channel and returns it
+ * uncompressed. It reads the block format written by HuffOutputStream and
+ * HuffWritableChannel. Coded blocks are decoded straight into the caller's
+ * buffer, and stored blocks are copied straight into it.
+ * <P>
+ * The source may be non-blocking. When it has no bytes ready,
+ * <code>read</code> returns what it could decode, possibly 0, and the
+ * decoding state is kept for the next call.
+ */
+public class HuffReadableChannel implements ReadableByteChannel, IHuffConstants {
+
+    private static final int READ_BUFFER_SIZE = 1 << 16;
+
+    // what the next bytes of the source are
+    private static enum State {
+        STREAM_HEADER, BLOCK_LENGTHS, CODED, STORED, ENDED
+    }
+
+    private final ReadableByteChannel source;
+    // compressed bytes read from the source, ready to be used
+    private final ByteBuffer in;
+    private final HuffDecoder decoder;
+    private State state;
+    private int blockLength;
+    // bytes of the current block not yet read from in
+    private int blockRemaining;
+    // bytes of the current block written to callers
+    private int produced;
+    private boolean open;
+
+    /**
+     * Create an uncompressing channel.
+     * pre: source != null
+     * @param source the channel the compressed data is read from
+     */
+    public HuffReadableChannel(ReadableByteChannel source) {
+        // check preconditions
+        if (source == null) {
+            throw new IllegalArgumentException("source cannot be null.");
+        }
+        this.source = source;
+        in = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+        in.limit(0);
+        decoder = new HuffDecoder();
+        state = State.STREAM_HEADER;
+        open = true;
+    }
+
+    /**
+     * Read uncompressed bytes into a buffer.
+     * @param dst the buffer to fill
+     * @return the number of bytes read, possibly 0 with a non-blocking
+     * source, or -1 at the end of the stream
+     * @throws IOException if an error occurs or the data is not valid
+     */
+    public int read(ByteBuffer dst) throws IOException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+        int start = dst.position();
+        while (dst.hasRemaining() && state != State.ENDED) {
+            if (!step(dst) && !fill()) {
+                break;
+            }
+        }
+        int n = dst.position() - start;
+        return n == 0 && state == State.ENDED ? -1 : n;
+    }
+
+    public boolean isOpen() {
+        return open;
+    }
+
+    /**
+     * Close the source.
+     * @throws IOException if an error occurs while closing
+     */
+    public void close() throws IOException {
+        open = false;
+        source.close();
+    }
+
+    /**
+     * Read more compressed bytes from the source.
+     * @return false if the source had no bytes ready
+     * @throws IOException if an error occurs or the source ends too soon
+     */
+    private boolean fill() throws IOException {
+        in.compact();
+        int n = source.read(in);
+        in.flip();
+        if (n == -1) {
+            throw new EOFException("compressed stream ended before its end marker");
+        }
+        return n > 0;
+    }
+
+    /**
+     * Make progress on the current part of the stream.
+     * @param dst the buffer the uncompressed bytes are written to
+     * @return false if more compressed bytes are needed
+     * @throws IOException if the data is not valid
+     */
+    private boolean step(ByteBuffer dst) throws IOException {
+        if (state == State.STREAM_HEADER) {
+            if (in.remaining() < BITS_PER_INT * 2 / BITS_PER_WORD) {
+                return false;
+            }
+            if (in.getInt() != MAGIC_NUMBER || in.getInt() != STORE_BLOCKS) {
+                throw new IOException("Error reading compressed stream. \n" +
+                        "Stream did not start with the huff block stream header.");
+            }
+            state = State.BLOCK_LENGTHS;
+        } else if (state == State.BLOCK_LENGTHS) {
+            return startBlock();
+        } else if (state == State.STORED) {
+            if (!in.hasRemaining()) {
+                return false;
+            }
+            int n = Math.min(blockRemaining, Math.min(in.remaining(), dst.remaining()));
+            dst.put(in.slice(in.position(), n));
+            in.position(in.position() + n);
+            blockRemaining -= n;
+            if (blockRemaining == 0) {
+                state = State.BLOCK_LENGTHS;
+            }
+        } else {
+            return decodeBlock(dst);
+        }
+        return true;
+    }
+
+    /**
+     * Read the lengths of the next block.
+     * @return false if more compressed bytes are needed
+     * @throws IOException if the lengths are not valid
+     */
+    private boolean startBlock() throws IOException {
+        if (in.remaining() < BITS_PER_INT / BITS_PER_WORD) {
+            return false;
+        }
+        if (in.getInt(in.position()) == 0) {
+            in.getInt();
+            state = State.ENDED;
+            return true;
+        }
+        if (in.remaining() < BITS_PER_INT * 2 / BITS_PER_WORD) {
+            return false;
+        }
+        blockLength = in.getInt();
+        int codedLength = in.getInt();
+        // a coded block is never chosen when it is larger than storing it
+        if (blockLength < 0 || codedLength < 0
+                || codedLength > blockLength + BITS_PER_INT * 2 / BITS_PER_WORD) {
+            throw new IOException("Error reading compressed stream. \n" +
+                    "bad block lengths " + blockLength + " " + codedLength);
+        }
+        if (codedLength == 0) {
+            blockRemaining = blockLength;
+            state = State.STORED;
+        } else {
+            blockRemaining = codedLength;
+            produced = 0;
+            decoder.reset();
+            state = State.CODED;
+        }
+        return true;
+    }
+
+    /**
+     * Decode as much of the current coded block as the buffers allow.
+     * @param dst the buffer the uncompressed bytes are written to
+     * @return false if more compressed bytes are needed
+     * @throws IOException if the block is not valid
+     */
+    private boolean decodeBlock(ByteBuffer dst) throws IOException {
+        // never let the decoder see bytes of the next block
+        int limit = in.limit();
+        int available = Math.min(in.remaining(), blockRemaining);
+        in.limit(in.position() + available);
+        int before = in.position();
+        int dstBefore = dst.position();
+        HuffCoderResult result = decoder.decode(in, dst);
+        blockRemaining -= in.position() - before;
+        in.limit(limit);
+        produced += dst.position() - dstBefore;
+        if (produced > blockLength) {
+            throw new IOException("Error reading compressed stream. \n" +
+                    "block decoded to more than " + blockLength + " bytes.");
+        }
+        if (result == HuffCoderResult.END) {
+            if (produced != blockLength || blockRemaining != 0) {
+                throw new IOException("Error reading compressed stream. \n" +
+                        "block decoded to the wrong length.");
+            }
+            state = State.BLOCK_LENGTHS;
+            return true;
+        } else if (result == HuffCoderResult.UNDERFLOW && blockRemaining == 0) {
+            throw new IOException("Error reading compressed stream. \n" +
+                    "block ended before its PSEUDO_EOF code.");
+        }
+        return result == HuffCoderResult.OVERFLOW;
+    }
+}
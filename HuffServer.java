@@ -0,0 +1,301 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A long running compression server, so short lived clients do not each pay
+ * for starting and warming up a VM. Clients connect over a TCP or Unix domain
+ * socket and send requests in the framed protocol described in HuffProtocol.
+ * <P>
+ * Each connection is handled by a thread from a fixed pool. When every
+ * thread is busy the server stops accepting, so new clients wait in the
+ * socket's backlog and data already sent waits in the socket buffers. Request
+ * data is streamed through a new SimpleHuffProcessor and never held in memory
+ * as a whole. Compressing reads the data twice, so the processor keeps a
+ * copy of the request as it counts it, in memory for small requests and in
+ * a temporary file for the rest of large ones.
+ */
+public class HuffServer implements Closeable {
+
+    // bytes of a request kept in memory, the rest spill to a temporary file
+    private static final int SPOOL_MEMORY_LIMIT = 1 << 20;
+
+    private final ServerSocketChannel server;
+    private final ExecutorService connections;
+    // a permit for every connection the pool can serve at once
+    private final Semaphore permits;
+    private final AtomicInteger active;
+    private final Map<CompressionResult.Operation, LatencyHistogram> latencies;
+    private final Thread acceptor;
+    private volatile boolean closed;
+
+    /**
+     * Create a server listening on a local address. Call <code>start</code>
+     * to begin accepting connections.
+     * pre: address != null, maxConnections > 0
+     * @param address an InetSocketAddress or a UnixDomainSocketAddress
+     * @param maxConnections the number of connections served at once
+     * @throws IOException if the address cannot be bound
+     */
+    public HuffServer(SocketAddress address, int maxConnections) throws IOException {
+        // check preconditions
+        if (address == null || maxConnections <= 0) {
+            throw new IllegalArgumentException("address cannot be null "
+                    + "and maxConnections must be positive.");
+        }
+        if (address instanceof UnixDomainSocketAddress) {
+            server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        } else {
+            server = ServerSocketChannel.open();
+        }
+        server.bind(address);
+        connections = Executors.newFixedThreadPool(maxConnections,
+                BatchCompressor.daemonThreads("huff-conn-"));
+        permits = new Semaphore(maxConnections);
+        active = new AtomicInteger();
+        latencies = new EnumMap<>(CompressionResult.Operation.class);
+        for (CompressionResult.Operation op : CompressionResult.Operation.values()) {
+            latencies.put(op, new LatencyHistogram());
+        }
+        acceptor = new Thread(new Runnable() {
+            public void run() {
+                acceptLoop();
+            }
+        }, "huff-accept");
+        acceptor.setDaemon(true);
+    }
+
+    /**
+     * Start accepting connections.
+     */
+    public void start() {
+        acceptor.start();
+    }
+
+    /**
+     * Get the address the server is listening on, useful when bound to port 0.
+     * @return the local address
+     * @throws IOException if the server is closed
+     */
+    public SocketAddress getLocalAddress() throws IOException {
+        return server.getLocalAddress();
+    }
+
+    /**
+     * Get the number of connections being served.
+     * @return the active connections
+     */
+    public int getActiveConnections() {
+        return active.get();
+    }
+
+    /**
+     * Get the latencies of the requests for an operation, from the first
+     * request byte to the end of the reply.
+     * @param operation the operation
+     * @return the histogram of request latencies
+     */
+    public LatencyHistogram getLatencies(CompressionResult.Operation operation) {
+        return latencies.get(operation);
+    }
+
+    /**
+     * Stop accepting connections and close the connections being served.
+     * @throws IOException if an error occurs while closing the socket
+     */
+    public void close() throws IOException {
+        closed = true;
+        SocketAddress address = server.getLocalAddress();
+        server.close();
+        connections.shutdownNow();
+        if (address instanceof UnixDomainSocketAddress) {
+            Files.deleteIfExists(((UnixDomainSocketAddress) address).getPath());
+        }
+    }
+
+    // accept connections while permits are available
+    private void acceptLoop() {
+        while (!closed) {
+            try {
+                permits.acquire();
+                final SocketChannel channel;
+                try {
+                    channel = server.accept();
+                } catch (IOException e) {
+                    permits.release();
+                    throw e;
+                }
+                connections.execute(new Runnable() {
+                    public void run() {
+                        active.incrementAndGet();
+                        try {
+                            serve(channel);
+                        } finally {
+                            active.decrementAndGet();
+                            permits.release();
+                        }
+                    }
+                });
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException e) {
+                if (!closed) {
+                    System.err.println("trouble accepting connection " + e);
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Serve the requests on one connection until the client closes it.
+     * @param channel the connection
+     */
+    private void serve(SocketChannel channel) {
+        try (SocketChannel ch = channel) {
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(HuffProtocol.inputStream(ch)));
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(HuffProtocol.outputStream(ch)));
+            int op = in.read();
+            while (op != -1) {
+                long start = System.nanoTime();
+                int headerFormat = in.readInt();
+                boolean force = in.readBoolean();
+                HuffProtocol.FrameInputStream body = new HuffProtocol.FrameInputStream(in);
+                HuffProtocol.FrameOutputStream reply = new HuffProtocol.FrameOutputStream(out);
+                CompressionResult.Operation operation = op == HuffProtocol.OP_COMPRESS
+                        ? CompressionResult.Operation.COMPRESS
+                        : CompressionResult.Operation.UNCOMPRESS;
+                try {
+                    if (op == HuffProtocol.OP_COMPRESS) {
+                        compress(body, reply, headerFormat, force);
+                    } else if (op == HuffProtocol.OP_UNCOMPRESS) {
+                        uncompress(body, reply);
+                    } else {
+                        throw new IOException("unknown operation " + op);
+                    }
+                    reply.finish();
+                } catch (IOException e) {
+                    // keep the connection in step with the client
+                    body.close();
+                    reply.fail(e.getMessage() == null ? e.toString() : e.getMessage());
+                } catch (RuntimeException | StackOverflowError e) {
+                    // corrupt data can break the coder, such as a tree header too deep to read
+                    body.close();
+                    reply.fail(e.toString());
+                }
+                latencies.get(operation).record(System.nanoTime() - start);
+                op = in.read();
+            }
+        } catch (IOException e) {
+            // the client went away, nothing to reply to
+        }
+    }
+
+    /**
+     * Compress a request.
+     * @param body the data to compress
+     * @param reply the stream the compressed data is written to
+     * @param headerFormat the header format
+     * @param force whether to force compression
+     * @throws IOException if an error occurs while coding or spooling
+     */
+    private void compress(InputStream body, OutputStream reply, int headerFormat, boolean force)
+            throws IOException {
+        SimpleHuffProcessor processor = new SimpleHuffProcessor();
+        ErrorViewer viewer = new ErrorViewer();
+        viewer.setModel(processor);
+        // the body can only be read once, so the processor keeps a copy for compress
+        processor.setSpoolLimit(SPOOL_MEMORY_LIMIT);
+        try {
+            processor.preprocessCompress(body, headerFormat);
+            if (processor.compress(body, reply, force) < 0) {
+                throw new IOException(viewer.getError());
+            }
+        } finally {
+            processor.releaseSpool();
+        }
+    }
+
+    /**
+     * Uncompress a request.
+     * @param body the data to uncompress
+     * @param reply the stream the uncompressed data is written to
+     * @throws IOException if an error occurs while decoding
+     */
+    private void uncompress(InputStream body, OutputStream reply) throws IOException {
+        IHuffProcessor processor = new SimpleHuffProcessor();
+        ErrorViewer viewer = new ErrorViewer();
+        viewer.setModel(processor);
+        if (processor.uncompress(body, reply) < 0) {
+            throw new IOException(viewer.getError());
+        }
+    }
+
+    /**
+     * Parse an address given on the command line.
+     * @param name a port on the loopback interface, or unix: and a socket path
+     * @return the address
+     */
+    static SocketAddress parseAddress(String name) {
+        if (name.startsWith("unix:")) {
+            return UnixDomainSocketAddress.of(name.substring("unix:".length()));
+        }
+        return new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(name));
+    }
+
+    /**
+     * Run a server until the VM is stopped, printing the request latencies
+     * every minute.
+     * @param args a port on the loopback interface or unix:path, and
+     * optionally the number of connections served at once
+     * @throws Exception if the server cannot be started
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.out.println("usage: java HuffServer port|unix:path [maxConnections]");
+            return;
+        }
+        int maxConnections = args.length > 1 ? Integer.parseInt(args[1])
+                : Runtime.getRuntime().availableProcessors() * 4;
+        final HuffServer server = new HuffServer(parseAddress(args[0]), maxConnections);
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            public void run() {
+                try {
+                    server.close();
+                } catch (IOException e) {
+                    // exiting anyway
+                }
+            }
+        });
+        server.start();
+        System.out.println("listening on " + server.getLocalAddress());
+        while (true) {
+            TimeUnit.MINUTES.sleep(1);
+            for (CompressionResult.Operation op : CompressionResult.Operation.values()) {
+                System.out.print(op + " " + server.getLatencies(op));
+            }
+        }
+    }
+}
@@ -0,0 +1,184 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A channel that compresses the bytes written to it and writes them to
+ * another channel, in the same block format as HuffOutputStream. Bytes are
+ * copied once, from the caller's buffer into the current block, and the coded
+ * block is put straight into a direct buffer that is written to the target.
+ * <P>
+ * The target may be non-blocking. When it does not take all of a coded block,
+ * <code>write</code> accepts no more bytes until a later call has written the
+ * rest, so a selector loop sees the back pressure as a short write.
+ * <code>flush</code> and <code>finish</code> return false until all of their
+ * output has been written, and should be called again when the target is
+ * writable.
+ */
+public class HuffWritableChannel implements WritableByteChannel, IHuffConstants {
+
+    private final WritableByteChannel target;
+    private final byte[] block;
+    // number of bytes in the current block
+    private int count;
+    // coded output not yet taken by the target
+    private final ByteBuffer pending;
+    private boolean headerWritten;
+    private boolean finished;
+    // blocks written, for flight recorder events
+    private long blocks;
+    private boolean open;
+
+    /**
+     * Create a compressing channel with the default block size.
+     * @param target the channel the compressed data is written to
+     */
+    public HuffWritableChannel(WritableByteChannel target) {
+        this(target, HuffOutputStream.DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Create a compressing channel.
+     * pre: target != null, blockSize > 0
+     * @param target the channel the compressed data is written to
+     * @param blockSize the number of uncompressed bytes in a block
+     */
+    public HuffWritableChannel(WritableByteChannel target, int blockSize) {
+        // check preconditions
+        if (target == null || blockSize <= 0) {
+            throw new IllegalArgumentException("target cannot be null "
+                    + "and blockSize must be positive.");
+        }
+        this.target = target;
+        block = new byte[blockSize];
+        // room for the stream header, one framed block, and the end marker
+        pending = ByteBuffer.allocateDirect(BITS_PER_INT * 3 / BITS_PER_WORD + blockSize
+                + HuffOutputStream.MAX_BLOCK_OVERHEAD);
+        pending.limit(0);
+        open = true;
+    }
+
+    /**
+     * Compress bytes from a buffer.
+     * @param src the bytes to write
+     * @return the number of bytes taken from src, less than its remaining
+     * bytes if a non-blocking target is full
+     * @throws IOException if an error occurs while writing or the channel is finished
+     */
+    public int write(ByteBuffer src) throws IOException {
+        ensureOpen();
+        if (finished) {
+            throw new IOException("channel is finished.");
+        }
+        int start = src.position();
+        while (src.hasRemaining() && writePending()) {
+            int n = Math.min(src.remaining(), block.length - count);
+            src.get(block, count, n);
+            count += n;
+            if (count == block.length) {
+                frameBlock();
+            }
+        }
+        return src.position() - start;
+    }
+
+    /**
+     * Write the bytes collected so far as a short block.
+     * @return true if all output has been written to the target
+     * @throws IOException if an error occurs while writing
+     */
+    public boolean flush() throws IOException {
+        ensureOpen();
+        if (!writePending()) {
+            return false;
+        }
+        if (count > 0 && !finished) {
+            frameBlock();
+        }
+        return writePending();
+    }
+
+    /**
+     * Write the remaining bytes and the end of the stream.
+     * @return true if all output has been written to the target
+     * @throws IOException if an error occurs while writing
+     */
+    public boolean finish() throws IOException {
+        ensureOpen();
+        if (!finished) {
+            if (!flush()) {
+                return false;
+            }
+            pending.clear();
+            putHeader();
+            pending.putInt(0);
+            pending.flip();
+            finished = true;
+        }
+        return writePending();
+    }
+
+    public boolean isOpen() {
+        return open;
+    }
+
+    /**
+     * Finish the stream and close the target. With a non-blocking target,
+     * call <code>finish</code> until it returns true first.
+     * @throws IOException if an error occurs while writing or closing
+     */
+    public void close() throws IOException {
+        if (open) {
+            try {
+                while (!finish()) {
+                    Thread.onSpinWait();
+                }
+            } finally {
+                open = false;
+                target.close();
+            }
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+    }
+
+    private void putHeader() {
+        if (!headerWritten) {
+            pending.putInt(MAGIC_NUMBER);
+            pending.putInt(STORE_BLOCKS);
+            headerWritten = true;
+        }
+    }
+
+    // code the current block into the pending buffer, which must be empty
+    private void frameBlock() {
+        HuffPhaseEvent event = HuffPhaseEvent.beginBlock();
+        pending.clear();
+        putHeader();
+        int start = pending.position();
+        int depth = HuffOutputStream.encodeBlock(block, 0, count, pending);
+        HuffPhaseEvent.commitBlock(event, STORE_BLOCKS, blocks++, count,
+                pending.position() - start, depth);
+        pending.flip();
+        count = 0;
+    }
+
+    /**
+     * Write pending output to the target.
+     * @return true if all of it was written
+     * @throws IOException if an error occurs while writing
+     */
+    private boolean writePending() throws IOException {
+        while (pending.hasRemaining()) {
+            if (target.write(pending) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
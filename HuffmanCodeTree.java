@@ -20,6 +20,19 @@ public class HuffmanCodeTree {
      * @param freqs the mapping of the bit-sequences and their corresponding frequencies
      */
     public HuffmanCodeTree(int[] frequencies) {
+        this(widen(frequencies));
+    }
+
+    /**
+     * Build a Huffman code tree from 64 bit frequencies, for inputs with
+     * more than Integer.MAX_VALUE of some bit-sequence. The value of each
+     * leaf is its index in frequencies, so other alphabets than bytes and
+     * PSEUDO_EOF can be coded, such as the lengths and distances of Lz77Coder.
+     * pre: frequencies != null, frequencies.length <= 1 << (1 + BITS_PER_WORD)
+     * so every value can be written by writeTree
+     * @param frequencies the frequency of each bit-sequence, including PSEUDO_EOF
+     */
+    public HuffmanCodeTree(long[] frequencies) {
         // check preconditions
         if (frequencies == null) {
             throw new IllegalArgumentException("frequencies cannot be null.");
@@ -27,7 +40,7 @@ public class HuffmanCodeTree {
         
         FairPriorityQueue<TreeNode> pq = new FairPriorityQueue<>();
         // create new nodes with bit-sequence and frequency and add to queue
-        for (int i = 0; i < IHuffConstants.ALPH_SIZE + 1; i++) {
+        for (int i = 0; i < frequencies.length; i++) {
             // bit-sequence exists in the file
             if (frequencies[i] > 0) {
                 pq.add(new TreeNode(i, frequencies[i]));
@@ -41,6 +54,22 @@ public class HuffmanCodeTree {
         root = pq.removeFirst();
     }
 
+    /**
+     * Copy int frequencies into a long array.
+     * @param frequencies the frequencies, may be null
+     * @return the same frequencies as longs, null if frequencies is null
+     */
+    private static long[] widen(int[] frequencies) {
+        if (frequencies == null) {
+            return null;
+        }
+        long[] result = new long[frequencies.length];
+        for (int i = 0; i < frequencies.length; i++) {
+            result[i] = frequencies[i];
+        }
+        return result;
+    }
+
     /**
      * Create the codes from the Huffman code tree
      * @return a mapping of the bit-sequences and their corresponding code
@@ -69,6 +98,68 @@ public class HuffmanCodeTree {
         }
     }
 
+    /**
+     * Get the root of the tree, for decoders that walk it one bit at a time
+     * @return the root node, null if the tree is empty
+     */
+    TreeNode getRoot() {
+        return root;
+    }
+
+    /**
+     * Get the depth of the tree, the length of the longest code
+     * @return the depth of the tree, 0 if it has no internal nodes
+     */
+    public int depth() {
+        int result = 0;
+        for (int length : codeLengths()) {
+            result = Math.max(result, length);
+        }
+        return result;
+    }
+
+    /**
+     * Get the length of the code of every bit-sequence without building the codes
+     * @return the code length of each bit-sequence, 0 for values not in the
+     * tree, at least ALPH_SIZE + 1 long
+     */
+    public int[] codeLengths() {
+        int[] lengths = new int[Math.max(IHuffConstants.ALPH_SIZE, maxValue(root)) + 1];
+        lengthsHelp(root, lengths, 0);
+        return lengths;
+    }
+
+    /**
+     * Find the largest value of a leaf
+     * @param node the current node
+     * @return the largest value under node, -1 if node is null
+     */
+    private int maxValue(TreeNode node) {
+        if (node == null) {
+            return -1;
+        } else if (node.isLeaf()) {
+            return node.getValue();
+        }
+        return Math.max(maxValue(node.getLeft()), maxValue(node.getRight()));
+    }
+
+    /**
+     * Helper for codeLengths to recurse
+     * @param node the current node
+     * @param lengths the code length of each bit-sequence
+     * @param depth the depth of the current node
+     */
+    private void lengthsHelp(TreeNode node, int[] lengths, int depth) {
+        // base case, leaf node
+        if (node.isLeaf()) {
+            lengths[node.getValue()] = depth;
+        } else {
+            // recursive cases, traverse left and right sub trees
+            lengthsHelp(node.getLeft(), lengths, depth + 1);
+            lengthsHelp(node.getRight(), lengths, depth + 1);
+        }
+    }
+
     /**
      * Do a pre order traversal on Huffman code tree and write bits
      * @param bitsOut is bound to a file/stream to which bits are written
@@ -163,13 +254,59 @@ public class HuffmanCodeTree {
      * @return the number of bits written to the uncompressed file
      * @throws IOException if an error occurs while reading from the input file
      */
-    public int walkTree(BitInputStream bitsIn, BitOutputStream bitsOut) throws IOException {
-        // get ready to walk tree
+    public long walkTree(BitInputStream bitsIn, BitOutputStream bitsOut) throws IOException {
+        return walkTree(bitsIn, bitsOut, 0);
+    }
+
+    /**
+     * Walk the tree and read bit by bit, skipping to the next byte boundary
+     * of the compressed data after every <code>syncInterval</code> values
+     * @param bitsIn is the previously compressed data
+     * @param bitsOut is the uncompressed file/stream
+     * @param syncInterval the number of values between sync points, 0 if
+     * the compressed data has no sync points
+     * @return the number of bits written to the uncompressed file
+     * @throws IOException if an error occurs while reading from the input file
+     */
+    public long walkTree(BitInputStream bitsIn, BitOutputStream bitsOut, int syncInterval)
+            throws IOException {
+        long writtenBits = 0;
+        long count = 0;
+        int value = decodeValue(bitsIn);
+        // stop once PEOF has been reached
+        while (value != IHuffConstants.PSEUDO_EOF) {
+            // write the bits for the current node value
+            bitsOut.writeBits(IHuffConstants.BITS_PER_WORD, value);
+            writtenBits += IHuffConstants.BITS_PER_WORD;
+            count++;
+            if (syncInterval > 0 && count % syncInterval == 0) {
+                bitsIn.alignToByte();
+            }
+            value = decodeValue(bitsIn);
+        }
+        return writtenBits;
+    }
+
+    /**
+     * Walk the tree from the root to a leaf, reading one bit per level
+     * @param bitsIn is the previously compressed data
+     * @return the value of the leaf reached, PSEUDO_EOF at the end of the data
+     * @throws IOException if an error occurs while reading from the input file
+     * or the input ends before PSEUDO_EOF
+     */
+    public int decodeValue(BitInputStream bitsIn) throws IOException {
         TreeNode curNode = root;
-        int writtenBits = 0;
-        int bit = bitsIn.readBits(1);
-        boolean done = false;
-        while (!done) {
+        if (curNode.isLeaf()) {
+            // only PSEUDO_EOF is in the tree of empty data and its code has no bits
+            if (curNode.getValue() != IHuffConstants.PSEUDO_EOF) {
+                throw new IOException("Error reading compressed file. \n" +
+                        "code tree has no PSEUDO_EOF.");
+            }
+            return curNode.getValue();
+        }
+        // get ready to walk tree
+        do {
+            int bit = bitsIn.readBits(1);
             // PEOF value was never read
             if (bit == -1) {
                 throw new IOException("Error reading compressed file. \n" +
@@ -182,22 +319,8 @@ public class HuffmanCodeTree {
                 // move right in tree
                 curNode = curNode.getRight();
             }
-            // reached a leaf node
-            if (curNode.isLeaf()) {
-                // stop since PEOF has been reached
-                if (curNode.getValue() == IHuffConstants.PSEUDO_EOF) {
-                    done = true;
-                } else {
-                    // write the bits for the current node value
-                    bitsOut.writeBits(IHuffConstants.BITS_PER_WORD, curNode.getValue());
-                    writtenBits += IHuffConstants.BITS_PER_WORD;
-                }
-                // reset node reference to the root
-                curNode = root;
-            }
-            // read next bit
-            bit = bitsIn.readBits(1);
-        }
-        return writtenBits;
+        } while (!curNode.isLeaf());
+        // reached a leaf node
+        return curNode.getValue();
     }
 }
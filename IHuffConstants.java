@@ -56,6 +56,87 @@ public interface IHuffConstants {
      * A value in files compressed with a HuffProcessor indicating
      * the code values are stored in a custom format. Something
      * besides Standard Count Format or Standard Tree Format.
+     * The id and checksum of a shared <tt>CodeTable</tt> follow this constant.
      */      
     public static final int STORE_CUSTOM = MAGIC_NUMBER | 4;
+
+    /**
+     * A value in files compressed with a HuffProcessor indicating
+     * the data is stored as is, without coding. The original bytes
+     * follow this constant up to the end of the file.
+     */
+    public static final int STORE_RAW = MAGIC_NUMBER | 8;
+
+    /**
+     * A value in files compressed with a HuffProcessor indicating
+     * the data has sync points. The number of values between sync points
+     * and then the regular header format constant and header follow
+     * this constant. An index of the sync points ends the file.
+     */
+    public static final int STORE_INDEXED = MAGIC_NUMBER | 16;
+
+    /**
+     * A value in streams written by a HuffOutputStream indicating the
+     * data is a series of blocks that are coded on their own. Each block
+     * is its uncompressed length, its coded length (0 if the block is
+     * stored as is), and its bytes. A block length of 0 ends the stream.
+     */
+    public static final int STORE_BLOCKS = MAGIC_NUMBER | 32;
+
+    /**
+     * A value in files compressed with a HuffProcessor indicating
+     * the code values are stored in Compact Count Format. A bitmap of the
+     * values that occur and then a variable length count for each of
+     * them follow this constant. See <tt>CompactCounts</tt>.
+     */
+    public static final int STORE_COMPACT_COUNTS = MAGIC_NUMBER | 64;
+
+    /**
+     * A value in files compressed with a HuffProcessor indicating the data
+     * went through an LZ77 stage first. The window size and then a series
+     * of blocks, each with its own trees for literals and lengths and for
+     * distances, follow this constant. See <tt>Lz77Coder</tt>.
+     */
+    public static final int STORE_LZ77 = MAGIC_NUMBER | 128;
+
+    /**
+     * A value in files compressed with a HuffProcessor indicating the data
+     * went through a chain of block transforms first. The block size, the
+     * number of transforms, and their ids, then a stream of transformed
+     * blocks as a HuffOutputStream writes them, follow this constant.
+     * See <tt>TransformPipeline</tt>.
+     */
+    public static final int STORE_TRANSFORM = MAGIC_NUMBER | 256;
+
+    /**
+     * A value in files compressed with a HuffProcessor indicating the data
+     * is coded with a tANS coder instead of Huffman codes. The table log,
+     * the normalized counts in Compact Count Format, and then blocks of
+     * coded values follow this constant. See <tt>AnsCoder</tt>.
+     */
+    public static final int STORE_ANS = MAGIC_NUMBER | 512;
+
+    /**
+     * A value in files compressed with a HuffProcessor indicating a segment
+     * of an appendable file. A flag, then the counts in Compact Count Format
+     * if the flag is 1, follow this constant. A segment with a flag of 0 is
+     * coded with the counts of the last segment that had them. See
+     * <tt>HuffAppender</tt>.
+     */
+    public static final int STORE_SEGMENT = MAGIC_NUMBER | 1024;
+
+    /**
+     * A value in files compressed with a HuffProcessor indicating the
+     * trailer that ends an appendable file. The offset of the last segment
+     * with counts, the number of uncompressed bytes, and the number of
+     * appends follow this constant. See <tt>HuffAppender</tt>.
+     */
+    public static final int STORE_TRAILER = MAGIC_NUMBER | 2048;
+
+    /**
+     * A value that may be passed as the header format when preprocessing
+     * to have the processor pick the format that writes the fewest bits.
+     * It is never written to a compressed file.
+     */
+    public static final int STORE_AUTO = MAGIC_NUMBER | 0xff;
 }
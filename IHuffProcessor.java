@@ -20,6 +20,13 @@ public interface IHuffProcessor extends IHuffConstants {
      */
     public void setViewer(IHuffViewer viewer);
 
+    /**
+     * Publish the progress of the following operations to <code>progress</code>,
+     * which is also checked for cancellation as the operations run.
+     * @param progress the progress of the following operations, null for none.
+     */
+    public void setProgress(HuffProgress progress);
+
     /**
      * Preprocess data so that compression is possible ---
      * count characters/create tree/store state so that
@@ -37,7 +44,7 @@ public interface IHuffProcessor extends IHuffConstants {
      * reproduce the tree, AND the actual data.
      * @throws IOException if an error occurs while reading from the input file.
      */
-    public int preprocessCompress(InputStream in, int headerFormat) throws IOException;
+    public long preprocessCompress(InputStream in, int headerFormat) throws IOException;
 
 
     /**
@@ -49,12 +56,13 @@ public interface IHuffProcessor extends IHuffConstants {
      * @param out is bound to a file/stream to which bits are written
      * for the compressed file (not a BitOutputStream)
      * @param force if this is true create the output file even if it is larger than the input file.
-     * If this is false do not create the output file if it is larger than the input file.
+     * If this is false and coding would make the data larger, the data may be written in the
+     * stored format instead, or the output file may not be created.
      * @return the number of bits written. 
      * @throws IOException if an error occurs while reading from the input file or
      * writing to the output file.
      */
-    public int compress(InputStream in, OutputStream out, boolean force) throws IOException;
+    public long compress(InputStream in, OutputStream out, boolean force) throws IOException;
 
 
     /**
@@ -66,6 +74,6 @@ public interface IHuffProcessor extends IHuffConstants {
      * @throws IOException if an error occurs while reading from the input file or
      * writing to the output file.
      */
-    public int uncompress(InputStream in, OutputStream out) throws IOException;
+    public long uncompress(InputStream in, OutputStream out) throws IOException;
 
 }
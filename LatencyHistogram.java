@@ -0,0 +1,110 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock free histogram of latencies. Bucket i counts latencies of less than
+ * 2^i microseconds that did not fit in bucket i - 1, so recording is a shift
+ * and an atomic increment and the histogram never grows.
+ */
+public class LatencyHistogram {
+
+    // bucket 39 holds everything from about 6 days up
+    private static final int NUM_BUCKETS = 40;
+
+    private final AtomicLongArray buckets;
+    private final LongAdder count;
+    private final LongAdder totalNanos;
+
+    /**
+     * Create an empty histogram.
+     */
+    public LatencyHistogram() {
+        buckets = new AtomicLongArray(NUM_BUCKETS);
+        count = new LongAdder();
+        totalNanos = new LongAdder();
+    }
+
+    /**
+     * Record one latency.
+     * @param nanos the latency in nanoseconds, negative values count as 0
+     */
+    public void record(long nanos) {
+        long micros = Math.max(0, nanos) / 1000;
+        int bucket = Math.min(NUM_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+        buckets.incrementAndGet(bucket);
+        count.increment();
+        totalNanos.add(Math.max(0, nanos));
+    }
+
+    /**
+     * Get the number of latencies recorded.
+     * @return the count
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * Get the mean latency.
+     * @return the mean in nanoseconds, 0 if nothing was recorded
+     */
+    public double getMeanNanos() {
+        long n = count.sum();
+        return n == 0 ? 0 : (double) totalNanos.sum() / n;
+    }
+
+    /**
+     * Get an upper bound on a percentile of the latencies.
+     * pre: 0 <= percentile <= 100
+     * @param percentile the percentile to find
+     * @return the upper bound in microseconds of the bucket holding the
+     * percentile, 0 if nothing was recorded
+     */
+    public long getPercentileMicros(double percentile) {
+        // check preconditions
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("percentile must be between 0 and 100.");
+        }
+        long[] counts = snapshot();
+        long total = 0;
+        for (long c : counts) {
+            total += c;
+        }
+        long rank = (long) Math.ceil(total * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank && counts[i] > 0) {
+                return 1L << i;
+            }
+        }
+        return 0;
+    }
+
+    // copy the buckets, not atomic as a whole but never torn per bucket
+    private long[] snapshot() {
+        long[] result = new long[NUM_BUCKETS];
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            result[i] = buckets.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * Return a String version of this histogram.
+     * @return the count, mean, percentiles, and the non empty buckets
+     */
+    public String toString() {
+        StringBuilder result = new StringBuilder();
+        result.append(String.format("count: %d mean: %.3f ms p50: < %d us p99: < %d us%n",
+                getCount(), getMeanNanos() / 1e6, getPercentileMicros(50),
+                getPercentileMicros(99)));
+        long[] counts = snapshot();
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            if (counts[i] > 0) {
+                result.append(String.format("  < %d us: %d%n", 1L << i, counts[i]));
+            }
+        }
+        return result.toString();
+    }
+}
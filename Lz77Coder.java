@@ -0,0 +1,625 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * An LZ77 stage in front of the Huffman coder, for data that repeats
+ * whole strings, such as logs, which coding bytes on their own cannot
+ * take advantage of. Strings seen earlier in a sliding window are replaced
+ * by a length and a distance back to the earlier copy. Matches are found
+ * with hash chains: the positions where every four bytes start are kept in
+ * a chain per hash, and the chain is searched from the nearest position.
+ * <P>
+ * The output is a STORE_LZ77 file. After the magic number, the format
+ * constant, and the number of window bits, the data is a series of blocks,
+ * each a 1 bit and then two trees written as STORE_TREE writes one. The
+ * first tree codes literal bytes, END_OF_BLOCK, and the length codes, and
+ * the second codes distance codes. Lengths and distances are coded as a
+ * code for their range followed by extra bits for the place in the range,
+ * and a block ends with END_OF_BLOCK. A 0 bit instead of another block
+ * ends the data.
+ * <P>
+ * A level from MIN_LEVEL to MAX_LEVEL trades speed for size by setting the
+ * window size, how many positions of a chain are searched, the length
+ * that is good enough to stop searching, and whether a match is put off
+ * when the next position has a longer one.
+ * <P>
+ * To compare the levels with Huffman coding alone on a file:
+ * <pre>java Lz77Coder file [level]</pre>
+ */
+public class Lz77Coder implements CompressionStage, IHuffConstants {
+
+    /**
+     * The fastest level.
+     */
+    public static final int MIN_LEVEL = 1;
+
+    /**
+     * The level that writes the fewest bits.
+     */
+    public static final int MAX_LEVEL = 9;
+
+    /**
+     * The level used when none is given.
+     */
+    public static final int DEFAULT_LEVEL = 6;
+
+    /**
+     * The smallest window, in bits of the largest distance.
+     */
+    public static final int MIN_WINDOW_BITS = 10;
+
+    /**
+     * The largest window, in bits of the largest distance.
+     */
+    public static final int MAX_WINDOW_BITS = 24;
+
+    // shortest and longest match coded
+    static final int MIN_MATCH = 4;
+    static final int MAX_MATCH = MIN_MATCH + 255;
+    // literal bytes, then END_OF_BLOCK, then the length codes
+    private static final int END_OF_BLOCK = PSEUDO_EOF;
+    private static final int LENGTH_CODES = 16;
+    private static final int LITLEN_SIZE = END_OF_BLOCK + 1 + LENGTH_CODES;
+    // tokens coded with one pair of trees
+    private static final int BLOCK_TOKENS = 1 << 17;
+    // bits of the hash, the window bits but no more than this
+    private static final int MAX_HASH_BITS = 20;
+    // bytes read ahead of the position being matched
+    private static final int LOOKAHEAD = MAX_MATCH + MIN_MATCH;
+    private static final int NO_POSITION = -1;
+
+    // window bits, search depth, nice length, and lazy matching of each level
+    private static final int[][] LEVELS = {
+        {15, 4, 8, 0},
+        {15, 8, 16, 0},
+        {15, 32, 32, 0},
+        {16, 16, 32, 1},
+        {16, 32, 64, 1},
+        {16, 128, 128, 1},
+        {17, 256, MAX_MATCH, 1},
+        {18, 512, MAX_MATCH, 1},
+        {20, 1024, MAX_MATCH, 1},
+    };
+    // a match of MIN_MATCH bytes farther than this costs more than literals
+    private static final int TOO_FAR = 1 << 12;
+    // a match this long only gets a quarter of the search depth looking past it
+    private static final int GOOD_LENGTH = 32;
+
+    private final int windowBits;
+    private final int searchDepth;
+    private final int niceLength;
+    private final boolean lazy;
+    private final int hashBits;
+
+    // the window and the bytes read ahead, and the hash chains into it
+    private byte[] window;
+    private int[] head;
+    private int[] prev;
+    private InputStream in;
+    private boolean ended;
+    private int filled;
+    private int pos;
+    // positions before this one are in the hash chains
+    private int hashed;
+    private int matchDistance;
+
+    // the tokens of the current block, length 0 for a literal
+    private int[] tokenLengths;
+    private int[] tokenValues;
+    private int tokens;
+    private long[] litFreqs;
+    private long[] distFreqs;
+    // blocks written, and the time and output size of the current one
+    private long blocks;
+    private HuffPhaseEvent blockEvent;
+    private long blockStart;
+
+    /**
+     * Create a coder at DEFAULT_LEVEL.
+     */
+    public Lz77Coder() {
+        this(DEFAULT_LEVEL);
+    }
+
+    /**
+     * Create a coder with the settings of a level.
+     * pre: MIN_LEVEL <= level <= MAX_LEVEL
+     * @param level higher levels are slower and write fewer bits
+     */
+    public Lz77Coder(int level) {
+        this(settings(level)[0], LEVELS[level - 1][1], LEVELS[level - 1][2],
+                LEVELS[level - 1][3] != 0);
+    }
+
+    /**
+     * Create a coder with its settings given one by one.
+     * pre: MIN_WINDOW_BITS <= windowBits <= MAX_WINDOW_BITS, searchDepth > 0,
+     * MIN_MATCH <= niceLength <= MAX_MATCH
+     * @param windowBits the bits of the largest distance back a match can be
+     * @param searchDepth the most positions of a hash chain searched for a match
+     * @param niceLength the length of a match that ends the search early
+     * @param lazy true to emit a literal instead of a match when the next
+     * position has a longer match
+     */
+    public Lz77Coder(int windowBits, int searchDepth, int niceLength, boolean lazy) {
+        // check preconditions
+        if (windowBits < MIN_WINDOW_BITS || windowBits > MAX_WINDOW_BITS) {
+            throw new IllegalArgumentException("windowBits must be from " + MIN_WINDOW_BITS
+                    + " to " + MAX_WINDOW_BITS + ".");
+        }
+        if (searchDepth <= 0 || niceLength < MIN_MATCH || niceLength > MAX_MATCH) {
+            throw new IllegalArgumentException("searchDepth must be positive and niceLength "
+                    + "from " + MIN_MATCH + " to " + MAX_MATCH + ".");
+        }
+        this.windowBits = windowBits;
+        this.searchDepth = searchDepth;
+        this.niceLength = niceLength;
+        this.lazy = lazy;
+        // a hash chain holds about one position of each string in the window
+        hashBits = Math.min(windowBits, MAX_HASH_BITS);
+    }
+
+    // the settings of a level, after checking it
+    private static int[] settings(int level) {
+        // check preconditions
+        if (level < MIN_LEVEL || level > MAX_LEVEL) {
+            throw new IllegalArgumentException("level must be from " + MIN_LEVEL + " to "
+                    + MAX_LEVEL + ".");
+        }
+        return LEVELS[level - 1];
+    }
+
+    public int getHeaderFormat() {
+        return STORE_LZ77;
+    }
+
+    /**
+     * Compress a stream into a STORE_LZ77 file. Neither stream is closed.
+     * pre: in != null, out != null
+     * @param in the data to compress
+     * @param out the stream the compressed file is written to
+     * @return the number of bits written, a whole number of bytes
+     * @throws IOException if an error occurs while reading or writing
+     */
+    public long compress(InputStream in, OutputStream out) throws IOException {
+        // check preconditions
+        if (in == null || out == null) {
+            throw new IllegalArgumentException("streams cannot be null.");
+        }
+        int windowSize = 1 << windowBits;
+        window = new byte[2 * windowSize];
+        head = new int[1 << hashBits];
+        Arrays.fill(head, NO_POSITION);
+        prev = new int[windowSize];
+        tokenLengths = new int[BLOCK_TOKENS];
+        tokenValues = new int[BLOCK_TOKENS];
+        litFreqs = new long[LITLEN_SIZE];
+        distFreqs = new long[2 * windowBits];
+        this.in = in;
+        ended = false;
+        filled = 0;
+        pos = 0;
+        hashed = 0;
+        tokens = 0;
+
+        BitOutputStream bitsOut = new BitOutputStream(out);
+        bitsOut.writeBits(BITS_PER_INT, MAGIC_NUMBER);
+        bitsOut.writeBits(BITS_PER_INT, STORE_LZ77);
+        bitsOut.writeBits(BITS_PER_INT, windowBits);
+        blocks = 0;
+        startBlock(bitsOut);
+        fill();
+        while (pos < filled) {
+            int length = longestMatch(pos, searchDepth);
+            int distance = matchDistance;
+            if (lazy && length >= MIN_MATCH && length < niceLength) {
+                // put the match off if the next position has a longer one
+                int next = longestMatch(pos + 1,
+                        length >= GOOD_LENGTH ? Math.max(1, searchDepth >> 2) : searchDepth);
+                if (next > length) {
+                    addToken(0, window[pos] & 0xff, bitsOut);
+                    pos++;
+                    length = next;
+                    distance = matchDistance;
+                }
+            }
+            if (length >= MIN_MATCH) {
+                addToken(length, distance, bitsOut);
+                pos += length;
+            } else {
+                addToken(0, window[pos] & 0xff, bitsOut);
+                pos++;
+            }
+            if (!ended && filled - pos < LOOKAHEAD) {
+                fill();
+            }
+        }
+        if (tokens > 0) {
+            writeBlock(bitsOut);
+        }
+        // no more blocks
+        bitsOut.writeBits(1, 0);
+        bitsOut.flush();
+        // let the buffers go, they can be large
+        window = null;
+        head = null;
+        prev = null;
+        this.in = null;
+        blockEvent = null;
+        return bitsOut.getBytesWritten() * BITS_PER_WORD;
+    }
+
+    /**
+     * Read more of the input into the window, sliding it first if it is full.
+     * @throws IOException if an error occurs while reading
+     */
+    private void fill() throws IOException {
+        if (filled == window.length) {
+            slide();
+        }
+        while (filled < window.length) {
+            int numRead = in.read(window, filled, window.length - filled);
+            if (numRead == -1) {
+                ended = true;
+                return;
+            }
+            filled += numRead;
+        }
+    }
+
+    /**
+     * Drop the older half of the window, which is out of reach of every
+     * position not yet matched, and move the positions in the hash chains.
+     */
+    private void slide() {
+        int windowSize = prev.length;
+        System.arraycopy(window, windowSize, window, 0, filled - windowSize);
+        filled -= windowSize;
+        pos -= windowSize;
+        hashed -= windowSize;
+        for (int i = 0; i < head.length; i++) {
+            head[i] = Math.max(NO_POSITION, head[i] - windowSize);
+        }
+        for (int i = 0; i < prev.length; i++) {
+            prev[i] = Math.max(NO_POSITION, prev[i] - windowSize);
+        }
+    }
+
+    /**
+     * Find the longest match for the bytes at a position.
+     * @param p the position in the window
+     * @param depth the most positions of the hash chain searched
+     * @return the length of the match, 0 if there is none at least MIN_MATCH
+     * long, with its distance in matchDistance
+     */
+    private int longestMatch(int p, int depth) {
+        // chain every position before this one
+        int mask = prev.length - 1;
+        while (hashed < p && hashed + MIN_MATCH <= filled) {
+            int h = hash(hashed);
+            prev[hashed & mask] = head[h];
+            head[h] = hashed;
+            hashed++;
+        }
+        int maxLength = Math.min(MAX_MATCH, filled - p);
+        if (maxLength < MIN_MATCH) {
+            return 0;
+        }
+        int limit = p - prev.length;
+        int best = MIN_MATCH - 1;
+        int chain = depth;
+        int cur = head[hash(p)];
+        while (cur > limit && cur != NO_POSITION && chain-- > 0) {
+            // check the byte that would make this match longer first
+            if (window[cur + best] == window[p + best] && window[cur] == window[p]) {
+                int length = 1;
+                while (length < maxLength && window[cur + length] == window[p + length]) {
+                    length++;
+                }
+                if (length > best && (length > MIN_MATCH || p - cur <= TOO_FAR)) {
+                    best = length;
+                    matchDistance = p - cur;
+                    if (length >= niceLength || length == maxLength) {
+                        break;
+                    }
+                }
+            }
+            cur = prev[cur & mask];
+        }
+        return best >= MIN_MATCH ? best : 0;
+    }
+
+    // the hash of the MIN_MATCH bytes at a position
+    private int hash(int p) {
+        int bytes = (window[p] & 0xff) | (window[p + 1] & 0xff) << 8
+                | (window[p + 2] & 0xff) << 16 | (window[p + 3] & 0xff) << 24;
+        return (bytes * 0x9E3779B1) >>> (Integer.SIZE - hashBits);
+    }
+
+    /**
+     * Add a literal or match to the current block, writing the block first if it is full.
+     * @param length the length of the match, 0 for a literal
+     * @param value the literal byte or the distance of the match
+     * @param bitsOut the stream blocks are written to
+     */
+    private void addToken(int length, int value, BitOutputStream bitsOut) {
+        if (tokens == BLOCK_TOKENS) {
+            writeBlock(bitsOut);
+        }
+        tokenLengths[tokens] = length;
+        tokenValues[tokens] = value;
+        tokens++;
+        if (length == 0) {
+            litFreqs[value]++;
+        } else {
+            litFreqs[END_OF_BLOCK + 1 + bucket(length - MIN_MATCH)]++;
+            distFreqs[bucket(value - 1)]++;
+        }
+    }
+
+    /**
+     * Write the trees and tokens of the current block and start a new one.
+     * @param bitsOut the stream the block is written to
+     */
+    private void writeBlock(BitOutputStream bitsOut) {
+        litFreqs[END_OF_BLOCK] = 1;
+        // a tree of one leaf would give it an empty code
+        atLeastTwo(litFreqs);
+        atLeastTwo(distFreqs);
+        HuffmanCodeTree litTree = new HuffmanCodeTree(litFreqs);
+        HuffmanCodeTree distTree = new HuffmanCodeTree(distFreqs);
+        bitsOut.writeBits(1, 1);
+        litTree.writeTree(bitsOut);
+        distTree.writeTree(bitsOut);
+        long[] litCodes = new long[LITLEN_SIZE];
+        int[] litLengths = new int[LITLEN_SIZE];
+        long[] distCodes = new long[distFreqs.length];
+        int[] distLengths = new int[distFreqs.length];
+        toCodes(litTree.treeToCode(), litCodes, litLengths);
+        toCodes(distTree.treeToCode(), distCodes, distLengths);
+        for (int i = 0; i < tokens; i++) {
+            int length = tokenLengths[i];
+            int value = tokenValues[i];
+            if (length == 0) {
+                writeCode(bitsOut, litCodes[value], litLengths[value]);
+            } else {
+                int b = bucket(length - MIN_MATCH);
+                int symbol = END_OF_BLOCK + 1 + b;
+                writeCode(bitsOut, litCodes[symbol], litLengths[symbol]);
+                writeExtra(bitsOut, length - MIN_MATCH, b);
+                b = bucket(value - 1);
+                writeCode(bitsOut, distCodes[b], distLengths[b]);
+                writeExtra(bitsOut, value - 1, b);
+            }
+        }
+        writeCode(bitsOut, litCodes[END_OF_BLOCK], litLengths[END_OF_BLOCK]);
+        if (blockEvent != null) {
+            long bytesIn = 0;
+            for (int i = 0; i < tokens; i++) {
+                bytesIn += tokenLengths[i] == 0 ? 1 : tokenLengths[i];
+            }
+            HuffPhaseEvent.commitBlock(blockEvent, STORE_LZ77, blocks, bytesIn,
+                    bitsOut.getBytesWritten() - blockStart, litTree.depth());
+        }
+        blocks++;
+        startBlock(bitsOut);
+        tokens = 0;
+        Arrays.fill(litFreqs, 0);
+        Arrays.fill(distFreqs, 0);
+    }
+
+    // start the flight recorder event of the next block, if a recording wants it
+    private void startBlock(BitOutputStream bitsOut) {
+        blockEvent = HuffPhaseEvent.beginBlock();
+        blockStart = bitsOut.getBytesWritten();
+    }
+
+    // give unused values a count until at least two values have one
+    private static void atLeastTwo(long[] freqs) {
+        int used = 0;
+        for (long freq : freqs) {
+            if (freq > 0) {
+                used++;
+            }
+        }
+        for (int i = 0; used < 2; i++) {
+            if (freqs[i] == 0) {
+                freqs[i] = 1;
+                used++;
+            }
+        }
+    }
+
+    // turn the codes of a tree into right aligned bits and lengths
+    private static void toCodes(Map<Integer, String> huffCodings, long[] codes, int[] lengths) {
+        for (Map.Entry<Integer, String> entry : huffCodings.entrySet()) {
+            codes[entry.getKey()] = Long.parseLong(entry.getValue(), 2);
+            lengths[entry.getKey()] = entry.getValue().length();
+        }
+    }
+
+    // write a code that may be longer than an int
+    private static void writeCode(BitOutputStream bitsOut, long code, int length) {
+        if (length > Integer.SIZE) {
+            bitsOut.writeBits(length - Integer.SIZE, (int) (code >>> Integer.SIZE));
+            length = Integer.SIZE;
+        }
+        bitsOut.writeBits(length, (int) code);
+    }
+
+    // write the place of a value in the range of its code
+    private static void writeExtra(BitOutputStream bitsOut, int value, int b) {
+        int extra = extraBits(b);
+        if (extra > 0) {
+            bitsOut.writeBits(extra, value - base(b));
+        }
+    }
+
+    /**
+     * Get the code of the range a length or distance is in. Values below 4
+     * have a code each, and every larger power of two is split into two
+     * ranges by the bit below the highest.
+     * @param value the length less MIN_MATCH, or the distance less one
+     * @return the code of the range
+     */
+    static int bucket(int value) {
+        if (value < 4) {
+            return value;
+        }
+        int high = Integer.SIZE - 1 - Integer.numberOfLeadingZeros(value);
+        return 2 * high + ((value >>> (high - 1)) & 1);
+    }
+
+    // the number of extra bits after a range code
+    private static int extraBits(int b) {
+        return b < 4 ? 0 : (b >>> 1) - 1;
+    }
+
+    // the smallest value in the range of a code
+    private static int base(int b) {
+        return b < 4 ? b : (2 | (b & 1)) << ((b >>> 1) - 1);
+    }
+
+    /**
+     * Uncompress the data of a STORE_LZ77 file. Matches are copied within
+     * the window with array copies, doubling the copy for matches that
+     * overlap the bytes they produce.
+     * @param bitsIn the compressed file, after the magic number and format constant
+     * @param out the stream the uncompressed data is written to, not closed
+     * @return the number of bytes written
+     * @throws IOException if the data is not valid or an error occurs while
+     * reading or writing
+     */
+    static long uncompress(BitInputStream bitsIn, OutputStream out) throws IOException {
+        int windowBits = bitsIn.readBits(BITS_PER_INT);
+        if (windowBits < MIN_WINDOW_BITS || windowBits > MAX_WINDOW_BITS) {
+            throw new IOException("Error reading compressed file. \n" +
+                    "bad LZ77 window size " + windowBits);
+        }
+        int windowSize = 1 << windowBits;
+        byte[] buffer = new byte[2 * windowSize];
+        int pos = 0;
+        // bytes before flushed have been written, before pos have been decoded
+        int flushed = 0;
+        long written = 0;
+        int more = bitsIn.readBits(1);
+        while (more == 1) {
+            HuffmanCodeTree litTree = new HuffmanCodeTree();
+            litTree.rebuildTree(bitsIn);
+            HuffmanCodeTree distTree = new HuffmanCodeTree();
+            distTree.rebuildTree(bitsIn);
+            int symbol = litTree.decodeValue(bitsIn);
+            while (symbol != END_OF_BLOCK) {
+                if (pos + MAX_MATCH > buffer.length) {
+                    // write what is decoded and keep the last window of it
+                    out.write(buffer, flushed, pos - flushed);
+                    written += pos - flushed;
+                    System.arraycopy(buffer, pos - windowSize, buffer, 0, windowSize);
+                    pos = windowSize;
+                    flushed = pos;
+                }
+                if (symbol < END_OF_BLOCK) {
+                    buffer[pos++] = (byte) symbol;
+                } else {
+                    int b = symbol - END_OF_BLOCK - 1;
+                    if (b >= LENGTH_CODES) {
+                        throw new IOException("Error reading compressed file. \n" +
+                                "bad LZ77 length code.");
+                    }
+                    int length = MIN_MATCH + readExtra(bitsIn, b);
+                    b = distTree.decodeValue(bitsIn);
+                    if (b >= 2 * windowBits) {
+                        throw new IOException("Error reading compressed file. \n" +
+                                "bad LZ77 distance code.");
+                    }
+                    int distance = 1 + readExtra(bitsIn, b);
+                    if (distance > pos || distance > windowSize) {
+                        throw new IOException("Error reading compressed file. \n" +
+                                "LZ77 distance is before the start of the data.");
+                    }
+                    // a match that overlaps itself repeats the bytes between
+                    // its source and the end, so copy those and double them
+                    int src = pos - distance;
+                    int end = pos + length;
+                    while (pos < end) {
+                        int n = Math.min(pos - src, end - pos);
+                        System.arraycopy(buffer, src, buffer, pos, n);
+                        pos += n;
+                    }
+                }
+                symbol = litTree.decodeValue(bitsIn);
+            }
+            more = bitsIn.readBits(1);
+        }
+        if (more == -1) {
+            throw new EOFException("LZ77 data ended before its last block.");
+        }
+        out.write(buffer, flushed, pos - flushed);
+        return written + pos - flushed;
+    }
+
+    // read the extra bits after a range code and return the value
+    private static int readExtra(BitInputStream bitsIn, int b) throws IOException {
+        int extra = extraBits(b);
+        if (extra == 0) {
+            return base(b);
+        }
+        int bits = bitsIn.readBits(extra);
+        if (bits == -1) {
+            throw new EOFException("LZ77 data ended in a match.");
+        }
+        return base(b) + bits;
+    }
+
+    /**
+     * Compress a file at every level, or one level, and with Huffman coding
+     * alone, and print the size and speed of each.
+     * @param args the file, then optionally a level
+     * @throws IOException if an error occurs while reading the file
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.out.println("usage: java Lz77Coder file [level]");
+            return;
+        }
+        byte[] data = Files.readAllBytes(new File(args[0]).toPath());
+        SimpleHuffProcessor huff = new SimpleHuffProcessor();
+        huff.setViewer(new ErrorViewer());
+        long start = System.nanoTime();
+        huff.preprocessCompress(new ByteArrayInputStream(data), STORE_COUNTS);
+        long huffBits = huff.compress(new ByteArrayInputStream(data),
+                OutputStream.nullOutputStream(), true);
+        System.out.printf("huffman only: %d bytes, %.3f of the input, %.1f MB/s%n",
+                huffBits / BITS_PER_WORD, huffBits / (data.length * 8.0),
+                data.length / ((System.nanoTime() - start) / 1e3));
+        int first = args.length > 1 ? Integer.parseInt(args[1]) : MIN_LEVEL;
+        int last = args.length > 1 ? first : MAX_LEVEL;
+        for (int level = first; level <= last; level++) {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            start = System.nanoTime();
+            long bits = new Lz77Coder(level).compress(new ByteArrayInputStream(data), compressed);
+            long compressNanos = System.nanoTime() - start;
+            ByteArrayOutputStream restored = new ByteArrayOutputStream(data.length);
+            BitInputStream bitsIn = new BitInputStream(
+                    new ByteArrayInputStream(compressed.toByteArray()));
+            start = System.nanoTime();
+            bitsIn.readBits(BITS_PER_INT);
+            bitsIn.readBits(BITS_PER_INT);
+            uncompress(bitsIn, restored);
+            long uncompressNanos = System.nanoTime() - start;
+            System.out.printf("level %d: %d bytes, %.3f of the input, compress %.1f MB/s, "
+                    + "uncompress %.1f MB/s%s%n", level, bits / BITS_PER_WORD,
+                    bits / (data.length * 8.0), data.length / (compressNanos / 1e3),
+                    data.length / (uncompressNanos / 1e3),
+                    Arrays.equals(data, restored.toByteArray()) ? "" : ", ROUND TRIP FAILED");
+        }
+    }
+}
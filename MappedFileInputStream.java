@@ -0,0 +1,103 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads a file through memory maps of a window of it at a time. A single
+ * map or array is limited to 2 GB, so reading a larger file this way avoids
+ * both the limit and copying the file into memory first. Only the window
+ * being read is mapped.
+ */
+public class MappedFileInputStream extends InputStream {
+
+    // most of the file mapped at once
+    private static final int MAP_WINDOW = 1 << 30;
+
+    private final FileChannel channel;
+    private final long size;
+    private final byte[] one = new byte[1];
+    // position in the file of the start of the window
+    private long windowStart;
+    private MappedByteBuffer window;
+
+    /**
+     * Open a file to read.
+     * pre: f != null
+     * @param f the file to read
+     * @throws IOException if the file cannot be opened
+     */
+    public MappedFileInputStream(File f) throws IOException {
+        // check preconditions
+        if (f == null) {
+            throw new IllegalArgumentException("f cannot be null.");
+        }
+        channel = FileChannel.open(f.toPath(), StandardOpenOption.READ);
+        size = channel.size();
+    }
+
+    /**
+     * Get the number of bytes in the file.
+     * @return the size of the file when it was opened
+     */
+    public long size() {
+        return size;
+    }
+
+    public int read() throws IOException {
+        return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+    }
+
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!nextWindow()) {
+            return -1;
+        }
+        int n = Math.min(len, window.remaining());
+        window.get(b, off, n);
+        return n;
+    }
+
+    public long skip(long n) throws IOException {
+        long skipped = Math.max(0, Math.min(n, size - position()));
+        if (skipped > 0) {
+            // remap from the new position on the next read
+            windowStart = position() + skipped;
+            window = null;
+        }
+        return skipped;
+    }
+
+    public int available() {
+        return (int) Math.min(Integer.MAX_VALUE, size - position());
+    }
+
+    public void close() throws IOException {
+        window = null;
+        channel.close();
+    }
+
+    // the position in the file of the next byte read
+    private long position() {
+        return window == null ? windowStart : windowStart + window.position();
+    }
+
+    // map the next window if the current one is used up, false at the end of the file
+    private boolean nextWindow() throws IOException {
+        if (window != null && window.hasRemaining()) {
+            return true;
+        }
+        long start = position();
+        if (start >= size) {
+            return false;
+        }
+        windowStart = start;
+        window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart,
+                Math.min(MAP_WINDOW, size - windowStart));
+        return true;
+    }
+}
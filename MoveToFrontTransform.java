@@ -0,0 +1,68 @@
+import java.io.IOException;
+
+/**
+ * Replaces every byte with its position in a list of the byte values that
+ * is kept in order of the most recent use. Bytes that were used recently
+ * become small numbers, so the output of a Burrows-Wheeler transform, where
+ * equal bytes bunch together, becomes mostly zeros and ones. The list
+ * starts in value order at the start of every block.
+ */
+public class MoveToFrontTransform implements BlockTransform, IHuffConstants {
+
+    /**
+     * The id of this transform in STORE_TRANSFORM headers.
+     */
+    public static final int ID = 2;
+
+    private final byte[] order = new byte[ALPH_SIZE];
+
+    public int getId() {
+        return ID;
+    }
+
+    public String getName() {
+        return "mtf";
+    }
+
+    public int maxOutput(int length) {
+        return length;
+    }
+
+    public int forward(byte[] src, int length, byte[] dst) {
+        resetOrder();
+        for (int i = 0; i < length; i++) {
+            byte b = src[i];
+            int rank = 0;
+            while (order[rank] != b) {
+                rank++;
+            }
+            System.arraycopy(order, 0, order, 1, rank);
+            order[0] = b;
+            dst[i] = (byte) rank;
+        }
+        return length;
+    }
+
+    public int inverse(byte[] src, int length, byte[] dst) throws IOException {
+        if (length > dst.length) {
+            throw new IOException("Error reading compressed file. \n" +
+                    "move-to-front block is too long.");
+        }
+        resetOrder();
+        for (int i = 0; i < length; i++) {
+            int rank = src[i] & 0xff;
+            byte b = order[rank];
+            System.arraycopy(order, 0, order, 1, rank);
+            order[0] = b;
+            dst[i] = b;
+        }
+        return length;
+    }
+
+    // put the list back in value order
+    private void resetOrder() {
+        for (int i = 0; i < ALPH_SIZE; i++) {
+            order[i] = (byte) i;
+        }
+    }
+}
@@ -0,0 +1,265 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Compresses a single input on several threads, the way pigz does. The
+ * input is split into chunks and every chunk is compressed by its own
+ * SimpleHuffProcessor into an independent member, a complete compressed
+ * file with its own header. The members are written one after another in
+ * input order, and SimpleHuffProcessor.uncompress reads them back as one
+ * output. An input of one chunk is a single member, so it is the same as
+ * what SimpleHuffProcessor writes on its own.
+ * <P>
+ * A chunk the processor would store as is gets a STORE_BLOCKS member
+ * instead of a STORE_RAW one, unless it is the last, since stored data
+ * runs to the end of the file and no member could follow it.
+ * <P>
+ * Chunks are read on the calling thread, and at most two per thread are
+ * read ahead of the writer, so memory use does not grow with the input.
+ * <P>
+ * To compress a file, or with -u uncompress it, from the command line:
+ * <pre>java ParallelCompressor [-u] [-t threads] [-b chunkBytes] [-x transforms] file</pre>
+ */
+public class ParallelCompressor implements IHuffConstants, Closeable {
+
+    /**
+     * The default number of input bytes in each member.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 1 << 22;
+
+    // chunks read ahead of the writer for every thread
+    private static final int CHUNKS_PER_THREAD = 2;
+
+    private final ExecutorService pool;
+    private final int threads;
+    private final int chunkSize;
+    private int headerFormat;
+    private boolean force;
+    private String transforms;
+
+    /**
+     * Create a compressor with one thread per processor and chunks of
+     * DEFAULT_CHUNK_SIZE bytes.
+     */
+    public ParallelCompressor() {
+        this(Runtime.getRuntime().availableProcessors(), DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Create a compressor.
+     * pre: threads > 0, chunkSize > 0
+     * @param threads the number of chunks compressed at once
+     * @param chunkSize the number of input bytes in each member
+     */
+    public ParallelCompressor(int threads, int chunkSize) {
+        // check preconditions
+        if (threads <= 0 || chunkSize <= 0) {
+            throw new IllegalArgumentException("threads and chunkSize must be positive.");
+        }
+        this.threads = threads;
+        this.chunkSize = chunkSize;
+        headerFormat = STORE_COUNTS;
+        pool = Executors.newFixedThreadPool(threads,
+                BatchCompressor.daemonThreads("huff-parallel-"));
+    }
+
+    /**
+     * Set the header format of every member.
+     * @param headerFormat the header format passed to preprocessCompress
+     */
+    public void setHeaderFormat(int headerFormat) {
+        this.headerFormat = headerFormat;
+    }
+
+    /**
+     * Set whether chunks are coded even when coding makes them larger.
+     * @param force the force flag passed to compress
+     */
+    public void setForce(boolean force) {
+        this.force = force;
+    }
+
+    /**
+     * Set the chain of block transforms every chunk is run through, so the
+     * transforms of different chunks run on different threads.
+     * pre: transforms is null or a valid chain for TransformPipeline.parse
+     * @param transforms the chain passed to setTransforms, or null for none
+     */
+    public void setTransforms(String transforms) {
+        // check preconditions
+        if (transforms != null) {
+            TransformPipeline.parse(transforms);
+        }
+        this.transforms = transforms;
+    }
+
+    /**
+     * Compress a stream into a series of members. Neither stream is closed.
+     * pre: in != null, out != null
+     * @param in the data to compress
+     * @param out the stream the members are written to
+     * @return the number of bytes written
+     * @throws IOException if an error occurs while reading, writing, or compressing
+     */
+    public long compress(InputStream in, OutputStream out) throws IOException {
+        // check preconditions
+        if (in == null || out == null) {
+            throw new IllegalArgumentException("streams cannot be null.");
+        }
+        Queue<Future<byte[]>> pending = new ArrayDeque<>();
+        long written = 0;
+        // an empty input is still one member
+        byte[] chunk = in.readNBytes(chunkSize);
+        byte[] next = in.readNBytes(chunkSize);
+        pending.add(pool.submit(compressTask(chunk, next.length == 0)));
+        while (next.length > 0) {
+            chunk = next;
+            next = in.readNBytes(chunkSize);
+            pending.add(pool.submit(compressTask(chunk, next.length == 0)));
+            if (pending.size() >= threads * CHUNKS_PER_THREAD) {
+                written += writeMember(pending.remove(), out);
+            }
+        }
+        while (!pending.isEmpty()) {
+            written += writeMember(pending.remove(), out);
+        }
+        out.flush();
+        return written;
+    }
+
+    /**
+     * Create a task that compresses one chunk into a member.
+     * @param chunk the data of the chunk
+     * @param last true if no member follows this one
+     * @return the task, which returns the bytes of the member
+     */
+    private Callable<byte[]> compressTask(final byte[] chunk, final boolean last) {
+        return new Callable<byte[]>() {
+            public byte[] call() throws IOException {
+                SimpleHuffProcessor processor = new SimpleHuffProcessor();
+                ErrorViewer viewer = new ErrorViewer();
+                viewer.setModel(processor);
+                processor.setTransforms(transforms);
+                ByteArrayOutputStream member = new ByteArrayOutputStream();
+                processor.preprocessCompress(new ByteArrayInputStream(chunk), headerFormat);
+                if (processor.compress(new ByteArrayInputStream(chunk), member, force) < 0) {
+                    throw new IOException(viewer.getError());
+                }
+                if (!last && processor.getLastResult().getHeaderFormat() == STORE_RAW) {
+                    // stored blocks have lengths, so another member can follow them
+                    member.reset();
+                    try (HuffOutputStream blocks = new HuffOutputStream(member)) {
+                        blocks.write(chunk);
+                    }
+                }
+                return member.toByteArray();
+            }
+        };
+    }
+
+    /**
+     * Wait for a member and write it.
+     * @param member the task compressing the member
+     * @param out the stream the member is written to
+     * @return the number of bytes written
+     * @throws IOException if compressing the member failed or it cannot be written
+     */
+    private long writeMember(Future<byte[]> member, OutputStream out) throws IOException {
+        byte[] bytes;
+        try {
+            bytes = member.get();
+        } catch (ExecutionException e) {
+            throw new IOException("compressing a chunk failed: " + e.getCause().getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while compressing " + e);
+        }
+        out.write(bytes);
+        return bytes.length;
+    }
+
+    /**
+     * Stop the threads of this compressor.
+     */
+    public void close() {
+        pool.shutdownNow();
+    }
+
+    /**
+     * Compress, or with -u uncompress, a file and print the wall clock
+     * throughput. Output files are named like the GUI names them.
+     * @param args an optional -u, -t and a number of threads, -b and a
+     * chunk size, -x and a chain of transforms, then the name of the file
+     * @throws IOException if an error occurs while compressing or uncompressing
+     */
+    public static void main(String[] args) throws IOException {
+        boolean uncompress = false;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int chunkSize = DEFAULT_CHUNK_SIZE;
+        String transforms = null;
+        int i = 0;
+        for (; i < args.length - 1; i++) {
+            if (args[i].equals("-u")) {
+                uncompress = true;
+            } else if (args[i].equals("-t")) {
+                threads = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-b")) {
+                chunkSize = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-x")) {
+                transforms = args[++i];
+            } else {
+                break;
+            }
+        }
+        if (i != args.length - 1) {
+            System.out.println("usage: java ParallelCompressor [-u] [-t threads] "
+                    + "[-b chunkBytes] [-x transforms] file");
+            return;
+        }
+        String name = args[i];
+        String outName = !uncompress ? name + ".hf"
+                : (name.endsWith(".hf") ? name.substring(0, name.length() - 3) : name)
+                + ".unhf";
+        long start = System.nanoTime();
+        long bytesIn;
+        long bytesOut;
+        try (MappedFileInputStream in = new MappedFileInputStream(new File(name));
+                OutputStream out = new BufferedOutputStream(new FileOutputStream(outName))) {
+            bytesIn = in.size();
+            if (uncompress) {
+                SimpleHuffProcessor processor = new SimpleHuffProcessor();
+                ErrorViewer viewer = new ErrorViewer();
+                viewer.setModel(processor);
+                bytesOut = processor.uncompress(in, out) / BITS_PER_WORD;
+                if (bytesOut < 0) {
+                    System.out.println(viewer.getError());
+                    return;
+                }
+            } else {
+                try (ParallelCompressor compressor = new ParallelCompressor(threads, chunkSize)) {
+                    compressor.setTransforms(transforms);
+                    bytesOut = compressor.compress(in, out);
+                }
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%s %s -> %s: %d to %d bytes in %.3f s, %.1f MB/s%s%n",
+                uncompress ? "UNCOMPRESS" : "COMPRESS", name, outName, bytesIn, bytesOut,
+                seconds, (uncompress ? bytesOut : bytesIn) / seconds / 1e6,
+                uncompress ? "" : " on " + threads + " threads");
+    }
+}
@@ -0,0 +1,87 @@
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Shortens runs of a repeated byte, the way the first stage of bzip2 does.
+ * A run of RUN_THRESHOLD or more equal bytes is written as RUN_THRESHOLD of
+ * them followed by a byte with the count of the rest of the run, so a block
+ * grows by at most a quarter and shorter runs are left alone. After a
+ * move-to-front transform the runs are mostly zeros.
+ */
+public class RunLengthTransform implements BlockTransform {
+
+    /**
+     * The id of this transform in STORE_TRANSFORM headers.
+     */
+    public static final int ID = 1;
+
+    // equal bytes before a count, and the longest run one count covers
+    private static final int RUN_THRESHOLD = 4;
+    private static final int MAX_RUN = RUN_THRESHOLD + 255;
+
+    public int getId() {
+        return ID;
+    }
+
+    public String getName() {
+        return "rle";
+    }
+
+    public int maxOutput(int length) {
+        return length + length / RUN_THRESHOLD;
+    }
+
+    public int forward(byte[] src, int length, byte[] dst) {
+        int out = 0;
+        int i = 0;
+        while (i < length) {
+            byte b = src[i];
+            int run = 1;
+            while (run < MAX_RUN && i + run < length && src[i + run] == b) {
+                run++;
+            }
+            if (run >= RUN_THRESHOLD) {
+                Arrays.fill(dst, out, out + RUN_THRESHOLD, b);
+                out += RUN_THRESHOLD;
+                dst[out++] = (byte) (run - RUN_THRESHOLD);
+            } else {
+                Arrays.fill(dst, out, out + run, b);
+                out += run;
+            }
+            i += run;
+        }
+        return out;
+    }
+
+    public int inverse(byte[] src, int length, byte[] dst) throws IOException {
+        int out = 0;
+        int run = 0;
+        int last = -1;
+        for (int i = 0; i < length; i++) {
+            int b = src[i] & 0xff;
+            if (run == RUN_THRESHOLD) {
+                // the byte after a full run is the count of the rest of it
+                if (b > dst.length - out) {
+                    throw new IOException("Error reading compressed file. \n" +
+                            "run length block is too long.");
+                }
+                Arrays.fill(dst, out, out + b, (byte) last);
+                out += b;
+                run = 0;
+            } else {
+                if (out == dst.length) {
+                    throw new IOException("Error reading compressed file. \n" +
+                            "run length block is too long.");
+                }
+                dst[out++] = (byte) b;
+                run = b == last ? run + 1 : 1;
+                last = b;
+            }
+        }
+        if (run == RUN_THRESHOLD) {
+            throw new IOException("Error reading compressed file. \n" +
+                    "run length block ended before the count of a run.");
+        }
+        return out;
+    }
+}
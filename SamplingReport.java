@@ -0,0 +1,78 @@
+/**
+ * How a compress coded with a tree built from a sampled histogram compares
+ * to coding the same data with its exact histogram. Sizes are in bits and
+ * include the header.
+ */
+public class SamplingReport {
+
+    private final int headerFormat;
+    private final long estimatedBits;
+    private final long achievedBits;
+    private final long exactBits;
+
+    /**
+     * Create a report.
+     * @param headerFormat the header format written
+     * @param estimatedBits the size predicted from the sampled histogram
+     * @param achievedBits the size actually written
+     * @param exactBits the size the exact histogram would have written
+     */
+    public SamplingReport(int headerFormat, long estimatedBits, long achievedBits,
+            long exactBits) {
+        this.headerFormat = headerFormat;
+        this.estimatedBits = estimatedBits;
+        this.achievedBits = achievedBits;
+        this.exactBits = exactBits;
+    }
+
+    /**
+     * Get the header format written.
+     * @return the header format
+     */
+    public int getHeaderFormat() {
+        return headerFormat;
+    }
+
+    /**
+     * Get the size predicted from the sampled histogram.
+     * @return the estimated bits
+     */
+    public long getEstimatedBits() {
+        return estimatedBits;
+    }
+
+    /**
+     * Get the size actually written.
+     * @return the achieved bits
+     */
+    public long getAchievedBits() {
+        return achievedBits;
+    }
+
+    /**
+     * Get the size the exact histogram would have written with the same format.
+     * @return the exact bits
+     */
+    public long getExactBits() {
+        return exactBits;
+    }
+
+    /**
+     * Get how much larger the output is than with the exact histogram.
+     * @return achieved bits over exact bits, less one, 0 if exact bits is 0
+     */
+    public double getDeviation() {
+        return exactBits == 0 ? 0 : (double) achievedBits / exactBits - 1;
+    }
+
+    /**
+     * Return a String version of this report.
+     * @return the sizes and the deviation
+     */
+    public String toString() {
+        return String.format("%s sampled: %d bits estimated, %d bits written, "
+                + "%d bits with the exact histogram, %+.3f%%",
+                HuffAnalysis.formatName(headerFormat), estimatedBits, achievedBits,
+                exactBits, getDeviation() * 100);
+    }
+}
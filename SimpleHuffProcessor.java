@@ -1,43 +1,387 @@
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public class SimpleHuffProcessor implements IHuffProcessor {
 
+    // number of bytes copied at a time for stored data
+    private static final int COPY_BUFFER_SIZE = 1 << 16;
+
     private IHuffViewer myViewer;
-    private Map<Integer, Integer> frequencies; // frequencies of bit-sequences
-    private int[] freqArray; // frequencies as an array
+    private Map<Integer, Long> frequencies; // frequencies of bit-sequences
+    private long[] freqArray; // frequencies as an array
     private Map<Integer, String> huffCodings; // Huffman codings of bit-sequences
     private HuffmanCodeTree tree; // Huffman code tree
-    private int savedBits; // number of bits saved by compression
-    private int compressedBits; // number of bits compressed
+    private long savedBits; // number of bits saved by compression
+    private long compressedBits; // number of bits compressed
     private int hFormat; // header format
+    private CodeTableRegistry registry; // shared code tables for STORE_CUSTOM
+    private CodeTable customTable; // shared code table used for STORE_CUSTOM
+    private HuffAnalysis analysis; // analysis of the last preprocessed input
+    private int syncInterval; // values between sync points, 0 for no sync points
+    private CompressionMetrics metrics; // counters and phase times of all operations
+    private List<CompressionListener> listeners; // listeners told about progress
+    private long[] phaseNanos; // time spent in each phase of the current operation
+    private CompressionResult lastResult; // sizes and timings of the last operation
+    private HuffPhaseEvent phaseEvent; // flight recorder event of the phase in progress
+    private HuffProgress progress; // progress of the operation in progress, may be null
+    private boolean sampled; // true if freqArray is an estimate from a HistogramSampler
+    private SamplingReport samplingReport; // how the last sampled compress turned out
+    private int spoolLimit = -1; // bytes of input spooled in memory, -1 for no spooling
+    private Spool spool; // copy of the preprocessed input for compress, null if none
+    private int lzLevel; // level of the LZ77 stage, 0 for no LZ77 stage
+    private String transforms; // block transforms run on the input, null for none
+    private int ansTableLog = AnsCoder.DEFAULT_TABLE_LOG; // table log of STORE_ANS files
+    private CompressionStage stage; // stage of the preprocessed input, null if none
+    private long stageBits; // bits the stage writes for the preprocessed input
+    private HuffmanCodeTree segmentTree; // tree of the last STORE_SEGMENT with counts
+
+    /**
+     * Create a processor that uses the shared code table registry and
+     * adds to the shared metrics.
+     */
+    public SimpleHuffProcessor() {
+        registry = CodeTableRegistry.getShared();
+        metrics = CompressionMetrics.getShared();
+        listeners = new CopyOnWriteArrayList<>();
+        phaseNanos = new long[CompressionMetrics.Phase.values().length];
+    }
+
+    /**
+     * Set the code table registry used for the <code>STORE_CUSTOM</code>
+     * header format.
+     * pre: registry != null
+     * @param registry the registry holding the shared code tables
+     */
+    public void setRegistry(CodeTableRegistry registry) {
+        // check preconditions
+        if (registry == null) {
+            throw new IllegalArgumentException("registry cannot be null.");
+        }
+        this.registry = registry;
+    }
+    
+    /**
+     * Set how often compress emits a sync point. A sync point is a byte boundary
+     * in the compressed data where decoding can start, and the offset of every
+     * sync point is written to an index at the end of the compressed file so
+     * that <code>HuffRangeReader</code> can decompress a range without
+     * decoding from the start.
+     * pre: interval >= 0
+     * @param interval the number of uncompressed bytes between sync points,
+     * 0 to write files without sync points
+     */
+    public void setSyncInterval(int interval) {
+        // check preconditions
+        if (interval < 0) {
+            throw new IllegalArgumentException("interval cannot be negative.");
+        }
+        syncInterval = interval;
+    }
     
+    /**
+     * Have preprocessCompress keep a copy of its input for the compress
+     * that follows, so streams that cannot be read twice, such as sockets
+     * and pipes, can be compressed. Up to memoryLimit bytes are kept in
+     * memory and the rest in a temporary file that is memory-mapped for
+     * compress. When a copy is kept, compress reads the copy instead of its
+     * input stream, which it only closes, and deletes the copy when it is
+     * done. Call <code>releaseSpool</code> to delete a copy compress will
+     * not be called for.
+     * pre: memoryLimit >= -1
+     * @param memoryLimit the most bytes of input kept in memory, or -1 to
+     * read the input again in compress
+     */
+    public void setSpoolLimit(int memoryLimit) {
+        // check preconditions
+        if (memoryLimit < -1) {
+            throw new IllegalArgumentException("memoryLimit cannot be less than -1.");
+        }
+        spoolLimit = memoryLimit;
+    }
+
+    /**
+     * Have preprocessCompress and compress run the input through an LZ77
+     * stage, which replaces repeated strings with matches, before Huffman
+     * coding. The output is then a STORE_LZ77 file whatever header format
+     * is asked for, and it has no sync points. See <code>Lz77Coder</code>.
+     * pre: 0 <= level <= Lz77Coder.MAX_LEVEL
+     * @param level the level of the LZ77 stage, higher levels are slower and
+     * write fewer bits, 0 for no LZ77 stage
+     */
+    public void setLzLevel(int level) {
+        // check preconditions
+        if (level < 0 || level > Lz77Coder.MAX_LEVEL) {
+            throw new IllegalArgumentException("level must be from 0 to "
+                    + Lz77Coder.MAX_LEVEL + ".");
+        }
+        lzLevel = level;
+    }
+
+    /**
+     * Have preprocessCompress and compress run the input through a chain of
+     * block transforms, such as the Burrows-Wheeler transform, before
+     * Huffman coding. The output is then a STORE_TRANSFORM file whatever
+     * header format is asked for, and it has no sync points. A chain takes
+     * the place of any LZ77 stage. See <code>TransformPipeline</code>.
+     * pre: transforms is null or a valid chain for TransformPipeline.parse
+     * @param transforms the names of the transforms, separated by commas,
+     * or null for no transforms
+     */
+    public void setTransforms(String transforms) {
+        // check preconditions
+        if (transforms != null) {
+            TransformPipeline.parse(transforms);
+        }
+        this.transforms = transforms;
+    }
+
+    /**
+     * Set the table log of the tANS coder used when the header format is
+     * STORE_ANS. See <code>AnsCoder</code>.
+     * pre: AnsCoder.MIN_TABLE_LOG <= tableLog <= AnsCoder.MAX_TABLE_LOG
+     * @param tableLog the log of the table size
+     */
+    public void setAnsTableLog(int tableLog) {
+        // check preconditions
+        if (tableLog < AnsCoder.MIN_TABLE_LOG || tableLog > AnsCoder.MAX_TABLE_LOG) {
+            throw new IllegalArgumentException("tableLog must be from "
+                    + AnsCoder.MIN_TABLE_LOG + " to " + AnsCoder.MAX_TABLE_LOG + ".");
+        }
+        ansTableLog = tableLog;
+    }
+
+    /**
+     * Delete the copy of the input kept by preprocessCompress, if any.
+     * @throws IOException if the temporary file cannot be deleted
+     */
+    public void releaseSpool() throws IOException {
+        Spool old = spool;
+        spool = null;
+        if (old != null) {
+            old.close();
+        }
+    }
+
+    /**
+     * Set the metrics this processor adds its counts and phase times to.
+     * pre: metrics != null
+     * @param metrics the metrics to add to
+     */
+    public void setMetrics(CompressionMetrics metrics) {
+        // check preconditions
+        if (metrics == null) {
+            throw new IllegalArgumentException("metrics cannot be null.");
+        }
+        this.metrics = metrics;
+    }
+
+    /**
+     * Get the metrics this processor adds its counts and phase times to.
+     * @return the metrics of this processor
+     */
+    public CompressionMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Add a listener that is told when each phase and operation completes.
+     * pre: listener != null
+     * @param listener the listener to add
+     */
+    public void addListener(CompressionListener listener) {
+        // check preconditions
+        if (listener == null) {
+            throw new IllegalArgumentException("listener cannot be null.");
+        }
+        listeners.add(listener);
+    }
+
+    /**
+     * Remove a listener added with <code>addListener</code>.
+     * @param listener the listener to remove
+     */
+    public void removeListener(CompressionListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Set the progress object this processor publishes its progress to.
+     * Operations check it for cancellation as they publish.
+     * @param progress the progress of the next operations, null for none
+     */
+    public void setProgress(HuffProgress progress) {
+        this.progress = progress;
+    }
+
+    /**
+     * Get the number of bytes to consume before publishing progress.
+     * @return the number of bytes between progress updates
+     */
+    private int sampleBytes() {
+        return progress == null ? Integer.MAX_VALUE : progress.getSampleBytes();
+    }
+
+    /**
+     * Publish the progress of the operation in progress.
+     * @param consumed the number of bytes consumed so far
+     * @param produced the number of bytes produced so far
+     * @throws InterruptedIOException if the operation has been cancelled
+     */
+    private void reportProgress(long consumed, long produced) throws InterruptedIOException {
+        if (progress != null) {
+            progress.update(consumed, produced);
+        }
+    }
+
+    /**
+     * Publish the end of the operation in progress.
+     * @param consumed the number of bytes consumed
+     * @param produced the number of bytes produced
+     */
+    private void finishProgress(long consumed, long produced) {
+        if (progress != null) {
+            progress.finish(consumed, produced);
+        }
+    }
+
+    /**
+     * Get the sizes and timings of the last compress or uncompress.
+     * @return the result of the last operation, null if there has been none
+     */
+    public CompressionResult getLastResult() {
+        return lastResult;
+    }
+
+    /**
+     * Start timing a phase.
+     * @return the value of System.nanoTime() when the phase started
+     */
+    private long beginPhase() {
+        // only allocate a flight recorder event if a recording wants it
+        phaseEvent = HuffPhaseEvent.isRecording() ? new HuffPhaseEvent() : null;
+        if (phaseEvent != null) {
+            phaseEvent.begin();
+        }
+        return System.nanoTime();
+    }
+
+    /**
+     * Record the end of a phase that started at <code>start</code> and start
+     * timing the next one.
+     * @param operation the operation the phase is part of
+     * @param phase the phase that ended
+     * @param start the value of System.nanoTime() when the phase started
+     * @param format the header format being written or read
+     * @param bytesIn the number of bytes read so far by the operation
+     * @param bytesOut the number of bytes written so far by the operation
+     * @return the value of System.nanoTime() when the next phase started
+     */
+    private long endPhase(String operation, CompressionMetrics.Phase phase, long start,
+            int format, long bytesIn, long bytesOut) {
+        long end = System.nanoTime();
+        phaseNanos[phase.ordinal()] += end - start;
+        metrics.addPhase(phase, end - start);
+        for (CompressionListener listener : listeners) {
+            listener.phaseCompleted(phase, end - start);
+        }
+        if (phaseEvent != null) {
+            phaseEvent.end();
+        }
+        // only fill in the event when a recording wants it
+        if (phaseEvent != null && phaseEvent.shouldCommit()) {
+            phaseEvent.operation = operation;
+            phaseEvent.phase = phase.name();
+            phaseEvent.headerFormat = HuffAnalysis.formatName(format);
+            phaseEvent.bytesIn = bytesIn;
+            phaseEvent.bytesOut = bytesOut;
+            phaseEvent.treeDepth = (tree == null || format == STORE_RAW) ? 0 : tree.depth();
+            phaseEvent.commit();
+        }
+        return beginPhase();
+    }
+
+    /**
+     * Record the end of an operation.
+     * @param operation the operation that ended
+     * @param format the header format written or read
+     * @param bytesIn the number of bytes read
+     * @param bytesOut the number of bytes written
+     * @param symbols the number of values coded or decoded with a Huffman code
+     */
+    private void endOperation(CompressionResult.Operation operation, int format,
+            long bytesIn, long bytesOut, long symbols) {
+        lastResult = new CompressionResult(operation, format, bytesIn, bytesOut, symbols,
+                phaseNanos);
+        metrics.addResult(lastResult);
+        for (CompressionListener listener : listeners) {
+            listener.operationCompleted(lastResult);
+        }
+    }
+
     /**
      * Create a mapping of the file's bit-sequences and their frequencies
      * @param in is the stream being compressed (NOT a BitInputStream)
      * @return a map that represents the bit-sequences and their frequencies
      * @throws IOException if an error occurs while reading from the input file
      */
-    private Map<Integer, Integer> getFreqs(InputStream in) throws IOException {
+    private Map<Integer, Long> getFreqs(InputStream in) throws IOException {
         // create new frequency map and array
-        Map<Integer, Integer> freqs = new TreeMap<>();
-        int[] fArray = new int[ALPH_SIZE + 1];
+        Map<Integer, Long> freqs = new TreeMap<>();
+        long[] fArray = new long[ALPH_SIZE + 1];
         BitInputStream bits = new BitInputStream(in);
+        if (HuffKernels.isEnabled()) {
+            // count a buffer at a time and fill the map from the array
+            byte[] buffer = new byte[COPY_BUFFER_SIZE];
+            int[] bufferFreqs = new int[ALPH_SIZE];
+            int[] lanes = new int[HuffKernels.LANE_TABLE_SIZE];
+            long untilSample = sampleBytes();
+            int numRead = bits.read(buffer, 0, buffer.length);
+            while (numRead != -1) {
+                histogram(buffer, 0, numRead, fArray, bufferFreqs, lanes);
+                untilSample -= numRead;
+                if (untilSample <= 0) {
+                    reportProgress(bits.getBytesRead(), 0);
+                    untilSample = sampleBytes();
+                }
+                numRead = bits.read(buffer, 0, buffer.length);
+            }
+            for (int i = 0; i < ALPH_SIZE; i++) {
+                if (fArray[i] > 0) {
+                    freqs.put(i, fArray[i]);
+                }
+            }
+            fArray[ALPH_SIZE] = 1;
+            freqArray = fArray;
+            bits.close();
+            return freqs;
+        }
+        int untilSample = sampleBytes();
         int nextBits = bits.readBits(BITS_PER_WORD);
         // read all bit-sequences of the file
         while (nextBits != -1) {
             if (!freqs.containsKey(nextBits)) {
                 // create new key and value if bit-sequence doesn't exist
-                freqs.put(nextBits, 1);
+                freqs.put(nextBits, 1L);
             } else {
                 // if it does exist, increment corresponding frequency
                 freqs.put(nextBits, freqs.get(nextBits) + 1);
             }
             // add frequencies to array as well
             fArray[nextBits]++;
+            if (--untilSample == 0) {
+                reportProgress(bits.getBytesRead(), 0);
+                untilSample = sampleBytes();
+            }
             nextBits = bits.readBits(BITS_PER_WORD);
         }
         // add PEOF value to frequency array
@@ -51,18 +395,42 @@ public class SimpleHuffProcessor implements IHuffProcessor {
      * Create the frequencies based on the file, the Huffman code tree, and the
      * codings based on the Huffman code tree
      * @param in is the stream being compressed (NOT a BitInputStream)
+     * @param headerFormat the header format requested
      * @throws IOException if an error occurs while reading from the input file
      */
-    private void process(InputStream in) throws IOException {
+    private void process(InputStream in, int headerFormat) throws IOException {
+        // a compress includes the phases of the preprocess before it
+        phaseNanos = new long[CompressionMetrics.Phase.values().length];
+        tree = null;
+        long start = beginPhase();
         // get frequencies and add PEOF value
         frequencies = getFreqs(in);
-        frequencies.put(PSEUDO_EOF, 1);
+        buildTree(headerFormat, start);
+    }
+
+    /**
+     * Build the Huffman code tree and the codings from freqArray and frequencies.
+     * @param headerFormat the header format requested
+     * @param start the value of System.nanoTime() when the histogram phase started
+     */
+    private void buildTree(int headerFormat, long start) {
+        frequencies.put(PSEUDO_EOF, 1L);
+        long numValues = 0;
+        for (int i = 0; i < ALPH_SIZE; i++) {
+            numValues += freqArray[i];
+        }
+        start = endPhase("preprocess", CompressionMetrics.Phase.HISTOGRAM, start,
+                headerFormat, numValues, 0);
         
         // create the Huffman code tree
         tree = new HuffmanCodeTree(freqArray);
         
         // get map of Huffman codings
         huffCodings = tree.treeToCode();
+        metrics.tableBuilt();
+        endPhase("preprocess", CompressionMetrics.Phase.TREE_BUILD, start, headerFormat,
+                numValues, 0);
+        finishProgress(numValues, 0);
     }
 
     /**
@@ -82,62 +450,191 @@ public class SimpleHuffProcessor implements IHuffProcessor {
      * reproduce the tree, AND the actual data.
      * @throws IOException if an error occurs while reading from the input file.
      */
-    public int preprocessCompress(InputStream in, int headerFormat) throws IOException {
+    public long preprocessCompress(InputStream in, int headerFormat) throws IOException {
+        releaseSpool();
+        if (spoolLimit >= 0) {
+            // copy the input as it is counted so compress can read it again
+            spool = new Spool(spoolLimit);
+            in = spool.tee(in);
+        }
         // build the Huffman code tree, count frequencies, build code from tree
-        process(in);
-        
-        // get number of bits before and after compression
-        int originalBits = getOGBits();
-        compressedBits = getCompressedBits();
+        if (transforms != null) {
+            stage = new TransformPipeline(transforms);
+        } else {
+            stage = lzLevel > 0 ? new Lz77Coder(lzLevel) : null;
+        }
+        try {
+            if (stage == null) {
+                process(in, headerFormat);
+            } else {
+                processStage(in, headerFormat);
+            }
+        } catch (IOException | RuntimeException e) {
+            releaseSpool();
+            throw e;
+        }
+        sampled = false;
+        return analyze(headerFormat);
+    }
+
+    /**
+     * Size the output of the stage for the input, counting the
+     * frequencies of the input as the stage reads it.
+     * @param in is the stream being compressed (NOT a BitInputStream)
+     * @param headerFormat the header format requested
+     * @throws IOException if an error occurs while reading from the input file
+     */
+    private void processStage(InputStream in, int headerFormat) throws IOException {
+        phaseNanos = new long[CompressionMetrics.Phase.values().length];
+        tree = null;
+        long start = beginPhase();
+        final long[] counts = new long[ALPH_SIZE + 1];
+        final int[] bufferFreqs = new int[ALPH_SIZE];
+        final int[] lanes = new int[HuffKernels.LANE_TABLE_SIZE];
+        InputStream counted = new FilterInputStream(in) {
+            public int read() throws IOException {
+                int b = super.read();
+                if (b != -1) {
+                    counts[b]++;
+                }
+                return b;
+            }
+
+            public int read(byte[] b, int off, int len) throws IOException {
+                int numRead = super.read(b, off, len);
+                if (numRead > 0) {
+                    histogram(b, off, numRead, counts, bufferFreqs, lanes);
+                }
+                return numRead;
+            }
+        };
+        stageBits = stage.compress(counted, OutputStream.nullOutputStream());
+        in.close();
+        counts[PSEUDO_EOF] = 1;
+        freqArray = counts;
+        frequencies = new TreeMap<>();
+        for (int i = 0; i < ALPH_SIZE; i++) {
+            if (counts[i] > 0) {
+                frequencies.put(i, counts[i]);
+            }
+        }
+        buildTree(headerFormat, start);
+    }
+
+    /**
+     * Preprocess a file from a histogram estimated by sampling it instead of
+     * counting every byte. A subsequent call to compress codes the whole
+     * file, counts it exactly as it goes, and makes a SamplingReport of how
+     * the size written compares to what the exact histogram would have written.
+     * The estimate gives every value a code, so any file can be coded.
+     * pre: file != null, sampler != null
+     * @param file the file which could be subsequently compressed
+     * @param sampler the sampler that estimates the histogram
+     * @param headerFormat the header format, as for <code>preprocessCompress</code>
+     * @return the estimated number of bits saved by compression
+     * @throws IOException if an error occurs while reading from the input file.
+     */
+    public long preprocessSampled(FileChannel file, HistogramSampler sampler, int headerFormat)
+            throws IOException {
+        // check preconditions
+        if (file == null || sampler == null) {
+            throw new IllegalArgumentException("file and sampler cannot be null.");
+        }
+        releaseSpool();
+        stage = null;
+        phaseNanos = new long[CompressionMetrics.Phase.values().length];
+        tree = null;
+        long start = beginPhase();
+        int[] estimate = sampler.sample(file);
+        freqArray = new long[ALPH_SIZE + 1];
+        for (int i = 0; i <= ALPH_SIZE; i++) {
+            freqArray[i] = estimate[i];
+        }
+        frequencies = new TreeMap<>();
+        for (int i = 0; i < ALPH_SIZE; i++) {
+            if (freqArray[i] > 0) {
+                frequencies.put(i, freqArray[i]);
+            }
+        }
+        buildTree(headerFormat, start);
+        sampled = !sampler.isExact();
+        return analyze(headerFormat);
+    }
+
+    /**
+     * Size the output of the preprocessed input and settle on its header format.
+     * @param headerFormat the header format requested
+     * @return number of bits saved by compression
+     * @throws IOException if no shared code table can code the input
+     */
+    private long analyze(int headerFormat) throws IOException {
+        // size the output under every format from the frequencies alone
+        analysis = HuffAnalysis.analyze(freqArray, registry);
+        if (headerFormat == STORE_AUTO) {
+            headerFormat = analysis.getBestFormat();
+            showString("header format: " + HuffAnalysis.formatName(headerFormat));
+        } else if (headerFormat == STORE_COUNTS
+                && analysis.getCompressedBits(STORE_COUNTS) == -1) {
+            // a count does not fit an int, write all of them as varints instead
+            headerFormat = STORE_COMPACT_COUNTS;
+            showString("counts are too large for STORE_COUNTS, using STORE_COMPACT_COUNTS");
+        }
         
-        // add magic number, format constant, and PEOF value
-        compressedBits += BITS_PER_INT * 2;
-        compressedBits += huffCodings.get(PSEUDO_EOF).length();
+        if (headerFormat == STORE_CUSTOM) {
+            // code against the shared table that gives the fewest bits
+            customTable = analysis.getCustomTable();
+            if (customTable == null) {
+                throw new IOException("No shared code table can code this input.");
+            }
+            tree = customTable.getTree();
+            huffCodings = customTable.getCodes();
+            metrics.cacheHit();
+        }
         
-        // add number of bits based on header format
-        if (headerFormat == STORE_COUNTS) {
-            compressedBits += ALPH_SIZE * BITS_PER_INT;
-        } else if (headerFormat == STORE_TREE) {
-            compressedBits += tree.treeBits() + BITS_PER_INT;
+        // get number of bits before and after compression
+        long bits = analysis.getCompressedBits(headerFormat);
+        if (bits == -1) {
+            // unknown format, count the magic number, format constant, and data
+            bits = BITS_PER_INT * 2 + analysis.getPayloadBits();
         }
+        compressedBits = bits;
         
         hFormat = headerFormat;
         // calculate number of bits saved
-        savedBits = originalBits - compressedBits;
+        savedBits = analysis.getOriginalBits() - bits;
+        if (stage == null && headerFormat == STORE_ANS) {
+            // the tANS tables are normalized from the same histogram
+            AnsCoder coder = new AnsCoder(freqArray, ansTableLog);
+            stage = coder;
+            stageBits = coder.estimateBits(freqArray);
+        }
+        if (stage != null) {
+            // the stage writes its own header whatever format was asked for
+            hFormat = stage.getHeaderFormat();
+            compressedBits = stageBits;
+            savedBits = analysis.getOriginalBits() - stageBits;
+        }
         return savedBits;
     }
     
     /**
-     * Get the number of bits before compression
-     * @return the number of original bits
+     * Get the analysis of the input most recently preprocessed. The analysis
+     * gives the entropy of the input and the bits written under every format.
+     * <br> pre: <code>preprocessCompress</code> must be called before this method
+     * @return the analysis of the last preprocessed input
      */
-    private int getOGBits() {
-        int bits = 0;
-        // calculate bits based on frequencies
-        for (int seq : frequencies.keySet()) {
-            // skip over PEOF value
-            if (seq != PSEUDO_EOF) {
-                bits += frequencies.get(seq) * BITS_PER_WORD;
-            }
-        }
-        return bits;
+    public HuffAnalysis getAnalysis() {
+        return analysis;
     }
-    
+
     /**
-     * Get the number of bits after compression
-     * @return the number of compressed bits
-     */
-    private int getCompressedBits() {
-        int bits = 0;
-        // calculate bits based on Huffman codings
-        for (int seq : huffCodings.keySet()) {
-            // skip over PEOF value
-            if (seq != PSEUDO_EOF) {
-                String s = huffCodings.get(seq);
-                bits += frequencies.get(seq) * s.length();
-            }
-        }
-        return bits;
+     * Get how the last compress after <code>preprocessSampled</code> compares
+     * to coding with the exact histogram.
+     * @return the report of the last compress, null if it was not preprocessed
+     * from an estimate or the data was stored as is
+     */
+    public SamplingReport getSamplingReport() {
+        return samplingReport;
     }
 
     /**
@@ -145,73 +642,310 @@ public class SimpleHuffProcessor implements IHuffProcessor {
      * previously been pre-processed via <code>preprocessCompress</code>
      * storing state used by this call.
      * <br> pre: <code>preprocessCompress</code> must be called before this method
-     * @param in is the stream being compressed (NOT a BitInputStream)
+     * @param in is the stream being compressed (NOT a BitInputStream). If
+     * preprocessCompress kept a copy of its input, see <code>setSpoolLimit</code>,
+     * the copy is compressed and in is only closed.
      * @param out is bound to a file/stream to which bits are written
      * for the compressed file (not a BitOutputStream)
      * @param force if this is true create the output file even if it is larger than the input file.
-     * If this is false do not create the output file if it is larger than the input file.
+     * If this is false and coding would make the data larger, the data is written in the
+     * stored format instead, which only adds the magic number and format constant.
+     * The stored format is always used when coding would write more bits than storing.
      * @return the number of bits written.
      * @throws IOException if an error occurs while reading from the input file or
      * writing to the output file.
      */
-    public int compress(InputStream in, OutputStream out, boolean force) throws IOException {
-        // check preconditions, make sure preprocessCompress has been called and number of bits
-        // in output file isn't greater than number of bits in input file
-        if ((savedBits >= 0 || force) && huffCodings.size() != 0) {
-            BitOutputStream bitsOut = new BitOutputStream(out);
-            
-            // write bits for magic number and format constant
-            bitsOut.writeBits(BITS_PER_INT, MAGIC_NUMBER);
-            bitsOut.writeBits(BITS_PER_INT, hFormat);
-            
-            // write bits based on header format
-            if (hFormat == STORE_COUNTS) {
-                for(int i = 0; i < ALPH_SIZE; i++) {
-                    bitsOut.writeBits(BITS_PER_INT, freqArray[i]);
-                }
-            } else if (hFormat == STORE_TREE) {
-                // write bits for size of tree and do pre order traversal 
-                bitsOut.writeBits(BITS_PER_INT, tree.treeBits());
-                tree.writeTree(bitsOut);
-            } else {
-                // format is something else so show error
-                myViewer.showError("Error reading input file. \n" +
-                        "unknown header format read.");
-                bitsOut.close();
-                return -1;
+    public long compress(InputStream in, OutputStream out, boolean force) throws IOException {
+        // check preconditions, make sure preprocessCompress has been called
+        if (analysis == null) {
+            myViewer.showError("preprocessCompress must be called before compress.");
+            return -1;
+        }
+        if (spool == null) {
+            return compressData(in, out, force);
+        }
+        // read the copy kept by preprocessCompress and delete it when done
+        Spool copy = spool;
+        spool = null;
+        try (copy) {
+            in.close();
+            return compressData(copy.openStream(), out, force);
+        }
+    }
+
+    /**
+     * Compress the preprocessed data.
+     * @param in the data being compressed
+     * @param out is bound to a file/stream to which bits are written
+     * @param force if this is true create the output file even if it is larger than the input file
+     * @return the number of bits written.
+     * @throws IOException if an error occurs while reading or writing
+     */
+    private long compressData(InputStream in, OutputStream out, boolean force)
+            throws IOException {
+        // fall back to storing the data if coding would not help
+        samplingReport = null;
+        int format = hFormat;
+        long storedBits = analysis.getCompressedBits(STORE_RAW);
+        if (format != STORE_RAW && ((savedBits < 0 && !force) || compressedBits > storedBits)) {
+            showString("input does not compress, storing it as is");
+            format = STORE_RAW;
+        }
+        
+        long start = beginPhase();
+        if (stage != null && format != STORE_RAW) {
+            // the stage writes the whole file, header and all
+            long bits = stage.compress(in, out);
+            in.close();
+            out.close();
+            long numValues = analysis.getOriginalBits() / BITS_PER_WORD;
+            endPhase("compress", CompressionMetrics.Phase.PAYLOAD, start, format,
+                    numValues, bits / BITS_PER_WORD);
+            endOperation(CompressionResult.Operation.COMPRESS, format, numValues,
+                    bits / BITS_PER_WORD, 0);
+            finishProgress(numValues, bits / BITS_PER_WORD);
+            return bits;
+        }
+        BitOutputStream bitsOut = new BitOutputStream(out);
+        // stored data can already be read from any offset
+        boolean indexed = syncInterval > 0 && format != STORE_RAW;
+        
+        // write bits for magic number and format constant
+        bitsOut.writeBits(BITS_PER_INT, MAGIC_NUMBER);
+        if (indexed) {
+            // the sync interval comes before the regular header
+            bitsOut.writeBits(BITS_PER_INT, STORE_INDEXED);
+            bitsOut.writeBits(BITS_PER_INT, syncInterval);
+        }
+        bitsOut.writeBits(BITS_PER_INT, format);
+        
+        // write bits based on header format
+        if (format == STORE_RAW) {
+            // copy the data through, the stream is on a byte boundary after the header
+            start = endPhase("compress", CompressionMetrics.Phase.HEADER, start, format,
+                    0, bitsOut.getBytesWritten());
+            long copiedBits = copyBytes(in, bitsOut);
+            in.close();
+            bitsOut.close();
+            endPhase("compress", CompressionMetrics.Phase.PAYLOAD, start, format,
+                    copiedBits / BITS_PER_WORD, bitsOut.getBytesWritten());
+            endOperation(CompressionResult.Operation.COMPRESS, format,
+                    copiedBits / BITS_PER_WORD, bitsOut.getBytesWritten(), 0);
+            finishProgress(copiedBits / BITS_PER_WORD, bitsOut.getBytesWritten());
+            return BITS_PER_INT * 2 + copiedBits;
+        } else if (format == STORE_COUNTS) {
+            for(int i = 0; i < ALPH_SIZE; i++) {
+                bitsOut.writeBits(BITS_PER_INT, (int) freqArray[i]);
             }
-            
-            // write bits for actual data
-            BitInputStream bitsIn = new BitInputStream(in);
-            writeActualData(bitsIn, bitsOut);
-
-            // write bits for PEOF
-            writeBitsFromString(huffCodings.get(PSEUDO_EOF), bitsOut);
-            bitsIn.close();
+        } else if (format == STORE_COMPACT_COUNTS) {
+            // the header is whole bytes, the stream is on a byte boundary
+            bitsOut.write(CompactCounts.toBytes(freqArray));
+        } else if (format == STORE_TREE) {
+            // write bits for size of tree and do pre order traversal 
+            bitsOut.writeBits(BITS_PER_INT, tree.treeBits());
+            tree.writeTree(bitsOut);
+        } else if (format == STORE_CUSTOM) {
+            // write bits for the id and checksum of the shared table
+            bitsOut.writeBits(BITS_PER_INT, customTable.getId());
+            bitsOut.writeBits(BITS_PER_INT, customTable.getChecksum());
+        } else {
+            // format is something else so show error
+            myViewer.showError("Error reading input file. \n" +
+                    "unknown header format read.");
             bitsOut.close();
-            return compressedBits;
+            return -1;
         }
         
-        // show error if compressed file is larger and force is not true
-        myViewer.showError("Compressed file has " + Math.abs(savedBits) + " more bits than "
-                + "uncompressed file. \nSelect \"force compression\" option to compress.");
-        return -1;
+        // the first sync point is the start of the data
+        List<Long> syncOffsets = null;
+        if (indexed) {
+            bitsOut.alignToByte();
+            syncOffsets = new ArrayList<>();
+            syncOffsets.add(bitsOut.getBytesWritten());
+        }
+        start = endPhase("compress", CompressionMetrics.Phase.HEADER, start, format,
+                0, bitsOut.getBytesWritten());
+        
+        // write bits for actual data, counting it exactly if the tree is from an estimate
+        BitInputStream bitsIn = new BitInputStream(in);
+        long[] exactFreqs = sampled ? new long[ALPH_SIZE + 1] : null;
+        long numValues = writeActualData(bitsIn, bitsOut, syncOffsets, exactFreqs);
+
+        // write bits for PEOF
+        writeBitsFromString(huffCodings.get(PSEUDO_EOF), bitsOut);
+        long writtenBits = compressedBits;
+        if (sampled) {
+            samplingReport = reportSampling(format, exactFreqs);
+            writtenBits = samplingReport.getAchievedBits();
+            showString(samplingReport.toString());
+        }
+        if (indexed) {
+            writeIndex(bitsOut, syncOffsets, numValues);
+            writtenBits = bitsOut.getBytesWritten() * BITS_PER_WORD;
+        }
+        bitsIn.close();
+        bitsOut.close();
+        endPhase("compress", CompressionMetrics.Phase.PAYLOAD, start, format,
+                numValues, bitsOut.getBytesWritten());
+        endOperation(CompressionResult.Operation.COMPRESS, format, numValues,
+                bitsOut.getBytesWritten(), numValues);
+        finishProgress(numValues, bitsOut.getBytesWritten());
+        return writtenBits;
+    }
+    
+    /**
+     * Compare the size written with a tree from an estimated histogram to the
+     * size the exact histogram would have written.
+     * @param format the header format written
+     * @param exactFreqs the exact frequency of each bit-sequence
+     * @return the report of the compress
+     */
+    private SamplingReport reportSampling(int format, long[] exactFreqs) {
+        // the header is what the estimate predicted, the data is what was coded
+        long estimatedPayload = huffCodings.get(PSEUDO_EOF).length();
+        long achievedPayload = estimatedPayload;
+        for (int i = 0; i < ALPH_SIZE; i++) {
+            String code = huffCodings.get(i);
+            if (code != null) {
+                estimatedPayload += freqArray[i] * code.length();
+                achievedPayload += exactFreqs[i] * code.length();
+            }
+        }
+        long estimatedBits = analysis.getCompressedBits(format);
+        long achievedBits = estimatedBits - estimatedPayload + achievedPayload;
+        long exactBits = HuffAnalysis.analyze(exactFreqs, registry).getCompressedBits(format);
+        return new SamplingReport(format, estimatedBits, achievedBits, exactBits);
+    }
+
+    /**
+     * Write the sync point index at the end of an indexed file. The index is
+     * the 64 bit offset of every sync point, followed by a trailer with the
+     * number of uncompressed bytes and the offset of the index.
+     * @param bitsOut is bound to a file/stream to which bits are written
+     * for the compressed file
+     * @param syncOffsets the byte offsets of the sync points
+     * @param numValues the number of uncompressed bytes
+     */
+    private void writeIndex(BitOutputStream bitsOut, List<Long> syncOffsets, long numValues) {
+        bitsOut.alignToByte();
+        long indexOffset = bitsOut.getBytesWritten();
+        for (long offset : syncOffsets) {
+            writeLong(bitsOut, offset);
+        }
+        writeLong(bitsOut, numValues);
+        writeLong(bitsOut, indexOffset);
     }
     
+    /**
+     * Write a 64 bit value, most significant bits first.
+     * @param bitsOut is bound to a file/stream to which bits are written
+     * @param value the value to write
+     */
+    private void writeLong(BitOutputStream bitsOut, long value) {
+        bitsOut.writeBits(BITS_PER_INT, (int) (value >>> BITS_PER_INT));
+        bitsOut.writeBits(BITS_PER_INT, (int) value);
+    }
+    
+    /**
+     * Copy bytes from one stream to another in bulk.
+     * @param in the stream to copy from
+     * @param out the stream to copy to
+     * @return the number of bits copied
+     * @throws IOException if an error occurs while reading or writing
+     */
+    private long copyBytes(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = new byte[COPY_BUFFER_SIZE];
+        long copiedBits = 0;
+        int numRead = in.read(buffer);
+        while (numRead != -1) {
+            out.write(buffer, 0, numRead);
+            copiedBits += numRead * BITS_PER_WORD;
+            reportProgress(copiedBits / BITS_PER_WORD, copiedBits / BITS_PER_WORD);
+            numRead = in.read(buffer);
+        }
+        return copiedBits;
+    }
+    
+    /**
+     * Add the values in a buffer to a histogram of longs. The buffer is
+     * counted in ints, which no buffer can overflow, and added to the longs.
+     * @param buffer the values to count
+     * @param off the offset of the first value
+     * @param length the number of values in buffer
+     * @param freqs the histogram the values are added to
+     * @param bufferFreqs scratch space for the count of the buffer, ALPH_SIZE long
+     * @param lanes scratch space for the histogram kernel
+     */
+    private static void histogram(byte[] buffer, int off, int length, long[] freqs,
+            int[] bufferFreqs, int[] lanes) {
+        Arrays.fill(bufferFreqs, 0);
+        HuffKernels.histogram(buffer, off, length, bufferFreqs, lanes);
+        for (int i = 0; i < ALPH_SIZE; i++) {
+            freqs[i] += bufferFreqs[i];
+        }
+    }
+
     /**
      * Write the data from file into compressed bits.
      * @param in is the stream being compressed
      * @param out is bound to a file/stream to which bits are written
      * for the compressed file
+     * @param syncOffsets the list to add the byte offset of each sync point to,
+     * null if no sync points are written
+     * @param exactFreqs the array the frequency of each bit-sequence read is
+     * added to, null if the input is not counted
+     * @return the number of values read from the input
      * @throws IOException if an error occurs while reading from the input file or
      * writing to the output file.
      */
-    private void writeActualData(BitInputStream in, BitOutputStream out) throws IOException {
+    private long writeActualData(BitInputStream in, BitOutputStream out, List<Long> syncOffsets,
+            long[] exactFreqs) throws IOException {
+        long numValues = 0;
+        long[] codes = new long[ALPH_SIZE + 1];
+        int[] lengths = new int[ALPH_SIZE + 1];
+        if (syncOffsets == null && HuffKernels.isEnabled()
+                && HuffKernels.toBits(huffCodings, codes, lengths)) {
+            // code a buffer at a time, the stream is never aligned between values
+            byte[] buffer = new byte[COPY_BUFFER_SIZE];
+            int[] bufferFreqs = new int[ALPH_SIZE];
+            int[] lanes = new int[HuffKernels.LANE_TABLE_SIZE];
+            long untilSample = sampleBytes();
+            int numRead = in.read(buffer, 0, buffer.length);
+            while (numRead != -1) {
+                if (exactFreqs != null) {
+                    histogram(buffer, 0, numRead, exactFreqs, bufferFreqs, lanes);
+                }
+                HuffKernels.writeCodes(buffer, 0, numRead, codes, lengths, out);
+                numValues += numRead;
+                untilSample -= numRead;
+                if (untilSample <= 0) {
+                    reportProgress(numValues, out.getBytesWritten());
+                    untilSample = sampleBytes();
+                }
+                numRead = in.read(buffer, 0, buffer.length);
+            }
+            return numValues;
+        }
+        int untilSample = sampleBytes();
         int nextBits = in.readBits(BITS_PER_WORD);
         while (nextBits != -1) {
             writeBitsFromString(huffCodings.get(nextBits), out);
+            if (exactFreqs != null) {
+                exactFreqs[nextBits]++;
+            }
+            numValues++;
+            if (--untilSample == 0) {
+                reportProgress(numValues, out.getBytesWritten());
+                untilSample = sampleBytes();
+            }
+            if (syncOffsets != null && numValues % syncInterval == 0) {
+                // start the next value on a byte boundary so decoding can start there
+                out.alignToByte();
+                syncOffsets.add(out.getBytesWritten());
+            }
             nextBits = in.readBits(BITS_PER_WORD);
         }
+        return numValues;
     }
     
     /**
@@ -233,16 +967,19 @@ public class SimpleHuffProcessor implements IHuffProcessor {
 
     /**
      * Uncompress a previously compressed stream in, writing the
-     * uncompressed bits/data to out.
+     * uncompressed bits/data to out. Compressed files written one after
+     * another, such as the members written by ParallelCompressor, are
+     * uncompressed in turn as one output.
      * @param in is the previously compressed data (not a BitInputStream)
      * @param out is the uncompressed file/stream
      * @return the number of bits written to the uncompressed file/stream
      * @throws IOException if an error occurs while reading from the input file or
      * writing to the output file.
      */
-    public int uncompress(InputStream in, OutputStream out) throws IOException {
+    public long uncompress(InputStream in, OutputStream out) throws IOException {
+        phaseNanos = new long[CompressionMetrics.Phase.values().length];
+        long start = beginPhase();
         BitInputStream compBits = new BitInputStream(in);
-        freqArray = new int[ALPH_SIZE + 1];
         int magic = compBits.readBits(BITS_PER_INT);
         // make sure the file starts with the magic number
         if (magic != MAGIC_NUMBER) {
@@ -252,47 +989,212 @@ public class SimpleHuffProcessor implements IHuffProcessor {
             return -1;
         }
         
+        BitOutputStream bitsOut = new BitOutputStream(out);
+        long writtenBytes = 0;
+        long numValues = 0;
+        segmentTree = null;
+        // every member ends on a byte boundary, another may follow it
+        while (magic == MAGIC_NUMBER) {
+            long memberBytes = uncompressMember(compBits, bitsOut, start);
+            writtenBytes += memberBytes;
+            if (hFormat != STORE_RAW && hFormat != STORE_BLOCKS && hFormat != STORE_LZ77
+                    && hFormat != STORE_TRANSFORM && hFormat != STORE_TRAILER) {
+                numValues += memberBytes;
+            }
+            start = System.nanoTime();
+            compBits.alignToByte();
+            magic = compBits.readBits(BITS_PER_INT);
+        }
+        
+        compBits.close();
+        bitsOut.close();
+        endOperation(CompressionResult.Operation.UNCOMPRESS, hFormat, compBits.getBytesRead(),
+                writtenBytes, numValues);
+        finishProgress(compBits.getBytesRead(), writtenBytes);
+        return writtenBytes * BITS_PER_WORD;
+    }
+
+    /**
+     * Uncompress one compressed file, or member, whose magic number has been read.
+     * @param compBits the compressed data, after the magic number of the member
+     * @param bitsOut the stream the uncompressed data is written to
+     * @param start the value of System.nanoTime() when the header phase started
+     * @return the number of bytes written
+     * @throws IOException if an error occurs while reading or writing
+     */
+    private long uncompressMember(BitInputStream compBits, BitOutputStream bitsOut,
+            long start) throws IOException {
         // read format constant
         hFormat = compBits.readBits(BITS_PER_INT);
-        // read header format
-        if (hFormat == STORE_COUNTS) {
+        int interval = 0;
+        if (hFormat == STORE_INDEXED) {
+            // read the sync interval, the regular header follows
+            interval = compBits.readBits(BITS_PER_INT);
+            hFormat = compBits.readBits(BITS_PER_INT);
+        }
+        if (hFormat == STORE_RAW || hFormat == STORE_BLOCKS) {
+            // stored data is copied through without walking a tree, and
+            // blocks written by a HuffOutputStream are decoded on their own
+            start = endPhase("uncompress", CompressionMetrics.Phase.HEADER, start, hFormat,
+                    compBits.getBytesRead(), 0);
+            InputStream data = hFormat == STORE_RAW ? compBits
+                    : new HuffInputStream(compBits, true);
+            long writtenBits = copyBytes(data, bitsOut);
+            endPhase("uncompress", CompressionMetrics.Phase.PAYLOAD, start, hFormat,
+                    compBits.getBytesRead(), writtenBits / BITS_PER_WORD);
+            return writtenBits / BITS_PER_WORD;
+        }
+        if (hFormat == STORE_LZ77) {
+            // matches are copied from the data already decoded
+            start = endPhase("uncompress", CompressionMetrics.Phase.HEADER, start, hFormat,
+                    compBits.getBytesRead(), 0);
+            long writtenBytes = Lz77Coder.uncompress(compBits, bitsOut);
+            endPhase("uncompress", CompressionMetrics.Phase.PAYLOAD, start, hFormat,
+                    compBits.getBytesRead(), writtenBytes);
+            return writtenBytes;
+        }
+        if (hFormat == STORE_ANS) {
+            // every value is a table lookup from the state the last one left
+            start = endPhase("uncompress", CompressionMetrics.Phase.HEADER, start, hFormat,
+                    compBits.getBytesRead(), 0);
+            long writtenBytes = AnsCoder.uncompress(compBits, bitsOut);
+            endPhase("uncompress", CompressionMetrics.Phase.PAYLOAD, start, hFormat,
+                    compBits.getBytesRead(), writtenBytes);
+            return writtenBytes;
+        }
+        if (hFormat == STORE_TRANSFORM) {
+            // every block is decoded and then run back through the transforms
+            start = endPhase("uncompress", CompressionMetrics.Phase.HEADER, start, hFormat,
+                    compBits.getBytesRead(), 0);
+            long writtenBytes = TransformPipeline.uncompress(compBits, bitsOut);
+            endPhase("uncompress", CompressionMetrics.Phase.PAYLOAD, start, hFormat,
+                    compBits.getBytesRead(), writtenBytes);
+            return writtenBytes;
+        }
+        if (hFormat == STORE_TRAILER) {
+            // the trailer of an appendable file is only read when appending
+            compBits.skipNBytes(HuffAppender.TRAILER_BYTES - BITS_PER_INT * 2 / BITS_PER_WORD);
+            return 0;
+        }
+        if (hFormat == STORE_SEGMENT) {
+            // a segment has its own counts or uses those of the last one that did
+            if (compBits.readBits(BITS_PER_INT) != HuffAppender.REUSED_TABLE) {
+                segmentTree = new HuffmanCodeTree(CompactCounts.read(compBits));
+                metrics.tableBuilt();
+            } else if (segmentTree == null) {
+                throw new IOException("Error reading compressed file. \n" +
+                        "segment uses the counts of an earlier segment that is missing.");
+            } else {
+                metrics.cacheHit();
+            }
+            tree = segmentTree;
+        } else {
+            // read header format
+            tree = readTree(compBits, hFormat, registry);
+            if (hFormat == STORE_CUSTOM) {
+                metrics.cacheHit();
+            } else {
+                metrics.tableBuilt();
+            }
+        }
+        if (interval > 0) {
+            // the data starts at the first sync point
+            compBits.alignToByte();
+        }
+        start = endPhase("uncompress", CompressionMetrics.Phase.HEADER, start, hFormat,
+                compBits.getBytesRead(), 0);
+        
+        // read the actual data
+        long numValues = decode(compBits, bitsOut, interval);
+        if (interval > 0) {
+            // skip the index, the offset of the first sync point and one more
+            // for every interval values, then the two longs of the trailer
+            compBits.alignToByte();
+            compBits.skipNBytes((numValues / interval + 3) * (BITS_PER_INT * 2 / BITS_PER_WORD));
+        }
+        endPhase("uncompress", CompressionMetrics.Phase.PAYLOAD, start, hFormat,
+                compBits.getBytesRead(), numValues);
+        return numValues;
+    }
+    
+    /**
+     * Read the header of a compressed file and rebuild the Huffman code tree.
+     * @param compBits the compressed data, positioned just after the format constant
+     * @param format the header format read from the compressed data
+     * @param registry the shared code tables used for STORE_CUSTOM
+     * @return the Huffman code tree used to compress the data
+     * @throws IOException if an error occurs while reading, the header format is
+     * unknown, or the shared code table is missing or does not match
+     */
+    static HuffmanCodeTree readTree(BitInputStream compBits, int format,
+            CodeTableRegistry registry) throws IOException {
+        HuffmanCodeTree result;
+        if (format == STORE_COUNTS) {
             // rebuild frequency array
+            int[] counts = new int[ALPH_SIZE + 1];
             for(int i = 0; i < ALPH_SIZE; i++) {
                 int compFreq = compBits.readBits(BITS_PER_INT);
-                freqArray[i] = compFreq;
+                counts[i] = compFreq;
             }
             // add PEOF
-            freqArray[ALPH_SIZE] = 1;
+            counts[ALPH_SIZE] = 1;
             // rebuild tree based on frequencies read
-            tree = new HuffmanCodeTree(freqArray);
-        } else if (hFormat == STORE_TREE) {
+            result = new HuffmanCodeTree(counts);
+        } else if (format == STORE_COMPACT_COUNTS) {
+            // the counts are exact so this is the tree the data was compressed with
+            result = new HuffmanCodeTree(CompactCounts.read(compBits));
+        } else if (format == STORE_TREE) {
             // skip over the number of bits in tree
             compBits.readBits(BITS_PER_INT);
             // set tree to a temp tree and rebuild
-            tree = new HuffmanCodeTree();
-            tree.rebuildTree(compBits);
+            result = new HuffmanCodeTree();
+            result.rebuildTree(compBits);
+        } else if (format == STORE_CUSTOM) {
+            // look up the shared table and make sure it is the one used to compress
+            int id = compBits.readBits(BITS_PER_INT);
+            int checksum = compBits.readBits(BITS_PER_INT);
+            CodeTable table = registry.get(id);
+            if (table == null || table.getChecksum() != checksum) {
+                throw new IOException("Error reading compressed file. \n" +
+                        "shared code table " + id + " is missing or does not match.");
+            }
+            result = table.getTree();
+        } else {
+            throw new IOException("Error reading compressed file. \n" +
+                    "unknown header format read.");
         }
-        
-        // read the actual data
-        BitOutputStream bitsOut = new BitOutputStream(out);
-        int writtenBits = decode(compBits, bitsOut);
-        
-        compBits.close();
-        bitsOut.close();
-        return writtenBits;
+        return result;
     }
-    
+
     /**
-     * Walk the tree and read bit by bit
+     * Walk the tree and read bit by bit, publishing progress as values are written
      * @param bitsIn is the previously compressed data
      * @param bitsOut is the uncompressed file/stream
-     * @return the number of bits written to the uncompressed file
+     * @param interval the number of values between sync points, 0 if
+     * the compressed data has no sync points
+     * @return the number of values written to the uncompressed file
      * @throws IOException if an error occurs while reading from the input file
+     * or the operation is cancelled
      */
-    private int decode(BitInputStream bitsIn, BitOutputStream bitsOut) throws IOException {
-        // write bits and get number of bits written
-        int writtenBits = tree.walkTree(bitsIn, bitsOut);
-        return writtenBits;
+    private long decode(BitInputStream bitsIn, BitOutputStream bitsOut, int interval)
+            throws IOException {
+        long numValues = 0;
+        int untilSample = sampleBytes();
+        int value = tree.decodeValue(bitsIn);
+        // stop once PEOF has been reached
+        while (value != PSEUDO_EOF) {
+            bitsOut.writeBits(BITS_PER_WORD, value);
+            numValues++;
+            if (interval > 0 && numValues % interval == 0) {
+                bitsIn.alignToByte();
+            }
+            if (--untilSample == 0) {
+                reportProgress(bitsIn.getBytesRead(), numValues);
+                untilSample = sampleBytes();
+            }
+            value = tree.decodeValue(bitsIn);
+        }
+        return numValues;
     }
 
     public void setViewer(IHuffViewer viewer) {
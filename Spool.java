@@ -0,0 +1,242 @@
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * A copy of a stream kept so it can be read a second time. Bytes are held
+ * in memory up to a limit and the rest go to a temporary file, which is
+ * memory-mapped when the copy is read back, so rereading is as fast as
+ * reading memory whether or not the copy overflowed.
+ * <P>
+ * The copy is filled by reading through the stream returned by
+ * <code>tee</code> and read back with <code>openStream</code>. Closing the
+ * spool deletes the temporary file at once, so a spool should always be
+ * closed, e.g. with try-with-resources.
+ */
+public class Spool implements Closeable {
+
+    /**
+     * The default number of bytes held in memory before spilling to disk.
+     */
+    public static final int DEFAULT_MEMORY_LIMIT = 1 << 24;
+
+    // most of the file mapped at once
+    private static final int MAP_WINDOW = 1 << 30;
+    private static final int INITIAL_SIZE = 1 << 12;
+
+    private final int memoryLimit;
+    private byte[] memory;
+    private int memoryCount;
+    // the overflow file, null until memory is full
+    private Path file;
+    private FileChannel channel;
+    private long fileCount;
+    private boolean closed;
+
+    /**
+     * Create a spool holding up to DEFAULT_MEMORY_LIMIT bytes in memory.
+     */
+    public Spool() {
+        this(DEFAULT_MEMORY_LIMIT);
+    }
+
+    /**
+     * Create a spool.
+     * pre: memoryLimit >= 0
+     * @param memoryLimit the most bytes held in memory before the rest go to
+     * a temporary file
+     */
+    public Spool(int memoryLimit) {
+        // check preconditions
+        if (memoryLimit < 0) {
+            throw new IllegalArgumentException("memoryLimit cannot be negative.");
+        }
+        this.memoryLimit = memoryLimit;
+        memory = new byte[Math.min(INITIAL_SIZE, memoryLimit)];
+    }
+
+    /**
+     * Wrap a stream so every byte read through the wrapper is added to this spool.
+     * pre: in != null
+     * @param in the stream to copy
+     * @return a stream that reads from in and copies what it reads
+     */
+    public InputStream tee(InputStream in) {
+        // check preconditions
+        if (in == null) {
+            throw new IllegalArgumentException("in cannot be null.");
+        }
+        return new FilterInputStream(in) {
+            private final byte[] one = new byte[1];
+
+            public int read() throws IOException {
+                int b = in.read();
+                if (b != -1) {
+                    one[0] = (byte) b;
+                    write(one, 0, 1);
+                }
+                return b;
+            }
+
+            public int read(byte[] b, int off, int len) throws IOException {
+                int numRead = in.read(b, off, len);
+                if (numRead > 0) {
+                    write(b, off, numRead);
+                }
+                return numRead;
+            }
+
+            public long skip(long n) throws IOException {
+                // skipped bytes are read so they are copied too
+                byte[] skipped = new byte[(int) Math.max(0, Math.min(n, INITIAL_SIZE))];
+                long left = n;
+                while (left > 0) {
+                    int numRead = read(skipped, 0, (int) Math.min(left, skipped.length));
+                    if (numRead == -1) {
+                        break;
+                    }
+                    left -= numRead;
+                }
+                return Math.max(0, n - left);
+            }
+
+            public boolean markSupported() {
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Add bytes to the end of this spool.
+     * pre: the slice is within b
+     * @param b the array holding the bytes
+     * @param off the offset of the first byte
+     * @param len the number of bytes
+     * @throws IOException if an error occurs while writing the temporary file
+     */
+    public void write(byte[] b, int off, int len) throws IOException {
+        checkOpen();
+        int toMemory = Math.min(len, memoryLimit - memoryCount);
+        if (toMemory > 0) {
+            if (memoryCount + toMemory > memory.length) {
+                long grown = Math.max(memoryCount + toMemory, memory.length * 2L);
+                memory = Arrays.copyOf(memory, (int) Math.min(grown, memoryLimit));
+            }
+            System.arraycopy(b, off, memory, memoryCount, toMemory);
+            memoryCount += toMemory;
+        }
+        if (toMemory < len) {
+            if (channel == null) {
+                file = Files.createTempFile("huff", ".spool");
+                channel = FileChannel.open(file, StandardOpenOption.READ,
+                        StandardOpenOption.WRITE);
+            }
+            ByteBuffer rest = ByteBuffer.wrap(b, off + toMemory, len - toMemory);
+            while (rest.hasRemaining()) {
+                fileCount += channel.write(rest, fileCount);
+            }
+        }
+    }
+
+    /**
+     * Get the number of bytes in this spool.
+     * @return the bytes held in memory and in the temporary file
+     */
+    public long size() {
+        return memoryCount + fileCount;
+    }
+
+    /**
+     * Determine if this spool has spilled to a temporary file.
+     * @return true if some bytes are in the temporary file
+     */
+    public boolean isSpilled() {
+        return fileCount > 0;
+    }
+
+    /**
+     * Open a stream over the bytes in this spool. The stream sees the bytes
+     * written before it was opened and can no longer be read once the
+     * spool is closed.
+     * @return a stream over the contents of this spool
+     * @throws IOException if an error occurs while mapping the temporary file
+     */
+    public InputStream openStream() throws IOException {
+        checkOpen();
+        final int memoryEnd = memoryCount;
+        final long fileEnd = fileCount;
+        return new InputStream() {
+            private final byte[] one = new byte[1];
+            private int memoryPos;
+            private long filePos;
+            private MappedByteBuffer window;
+
+            public int read() throws IOException {
+                return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+            }
+
+            public int read(byte[] b, int off, int len) throws IOException {
+                checkOpen();
+                if (len == 0) {
+                    return 0;
+                }
+                if (memoryPos < memoryEnd) {
+                    int n = Math.min(len, memoryEnd - memoryPos);
+                    System.arraycopy(memory, memoryPos, b, off, n);
+                    memoryPos += n;
+                    return n;
+                }
+                if (filePos == fileEnd) {
+                    return -1;
+                }
+                if (window == null || !window.hasRemaining()) {
+                    window = channel.map(FileChannel.MapMode.READ_ONLY, filePos,
+                            Math.min(MAP_WINDOW, fileEnd - filePos));
+                }
+                int n = Math.min(len, window.remaining());
+                window.get(b, off, n);
+                filePos += n;
+                return n;
+            }
+
+            public int available() {
+                long left = memoryEnd - memoryPos + fileEnd - filePos;
+                return (int) Math.min(Integer.MAX_VALUE, left);
+            }
+        };
+    }
+
+    /**
+     * Release the memory and delete the temporary file. Streams opened on
+     * this spool can no longer be read.
+     * @throws IOException if the temporary file cannot be deleted
+     */
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        memory = null;
+        if (channel != null) {
+            try {
+                channel.close();
+            } finally {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    private void checkOpen() throws IOException {
+        if (closed) {
+            throw new IOException("spool is closed.");
+        }
+    }
+}
@@ -0,0 +1,116 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A region of direct memory that code tables and staging buffers are carved
+ * out of, so that programs keeping many tables warm (one per tenant, say) do
+ * not keep them as object graphs on the garbage collected heap. Memory is
+ * taken from the operating system in large slabs and handed out in slices.
+ * <P>
+ * An arena has an explicit lifecycle. Once it is closed, tables and buffers
+ * from it must not be used, and tables check this before every decode. The
+ * memory itself is given back when the last slice of a slab is unreachable,
+ * since direct buffers cannot be freed explicitly.
+ * <P>
+ * Arenas are safe to use from multiple threads.
+ */
+public class TableArena implements AutoCloseable {
+
+    // size of the slabs slices are taken from
+    private static final int SLAB_SIZE = 1 << 20;
+    // slices start on a long boundary
+    private static final int ALIGNMENT = 8;
+
+    // the shared tables made in this arena, by the table they were made from
+    private final Map<CodeTable, DirectCodeTable> tables;
+    // the slab slices are currently taken from
+    private ByteBuffer slab;
+    private long allocated;
+    private volatile boolean alive;
+
+    /**
+     * Create an empty arena.
+     */
+    public TableArena() {
+        tables = new ConcurrentHashMap<>();
+        alive = true;
+    }
+
+    /**
+     * Allocate zeroed memory from this arena. The buffer is in native byte order.
+     * pre: size >= 0
+     * @param size the number of bytes
+     * @return a direct buffer of size bytes
+     */
+    public synchronized ByteBuffer allocate(int size) {
+        // check preconditions
+        if (size < 0) {
+            throw new IllegalArgumentException("size cannot be negative.");
+        }
+        checkAlive();
+        int aligned = (size + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+        if (slab == null || slab.remaining() < aligned) {
+            slab = ByteBuffer.allocateDirect(Math.max(SLAB_SIZE, aligned));
+        }
+        ByteBuffer slice = slab.slice(slab.position(), size).order(ByteOrder.nativeOrder());
+        slab.position(slab.position() + aligned);
+        allocated += aligned;
+        return slice;
+    }
+
+    /**
+     * Get the direct copy of a shared code table, making it the first time
+     * the table is asked for.
+     * pre: table != null
+     * @param table the shared code table
+     * @return the copy of the table in this arena
+     */
+    public DirectCodeTable tableFor(CodeTable table) {
+        // check preconditions
+        if (table == null) {
+            throw new IllegalArgumentException("table cannot be null.");
+        }
+        checkAlive();
+        return tables.computeIfAbsent(table, t -> new DirectCodeTable(t, this));
+    }
+
+    /**
+     * Get the number of bytes handed out by this arena.
+     * @return the bytes allocated so far
+     */
+    public synchronized long getAllocated() {
+        return allocated;
+    }
+
+    /**
+     * Determine if this arena is still open.
+     * @return true if memory from this arena can be used
+     */
+    public boolean isAlive() {
+        return alive;
+    }
+
+    /**
+     * Close this arena. Tables made in it throw IllegalStateException when
+     * they are next used.
+     */
+    public void close() {
+        alive = false;
+        synchronized (this) {
+            slab = null;
+        }
+        tables.clear();
+    }
+
+    /**
+     * Make sure this arena is still open.
+     * @throws IllegalStateException if the arena is closed
+     */
+    void checkAlive() {
+        if (!alive) {
+            throw new IllegalStateException("arena is closed.");
+        }
+    }
+}
@@ -1,10 +1,7 @@
-import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.nio.ByteBuffer;
-import java.nio.channels.FileChannel;
+import java.io.InputStream;
 import java.util.Scanner;
 
 /**
@@ -24,6 +21,7 @@ public class TextHuffViewer implements IHuffViewer {
 
     private static String HUFF_SUFFIX = ".hf";
     private static String UNHUFF_SUFFIX = ".unhf";
+    private static final long PROGRESS_POLL_MILLIS = 1000;
 
     /**
      * Create a text based interface Huffman viewer. After this constructor is
@@ -100,8 +98,12 @@ public class TextHuffViewer implements IHuffViewer {
             System.out.print("Current Header format for compressing: ");
             if (this.myHeaderFormat == IHuffConstants.STORE_COUNTS) {
                 System.out.println("Standard COUNT Format");
-            } else {
+            } else if (this.myHeaderFormat == IHuffConstants.STORE_COMPACT_COUNTS) {
+                System.out.println("Compact COUNT Format");
+            } else if (this.myHeaderFormat == IHuffConstants.STORE_TREE) {
                 System.out.println("Standard TREE Format");
+            } else {
+                System.out.println("Smallest Format (picked automatically)");
             }
             System.out.println("Current force compression status: " + this.myForce);
             System.out.println();
@@ -143,10 +145,16 @@ public class TextHuffViewer implements IHuffViewer {
             } else if (firstCharValue == MenuChoices.FLIP_COMPRESSION_STATUS.ordinal()) {
                 myForce = !myForce;
             } else {
-                // must be a 3, flip the header format
-                myHeaderFormat =
-                        (myHeaderFormat == IHuffConstants.STORE_COUNTS) ? IHuffConstants.STORE_TREE
-                                : IHuffConstants.STORE_COUNTS;
+                // must be a 3, move to the next header format
+                if (myHeaderFormat == IHuffConstants.STORE_COUNTS) {
+                    myHeaderFormat = IHuffConstants.STORE_COMPACT_COUNTS;
+                } else if (myHeaderFormat == IHuffConstants.STORE_COMPACT_COUNTS) {
+                    myHeaderFormat = IHuffConstants.STORE_TREE;
+                } else if (myHeaderFormat == IHuffConstants.STORE_TREE) {
+                    myHeaderFormat = IHuffConstants.STORE_AUTO;
+                } else {
+                    myHeaderFormat = IHuffConstants.STORE_COUNTS;
+                }
 
             }
         }
@@ -187,13 +195,16 @@ public class TextHuffViewer implements IHuffViewer {
      */
     private void preprocess() {
         showMessage("Begining preprocessing of " + myInputFile + ".");
-        ByteArrayInputStream inputStream = getFastByteReader(myInputFile);
+        InputStream inputStream = getFastByteReader(myInputFile);
+        HuffProgress progress = startProgress(myInputFile.length());
         try {
-            int saved = myModel.preprocessCompress(inputStream, myHeaderFormat);
+            long saved = myModel.preprocessCompress(inputStream, myHeaderFormat);
             showMessage("save(d): " + saved + " bits");
         } catch (IOException e) {
             showError("Error / Exception while reading file for preprocessing.");
             e.printStackTrace();
+        } finally {
+            progress.finish();
         }
     }
 
@@ -205,13 +216,16 @@ public class TextHuffViewer implements IHuffViewer {
         if (newName == null) {
             showError("Trouble with file setting path of output file. Exiting compress.");
         } else {
+            HuffProgress progress = startProgress(myInputFile.length());
             try {
                 FileOutputStream out = new FileOutputStream(new File(newName));
-                ByteArrayInputStream inputStream = getFastByteReader(myInputFile);
+                InputStream inputStream = getFastByteReader(myInputFile);
                 myModel.compress(inputStream, out, myForce);
             } catch (IOException e) {
                 showError("Problem while trying to compress file.");
                 e.printStackTrace();
+            } finally {
+                progress.finish();
             }
         }
         myInputFile = null; // must enter new file after this.
@@ -278,16 +292,46 @@ public class TextHuffViewer implements IHuffViewer {
             uncompressedName = name + UNHUFF_SUFFIX;
         }
         uncompressedName = setNewFileName("compressed", uncompressedName);
+        HuffProgress progress = startProgress(myInputFile.length());
         try {
             FileOutputStream out = new FileOutputStream(new File(uncompressedName));
-            ByteArrayInputStream inputStream = getFastByteReader(myInputFile);
+            InputStream inputStream = getFastByteReader(myInputFile);
             myModel.uncompress(inputStream, out);
         } catch (IOException e) {
             showError("Problem while trying to uncompress file.");
             e.printStackTrace();
+        } finally {
+            progress.finish();
         }
     }
 
+    /*
+     * Create progress for the next operation of the model and start a
+     * daemon thread that prints the percent done about once a second
+     * until the operation is over.
+     */
+    private HuffProgress startProgress(long totalBytes) {
+        final HuffProgress progress = new HuffProgress();
+        progress.setTotalBytes(totalBytes);
+        myModel.setProgress(progress);
+        Thread reporter = new Thread() {
+            public void run() {
+                try {
+                    Thread.sleep(PROGRESS_POLL_MILLIS);
+                    while (!progress.isDone()) {
+                        System.out.printf("progress: %.0f%%%n", progress.getFraction() * 100);
+                        Thread.sleep(PROGRESS_POLL_MILLIS);
+                    }
+                } catch (InterruptedException e) {
+                    // stop reporting
+                }
+            }
+        };
+        reporter.setDaemon(true);
+        reporter.start();
+        return progress;
+    }
+
     // Set myFile based on user input.
     private void setMyFile(String prompt) {
         System.out.print("Enter name (full or relative path) of file to " + prompt + ": ");
@@ -296,18 +340,11 @@ public class TextHuffViewer implements IHuffViewer {
         myInputFile = new File(path);
     }
 
-    // Get a ByteArrayInputStream to read from the given file.
-    private ByteArrayInputStream getFastByteReader(File f) {
+    // Get a stream that maps the given file a window at a time, so files
+    // over 2 GB can be read.
+    private InputStream getFastByteReader(File f) {
         try {
-            FileChannel channel = new FileInputStream(f).getChannel();
-            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
-            byte[] barray = new byte[buffer.limit()];
-            if (barray.length != channel.size()) {
-                showError(String.format("Reading %s error: lengths differ %d %ld\n", f.getName(),
-                        barray.length, channel.size()));
-            }
-            buffer.get(barray);
-            return new ByteArrayInputStream(barray);
+            return new MappedFileInputStream(f);
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -0,0 +1,375 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+/**
+ * A chain of reversible block transforms in front of the Huffman coder,
+ * such as the run-length, Burrows-Wheeler, and move-to-front chain of
+ * bzip2. The input is cut into blocks, every block goes through each
+ * transform in turn, and the transformed blocks are coded the way a
+ * HuffOutputStream codes its blocks, each with the format that is smallest
+ * for it. A chain is named by the names of its transforms separated by
+ * commas, for example <code>rle,bwt,mtf,rle</code>.
+ * <P>
+ * The output is a STORE_TRANSFORM file. After the magic number and the
+ * format constant come the block size, the number of transforms, and the id
+ * of each transform in the order they were run, then a STORE_BLOCKS stream
+ * of the transformed blocks, each after its length as an int. Uncompressing
+ * runs the inverses in the reverse order.
+ * <P>
+ * Blocks are transformed on their own, so chunks of an input can be run
+ * through pipelines on several threads; see
+ * <code>ParallelCompressor.setTransforms</code>. A pipeline allocates its
+ * buffers once and is not thread safe.
+ * <P>
+ * To compare chains with Huffman coding alone on a file:
+ * <pre>java TransformPipeline file [transforms...]</pre>
+ */
+public class TransformPipeline implements CompressionStage, IHuffConstants {
+
+    /**
+     * The default number of input bytes in a block.
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 1 << 20;
+
+    /**
+     * The largest block size, which bounds the memory used to uncompress.
+     */
+    public static final int MAX_BLOCK_SIZE = 1 << 24;
+
+    /**
+     * The chain of bzip2, good for text.
+     */
+    public static final String DEFAULT_TRANSFORMS = "rle,bwt,mtf,rle";
+
+    // bytes of the length in front of every transformed block
+    private static final int LENGTH_BYTES = BITS_PER_INT / BITS_PER_WORD;
+    // the most a block may grow to in a chain
+    private static final int MAX_BUFFER_SIZE = 2 * MAX_BLOCK_SIZE;
+    // chains compared by main when none are given
+    private static final String[] SAMPLE_CHAINS = {"rle", "delta", "bwt,mtf", DEFAULT_TRANSFORMS};
+
+    private final BlockTransform[] transforms;
+    private final int blockSize;
+    // two buffers that the transforms read from and write to in turn
+    private final byte[] first;
+    private final byte[] second;
+
+    /**
+     * Create a pipeline with the default block size.
+     * pre: transforms is a valid chain, see parse
+     * @param transforms the names of the transforms, separated by commas
+     */
+    public TransformPipeline(String transforms) {
+        this(transforms, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Create a pipeline.
+     * pre: transforms is a valid chain, see parse, 0 < blockSize <= MAX_BLOCK_SIZE
+     * @param transforms the names of the transforms, separated by commas
+     * @param blockSize the number of input bytes in a block. Larger blocks
+     * find more context but use more memory.
+     */
+    public TransformPipeline(String transforms, int blockSize) {
+        this(parse(transforms), blockSize);
+    }
+
+    /**
+     * Create a pipeline.
+     * pre: transforms has 1 to 255 elements, none null, 0 < blockSize <= MAX_BLOCK_SIZE
+     * @param transforms the transforms, in the order they are run
+     * @param blockSize the number of input bytes in a block
+     */
+    public TransformPipeline(BlockTransform[] transforms, int blockSize) {
+        // check preconditions
+        if (transforms == null || transforms.length == 0 || transforms.length > 0xff
+                || Arrays.asList(transforms).contains(null)) {
+            throw new IllegalArgumentException("a pipeline needs 1 to 255 transforms.");
+        }
+        if (blockSize <= 0 || blockSize > MAX_BLOCK_SIZE) {
+            throw new IllegalArgumentException("blockSize must be from 1 to "
+                    + MAX_BLOCK_SIZE + ".");
+        }
+        this.transforms = transforms.clone();
+        this.blockSize = blockSize;
+        int bound = bufferSize(this.transforms, blockSize);
+        if (bound < 0) {
+            throw new IllegalArgumentException("blocks grow too large in this chain, "
+                    + "use a smaller blockSize.");
+        }
+        first = new byte[bound];
+        second = new byte[bound];
+    }
+
+    /**
+     * Create the transforms of a chain.
+     * pre: transforms != null
+     * @param transforms the names of the transforms, separated by commas:
+     * rle, mtf, delta, or bwt
+     * @return a new transform for each name, in order
+     */
+    public static BlockTransform[] parse(String transforms) {
+        // check preconditions
+        if (transforms == null) {
+            throw new IllegalArgumentException("transforms cannot be null.");
+        }
+        String[] names = transforms.split(",");
+        BlockTransform[] result = new BlockTransform[names.length];
+        for (int i = 0; i < names.length; i++) {
+            String name = names[i].trim();
+            if (name.equals("rle")) {
+                result[i] = new RunLengthTransform();
+            } else if (name.equals("mtf")) {
+                result[i] = new MoveToFrontTransform();
+            } else if (name.equals("delta")) {
+                result[i] = new DeltaTransform();
+            } else if (name.equals("bwt")) {
+                result[i] = new BwtTransform();
+            } else {
+                throw new IllegalArgumentException("unknown transform " + name);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Create the transform with an id.
+     * @param id the id from a STORE_TRANSFORM header
+     * @return a new transform, or null if no transform has the id
+     */
+    private static BlockTransform forId(int id) {
+        if (id == RunLengthTransform.ID) {
+            return new RunLengthTransform();
+        } else if (id == MoveToFrontTransform.ID) {
+            return new MoveToFrontTransform();
+        } else if (id == DeltaTransform.ID) {
+            return new DeltaTransform();
+        } else if (id == BwtTransform.ID) {
+            return new BwtTransform();
+        }
+        return null;
+    }
+
+    // the most bytes any transform of the chain reads or writes for a
+    // block, or -1 if that is more than MAX_BUFFER_SIZE
+    private static int bufferSize(BlockTransform[] transforms, int blockSize) {
+        int size = blockSize;
+        int bound = size;
+        for (BlockTransform transform : transforms) {
+            size = transform.maxOutput(size);
+            if (size < 0 || size > MAX_BUFFER_SIZE) {
+                return -1;
+            }
+            bound = Math.max(bound, size);
+        }
+        return bound;
+    }
+
+    /**
+     * Get the names of the transforms of this pipeline.
+     * @return the names separated by commas, as parse takes them
+     */
+    public String getTransforms() {
+        StringBuilder names = new StringBuilder();
+        for (BlockTransform transform : transforms) {
+            if (names.length() > 0) {
+                names.append(',');
+            }
+            names.append(transform.getName());
+        }
+        return names.toString();
+    }
+
+    public int getHeaderFormat() {
+        return STORE_TRANSFORM;
+    }
+
+    /**
+     * Compress a stream into a STORE_TRANSFORM file. Neither stream is closed.
+     * pre: in != null, out != null
+     * @param in the data to compress
+     * @param out the stream the compressed file is written to
+     * @return the number of bits written, a whole number of bytes
+     * @throws IOException if an error occurs while reading or writing
+     */
+    public long compress(InputStream in, OutputStream out) throws IOException {
+        // check preconditions
+        if (in == null || out == null) {
+            throw new IllegalArgumentException("streams cannot be null.");
+        }
+        BitOutputStream bitsOut = new BitOutputStream(out);
+        bitsOut.writeBits(BITS_PER_INT, MAGIC_NUMBER);
+        bitsOut.writeBits(BITS_PER_INT, STORE_TRANSFORM);
+        bitsOut.writeBits(BITS_PER_INT, blockSize);
+        bitsOut.writeBits(BITS_PER_WORD, transforms.length);
+        for (BlockTransform transform : transforms) {
+            bitsOut.writeBits(BITS_PER_WORD, transform.getId());
+        }
+        // one coded block for every transformed block and its length
+        HuffOutputStream blocksOut = new HuffOutputStream(bitsOut, first.length + LENGTH_BYTES);
+        byte[] length = new byte[LENGTH_BYTES];
+        long block = 0;
+        int numRead = in.readNBytes(first, 0, blockSize);
+        while (numRead > 0) {
+            // the coded block inside has an event of its own with its codes
+            HuffPhaseEvent event = HuffPhaseEvent.beginBlock();
+            long written = bitsOut.getBytesWritten();
+            byte[] src = first;
+            byte[] dst = second;
+            int size = numRead;
+            for (BlockTransform transform : transforms) {
+                size = transform.forward(src, size, dst);
+                byte[] temp = src;
+                src = dst;
+                dst = temp;
+            }
+            for (int i = 0; i < LENGTH_BYTES; i++) {
+                length[i] = (byte) (size >>> (BITS_PER_INT - BITS_PER_WORD * (i + 1)));
+            }
+            blocksOut.write(length);
+            blocksOut.write(src, 0, size);
+            blocksOut.flush();
+            HuffPhaseEvent.commitBlock(event, STORE_TRANSFORM, block++, numRead,
+                    bitsOut.getBytesWritten() - written, 0);
+            numRead = in.readNBytes(first, 0, blockSize);
+        }
+        blocksOut.finish();
+        bitsOut.flush();
+        return bitsOut.getBytesWritten() * BITS_PER_WORD;
+    }
+
+    /**
+     * Uncompress the data of a STORE_TRANSFORM file.
+     * @param bitsIn the compressed file, after the magic number and format constant
+     * @param out the stream the uncompressed data is written to, not closed
+     * @return the number of bytes written
+     * @throws IOException if the data is not valid or an error occurs while
+     * reading or writing
+     */
+    static long uncompress(BitInputStream bitsIn, OutputStream out) throws IOException {
+        int blockSize = bitsIn.readBits(BITS_PER_INT);
+        int count = bitsIn.readBits(BITS_PER_WORD);
+        if (blockSize <= 0 || blockSize > MAX_BLOCK_SIZE || count <= 0) {
+            throw new IOException("Error reading compressed file. \n" +
+                    "bad transform header.");
+        }
+        BlockTransform[] transforms = new BlockTransform[count];
+        for (int i = 0; i < count; i++) {
+            int id = bitsIn.readBits(BITS_PER_WORD);
+            transforms[i] = forId(id);
+            if (transforms[i] == null) {
+                throw new IOException("Error reading compressed file. \n" +
+                        "unknown transform " + id);
+            }
+        }
+        int bound = bufferSize(transforms, blockSize);
+        if (bound < 0) {
+            throw new IOException("Error reading compressed file. \n" +
+                    "transformed blocks are too large.");
+        }
+        DataInputStream blocksIn = new DataInputStream(new HuffInputStream(bitsIn));
+        try {
+            return uncompressBlocks(blocksIn, transforms, blockSize, bound, out);
+        } catch (EOFException e) {
+            throw new EOFException("Error reading compressed file. \n" +
+                    "transformed data ended too soon.");
+        }
+    }
+
+    /**
+     * Uncompress the transformed blocks of a STORE_TRANSFORM file.
+     * @param blocksIn the decoded stream of transformed blocks
+     * @param transforms the transforms of the file, in the order they were run
+     * @param blockSize the block size of the file
+     * @param bound the most bytes any transform reads or writes for a block
+     * @param out the stream the uncompressed data is written to, not closed
+     * @return the number of bytes written
+     * @throws IOException if the data is not valid or an error occurs while
+     * reading or writing
+     */
+    private static long uncompressBlocks(DataInputStream blocksIn, BlockTransform[] transforms,
+            int blockSize, int bound, OutputStream out) throws IOException {
+        byte[] first = new byte[bound];
+        byte[] second = new byte[bound];
+        long written = 0;
+        int b = blocksIn.read();
+        while (b != -1) {
+            int size = b << (BITS_PER_INT - BITS_PER_WORD) | blocksIn.readUnsignedByte() << 16
+                    | blocksIn.readUnsignedByte() << 8 | blocksIn.readUnsignedByte();
+            if (size < 0 || size > bound) {
+                throw new IOException("Error reading compressed file. \n" +
+                        "bad transformed block length " + size);
+            }
+            blocksIn.readFully(first, 0, size);
+            byte[] src = first;
+            byte[] dst = second;
+            for (int i = transforms.length - 1; i >= 0; i--) {
+                size = transforms[i].inverse(src, size, dst);
+                byte[] temp = src;
+                src = dst;
+                dst = temp;
+            }
+            if (size > blockSize) {
+                throw new IOException("Error reading compressed file. \n" +
+                        "transformed block is longer than the block size.");
+            }
+            out.write(src, 0, size);
+            written += size;
+            b = blocksIn.read();
+        }
+        return written;
+    }
+
+    /**
+     * Compress a file with each chain and print the sizes and speeds, and
+     * whether uncompressing gives the file back.
+     * @param args the file, then optionally the chains to compare
+     * @throws IOException if an error occurs while reading the file
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.out.println("usage: java TransformPipeline file [transforms...]");
+            return;
+        }
+        byte[] data = Files.readAllBytes(new File(args[0]).toPath());
+        SimpleHuffProcessor huff = new SimpleHuffProcessor();
+        huff.setViewer(new ErrorViewer());
+        long start = System.nanoTime();
+        huff.preprocessCompress(new ByteArrayInputStream(data), STORE_COUNTS);
+        long huffBits = huff.compress(new ByteArrayInputStream(data),
+                OutputStream.nullOutputStream(), true);
+        System.out.printf("huffman only: %d bytes, %.3f of the input, %.1f MB/s%n",
+                huffBits / BITS_PER_WORD, huffBits / (data.length * 8.0),
+                data.length / ((System.nanoTime() - start) / 1e3));
+        String[] chains = args.length > 1 ? Arrays.copyOfRange(args, 1, args.length)
+                : SAMPLE_CHAINS;
+        for (String chain : chains) {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            start = System.nanoTime();
+            long bits = new TransformPipeline(chain).compress(new ByteArrayInputStream(data),
+                    compressed);
+            long compressNanos = System.nanoTime() - start;
+            ByteArrayOutputStream restored = new ByteArrayOutputStream(data.length);
+            BitInputStream bitsIn = new BitInputStream(
+                    new ByteArrayInputStream(compressed.toByteArray()));
+            start = System.nanoTime();
+            bitsIn.readBits(BITS_PER_INT);
+            bitsIn.readBits(BITS_PER_INT);
+            uncompress(bitsIn, restored);
+            long uncompressNanos = System.nanoTime() - start;
+            System.out.printf("%s: %d bytes, %.3f of the input, compress %.1f MB/s, "
+                    + "uncompress %.1f MB/s%s%n", chain, bits / BITS_PER_WORD,
+                    bits / (data.length * 8.0), data.length / (compressNanos / 1e3),
+                    data.length / (uncompressNanos / 1e3),
+                    Arrays.equals(data, restored.toByteArray()) ? "" : ", ROUND TRIP FAILED");
+        }
+    }
+}
@@ -24,7 +24,7 @@ public class TreeNode implements Comparable<TreeNode> {
      * The frequency of the value for leaf nodes or the sum of the 
      * frequency of the children for internal nodes.
      */
-    private int frequency;
+    private long frequency;
 
     // The left child of this node. Equals null if no left child.
     private TreeNode left;
@@ -39,7 +39,7 @@ public class TreeNode implements Comparable<TreeNode> {
      * @param value is the value stored in the node (e.g., value from original file)
      * @param freq is number of times value occurred (e.g., count of # occurrences)
      */
-    public TreeNode(int value, int freq) {
+    public TreeNode(int value, long freq) {
         this.value = value;
         frequency = freq;
     }
@@ -70,7 +70,8 @@ public class TreeNode implements Comparable<TreeNode> {
 
     public int compareTo(TreeNode rhs) {
 
-        return frequency - rhs.frequency;
+        // compare rather than subtract, sums of large counts do not fit an int
+        return Long.compare(frequency, rhs.frequency);
     }
 
     /**
@@ -94,7 +95,7 @@ public class TreeNode implements Comparable<TreeNode> {
      * Get the frequency of this node.
      * @return the frequency of this node. For internal nods the value should be the sum of the child nodes
      */
-    public int getFrequency() {
+    public long getFrequency() {
         return frequency;
     }
 